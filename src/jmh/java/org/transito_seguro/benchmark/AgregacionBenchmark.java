@@ -0,0 +1,52 @@
+package org.transito_seguro.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.transito_seguro.model.consolidacion.agregacion.AgregadorHash;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Agregación hash de la consolidación (AgregadorHash, usado por ConsolidacionService
+ * tanto en streaming como para fusionar los parciales del pushdown).
+ *
+ * El resultado se informa en registros acumulados/segundo.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(AgregacionBenchmark.FILAS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AgregacionBenchmark {
+
+    static final int FILAS = 100_000;
+
+    private static final List<String> NUMERICOS = Arrays.asList("total", "monto");
+
+    /** Pocos grupos (provincia) vs muchos grupos (provincia + municipio + tipo) */
+    @Param({"provincia", "provincia,municipio,tipo_infraccion"})
+    public String camposAgrupacion;
+
+    private List<String> agrupacion;
+    private List<Map<String, Object>> registros;
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        DatosSinteticos.silenciarLogs();
+        agrupacion = Arrays.asList(camposAgrupacion.split(","));
+        registros = DatosSinteticos.registros(FILAS);
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> consolidar() {
+        AgregadorHash agregador = new AgregadorHash(agrupacion, NUMERICOS);
+        for (Map<String, Object> registro : registros) {
+            agregador.acumular(registro);
+        }
+        return agregador.generarResultados();
+    }
+}
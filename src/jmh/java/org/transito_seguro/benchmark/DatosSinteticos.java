@@ -0,0 +1,211 @@
+package org.transito_seguro.benchmark;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+import org.transito_seguro.model.query.QueryStorage;
+import org.transito_seguro.repository.QueryStorageRepository;
+
+import javax.sql.DataSource;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.Types;
+import java.util.*;
+
+/**
+ * Datos sintéticos compartidos por los benchmarks.
+ *
+ * Las filas imitan el resultado de los reportes de infracciones (provincia,
+ * municipio, tipo, fecha y contadores) para que los benchmarks midan los
+ * mismos tipos y cardinalidades que producción.
+ */
+final class DatosSinteticos {
+
+    static final String TABLA = "infracciones_bench";
+
+    static final String SQL_TABLA = "SELECT id, fecha, provincia, municipio, tipo_infraccion, "
+            + "exporta_sacit, total, monto FROM " + TABLA;
+
+    /**
+     * Columnas de SQL_TABLA con sus tipos JDBC (los de la tabla H2).
+     */
+    private static final String[] COLUMNAS = {
+            "id", "fecha", "provincia", "municipio", "tipo_infraccion", "exporta_sacit", "total", "monto"
+    };
+    private static final int[] TIPOS = {
+            Types.BIGINT, Types.DATE, Types.VARCHAR, Types.VARCHAR, Types.VARCHAR, Types.BOOLEAN,
+            Types.INTEGER, Types.DECIMAL
+    };
+
+    private static final String[] PROVINCIAS = {
+            "Buenos Aires", "Avellaneda", "La Pampa", "Chaco", "Entre Rios", "Formosa"
+    };
+
+    private static final int MUNICIPIOS = 50;
+    private static final int TIPOS_INFRACCION = 12;
+
+    private DatosSinteticos() {
+    }
+
+    /**
+     * Registros en memoria con la forma de un resultado de query (LinkedHashMap
+     * por fila), con las columnas y los tipos Java que devuelve SQL_TABLA.
+     */
+    static List<Map<String, Object>> registros(int cantidad) {
+        Random random = new Random(42);
+        List<Map<String, Object>> registros = new ArrayList<>(cantidad);
+
+        for (int i = 0; i < cantidad; i++) {
+            Map<String, Object> fila = new LinkedHashMap<>();
+            fila.put("id", (long) i);
+            fila.put("fecha", Date.valueOf(String.format("2024-%02d-%02d", 1 + random.nextInt(12), 1 + random.nextInt(28))));
+            fila.put("provincia", PROVINCIAS[random.nextInt(PROVINCIAS.length)]);
+            fila.put("municipio", "Municipio " + random.nextInt(MUNICIPIOS));
+            fila.put("tipo_infraccion", "Tipo " + random.nextInt(TIPOS_INFRACCION));
+            fila.put("exporta_sacit", random.nextBoolean());
+            fila.put("total", 1 + random.nextInt(500));
+            fila.put("monto", BigDecimal.valueOf(random.nextInt(100_000_000), 2));
+            registros.add(fila);
+        }
+
+        return registros;
+    }
+
+    /**
+     * Base H2 en memoria con la tabla sintética cargada.
+     */
+    static DataSource crearH2(int filas) {
+        DriverManagerDataSource dataSource = new DriverManagerDataSource(
+                "jdbc:h2:mem:bench_" + filas + ";DB_CLOSE_DELAY=-1", "sa", "");
+
+        JdbcTemplate jdbc = new JdbcTemplate(dataSource);
+        jdbc.execute("DROP TABLE IF EXISTS " + TABLA);
+        jdbc.execute("CREATE TABLE " + TABLA + " ("
+                + "id BIGINT PRIMARY KEY, fecha DATE, provincia VARCHAR(50), municipio VARCHAR(100), "
+                + "tipo_infraccion VARCHAR(100), exporta_sacit BOOLEAN, total INT, monto DECIMAL(12,2))");
+        jdbc.update("INSERT INTO " + TABLA + " "
+                + "SELECT X, DATEADD(DAY, MOD(X, 365), DATE '2024-01-01'), "
+                + "'Provincia ' || MOD(X, " + PROVINCIAS.length + "), "
+                + "'Municipio ' || MOD(X, " + MUNICIPIOS + "), "
+                + "'Tipo ' || MOD(X, " + TIPOS_INFRACCION + "), "
+                + "MOD(X, 2) = 0, CAST(MOD(X, 500) AS INT), CAST(X * 1.5 AS DECIMAL(12,2)) "
+                + "FROM SYSTEM_RANGE(1, " + filas + ")");
+
+        return dataSource;
+    }
+
+    /**
+     * DataSource sin base: toda consulta devuelve un ResultSet en memoria sobre
+     * {@link #registros}, así el mapeo se mide sin el costo del driver.
+     * Los métodos que no hacen falta para leer devuelven el valor por defecto.
+     */
+    static DataSource enMemoria(int filas) {
+        List<Map<String, Object>> registros = registros(filas);
+
+        ResultSetMetaData metaData = implementar(ResultSetMetaData.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getColumnCount":
+                    return COLUMNAS.length;
+                case "getColumnLabel":
+                case "getColumnName":
+                    return COLUMNAS[(Integer) args[0] - 1];
+                case "getColumnType":
+                    return TIPOS[(Integer) args[0] - 1];
+                default:
+                    return null;
+            }
+        });
+
+        InvocationHandler consulta = (proxy, method, args) -> {
+            if (!"executeQuery".equals(method.getName())) {
+                return null;
+            }
+            int[] fila = {-1};
+            return implementar(ResultSet.class, (rs, metodo, argumentos) -> {
+                switch (metodo.getName()) {
+                    case "next":
+                        return ++fila[0] < registros.size();
+                    case "getObject":
+                        return registros.get(fila[0]).get(COLUMNAS[(Integer) argumentos[0] - 1]);
+                    case "getMetaData":
+                        return metaData;
+                    default:
+                        return null;
+                }
+            });
+        };
+
+        Connection conexion = implementar(Connection.class, (proxy, method, args) ->
+                "prepareStatement".equals(method.getName())
+                        ? implementar(PreparedStatement.class, consulta)
+                        : null);
+
+        return implementar(DataSource.class, (proxy, method, args) ->
+                "getConnection".equals(method.getName()) ? conexion : null);
+    }
+
+    /**
+     * Proxy de una interfaz JDBC: un null del manejador en un método primitivo
+     * se traduce al valor por defecto del tipo (false, 0).
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T implementar(Class<T> interfaz, InvocationHandler manejador) {
+        return (T) Proxy.newProxyInstance(interfaz.getClassLoader(), new Class<?>[]{interfaz},
+                (proxy, method, args) -> {
+                    if ("toString".equals(method.getName())) {
+                        return interfaz.getSimpleName() + "(benchmark)";
+                    }
+                    Object resultado = manejador.invoke(proxy, method, args);
+                    Class<?> tipo = method.getReturnType();
+                    if (resultado != null || !tipo.isPrimitive() || tipo == void.class) {
+                        return resultado;
+                    }
+                    return Array.get(Array.newInstance(tipo, 1), 0);
+                });
+    }
+
+    /**
+     * Repositorio de queries mínimo: solo responde findByCodigo con la query dada.
+     */
+    static QueryStorageRepository repositorioQueries(String codigo, String sql) {
+        QueryStorage query = QueryStorage.builder()
+                .codigo(codigo)
+                .nombre(codigo)
+                .sqlQuery(sql)
+                .build();
+
+        return (QueryStorageRepository) Proxy.newProxyInstance(
+                QueryStorageRepository.class.getClassLoader(),
+                new Class<?>[]{QueryStorageRepository.class},
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "findByCodigo":
+                            return codigo.equals(args[0]) ? Optional.of(query) : Optional.empty();
+                        case "toString":
+                            return "QueryStorageRepository(benchmark)";
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        default:
+                            throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    /**
+     * Los repositorios loguean en INFO por query; en un benchmark eso mide la consola.
+     */
+    static void silenciarLogs() {
+        ((Logger) LoggerFactory.getLogger("org.transito_seguro")).setLevel(Level.WARN);
+    }
+}
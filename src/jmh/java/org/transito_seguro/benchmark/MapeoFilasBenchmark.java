@@ -0,0 +1,77 @@
+package org.transito_seguro.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.transito_seguro.component.ParametrosProcessor;
+import org.transito_seguro.dto.ParametrosFiltrosDTO;
+import org.transito_seguro.repository.impl.InfraccionesRepositoryImpl;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapeo de filas JDBC a Map en InfraccionesRepositoryImpl.
+ *
+ * origen=memoria lee un ResultSet sintético en memoria (solo el mapeo);
+ * origen=h2 lee de una base H2 en memoria (mapeo más driver).
+ *
+ * - mapearFila: lectura completa a lista (ejecutarSQLConFiltros)
+ * - mapearResultSetStreaming: callback por fila (ejecutarQueryConStreaming)
+ * - lotesColumnares: lotes LoteFilas (ejecutarQueryConStreamingEnLotes)
+ *
+ * El resultado se informa en filas/segundo.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(MapeoFilasBenchmark.FILAS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MapeoFilasBenchmark {
+
+    static final int FILAS = 20_000;
+
+    private static final String CODIGO_QUERY = "benchmark_infracciones";
+
+    @Param({"memoria", "h2"})
+    public String origen;
+
+    private InfraccionesRepositoryImpl repo;
+    private ParametrosFiltrosDTO filtros;
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        DatosSinteticos.silenciarLogs();
+
+        repo = new InfraccionesRepositoryImpl(
+                new NamedParameterJdbcTemplate("h2".equals(origen)
+                        ? DatosSinteticos.crearH2(FILAS)
+                        : DatosSinteticos.enMemoria(FILAS)),
+                "Buenos Aires",
+                new ParametrosProcessor());
+        repo.setQueryStorageRepository(DatosSinteticos.repositorioQueries(CODIGO_QUERY, DatosSinteticos.SQL_TABLA));
+
+        // Sin límite: modo streaming, se leen todas las filas
+        filtros = ParametrosFiltrosDTO.builder().build();
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> mapearFila() {
+        return repo.ejecutarSQLConFiltros(DatosSinteticos.SQL_TABLA, filtros, Collections.<String, Object>emptyMap());
+    }
+
+    @Benchmark
+    public void mapearResultSetStreaming(Blackhole blackhole) {
+        repo.ejecutarQueryConStreaming(CODIGO_QUERY, filtros, blackhole::consume);
+    }
+
+    @Benchmark
+    public void lotesColumnares(Blackhole blackhole) {
+        repo.ejecutarQueryConStreamingEnLotes(CODIGO_QUERY, filtros,
+                InfraccionesRepositoryImpl.TAMANO_LOTE_STREAMING, blackhole::consume);
+    }
+}
@@ -0,0 +1,82 @@
+package org.transito_seguro.benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import org.transito_seguro.component.ParametrosProcessor;
+import org.transito_seguro.component.QueryAnalyzer;
+import org.transito_seguro.dto.ParametrosFiltrosDTO;
+import org.transito_seguro.model.FiltroMetadata;
+import org.transito_seguro.model.consolidacion.analisis.AnalisisConsolidacion;
+import org.transito_seguro.model.query.PlanSqlCompilado;
+import org.transito_seguro.model.query.QueryResult;
+import org.transito_seguro.utils.SqlUtils;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Costo por llamada del procesamiento de SQL registrado:
+ * - ParametrosProcessor.procesarQuery (por lote en los recorridos keyset)
+ * - Compilación del plan (se paga una vez por SQL)
+ * - QueryAnalyzer (análisis de consolidación y detección de filtros al registrar)
+ *
+ * Usa la query real de reporte_infracciones_general.sql.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProcesamientoSqlBenchmark {
+
+    private static final String ARCHIVO_QUERY = "reporte_infracciones_general.sql";
+
+    private String sql;
+    private ParametrosProcessor parametrosProcessor;
+    private QueryAnalyzer queryAnalyzer;
+    private ParametrosFiltrosDTO filtrosPaginados;
+    private ParametrosFiltrosDTO filtrosStreaming;
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        DatosSinteticos.silenciarLogs();
+
+        sql = SqlUtils.cargarQuery(ARCHIVO_QUERY);
+        parametrosProcessor = new ParametrosProcessor();
+        queryAnalyzer = new QueryAnalyzer();
+
+        filtrosPaginados = ParametrosFiltrosDTO.builder()
+                .limite(1000)
+                .offset(0)
+                .municipios(Arrays.asList("Municipio 1", "Municipio 2"))
+                .tiposInfracciones(Arrays.asList(1, 2, 3))
+                .build();
+        filtrosStreaming = filtrosPaginados.toBuilder().limite(null).build();
+    }
+
+    @Benchmark
+    public QueryResult procesarQuery() {
+        return parametrosProcessor.procesarQuery(sql, filtrosPaginados);
+    }
+
+    @Benchmark
+    public QueryResult procesarQueryStreaming() {
+        return parametrosProcessor.procesarQuery(sql, filtrosStreaming);
+    }
+
+    @Benchmark
+    public PlanSqlCompilado compilarPlan() {
+        return PlanSqlCompilado.compilar(sql);
+    }
+
+    @Benchmark
+    public AnalisisConsolidacion analizarParaConsolidacion() {
+        return queryAnalyzer.analizarParaConsolidacion(sql);
+    }
+
+    @Benchmark
+    public Map<String, FiltroMetadata> detectarFiltrosDisponibles() {
+        return queryAnalyzer.detectarFiltrosDisponibles(sql);
+    }
+}
@@ -0,0 +1,62 @@
+package org.transito_seguro.benchmark;
+
+import org.apache.commons.io.output.NullOutputStream;
+import org.openjdk.jmh.annotations.*;
+import org.transito_seguro.component.StreamingFormatoConverter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Escritura en streaming de CSV / JSON / Excel (SXSSF) con StreamingFormatoConverter.
+ *
+ * Se escribe a un OutputStream nulo para medir solo la conversión. El resultado
+ * se informa en filas/segundo.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(StreamingFormatoBenchmark.FILAS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StreamingFormatoBenchmark {
+
+    static final int FILAS = 20_000;
+
+    private static final int TAMANO_LOTE = 1000;
+
+    @Param({"csv", "json", "excel"})
+    public String formato;
+
+    private StreamingFormatoConverter converter;
+    private List<List<Map<String, Object>>> lotes;
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        DatosSinteticos.silenciarLogs();
+        converter = new StreamingFormatoConverter();
+
+        List<Map<String, Object>> registros = DatosSinteticos.registros(FILAS);
+        lotes = new ArrayList<>();
+        for (int i = 0; i < registros.size(); i += TAMANO_LOTE) {
+            lotes.add(registros.subList(i, Math.min(i + TAMANO_LOTE, registros.size())));
+        }
+    }
+
+    @Benchmark
+    public int escribir() throws IOException {
+        StreamingFormatoConverter.StreamingContext contexto =
+                converter.inicializarStreaming(formato, NullOutputStream.NULL_OUTPUT_STREAM);
+
+        for (List<Map<String, Object>> lote : lotes) {
+            converter.procesarLoteStreaming(contexto, lote);
+        }
+
+        converter.finalizarStreaming(contexto);
+        return contexto.getTotalRegistros().get();
+    }
+}
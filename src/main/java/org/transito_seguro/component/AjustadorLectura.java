@@ -0,0 +1,313 @@
+package org.transito_seguro.component;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.transito_seguro.model.LoteFilas;
+import org.transito_seguro.model.query.AjusteLecturaQuery;
+import org.transito_seguro.repository.AjusteLecturaRepository;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Ajuste de tamaño de página y fetch size por (query, provincia).
+ *
+ * Reemplaza los valores fijos (FETCH_SIZE = 1000, páginas de 10.000 filas) por
+ * un control con realimentación: después de cada página se miden el ancho real
+ * de fila y la latencia por fila, y el tamaño de página se mueve hacia el que
+ * cumple a la vez la duración objetivo y el tope de bytes por página. El fetch
+ * size se deriva del ancho de fila (bytes objetivo por viaje al servidor).
+ *
+ * - Promedios móviles exponenciales (una página lenta no desarma el ajuste)
+ * - Cada paso a lo sumo duplica o reduce a la mitad la página
+ * - Los valores aprendidos se persisten en query_ajuste_lectura al terminar
+ *   cada recorrido; la próxima ejecución arranca desde ahí
+ */
+@Slf4j
+@Component
+public class AjustadorLectura {
+
+    /** Peso de la última observación en los promedios móviles */
+    private static final double ALFA = 0.3;
+
+    /** Filas muestreadas por página para medir el ancho */
+    private static final int FILAS_MUESTRA_ANCHO = 200;
+
+    /** Fetch sizes admitidos (acota las plantillas JDBC cacheadas por repositorio) */
+    private static final int[] FETCH_SIZES = {100, 200, 500, 1000, 2000, 5000, 10000};
+
+    @Autowired
+    private AjusteLecturaRepository ajusteLecturaRepository;
+
+    // =============== CONFIGURACIÓN ===============
+
+    @Value("${app.batch.ajuste.habilitado:true}")
+    private boolean habilitado;
+
+    /** Duración buscada por página (ida y vuelta completa) */
+    @Value("${app.batch.ajuste.duracion-objetivo-ms:2000}")
+    private long duracionObjetivoMs;
+
+    /** Tope de bytes retenidos por página */
+    @Value("${app.batch.ajuste.bytes-objetivo-pagina:16777216}")
+    private long bytesObjetivoPagina;
+
+    /** Bytes buscados por viaje al servidor */
+    @Value("${app.batch.ajuste.bytes-objetivo-fetch:1048576}")
+    private long bytesObjetivoFetch;
+
+    @Value("${app.batch.ajuste.pagina-minima:500}")
+    private int paginaMinima;
+
+    @Value("${app.batch.ajuste.pagina-maxima:50000}")
+    private int paginaMaxima;
+
+    /** Fetch size inicial (el de las plantillas JDBC) */
+    @Value("${app.jdbc.fetch-size:1000}")
+    private int fetchSizeInicial;
+
+    private final Map<String, EstadoAjuste> estados = new ConcurrentHashMap<>();
+
+    // =============== API PÚBLICA ===============
+
+    /**
+     * Tamaño de página a pedir para la query en la provincia.
+     *
+     * @param porDefecto Tamaño a usar si todavía no hay nada aprendido
+     */
+    public int tamanoPagina(String codigoQuery, String provincia, int porDefecto) {
+        if (!habilitado) {
+            return porDefecto;
+        }
+        return estado(codigoQuery, provincia).getTamanoPagina(porDefecto);
+    }
+
+    /**
+     * Fetch size a usar para la query en la provincia (0 = el de la plantilla JDBC).
+     */
+    public int fetchSize(String codigoQuery, String provincia) {
+        if (!habilitado) {
+            return 0;
+        }
+        return estado(codigoQuery, provincia).getFetchSize();
+    }
+
+    /**
+     * Registra una página leída y recalcula los tamaños.
+     *
+     * @param pagina Lote leído
+     * @param duracionMs Ida y vuelta de la página
+     */
+    public void registrarPagina(String codigoQuery, String provincia, LoteFilas pagina, long duracionMs) {
+        if (!habilitado || pagina == null || pagina.isEmpty()) {
+            return;
+        }
+
+        EstadoAjuste estado = estado(codigoQuery, provincia);
+        int anterior = estado.getTamanoPagina(pagina.tamano());
+        estado.registrar(pagina.tamano(), pagina.medirBytesPorFila(FILAS_MUESTRA_ANCHO), duracionMs);
+
+        int nuevo = estado.getTamanoPagina(anterior);
+        if (log.isDebugEnabled() && nuevo != anterior) {
+            log.debug("📐 {} - {}: página {} → {} filas | fetch {} | {} B/fila | {} ms/1000 filas",
+                    provincia, codigoQuery, anterior, nuevo, estado.getFetchSize(),
+                    (long) estado.getBytesPorFila(), (long) (estado.getMsPorFila() * 1000));
+        }
+    }
+
+    /**
+     * Registra un recorrido en streaming: solo aporta el ancho de fila (la
+     * latencia en streaming depende del consumidor, no de la página).
+     */
+    public void registrarStreaming(String codigoQuery, String provincia, LoteFilas muestra) {
+        if (!habilitado || muestra == null || muestra.isEmpty()) {
+            return;
+        }
+        estado(codigoQuery, provincia)
+                .registrarAncho(muestra.medirBytesPorFila(FILAS_MUESTRA_ANCHO));
+    }
+
+    /**
+     * Guarda lo aprendido para la query en la provincia. No falla la ejecución
+     * si no se puede guardar.
+     */
+    public void persistir(String codigoQuery, String provincia) {
+        if (!habilitado) {
+            return;
+        }
+
+        EstadoAjuste estado = estados.get(clave(codigoQuery, provincia));
+        if (estado == null || !estado.tieneCambios()) {
+            return;
+        }
+
+        try {
+            AjusteLecturaQuery ajuste = ajusteLecturaRepository
+                    .findByCodigoQueryAndProvincia(codigoQuery, provincia)
+                    .orElseGet(() -> AjusteLecturaQuery.builder()
+                            .codigoQuery(codigoQuery)
+                            .provincia(provincia)
+                            .build());
+
+            estado.volcarEn(ajuste);
+            ajusteLecturaRepository.save(ajuste);
+
+            log.debug("💾 Ajuste de lectura guardado para {} en {}: página {} | fetch {}",
+                    codigoQuery, provincia, ajuste.getTamanoPagina(), ajuste.getFetchSize());
+
+        } catch (Exception e) {
+            log.warn("⚠️ No se pudo guardar el ajuste de lectura de {} en {}: {}",
+                    codigoQuery, provincia, e.getMessage());
+        }
+    }
+
+    // =============== ESTADO ===============
+
+    private EstadoAjuste estado(String codigoQuery, String provincia) {
+        return estados.computeIfAbsent(clave(codigoQuery, provincia),
+                k -> cargar(codigoQuery, provincia));
+    }
+
+    private EstadoAjuste cargar(String codigoQuery, String provincia) {
+        EstadoAjuste estado = new EstadoAjuste(cuantizarFetch(fetchSizeInicial));
+
+        try {
+            ajusteLecturaRepository.findByCodigoQueryAndProvincia(codigoQuery, provincia)
+                    .ifPresent(guardado -> {
+                        estado.cargarDesde(guardado);
+                        log.debug("📐 {} - {}: ajuste guardado página {} | fetch {}",
+                                provincia, codigoQuery, guardado.getTamanoPagina(), guardado.getFetchSize());
+                    });
+        } catch (Exception e) {
+            log.warn("⚠️ No se pudo leer el ajuste de lectura de {} en {}: {}",
+                    codigoQuery, provincia, e.getMessage());
+        }
+        return estado;
+    }
+
+    private static String clave(String codigoQuery, String provincia) {
+        return codigoQuery + "|" + provincia;
+    }
+
+    private static int limitar(long valor, int minimo, int maximo) {
+        return (int) Math.max(minimo, Math.min(maximo, valor));
+    }
+
+    private static int cuantizarFetch(long filas) {
+        int elegido = FETCH_SIZES[0];
+        for (int candidato : FETCH_SIZES) {
+            if (candidato <= filas) {
+                elegido = candidato;
+            }
+        }
+        return elegido;
+    }
+
+    /**
+     * Estado del control de una (query, provincia). Las provincias de una
+     * ejecución corren en paralelo pero cada una actualiza solo su estado; los
+     * métodos están sincronizados por si dos requests leen la misma.
+     */
+    private final class EstadoAjuste {
+
+        /** 0 = sin página aprendida (ej: solo se leyó en streaming) */
+        private int tamanoPagina;
+        private int fetchSize;
+        private double bytesPorFila;
+        private double msPorFila;
+        private long muestras;
+        private boolean cambios;
+
+        private EstadoAjuste(int fetchSize) {
+            this.fetchSize = fetchSize;
+        }
+
+        /**
+         * @param porDefecto Página inicial si todavía no hay una aprendida
+         */
+        synchronized int getTamanoPagina(int porDefecto) {
+            if (tamanoPagina == 0) {
+                tamanoPagina = limitar(porDefecto, paginaMinima, paginaMaxima);
+            }
+            return tamanoPagina;
+        }
+
+        synchronized int getFetchSize() {
+            return fetchSize;
+        }
+
+        synchronized double getBytesPorFila() {
+            return bytesPorFila;
+        }
+
+        synchronized double getMsPorFila() {
+            return msPorFila;
+        }
+
+        synchronized boolean tieneCambios() {
+            return cambios;
+        }
+
+        synchronized void registrar(int filas, double anchoFila, long duracionMs) {
+            double latenciaFila = (double) Math.max(duracionMs, 1) / filas;
+            bytesPorFila = promediar(bytesPorFila, anchoFila);
+            msPorFila = promediar(msPorFila, latenciaFila);
+            muestras++;
+            recalcular();
+        }
+
+        synchronized void registrarAncho(double anchoFila) {
+            bytesPorFila = promediar(bytesPorFila, anchoFila);
+            recalcularFetch();
+            cambios = true;
+        }
+
+        private void recalcular() {
+            double porDuracion = msPorFila > 0 ? duracionObjetivoMs / msPorFila : paginaMaxima;
+            double porMemoria = bytesPorFila > 0 ? bytesObjetivoPagina / bytesPorFila : paginaMaxima;
+            long objetivo = (long) Math.min(porDuracion, porMemoria);
+
+            // Amortiguar: a lo sumo x2 o /2 por página
+            objetivo = Math.max(tamanoPagina / 2, Math.min((long) tamanoPagina * 2, objetivo));
+            tamanoPagina = limitar(objetivo, paginaMinima, paginaMaxima);
+
+            recalcularFetch();
+            cambios = true;
+        }
+
+        private void recalcularFetch() {
+            if (bytesPorFila <= 0) {
+                return;
+            }
+            long porBytes = (long) (bytesObjetivoFetch / bytesPorFila);
+            fetchSize = cuantizarFetch(tamanoPagina > 0 ? Math.min(porBytes, tamanoPagina) : porBytes);
+        }
+
+        private double promediar(double actual, double observado) {
+            return actual <= 0 ? observado : actual + ALFA * (observado - actual);
+        }
+
+        synchronized void cargarDesde(AjusteLecturaQuery guardado) {
+            if (guardado.getTamanoPagina() != null && guardado.getTamanoPagina() > 0) {
+                tamanoPagina = limitar(guardado.getTamanoPagina(), paginaMinima, paginaMaxima);
+            }
+            if (guardado.getFetchSize() != null) {
+                fetchSize = cuantizarFetch(guardado.getFetchSize());
+            }
+            bytesPorFila = guardado.getBytesPorFila() != null ? guardado.getBytesPorFila() : 0;
+            msPorFila = guardado.getMsPorFila() != null ? guardado.getMsPorFila() : 0;
+            muestras = guardado.getMuestras() != null ? guardado.getMuestras() : 0;
+        }
+
+        synchronized void volcarEn(AjusteLecturaQuery ajuste) {
+            ajuste.setTamanoPagina(tamanoPagina);
+            ajuste.setFetchSize(fetchSize);
+            ajuste.setBytesPorFila(bytesPorFila);
+            ajuste.setMsPorFila(msPorFila);
+            ajuste.setMuestras(muestras);
+            cambios = false;
+        }
+    }
+}
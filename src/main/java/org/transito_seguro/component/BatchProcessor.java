@@ -1,5 +1,6 @@
 package org.transito_seguro.component;
 
+import com.zaxxer.hikari.HikariDataSource;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
@@ -9,20 +10,38 @@ import org.transito_seguro.dto.ParametrosFiltrosDTO;
 import org.transito_seguro.enums.EstrategiaPaginacion;
 import org.transito_seguro.enums.EstrategiaProcessing;
 import org.transito_seguro.enums.TipoConsolidacion;
+import org.transito_seguro.model.CursorKeyset;
+import org.transito_seguro.model.CursorServidor;
+import org.transito_seguro.model.DesbordeDisco;
+import org.transito_seguro.model.EjecucionBatch;
 import org.transito_seguro.model.EstimacionDataset;
+import org.transito_seguro.model.LoteFilas;
+import org.transito_seguro.model.PerfilEjecucion;
+import org.transito_seguro.model.PresupuestoConexiones;
+import org.transito_seguro.model.ReservaMemoria;
+import org.transito_seguro.model.SnapshotExportacion;
+import org.transito_seguro.model.jfr.EventosJfr;
 import org.transito_seguro.model.query.QueryStorage;
 import org.transito_seguro.model.ContextoProcesamiento;
 import org.transito_seguro.repository.QueryStorageRepository;
 import org.transito_seguro.repository.impl.InfraccionesRepositoryImpl;
 import org.transito_seguro.service.QueryRegistryService;
 import org.transito_seguro.utils.LogFileWriter;
+import org.transito_seguro.utils.SqlUtils;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
 import java.math.BigDecimal;
+import java.nio.file.Paths;
+import java.time.LocalDate;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -33,9 +52,6 @@ public class BatchProcessor {
     @Value("${app.batch.size:5000}")
     private int defaultBatchSize;
 
-    @Value("${app.batch.memory-critical-threshold:0.85}")
-    private double memoryCriticalThreshold;
-
     @Value("${app.batch.parallel-threshold-per-province:50000}")
     private int parallelThresholdPerProvince;
 
@@ -51,6 +67,53 @@ public class BatchProcessor {
     @Value("${app.batch.thread-pool-size:6}")
     private int threadPoolSize;
 
+    @Value("${app.batch.cola.max-filas:50000}")
+    private int maxFilasEnCola;
+
+    @Value("${app.batch.cola.max-bytes:67108864}")
+    private long maxBytesEnCola;
+
+    @Value("${app.batch.cola.desborde.habilitado:true}")
+    private boolean desbordeHabilitado;
+
+    @Value("${app.batch.cola.desborde.directorio:${java.io.tmpdir}}")
+    private String directorioDesborde;
+
+    @Value("${app.batch.cola.desborde.max-bytes-disco:0}")
+    private long maxBytesDesborde;
+
+    /**
+     * Tramos de fecha paralelos por provincia. Apagado por defecto; aun
+     * encendido solo aplica a queries que filtran días inclusivos
+     * (ver SqlUtils.filtraDiasInclusivos).
+     */
+    @Value("${app.batch.particiones.habilitado:false}")
+    private boolean particionesHabilitadas;
+
+    /** COUNT(*) desde el que una provincia se lee en tramos de fecha paralelos */
+    @Value("${app.batch.particiones.umbral-filas:200000}")
+    private int umbralFilasParticion;
+
+    /** Lectores simultáneos por provincia (además acotado por su pool Hikari) */
+    @Value("${app.batch.particiones.max-por-provincia:4}")
+    private int maxParticionesPorProvincia;
+
+    /** Páginas leídas por adelantado mientras se entrega la actual (0 = sin prefetch) */
+    @Value("${app.batch.prefetch.profundidad:1}")
+    private int profundidadPrefetch;
+
+    /**
+     * Lee todas las queries con cursor de servidor, también las que admiten
+     * keyset. Las queries que agregan o tienen ORDER BY propio usan el cursor
+     * siempre, sin importar este valor.
+     */
+    @Value("${app.batch.cursor-servidor:false}")
+    private boolean cursorServidorHabilitado;
+
+    /** Lectura consistente por defecto (los filtros pueden pedirla o desactivarla) */
+    @Value("${app.batch.lectura-consistente:false}")
+    private boolean lecturaConsistentePorDefecto;
+
     @Value("${consolidacion.agregacion.umbral-error:10}")
     private int umbralErrorEstimacion;
 
@@ -66,30 +129,71 @@ public class BatchProcessor {
     @Autowired
     private LogFileWriter logFileWriter;
 
+    @Autowired
+    private KeysetProcessor keysetProcessor;
+
+    @Autowired
+    private ParametrosProcessor parametrosProcessor;
+
+    @Autowired
+    private GobernadorMemoria gobernadorMemoria;
+
+    @Autowired
+    private AjustadorLectura ajustadorLectura;
+
+    @Autowired
+    private RegistroEjecutores registroEjecutores;
+
+    @Autowired
+    private MetricasConsulta metricasConsulta;
+
+    /** Recorrido de cada provincia en PARALELO / HÍBRIDO (thread-pool-size hilos, cola de 100) */
     private ExecutorService parallelExecutor;
-    private final Map<String, Object[]> lastKeyPerProvince = new ConcurrentHashMap<>();
-    private final AtomicInteger totalRegistrosGlobales = new AtomicInteger(0);
-    private final Map<String, Integer> contadoresPorProvincia = new ConcurrentHashMap<>();
-    private final AtomicLong ultimoHeartbeat = new AtomicLong(0);
+
+    /**
+     * Hilos de la etapa de escritura (uno por ejecución activa), separados de los productores.
+     * Sin tope propio: los productores esperan al escritor, en un pool acotado podría
+     * quedar encolado detrás de ellos.
+     */
+    private ExecutorService escritorExecutor;
+
+    /**
+     * Lectores de tramos de una provincia particionada (no compiten con parallelExecutor).
+     * Los acota el PresupuestoConexiones de cada ejecución (menos que el pool del datasource).
+     */
+    private ExecutorService particionesExecutor;
+
+    /** Hilos que adelantan la lectura de páginas (uno por recorrido con prefetch) */
+    private ExecutorService prefetchExecutor;
+
     private final Map<String, Boolean> cacheQueryConsolidable = new ConcurrentHashMap<>();
     private final AtomicInteger cambiosEstrategiaPorOOM = new AtomicInteger(0);
 
     private static final long HEARTBEAT_INTERVAL_MS = 30000;
 
-    private long tiempoInicioGlobal;
+    /** Página mínima que se lee aunque el presupuesto de memoria esté justo */
+    private static final int TAMANO_PAGINA_MINIMO = 500;
+
+    private static final String COLUMNA_PROVINCIA = "provincia";
+    private static final String COLUMNA_ROW_ID = "row_id";
+
+    // Métricas de ciclo de vida (solo se acumulan al terminar cada ejecución)
+    private final AtomicLong totalRegistrosHistorico = new AtomicLong(0);
+    private final Map<String, Long> contadoresHistoricosPorProvincia = new ConcurrentHashMap<>();
+    private final AtomicInteger ejecucionesActivas = new AtomicInteger(0);
 
     @Autowired
     private QueryStorageRepository queryStorageRepository;
 
-    @Autowired
+    @PostConstruct
     public void init() {
-        this.parallelExecutor = new ThreadPoolExecutor(
-                threadPoolSize,
-                threadPoolSize,
-                60L,
-                TimeUnit.SECONDS,
-                new LinkedBlockingQueue<>(100),
-                new ThreadPoolExecutor.CallerRunsPolicy());
+        // Pools registrados en RegistroEjecutores: se ven en /api/monitor/ejecutores y en ejecutor.*
+        this.parallelExecutor = registroEjecutores.acotado("batch-provincias", threadPoolSize, 100);
+        this.escritorExecutor = registroEjecutores.sinLimite("batch-escritor");
+        this.prefetchExecutor = registroEjecutores.sinLimite("batch-prefetch");
+        this.particionesExecutor = registroEjecutores.sinLimite("batch-particion");
+
+        metricasConsulta.registrarEjecucionesActivas(ejecucionesActivas);
     }
 
     @PreDestroy
@@ -118,10 +222,32 @@ public class BatchProcessor {
             }
         }
 
-        // 2. LIMPIAR CACHES
+        // 2. CERRAR LECTORES DE TRAMOS Y DE PREFETCH
+        if (particionesExecutor != null && !particionesExecutor.isShutdown()) {
+            particionesExecutor.shutdownNow();
+        }
+        if (prefetchExecutor != null && !prefetchExecutor.isShutdown()) {
+            prefetchExecutor.shutdownNow();
+        }
+
+        // 3. CERRAR ESCRITORES (los productores ya terminaron)
+        if (escritorExecutor != null && !escritorExecutor.isShutdown()) {
+            escritorExecutor.shutdown();
+            try {
+                if (!escritorExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+                    log.warn("⏱️ Escritores no terminaron en 30s, forzando shutdown");
+                    escritorExecutor.shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                escritorExecutor.shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        // 4. LIMPIAR CACHES
         cacheQueryConsolidable.clear();
 
-        // 3. REPORTAR MÉTRICAS (SIEMPRE, al final)
+        // 5. REPORTAR MÉTRICAS (SIEMPRE, al final)
         reportarMetricasFinales();
 
         log.info("✅ BatchProcessor cerrado completamente");
@@ -149,25 +275,25 @@ public class BatchProcessor {
         }
 
         // Total de registros procesados globalmente
-        int totalRegistros = totalRegistrosGlobales.get();
+        long totalRegistros = totalRegistrosHistorico.get();
         if (totalRegistros > 0) {
             log.info("📈 Total de registros procesados: {}", totalRegistros);
         }
 
         // Provincias procesadas
-        if (!contadoresPorProvincia.isEmpty()) {
-            log.info("🗺️ Provincias procesadas: {}", contadoresPorProvincia.size());
+        if (!contadoresHistoricosPorProvincia.isEmpty()) {
+            log.info("🗺️ Provincias procesadas: {}", contadoresHistoricosPorProvincia.size());
 
             // Top 5 provincias con más registros
-            List<Map.Entry<String, Integer>> top5 = contadoresPorProvincia.entrySet().stream()
-                    .sorted(Map.Entry.<String, Integer>comparingByValue().reversed())
+            List<Map.Entry<String, Long>> top5 = contadoresHistoricosPorProvincia.entrySet().stream()
+                    .sorted(Map.Entry.<String, Long>comparingByValue().reversed())
                     .limit(5)
                     .collect(Collectors.toList());
 
             if (!top5.isEmpty()) {
                 log.info("📊 Top 5 provincias por volumen:");
                 for (int i = 0; i < top5.size(); i++) {
-                    Map.Entry<String, Integer> entry = top5.get(i);
+                    Map.Entry<String, Long> entry = top5.get(i);
                     log.info("   {}. {}: {} registros",
                             i + 1, entry.getKey(), entry.getValue());
                 }
@@ -183,21 +309,64 @@ public class BatchProcessor {
             String nombreQuery,
             Consumer<List<Map<String, Object>>> procesarLotes) {
 
-        inicializarProcesamiento();
-        logInicio(repositories.size(), nombreQuery);
+        EjecucionBatch ejecucion = new EjecucionBatch(nombreQuery);
+        ejecutar(repositories, filtros, nombreQuery, ejecucion,
+                new ContextoProcesamiento(procesarLotes, null, ejecucion));
+    }
 
-        EstimacionDataset estimacion = estimarDataset(repositories, filtros, nombreQuery);
-        logEstimacion(estimacion);
+    /**
+     * Igual que procesarEnLotes pero entrega los lotes en formato columnar
+     * (LoteFilas), sin convertir cada fila a Map. Lo usan los consumidores que
+     * escriben directo a la salida (descargas en streaming).
+     */
+    public void procesarEnLotesColumnar(
+            List<InfraccionesRepositoryImpl> repositories,
+            ParametrosFiltrosDTO filtros,
+            String nombreQuery,
+            Consumer<LoteFilas> procesarLotes) {
 
-        EstrategiaProcessing estrategia = decidirEstrategia(estimacion);
-        log.info("Estrategia seleccionada: {}", estrategia);
+        EjecucionBatch ejecucion = new EjecucionBatch(nombreQuery);
+        ejecutar(repositories, filtros, nombreQuery, ejecucion,
+                new ContextoProcesamiento(null, procesarLotes, null, ejecucion));
+    }
 
-        ContextoProcesamiento contexto = new ContextoProcesamiento(procesarLotes, null);
+    private void ejecutar(
+            List<InfraccionesRepositoryImpl> repositories,
+            ParametrosFiltrosDTO filtros,
+            String nombreQuery,
+            EjecucionBatch ejecucion,
+            ContextoProcesamiento contexto) {
 
-        QueryStorage queryStorage = queryRegistryService.buscarQuery(nombreQuery)
-                .orElse(null);
+        ejecucionesActivas.incrementAndGet();
+        EstrategiaProcessing estrategia = null;
 
+        // Todo dentro del try: si falla la estimación, la búsqueda de la query o
+        // el arranque del escritor, el contador de ejecuciones activas igual baja
         try {
+            logInicio(ejecucion, repositories.size());
+
+            EstimacionDataset estimacion;
+            try (PerfilEjecucion.Etapa etapa = PerfilEjecucion.etapa("estimacion")) {
+                estimacion = estimarDataset(repositories, filtros, nombreQuery, ejecucion);
+            }
+            logEstimacion(estimacion);
+
+            estrategia = decidirEstrategia(estimacion);
+            log.info("Estrategia seleccionada: {}", estrategia);
+            metricasConsulta.registrarEstrategia(nombreQuery, estrategia.name());
+
+            QueryStorage queryStorage = queryRegistryService.buscarQuery(nombreQuery)
+                    .orElse(null);
+
+            // Productores (provincias) → cola acotada (+ desborde a disco) → un único escritor
+            DesbordeDisco desborde = desbordeHabilitado
+                    ? new DesbordeDisco(Paths.get(directorioDesborde), "batch-" + ejecucion.getId(), maxBytesDesborde)
+                    : null;
+            if (contexto.iniciarEscritor(escritorExecutor, maxFilasEnCola, maxBytesEnCola, desborde)) {
+                log.debug("Cola de escritura acotada - Máx filas: {} | Máx bytes: {} | Desborde a disco: {}",
+                        maxFilasEnCola, maxBytesEnCola, desbordeHabilitado);
+            }
+
             switch (estrategia) {
                 case PARALELO:
                     procesarParalelo(repositories, filtros, nombreQuery, contexto,queryStorage);
@@ -209,25 +378,36 @@ public class BatchProcessor {
                     procesarSecuencial(repositories, filtros, nombreQuery, contexto);
                     break;
             }
+            contexto.finalizarEscritor();
         } finally {
-            imprimirResumenFinal();
+            contexto.abortarEscritor();
+            ejecucionesActivas.decrementAndGet();
+            acumularMetricasHistoricas(ejecucion);
+            if (estrategia != null) {
+                metricasConsulta.registrarEjecucion(nombreQuery, estrategia.name(), ejecucion.getDuracionMs());
+            }
+            imprimirResumenFinal(ejecucion);
         }
     }
 
-    private void inicializarProcesamiento() {
-        tiempoInicioGlobal = System.currentTimeMillis();
-        ultimoHeartbeat.set(tiempoInicioGlobal);
-        totalRegistrosGlobales.set(0);
-        contadoresPorProvincia.clear();
+    /**
+     * Vuelca los contadores de una ejecución terminada en las métricas de ciclo de vida.
+     */
+    private void acumularMetricasHistoricas(EjecucionBatch ejecucion) {
+        totalRegistrosHistorico.addAndGet(ejecucion.getTotalProcesados());
+        ejecucion.getContadoresPorProvincia()
+                .forEach((provincia, cantidad) ->
+                        contadoresHistoricosPorProvincia.merge(provincia, cantidad.longValue(), Long::sum));
     }
 
-    private void logInicio(int numProvincias, String nombreQuery) {
+    private void logInicio(EjecucionBatch ejecucion, int numProvincias) {
         if (!log.isInfoEnabled())
             return;
 
         log.info("═══════════════════════════════════════════════════════════");
-        log.info("Inicio procesamiento - Provincias: {} | Query: {} | Memoria: {:.1f}%",
-                numProvincias, nombreQuery, obtenerPorcentajeMemoriaUsada());
+        log.info("[{}] Inicio procesamiento - Provincias: {} | Query: {} | Ejecuciones activas: {} | Memoria: {}%",
+                ejecucion.getId(), numProvincias, ejecucion.getNombreQuery(),
+                ejecucionesActivas.get(), memoriaUsada());
         log.info("═══════════════════════════════════════════════════════════");
     }
 
@@ -241,19 +421,20 @@ public class BatchProcessor {
                 estimacion.getMaximoPorProvincia());
     }
 
-    private void imprimirResumenFinal() {
+    private void imprimirResumenFinal(EjecucionBatch ejecucion) {
         if (!log.isInfoEnabled())
             return;
 
-        long duracionTotal = System.currentTimeMillis() - tiempoInicioGlobal;
-        int total = totalRegistrosGlobales.get();
+        long duracionTotal = ejecucion.getDuracionMs();
+        int total = ejecucion.getTotalProcesados();
 
         log.info("═══════════════════════════════════════════════════════════");
-        log.info("Completado - Duración: {}s | Total: {} registros | Velocidad: {} reg/s | Memoria: {:.1f}%",
+        log.info("[{}] Completado - Duración: {}s | Total: {} registros | Velocidad: {} reg/s | Memoria: {}%",
+                ejecucion.getId(),
                 duracionTotal / 1000,
                 total,
                 total * 1000 / Math.max(duracionTotal, 1),
-                obtenerPorcentajeMemoriaUsada());
+                memoriaUsada());
         log.info("═══════════════════════════════════════════════════════════");
     }
 
@@ -263,17 +444,21 @@ public class BatchProcessor {
      * @param repositories Lista de repositorios (uno por provincia)
      * @param filtros      Filtros aplicados (fechas, tipos, etc.)
      * @param nombreQuery  Código de la query a ejecutar
+     * @param ejecucion    Ejecución donde se guarda el conteo de cada provincia
      * @return Estimación con total real, promedio y máximo por provincia
      */
     private EstimacionDataset estimarDataset(
             List<InfraccionesRepositoryImpl> repositories,
             ParametrosFiltrosDTO filtros,
-            String nombreQuery) {
+            String nombreQuery,
+            EjecucionBatch ejecucion) {
 
         // Ejecutar COUNT(*) en paralelo para todas las provincias
-        List<Integer> conteos = repositories.parallelStream()
-                .map(repo -> obtenerConteoReal(repo, nombreQuery, filtros))
-                .collect(Collectors.toList());
+        List<Integer> conteos = registroEjecutores.enCadaProvincia(repositories, repo -> {
+            int conteo = obtenerConteoReal(repo, nombreQuery, filtros);
+            ejecucion.registrarConteo(repo.getProvincia(), conteo);
+            return conteo;
+        });
 
         // Calcular estadísticas
         int totalEstimado = conteos.stream().mapToInt(Integer::intValue).sum();
@@ -311,8 +496,12 @@ private int obtenerConteoReal(
          */
 
         String queryOriginal = queryStorage.getSqlQuery();
-        String queryConteo = construirQueryConteo(queryOriginal);
+        // Variante de conteo ya compilada en el plan (sin ORDER BY/LIMIT/OFFSET externos)
+        String queryConteo = parametrosProcessor.obtenerPlan(queryOriginal).getSqlConteo();
+        long inicioConteo = System.nanoTime();
         Integer conteoReal = repo.ejecutarQueryConteo(queryConteo, filtros);
+        metricasConsulta.registrarConteo(nombreQuery, repo.getProvincia(),
+                conteoReal != null ? conteoReal : 0, System.nanoTime() - inicioConteo);
 
         log.info("🔍 Conteo REAL para {}: {} registros (estimación previa: {})",
                  repo.getProvincia(),
@@ -328,121 +517,6 @@ private int obtenerConteoReal(
     }
 }
 
-    /**
-     * Envuelve la query original en un SELECT COUNT(*).
-     *
-     * @param queryOriginal Query SQL original
-     * @return Query modificada para contar registros
-     */
-    /**
-     * Construye query de conteo removiendo ORDER BY y LIMIT.
-     *
-     * MEJORADO: Remueve LIMIT de cualquier formato usando substring
-     * para evitar problemas con expresiones complejas.
-     *
-     * @param queryOriginal Query SQL original
-     * @return Query envuelta en SELECT COUNT(*)
-     */
-    /**
-     *  Regex mejorado que funciona con funciones.
-     */
-    private String construirQueryConteo(String queryOriginal) {
-        // Validación de entrada
-        if (queryOriginal == null || queryOriginal.trim().isEmpty()) {
-            throw new IllegalArgumentException("Query original no puede estar vacía");
-        }
-
-        log.debug("🔢 Construyendo query de conteo para: {}",
-                queryOriginal.substring(0, Math.min(100, queryOriginal.length())));
-
-        String queryLimpia = queryOriginal.trim();
-
-        // 1. Remover punto y coma final si existe
-        if (queryLimpia.endsWith(";")) {
-            queryLimpia = queryLimpia.substring(0, queryLimpia.length() - 1).trim();
-        }
-
-        // 2. Remover ORDER BY del nivel más externo (no afecta COUNT)
-        //    CRÍTICO: Solo remover el ORDER BY que está fuera de paréntesis
-        queryLimpia = removerClausulaExterna(queryLimpia, "ORDER BY");
-
-        // 3. Remover LIMIT del nivel externo
-        queryLimpia = removerClausulaExterna(queryLimpia, "LIMIT");
-
-        // 4. Remover OFFSET del nivel externo
-        queryLimpia = removerClausulaExterna(queryLimpia, "OFFSET");
-
-        // 5. Envolver en COUNT preservando toda la estructura interna
-        String queryConteo = String.format("SELECT COUNT(*) as total FROM (%s) AS conteo_wrapper",
-                queryLimpia.trim());
-
-        log.debug("✅ Query de conteo construida: {} caracteres", queryConteo.length());
-
-        return queryConteo;
-    }
-
-    private String removerClausulaExterna(String query, String clausula) {
-        int nivelParentesis = 0;
-        int posClausula = -1;
-        String upper = query.toUpperCase();
-        String clausulaUpper = clausula.toUpperCase();
-
-        // Recorrer desde el final hacia el inicio
-        for (int i = query.length() - 1; i >= 0; i--) {
-            char c = query.charAt(i);
-
-            // Actualizar nivel de paréntesis (invertido porque vamos hacia atrás)
-            if (c == ')') {
-                nivelParentesis++;
-            } else if (c == '(') {
-                nivelParentesis--;
-            }
-
-            // Buscar la cláusula solo en nivel 0 (fuera de paréntesis)
-            if (nivelParentesis == 0 && i >= clausulaUpper.length()) {
-                // Buscar hacia atrás si coincide con la cláusula
-                boolean coincide = true;
-                for (int j = 0; j < clausulaUpper.length(); j++) {
-                    if (upper.charAt(i - clausulaUpper.length() + j) != clausulaUpper.charAt(j)) {
-                        coincide = false;
-                        break;
-                    }
-                }
-
-                if (coincide) {
-                    // Verificar que sea límite de palabra (no parte de otra palabra)
-                    int posInicio = i - clausulaUpper.length();
-                    boolean esLimitePalabra = true;
-
-                    // Verificar antes de la cláusula
-                    if (posInicio > 0 && Character.isLetterOrDigit(query.charAt(posInicio - 1))) {
-                        esLimitePalabra = false;
-                    }
-
-                    // Verificar después de la cláusula
-                    if (i < query.length() && Character.isLetterOrDigit(query.charAt(i))) {
-                        esLimitePalabra = false;
-                    }
-
-                    if (esLimitePalabra) {
-                        posClausula = posInicio;
-                        break;
-                    }
-                }
-            }
-        }
-
-        // Si encontramos la cláusula externa, removerla
-        if (posClausula >= 0) {
-            log.debug("🔧 Removiendo {} externo en posición {}", clausula, posClausula);
-            return query.substring(0, posClausula).trim();
-        }
-
-        log.debug("⚠️ No se encontró {} externo, query sin cambios", clausula);
-        return query;
-    }
-
-
     private EstrategiaProcessing decidirEstrategia(EstimacionDataset estimacion) {
         if (estimacion.getPromedioPorProvincia() < parallelThresholdPerProvince &&
                 estimacion.getTotalEstimado() < parallelThresholdTotal) {
@@ -470,11 +544,13 @@ private int obtenerConteoReal(
         AtomicInteger provinciasCompletadas = new AtomicInteger(0);
         AtomicInteger provinciasEnProceso = new AtomicInteger(0);
         Map<String, String> estadoPorProvincia = new ConcurrentHashMap<>();
+        Map<String, Throwable> fallidas = new ConcurrentHashMap<>();
 
         // ✅ Thread de monitoreo en background
         ScheduledExecutorService monitor = Executors.newSingleThreadScheduledExecutor();
         ScheduledFuture<?> tareaMonitoreo = monitor.scheduleAtFixedRate(() -> {
             reportarProgresoParalelo(
+                    contexto.getEjecucion(),
                     repositories.size(),
                     provinciasCompletadas.get(),
                     provinciasEnProceso.get(),
@@ -485,7 +561,7 @@ private int obtenerConteoReal(
         try {
             // Crear futures con seguimiento individual
             List<CompletableFuture<Void>> futures = repositories.stream()
-                    .map(repo -> CompletableFuture.runAsync(() -> {
+                    .map(repo -> CompletableFuture.runAsync(PerfilEjecucion.propagar(() -> {
                         String provincia = repo.getProvincia();
 
                         try {
@@ -505,17 +581,19 @@ private int obtenerConteoReal(
                             log.info("✅ {} completada ({}/{})",
                                     provincia, completadas, repositories.size());
 
-                        } catch (Exception e) {
+                        } catch (RuntimeException | Error e) {
                             estadoPorProvincia.put(provincia, "❌ ERROR: " + e.getMessage());
                             provinciasEnProceso.decrementAndGet();
+                            fallidas.put(provincia, e);
                             log.error("❌ Error en {}: {}", provincia, e.getMessage(), e);
                         }
 
-                    }, parallelExecutor))
+                    }), parallelExecutor))
                     .collect(Collectors.toList());
 
             // Esperar a que todas terminen
             CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+            propagarFallas(fallidas);
 
         } finally {
             // ✅ Detener monitoreo
@@ -537,6 +615,7 @@ private int obtenerConteoReal(
      * 📊 Reporta progreso cada N segundos
      */
     private void reportarProgresoParalelo(
+            EjecucionBatch ejecucion,
             int total,
             int completadas,
             int enProceso,
@@ -547,13 +626,13 @@ private int obtenerConteoReal(
         }
 
         double progreso = (double) completadas / total * 100;
-        int registrosActuales = totalRegistrosGlobales.get();
+        int registrosActuales = ejecucion.getTotalProcesados();
 
         log.info("═══════════════════════════════════════════════════════════");
-        log.info("📊 PROGRESO PARALELO: {}/{} provincias ({:.1f}%)",
-                completadas, total, progreso);
-        log.info("   En proceso: {} | Registros: {} | Memoria: {:.1f}%",
-                enProceso, registrosActuales, obtenerPorcentajeMemoriaUsada());
+        log.info("📊 [{}] PROGRESO PARALELO: {}/{} provincias ({}%)",
+                ejecucion.getId(), completadas, total, String.format("%.1f", progreso));
+        log.info("   En proceso: {} | Registros: {} | Memoria: {}%",
+                enProceso, registrosActuales, memoriaUsada());
 
         // Mostrar estado detallado
         estados.entrySet().stream()
@@ -565,6 +644,15 @@ private int obtenerConteoReal(
         log.info("═══════════════════════════════════════════════════════════");
     }
 
+    /**
+     * Modo HÍBRIDO con ventana deslizante.
+     * MEJORADO: En lugar de grupos fijos de maxParallelProvinces que esperan al
+     * más lento (allOf por grupo), apenas termina una provincia arranca la
+     * siguiente. Las provincias se ordenan de mayor a menor COUNT(*) (el de
+     * estimarDataset), así la más grande arranca primero y el tiempo total se
+     * acerca al de la provincia más lenta en lugar de la suma de máximos por
+     * grupo. Tampoco se superan las conexiones del pool de cada datasource.
+     */
     private void procesarHibrido(
             List<InfraccionesRepositoryImpl> repositories,
             ParametrosFiltrosDTO filtros,
@@ -572,45 +660,177 @@ private int obtenerConteoReal(
             ContextoProcesamiento contexto,
             QueryStorage queryStorage) {
 
-        log.info("Ejecutando modo HÍBRIDO");
+        log.info("Ejecutando modo HÍBRIDO - ventana de {} provincias", maxParallelProvinces);
 
-        for (int i = 0; i < repositories.size(); i += maxParallelProvinces) {
-            int endIndex = Math.min(i + maxParallelProvinces, repositories.size());
-            List<InfraccionesRepositoryImpl> grupo = repositories.subList(i, endIndex);
+        EjecucionBatch ejecucion = contexto.getEjecucion();
+        List<InfraccionesRepositoryImpl> ordenadas = new ArrayList<>(repositories);
+        if (ejecucion != null) {
+            ordenadas.sort(Comparator.comparingInt(
+                    (InfraccionesRepositoryImpl repo) -> ejecucion.getConteoProvincia(repo.getProvincia())).reversed());
+        }
 
-            List<CompletableFuture<Void>> futures = grupo.stream()
-                    .map(repo -> CompletableFuture.runAsync(
-                            () -> ejecutarProvincia(repo, filtros, nombreQuery, contexto,queryStorage),
-                            parallelExecutor))
-                    .collect(Collectors.toList());
+        VentanaProvincias ventana = new VentanaProvincias(ordenadas, maxParallelProvinces,
+                ejecucion != null ? ejecucion.getConexiones() : new PresupuestoConexiones());
+        Map<String, Throwable> fallidas = new ConcurrentHashMap<>();
+        int entregadas = 0;
 
-            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
-            contexto.procesarTodosResultados();
+        // Con una provincia fallida no se inician más: la ejecución ya va a fallar
+        InfraccionesRepositoryImpl siguiente;
+        while (fallidas.isEmpty() && (siguiente = ventana.siguiente()) != null) {
+            InfraccionesRepositoryImpl repo = siguiente;
+
+            log.info("▶️  {} - Iniciando (estimado: {} registros)", repo.getProvincia(),
+                    ejecucion != null ? ejecucion.getConteoProvincia(repo.getProvincia()) : "?");
+
+            CompletableFuture.runAsync(PerfilEjecucion.propagar(() -> {
+                try {
+                    ejecutarProvincia(repo, filtros, nombreQuery, contexto, queryStorage);
+                } catch (RuntimeException | Error e) {
+                    fallidas.put(repo.getProvincia(), e);
+                    log.error("❌ Error en {}: {}", repo.getProvincia(), e.getMessage(), e);
+                } finally {
+                    ventana.terminar(repo);
+                }
+            }), parallelExecutor);
+
+            // Entregar lo acumulado por las provincias que terminaron (modo sin cola acotada)
+            int completadas = ventana.getCompletadas();
+            if (completadas > entregadas) {
+                entregadas = completadas;
+                contexto.procesarTodosResultados();
+            }
+        }
+
+        ventana.esperarTodas();
+        propagarFallas(fallidas);
+        contexto.procesarTodosResultados();
+    }
+
+    /**
+     * Falla la ejecución si alguna provincia falló: un resultado sin las filas
+     * de una provincia no se entrega como completo (en streaming el error corta
+     * la respuesta).
+     *
+     * @param fallidas Error de cada provincia fallida
+     */
+    private static void propagarFallas(Map<String, Throwable> fallidas) {
+        if (fallidas.isEmpty()) {
+            return;
+        }
+        Throwable primera = fallidas.values().iterator().next();
+        if (primera instanceof Error) {
+            throw (Error) primera;
+        }
+        throw new RuntimeException("Fallaron " + fallidas.size() + " provincias: "
+                + String.join(", ", new TreeSet<>(fallidas.keySet())), primera);
+    }
+
+    /**
+     * Ventana deslizante de provincias en curso: a lo sumo {@code maximo} a la
+     * vez y, por datasource, no más que su maximum-pool-size contando también
+     * los lectores de tramos de fecha de la ejecución (presupuesto compartido).
+     */
+    private static final class VentanaProvincias {
+
+        private final LinkedList<InfraccionesRepositoryImpl> pendientes;
+        private final int maximo;
+        private final PresupuestoConexiones conexiones;
+        private int enCurso = 0;
+        private int completadas = 0;
+
+        private VentanaProvincias(List<InfraccionesRepositoryImpl> ordenadas, int maximo,
+                                  PresupuestoConexiones conexiones) {
+            this.pendientes = new LinkedList<>(ordenadas);
+            this.maximo = Math.max(maximo, 1);
+            this.conexiones = conexiones;
+        }
+
+        /**
+         * Espera un lugar libre y saca la primera provincia pendiente (la más
+         * grande) cuyo datasource tenga conexiones libres.
+         *
+         * @return Provincia a iniciar (ya contada como en curso), o null si no quedan pendientes
+         */
+        private synchronized InfraccionesRepositoryImpl siguiente() {
+            while (!pendientes.isEmpty()) {
+                InfraccionesRepositoryImpl repo = enCurso < maximo ? tomarDisponible() : null;
+                if (repo != null) {
+                    enCurso++;
+                    return repo;
+                }
+                esperar();
+            }
+            return null;
+        }
+
+        private synchronized void terminar(InfraccionesRepositoryImpl repo) {
+            conexiones.liberar(dataSourceDe(repo), 1);
+            enCurso--;
+            completadas++;
+            notifyAll();
+        }
+
+        private synchronized void esperarTodas() {
+            while (enCurso > 0) {
+                esperar();
+            }
+        }
+
+        private synchronized int getCompletadas() {
+            return completadas;
+        }
 
-            if (endIndex < repositories.size() && esMemoriaAlta()) {
-                pausarSiNecesario();
+        private InfraccionesRepositoryImpl tomarDisponible() {
+            Iterator<InfraccionesRepositoryImpl> it = pendientes.iterator();
+            while (it.hasNext()) {
+                InfraccionesRepositoryImpl repo = it.next();
+                DataSource dataSource = dataSourceDe(repo);
+                if (conexiones.reservar(dataSource, 1, tamanoPool(dataSource)) == 1) {
+                    it.remove();
+                    return repo;
+                }
+            }
+            return null;
+        }
+
+        private void esperar() {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrumpido esperando provincias en modo HÍBRIDO", e);
             }
         }
     }
 
+    private static DataSource dataSourceDe(InfraccionesRepositoryImpl repo) {
+        return repo.getNamedParameterJdbcTemplate().getJdbcTemplate().getDataSource();
+    }
+
+    /**
+     * @return maximum-pool-size del datasource (sin tope si no es Hikari)
+     */
+    private static int tamanoPool(DataSource dataSource) {
+        return dataSource instanceof HikariDataSource
+                ? ((HikariDataSource) dataSource).getMaximumPoolSize()
+                : Integer.MAX_VALUE;
+    }
+
     private void procesarSecuencial(
             List<InfraccionesRepositoryImpl> repositories,
             ParametrosFiltrosDTO filtros,
             String nombreQuery,
             ContextoProcesamiento contexto) {
 
-        int batchSize = calcularTamanoLoteOptimo(filtros);
+        // El gobernador de memoria achica cada página si no hay presupuesto
+        int batchSize = calcularTamanoLoteBase(filtros);
 
         for (int i = 0; i < repositories.size(); i++) {
             InfraccionesRepositoryImpl repo = repositories.get(i);
 
-            logHeartbeat(repositories.size());
+            logHeartbeat(contexto.getEjecucion());
             procesarProvinciaSecuencial(repo, filtros, nombreQuery, contexto, batchSize);
             contexto.procesarTodosResultados();
-
-            if (i < repositories.size() - 1 && esMemoriaAlta()) {
-                pausarSiNecesario();
-            }
         }
     }
 
@@ -622,46 +842,12 @@ private int obtenerConteoReal(
             int batchSize) {
 
         String provincia = repo.getProvincia();
-        lastKeyPerProvince.remove(provincia);
-
-        int procesados = 0;
-        int offset = 0;
-        boolean continuar = true;
-
-        while (continuar) {
-            try {
-                if (esMemoriaCritica()) {
-                    batchSize = Math.max(500, batchSize / 2);
-                }
-
-                ParametrosFiltrosDTO filtrosLote = crearFiltrosParaLote(filtros, batchSize, offset, provincia);
-                List<Map<String, Object>> lote = repo.ejecutarQueryConFiltros(nombreQuery, filtrosLote);
-
-                if (lote == null || lote.isEmpty()) {
-                    break;
-                }
-
-                guardarLastKey(lote, provincia);
-
-                List<Map<String, Object>> loteInmutable = crearCopiasInmutables(lote, provincia);
-                contexto.agregarResultados(loteInmutable);
-
-                procesados += lote.size();
-                offset += batchSize;
-                continuar = lote.size() >= batchSize;
-
-            } catch (OutOfMemoryError oom) {
-                log.error("OOM en {}", provincia);
-                pausarSiNecesario();
-                break;
-            } catch (Exception e) {
-                log.error("Error en {}: {}", provincia, e.getMessage());
-                break;
-            }
+        long inicioProvincia = System.currentTimeMillis();
+        try {
+            recorrerProvincia(repo, filtros, nombreQuery, provincia, contexto, batchSize);
+        } finally {
+            PerfilEjecucion.anotarDuracionProvincia(provincia, System.currentTimeMillis() - inicioProvincia);
         }
-
-        actualizarContadores(provincia, procesados);
-        lastKeyPerProvince.remove(provincia);
     }
 
    /**
@@ -680,7 +866,21 @@ private void ejecutarProvincia(
         QueryStorage queryStorage) {
 
     String provincia = repo.getProvincia();
+    long inicioProvincia = System.currentTimeMillis();
+    try {
+        ejecutarProvinciaSegunTipo(repo, filtros, nombreQuery, provincia, contexto, queryStorage);
+    } finally {
+        PerfilEjecucion.anotarDuracionProvincia(provincia, System.currentTimeMillis() - inicioProvincia);
+    }
+}
 
+private void ejecutarProvinciaSegunTipo(
+        InfraccionesRepositoryImpl repo,
+        ParametrosFiltrosDTO filtros,
+        String nombreQuery,
+        String provincia,
+        ContextoProcesamiento contexto,
+        QueryStorage queryStorage) {
 
     // Verificar si debe forzar paginación (override manual)
       boolean estrategiaSinPaginacion = queryStorage.getEstrategiaPaginacion() == EstrategiaPaginacion.SIN_PAGINACION;
@@ -744,6 +944,7 @@ private void ejecutarProvincia(
             ContextoProcesamiento contexto,
             QueryStorage info) {
 
+        ReservaMemoria reservaMuestra = null;
         try {
             log.debug("🔍 Ejecutando query AGREGACION para {}: {} registros estimados",
                     provincia, info.getRegistrosEstimados());
@@ -776,20 +977,32 @@ private void ejecutarProvincia(
 
             log.debug("🧪 Validando con límite de {} registros", limiteValidacion);
 
-            List<Map<String, Object>> muestraValidacion =
-                    repo.ejecutarQueryConFiltros(nombreQuery, filtrosValidacion);
+            // La muestra no se achica (su tamaño decide la estrategia): se reserva completa
+            long bytesMuestra = GobernadorMemoria.bytesPorFila(0) * limiteValidacion;
+            reservaMuestra = gobernadorMemoria.reservar(idEjecucion(contexto), bytesMuestra, bytesMuestra);
+
+            PerfilEjecucion.anotarVariante(provincia, "directa");
+            long inicioMuestra = System.currentTimeMillis();
+            LoteFilas muestraValidacion = repo.ejecutarSQLComoLote(
+                    repo.obtenerSqlQuery(nombreQuery), filtrosValidacion, Collections.<String, Object>emptyMap());
 
             if (muestraValidacion == null) {
                 log.warn("⚠️ Query retornó null para {}", provincia);
                 return;
             }
 
-            int tamanoMuestra = muestraValidacion.size();
+            int tamanoMuestra = muestraValidacion.tamano();
+            long bytesMuestraLeida = muestraValidacion.estimarBytes();
+            reservaMuestra.ajustar(bytesMuestraLeida);
+            metricasConsulta.registrarPagina(nombreQuery, provincia, tamanoMuestra, bytesMuestraLeida,
+                    System.currentTimeMillis() - inicioMuestra);
 
             // ===== CAPA 3: ANÁLISIS Y DECISIÓN =====
 
             // CASO 1: La muestra está incompleta (hay más datos)
             if (tamanoMuestra >= limiteValidacion) {
+                // La muestra se descarta: las estrategias siguientes reservan sus propias páginas
+                reservaMuestra.close();
                 log.warn("⚠️ Query retornó {} registros (límite de validación alcanzado)", tamanoMuestra);
                 log.warn("📊 Estimación era {} pero hay al menos {}+ registros", estimacion, limiteValidacion);
 
@@ -833,25 +1046,28 @@ private void ejecutarProvincia(
             }
 
             // Procesar resultados (ya están todos en memoria y son manejables)
-            List<Map<String, Object>> resultadoInmutable = crearCopiasInmutables(muestraValidacion, provincia);
-            contexto.agregarResultados(resultadoInmutable);
-            actualizarContadores(provincia, tamanoMuestra);
+            contexto.agregarLote(muestraValidacion.conConstante(COLUMNA_PROVINCIA, provincia), reservaMuestra);
+            reservaMuestra = null;
+            actualizarContadores(contexto, provincia, tamanoMuestra);
 
-            log.info("✅ Query AGREGACION completada para {}: {} registros | Memoria: {:.1f}%",
-                    provincia, tamanoMuestra, obtenerPorcentajeMemoriaUsada());
+            log.info("✅ Query AGREGACION completada para {}: {} registros | Memoria: {}%",
+                    provincia, tamanoMuestra, memoriaUsada());
 
         } catch (OutOfMemoryError oom) {
             log.error("💥 OOM en query AGREGACION para {}. Esto NO debería pasar con las validaciones.",
                     provincia);
             log.error("🔧 Considera reducir consolidacion.agregacion.limite-validacion en properties");
 
-            // Intentar recuperación
-            System.gc();
             throw new RuntimeException("OutOfMemoryError en consolidación AGREGACION", oom);
 
-        } catch (Exception e) {
+        } catch (RuntimeException e) {
             log.error("❌ Error en query AGREGACION {} para {}: {}",
                     nombreQuery, provincia, e.getMessage(), e);
+            throw e;
+        } finally {
+            if (reservaMuestra != null) {
+                reservaMuestra.close();
+            }
         }
     }
 
@@ -859,6 +1075,7 @@ private void ejecutarProvincia(
      * 🔄 Ejecuta query con paginación segura cuando el resultado es grande pero manejable.
      *
      * Usado cuando la validación detecta que hay más de 10K registros pero menos de 100K.
+     * MEJORADO: Usa keyset (KeysetProcessor) en lugar de OFFSET.
      */
     private void ejecutarConPaginacionSegura(
             InfraccionesRepositoryImpl repo,
@@ -868,66 +1085,10 @@ private void ejecutarProvincia(
             ContextoProcesamiento contexto,
             int tamanoPagina) {
 
-        log.info("📄 Iniciando paginación segura para {}: páginas de {} registros",
-                provincia, tamanoPagina);
-
-        int offset = 0;
-        int totalProcesados = 0;
-        int iteracion = 0;
-        int maxIteraciones = limiteAbsoluto / tamanoPagina; // Límite de seguridad
-
-        while (iteracion < maxIteraciones) {
-            try {
-                // Crear filtros para esta página
-                ParametrosFiltrosDTO filtrosPagina = filtros.toBuilder()
-                        .limite(tamanoPagina)
-                        .offset(offset)
-                        .build();
-
-                // Ejecutar query
-                List<Map<String, Object>> pagina =
-                        repo.ejecutarQueryConFiltros(nombreQuery, filtrosPagina);
-
-                // Verificar si terminamos
-                if (pagina == null || pagina.isEmpty()) {
-                    log.debug("✅ Paginación completada en iteración {}", iteracion);
-                    break;
-                }
-
-                // Procesar página
-                List<Map<String, Object>> paginaInmutable = crearCopiasInmutables(pagina, provincia);
-                contexto.agregarResultados(paginaInmutable);
-
-                totalProcesados += pagina.size();
-                offset += tamanoPagina;
-                iteracion++;
-
-                log.debug("📄 Página {}: {} registros (total: {})", iteracion, pagina.size(), totalProcesados);
-
-                // Si la página no está llena, es la última
-                if (pagina.size() < tamanoPagina) {
-                    break;
-                }
-
-                // Pausa si la memoria está alta
-                if (esMemoriaAlta()) {
-                    pausarSiNecesario();
-                }
-
-            } catch (Exception e) {
-                log.error("❌ Error en iteración {} de paginación: {}", iteracion, e.getMessage());
-                break;
-            }
-        }
-
-        if (iteracion >= maxIteraciones) {
-            log.error("⚠️ Límite de iteraciones alcanzado ({}) para {}. Posible loop infinito evitado.",
-                    maxIteraciones, provincia);
-        }
+        log.info("📄 Iniciando paginación segura para {}: páginas de {} registros (máximo {})",
+                provincia, tamanoPagina, limiteAbsoluto);
 
-        actualizarContadores(provincia, totalProcesados);
-        log.info("✅ Paginación segura completada para {}: {} registros en {} páginas",
-                provincia, totalProcesados, iteracion);
+        recorrerPaginado(repo, filtros, nombreQuery, provincia, provincia, contexto, tamanoPagina, limiteAbsoluto);
     }
 
     /**
@@ -988,101 +1149,92 @@ private void ejecutarQueryConsolidableCrudo(
                 .offset(null)
                 .build();
 
-        // Buffer para procesar en chunks
-        final int CHUNK_SIZE = 1000;
-        final List<Map<String, Object>> buffer = new ArrayList<>(CHUNK_SIZE);
+        // Streaming en lotes columnares de CHUNK_SIZE filas
+        final int CHUNK_SIZE = InfraccionesRepositoryImpl.TAMANO_LOTE_STREAMING;
         final AtomicInteger totalProcesados = new AtomicInteger(0);
         final AtomicInteger chunksEnviados = new AtomicInteger(0);
 
-        // Callback que se ejecuta por cada registro
-        Consumer<Map<String, Object>> procesarRegistro = registro -> {
-            buffer.add(registro);
-
-            // Cuando el buffer se llena, procesarlo
-            if (buffer.size() >= CHUNK_SIZE) {
-                procesarChunk(buffer, provincia, contexto, totalProcesados, chunksEnviados);
-            }
-        };
-
-        // Ejecutar query con streaming
-        repo.ejecutarQueryConStreaming(nombreQuery, filtrosStreaming, procesarRegistro);
-
-        // Procesar registros restantes en el buffer
-        if (!buffer.isEmpty()) {
-            procesarChunk(buffer, provincia, contexto, totalProcesados, chunksEnviados);
-        }
+        // Fetch size aprendido para la query; el primer chunk aporta el ancho de fila
+        PerfilEjecucion.anotarVariante(provincia, "streaming");
+        int fetchSize = ajustadorLectura.fetchSize(nombreQuery, provincia);
+        repo.ejecutarQueryConStreamingEnLotes(nombreQuery, filtrosStreaming, CHUNK_SIZE, fetchSize,
+                lote -> {
+                    if (chunksEnviados.get() == 0) {
+                        ajustadorLectura.registrarStreaming(nombreQuery, provincia, lote);
+                    }
+                    procesarChunk(lote, nombreQuery, provincia, contexto, totalProcesados, chunksEnviados);
+                });
+        ajustadorLectura.persistir(nombreQuery, provincia);
 
         // Actualizar contador global
-        actualizarContadores(provincia, totalProcesados.get());
+        actualizarContadores(contexto, provincia, totalProcesados.get());
 
-        log.info(" Query consolidable CRUDO completada para {}: {} registros en {} chunks | Memoria: {:.1f}%",
+        log.info(" Query consolidable CRUDO completada para {}: {} registros en {} chunks | Memoria: {}%",
                  provincia,
                  totalProcesados.get(),
                  chunksEnviados.get(),
-                 obtenerPorcentajeMemoriaUsada());
+                 memoriaUsada());
 
-    } catch (Exception e) {
+    } catch (RuntimeException e) {
         log.error(" Error en query consolidable CRUDO para {}: {}", provincia, e.getMessage(), e);
+        throw e;
     }
 }
 
 /**
  * Procesa un chunk de registros y lo envía al contexto.
- * Libera memoria después de procesar.
+ * El lote se entrega con la provincia como columna constante (sin copiar filas).
  *
- * @param buffer Buffer con registros a procesar
+ * @param lote Lote columnar leído del streaming
+ * @param nombreQuery Código de la query
  * @param provincia Nombre de la provincia
  * @param contexto Contexto de procesamiento
  * @param totalProcesados Contador total de registros procesados
  * @param chunksEnviados Contador de chunks enviados
  */
 private void procesarChunk(
-        List<Map<String, Object>> buffer,
+        LoteFilas lote,
+        String nombreQuery,
         String provincia,
         ContextoProcesamiento contexto,
         AtomicInteger totalProcesados,
         AtomicInteger chunksEnviados) {
 
-    // SOLO procesar si el buffer NO está vacío
-    if(!buffer.isEmpty()){
+    // SOLO procesar si el lote NO está vacío
+    if(!lote.isEmpty()){
 
-        // Crear copia inmutable del chunk
-        List<Map<String, Object>> chunkInmutable = crearCopiasInmutables(buffer, provincia);
+        // Reservar el chunk ya leído: si no hay presupuesto, el streaming espera
+        // antes de leer el siguiente
+        long bytesLote = lote.estimarBytes();
+        metricasConsulta.registrarFilas(nombreQuery, provincia, lote.tamano(), bytesLote);
 
-        // Enviar al contexto
-        contexto.agregarResultados(chunkInmutable);
+        long inicioReserva = System.nanoTime();
+        ReservaMemoria reserva = gobernadorMemoria.reservar(idEjecucion(contexto), bytesLote, bytesLote);
+        metricasConsulta.registrarPausaMemoria(nombreQuery, System.nanoTime() - inicioReserva);
+
+        // Enviar al contexto con la provincia fijada a nivel de lote
+        contexto.agregarLote(lote.conConstante(COLUMNA_PROVINCIA, provincia), reserva);
 
         // Actualizar contadores
-        int procesados = buffer.size();
-        totalProcesados.addAndGet(procesados);
+        totalProcesados.addAndGet(lote.tamano());
         chunksEnviados.incrementAndGet();
 
         // Log cada 10 chunks (10,000 registros)
         if (chunksEnviados.get() % 10 == 0) {
-            log.debug("Provincia {}: {} registros procesados en {} chunks | Memoria: {:.1f}%",
+            log.debug("Provincia {}: {} registros procesados en {} chunks | Memoria: {}%",
                       provincia,
                       totalProcesados.get(),
                       chunksEnviados.get(),
-                      obtenerPorcentajeMemoriaUsada());
+                      memoriaUsada());
         }
-
-        // Vaciar buffer para liberar memoria
-        buffer.clear();
     }
 
-    // Pausa si memoria alta
-    if (esMemoriaAlta()) {
-        pausarSiNecesario();
-    }
 }
 
     /**
-     * 🔄 Ejecuta query paginada usando ROW_NUMBER.
-     * CORREGIDO: Actualiza lastId correctamente entre iteraciones.
-     */
-    /**
-     * 🔄 Ejecuta query paginada usando OFFSET.
-     * CORREGIDO: Usa OFFSET en lugar de ROW_NUMBER para consolidadas.
+     * 🔄 Ejecuta query paginada usando keyset.
+     * CORREGIDO: Reemplaza OFFSET (que re-lee todas las filas anteriores en cada
+     * página) por keyset sobre columnas tipadas, y cuenta cada lote una sola vez.
      */
     private void ejecutarQueryPaginada(
             InfraccionesRepositoryImpl repo,
@@ -1091,106 +1243,692 @@ private void procesarChunk(
             String provincia,
             ContextoProcesamiento contexto) {
 
-        String provinciaRepo = repo.getProvincia();
-        int procesados = 0;
-        int iteracion = 0;
-        final int batchSize = 10000;  // ✅ Límite alto para consolidadas
-        int offset = 0;  // ✅ Usar OFFSET en lugar de lastId
+        recorrerProvincia(repo, filtros, nombreQuery, repo.getProvincia(), contexto, 10000);
+    }
 
-        Integer estimacion = obtenerEstimacionProvincia(nombreQuery, provinciaRepo);
+    /**
+     * 🧩 Recorre una provincia completa. Si es grande (COUNT(*) sobre
+     * app.batch.particiones.umbral-filas), el particionado está habilitado y
+     * la query filtra días inclusivos, parte [fechaInicio, fechaFin] en tramos
+     * disjuntos que se leen
+     * en paralelo, cada uno con su cursor keyset y su conexión, y se vuelcan
+     * al mismo contexto. Así la provincia más grande deja de ser un único
+     * bucle secuencial.
+     *
+     * Con lectura consistente, todas las páginas (y todos los tramos) leen el
+     * mismo snapshot: un lector solo usa una transacción REPEATABLE READ; los
+     * tramos importan el snapshot exportado por una conexión coordinadora. Así
+     * las filas insertadas durante la exportación no generan duplicados ni huecos.
+     *
+     * Los lectores adicionales (y la coordinadora) se reservan en el
+     * presupuesto de conexiones de la ejecución, compartido con la ventana del
+     * modo HÍBRIDO; si no alcanzan para dos lectores la provincia se lee entera.
+     *
+     * @param tamanoPagina Registros por página si no hay ajuste aprendido
+     */
+    private void recorrerProvincia(
+            InfraccionesRepositoryImpl repo,
+            ParametrosFiltrosDTO filtros,
+            String nombreQuery,
+            String provincia,
+            ContextoProcesamiento contexto,
+            int tamanoPagina) {
 
-        log.info("🔄 {} - Iniciando paginación OFFSET (estimado: {} registros)",
-                provinciaRepo, estimacion != null ? estimacion : "desconocido");
+        boolean consistente = usarLecturaConsistente(filtros);
+        int lectores = calcularLectoresProvincia(repo, nombreQuery, provincia, filtros, contexto, consistente);
+        List<ParametrosFiltrosDTO> tramos = lectores > 1
+                ? particionarPorFecha(filtros, lectores * 2)
+                : Collections.<ParametrosFiltrosDTO>emptyList();
 
-        while (true) {
-            try {
-                // ✅ Log ANTES
-                log.info("🔹 {} - Iteración {}: OFFSET={}, procesados: {}/{}",
-                        provinciaRepo, iteracion, offset, procesados,
-                        estimacion != null ? estimacion : "?");
-
-                long inicioIteracion = System.currentTimeMillis();
-
-                // ✅ Crear filtros con OFFSET
-                ParametrosFiltrosDTO filtrosLote = filtros.toBuilder()
-                        .limite(batchSize)
-                        .offset(offset)      // ✅ CAMBIO: Usar OFFSET
-                        .lastId(null)        // ✅ CAMBIO: No usar lastId
-                        .lastSerieEquipo(null)
-                        .lastLugar(null)
-                        .lastKeysetConsolidacion(null)
-                        .build();
-
-                // Ejecutar query
-                List<Map<String, Object>> lote = repo.ejecutarQueryConFiltros(nombreQuery, filtrosLote);
-
-                long duracionIteracion = System.currentTimeMillis() - inicioIteracion;
-
-                // ✅ Log DESPUÉS
-                log.info("✅ {} - Iteración {}: Recibidos {} registros en {}ms",
-                        provinciaRepo, iteracion,
-                        lote != null ? lote.size() : 0,
-                        duracionIteracion);
-
-                // Verificar si hay datos
-                if (lote == null || lote.isEmpty()) {
-                    log.info("🏁 {} - Fin de datos en iteración {}", provinciaRepo, iteracion);
-                    break;
-                }
+        if (tramos.size() < 2) {
+            recorrerSinParticionar(repo, filtros, nombreQuery, provincia, contexto, tamanoPagina, consistente);
+            return;
+        }
+
+        // La provincia ya tiene su conexión: se reservan los demás lectores y la coordinadora
+        int coordinadora = consistente ? 1 : 0;
+        PresupuestoConexiones conexiones = contexto.getEjecucion().getConexiones();
+        DataSource dataSource = dataSourceDe(repo);
+        int reservadas = conexiones.reservar(dataSource,
+                Math.min(lectores, tramos.size()) - 1 + coordinadora, tamanoPool(dataSource) - 1);
+        try {
+            lectores = 1 + reservadas - coordinadora;
+            if (lectores < 2) {
+                log.debug("🧩 {} - Sin conexiones libres para tramos, lectura sin particionar", provincia);
+                recorrerSinParticionar(repo, filtros, nombreQuery, provincia, contexto, tamanoPagina, consistente);
+                return;
+            }
+            leerParticionado(repo, filtros, tramos, nombreQuery, provincia, contexto, tamanoPagina, lectores,
+                    consistente);
+        } finally {
+            conexiones.liberar(dataSource, reservadas);
+        }
+    }
+
+    private void recorrerSinParticionar(
+            InfraccionesRepositoryImpl repo,
+            ParametrosFiltrosDTO filtros,
+            String nombreQuery,
+            String provincia,
+            ContextoProcesamiento contexto,
+            int tamanoPagina,
+            boolean consistente) {
+
+        if (consistente) {
+            log.debug("📸 {} - Lectura consistente en una transacción REPEATABLE READ", provincia);
+            repo.ejecutarEnLecturaConsistente(null, atado -> recorrerPaginado(
+                    atado, filtros, nombreQuery, provincia, provincia, contexto, tamanoPagina, Integer.MAX_VALUE));
+        } else {
+            recorrerPaginado(repo, filtros, nombreQuery, provincia, provincia, contexto, tamanoPagina,
+                    Integer.MAX_VALUE);
+        }
+    }
+
+    /**
+     * Lee los tramos con {@code lectores} lectores en paralelo (ver recorrerProvincia).
+     * Con lectura consistente, si no se puede exportar el snapshot la provincia
+     * se lee entera con un único lector REPEATABLE READ: tramos en transacciones
+     * separadas no verían el mismo estado de la base.
+     */
+    private void leerParticionado(
+            InfraccionesRepositoryImpl repo,
+            ParametrosFiltrosDTO filtros,
+            List<ParametrosFiltrosDTO> tramos,
+            String nombreQuery,
+            String provincia,
+            ContextoProcesamiento contexto,
+            int tamanoPagina,
+            int lectores,
+            boolean consistente) {
+
+        SnapshotExportacion snapshot = consistente ? exportarSnapshot(repo) : null;
+        if (consistente && snapshot == null) {
+            recorrerSinParticionar(repo, filtros, nombreQuery, provincia, contexto, tamanoPagina, true);
+            return;
+        }
+
+        PerfilEjecucion.anotarVariante(provincia, "tramos-fecha");
+        log.info("🧩 {} - Lectura particionada: {} tramos de fecha con {} lectores{}", provincia, tramos.size(),
+                lectores, snapshot != null ? " (snapshot " + snapshot.getId() + ")" : "");
+
+        // Más tramos que lectores: el que termina antes toma el siguiente (tramos desparejos)
+        Queue<ParametrosFiltrosDTO> pendientes = new ConcurrentLinkedQueue<>(tramos);
+        AtomicInteger numeroTramo = new AtomicInteger(0);
+        long inicio = System.currentTimeMillis();
+
+        try {
+            List<CompletableFuture<Void>> futures = new ArrayList<>(lectores);
+            for (int i = 0; i < lectores; i++) {
+                futures.add(CompletableFuture.runAsync(PerfilEjecucion.propagar(() -> {
+                    if (snapshot == null) {
+                        leerTramos(repo, pendientes, numeroTramo, nombreQuery, provincia, contexto, tamanoPagina);
+                        return;
+                    }
+                    // Una conexión por lector, con el snapshot importado, para todos sus tramos
+                    repo.ejecutarEnLecturaConsistente(snapshot.getId(), atado -> {
+                        leerTramos(atado, pendientes, numeroTramo, nombreQuery, provincia, contexto, tamanoPagina);
+                        return null;
+                    });
+                }), particionesExecutor));
+            }
+
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+
+        } finally {
+            // Recién acá: el snapshot solo es importable mientras la coordinadora siga abierta
+            if (snapshot != null) {
+                snapshot.close();
+            }
+        }
+
+        log.info("🧩 {} - Lectura particionada completada en {} ms", provincia, System.currentTimeMillis() - inicio);
+    }
+
+    /**
+     * Toma tramos pendientes hasta que no quede ninguno.
+     */
+    private void leerTramos(
+            InfraccionesRepositoryImpl repo,
+            Queue<ParametrosFiltrosDTO> pendientes,
+            AtomicInteger numeroTramo,
+            String nombreQuery,
+            String provincia,
+            ContextoProcesamiento contexto,
+            int tamanoPagina) {
+
+        ParametrosFiltrosDTO tramo;
+        while ((tramo = pendientes.poll()) != null) {
+            String claveCursor = provincia + "#" + numeroTramo.incrementAndGet();
+            recorrerPaginado(repo, tramo, nombreQuery, provincia, claveCursor, contexto,
+                    tamanoPagina, Integer.MAX_VALUE);
+        }
+    }
+
+    private boolean usarLecturaConsistente(ParametrosFiltrosDTO filtros) {
+        return filtros.getLecturaConsistente() != null
+                ? filtros.getLecturaConsistente()
+                : lecturaConsistentePorDefecto;
+    }
+
+    /**
+     * Exporta el snapshot de la provincia.
+     *
+     * @return Snapshot exportado, o null si no se puede (ej: la base no es
+     *         PostgreSQL); en ese caso la provincia no se particiona
+     */
+    private SnapshotExportacion exportarSnapshot(InfraccionesRepositoryImpl repo) {
+        try {
+            return repo.exportarSnapshot();
+        } catch (RuntimeException e) {
+            log.warn("⚠️ {} - Sin snapshot compartido, lectura consistente con un único lector: {}",
+                    repo.getProvincia(), e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Lectores simultáneos para la provincia (1 = sin particionar).
+     * Se deja una conexión del pool libre para conteos y otras ejecuciones, y
+     * otra para la coordinadora del snapshot si la lectura es consistente.
+     */
+    private int calcularLectoresProvincia(
+            InfraccionesRepositoryImpl repo,
+            String nombreQuery,
+            String provincia,
+            ParametrosFiltrosDTO filtros,
+            ContextoProcesamiento contexto,
+            boolean consistente) {
+
+        if (!particionesHabilitadas || maxParticionesPorProvincia < 2 || contexto.getEjecucion() == null) {
+            return 1;
+        }
+        if (contexto.getEjecucion().getConteoProvincia(provincia) < umbralFilasParticion) {
+            return 1;
+        }
+        if (filtros.getFechaEspecifica() != null || filtros.getFechaInicio() == null || filtros.getFechaFin() == null) {
+            return 1;
+        }
+
+        String sql = queryRegistryService.buscarQuery(nombreQuery)
+                .map(QueryStorage::getSqlQuery)
+                .orElse(null);
+        if (sql == null) {
+            return 1;
+        }
+
+        // Con GROUP BY/DISTINCT/UNION/ventanas un mismo grupo puede tener filas en
+        // dos tramos y saldría dos veces (o con agregados parciales)
+        if (SqlUtils.agregaFilas(SqlUtils.limpiarParaSubconsulta(sql))) {
+            log.debug("🧩 {} - Query '{}' agrega filas: sin tramos de fecha", provincia, nombreQuery);
+            return 1;
+        }
+
+        // Solo si la query filtra :fechaInicio/:fechaFin como días inclusivos
+        // (DATE(x) >= :fechaInicio::DATE ... <= :fechaFin::DATE): con timestamps
+        // o fin exclusivo los bordes de los tramos perderían o repetirían filas
+        if (!SqlUtils.filtraDiasInclusivos(sql, "fechaInicio", "fechaFin")) {
+            log.debug("🧩 {} - Query '{}' no filtra días inclusivos: sin tramos de fecha", provincia, nombreQuery);
+            return 1;
+        }
+
+        int lectores = maxParticionesPorProvincia;
+        int reservadas = consistente ? 2 : 1;
+        lectores = Math.min(lectores, tamanoPool(dataSourceDe(repo)) - reservadas);
+        return Math.max(lectores, 1);
+    }
+
+    /**
+     * Parte el rango de fechas (días inclusivos, como los filtra la query) en
+     * hasta {@code maxTramos} tramos disjuntos y contiguos.
+     *
+     * @return Filtros de cada tramo (vacío si el rango tiene un solo día o está invertido)
+     */
+    private static List<ParametrosFiltrosDTO> particionarPorFecha(ParametrosFiltrosDTO filtros, int maxTramos) {
+        // java.sql.Date no soporta toInstant(): pasar siempre por java.sql.Date.toLocalDate()
+        LocalDate desde = new java.sql.Date(filtros.getFechaInicio().getTime()).toLocalDate();
+        LocalDate hasta = new java.sql.Date(filtros.getFechaFin().getTime()).toLocalDate();
+
+        long dias = ChronoUnit.DAYS.between(desde, hasta) + 1;
+        if (dias < 2) {
+            return Collections.emptyList();
+        }
+
+        int cantidad = (int) Math.min(maxTramos, dias);
+        List<ParametrosFiltrosDTO> tramos = new ArrayList<>(cantidad);
+        for (int i = 0; i < cantidad; i++) {
+            LocalDate inicioTramo = desde.plusDays(dias * i / cantidad);
+            LocalDate finTramo = desde.plusDays(dias * (i + 1) / cantidad - 1);
+            tramos.add(filtros.toBuilder()
+                    .fechaInicio(java.sql.Date.valueOf(inicioTramo))
+                    .fechaFin(java.sql.Date.valueOf(finTramo))
+                    .build());
+        }
+        return tramos;
+    }
 
-                // ✅ CAMBIO: Ya no necesitas extraer lastId
+    /**
+     * Recorre todas las páginas de una query en una provincia: con keyset si la
+     * query lo admite (ver KeysetProcessor), si no —o si app.batch.cursor-servidor
+     * está activo— con un cursor de servidor, que respeta el ORDER BY de la query.
+     *
+     * El cursor de servidor necesita una conexión fija en transacción; si el
+     * repositorio no lo es, el recorrido se envuelve en una lectura consistente.
+     *
+     * @param repo Repositorio de la provincia
+     * @param filtros Filtros aplicados
+     * @param nombreQuery Código de la query
+     * @param provincia Nombre de la provincia
+     * @param claveCursor Clave del recorrido en la ejecución (provincia, o provincia#n por tramo)
+     * @param contexto Contexto de procesamiento
+     * @param tamanoPagina Registros por página si no hay ajuste aprendido
+     * @param maxRegistros Tope de registros a leer (límite de seguridad)
+     * @return Total de registros procesados
+     */
+    private int recorrerPaginado(
+            InfraccionesRepositoryImpl repo,
+            ParametrosFiltrosDTO filtros,
+            String nombreQuery,
+            String provincia,
+            String claveCursor,
+            ContextoProcesamiento contexto,
+            int tamanoPagina,
+            int maxRegistros) {
+
+        if (!cursorServidorHabilitado) {
+            CursorKeyset cursor = keysetProcessor.abrirCursor(repo, nombreQuery, filtros, tamanoPagina);
+            if (cursor != null) {
+                return recorrerConKeyset(repo, cursor, filtros, nombreQuery, provincia, claveCursor, contexto,
+                        tamanoPagina, maxRegistros);
+            }
+        }
+        if (repo.isConexionFija()) {
+            return recorrerConCursorServidor(repo, filtros, nombreQuery, provincia, claveCursor, contexto,
+                    tamanoPagina, maxRegistros);
+        }
+        return repo.ejecutarEnLecturaConsistente(null, atado -> recorrerConCursorServidor(
+                atado, filtros, nombreQuery, provincia, claveCursor, contexto, tamanoPagina, maxRegistros));
+    }
 
-                // Procesar resultados (sin incluir row_id en resultados finales)
-                List<Map<String, Object>> loteInmutable = crearCopiasInmutablesLimpio(lote, provinciaRepo);
-                contexto.agregarResultados(loteInmutable);
+    /**
+     * 🧭 Recorre una query con un único cursor de servidor (PreparedStatement
+     * con fetch size en la conexión fija, leído por pgjdbc como portal): la
+     * query se planifica y ejecuta una sola vez, así el costo de cada página no
+     * depende de cuántas se leyeron antes.
+     *
+     * Sin catch: un error de lectura (SQL, OOM) corta la exportación entera;
+     * el cursor se cierra igual en el finally.
+     *
+     * @param repo Repositorio atado a una conexión en transacción
+     * @see #recorrerPaginado
+     */
+    private int recorrerConCursorServidor(
+            InfraccionesRepositoryImpl repo,
+            ParametrosFiltrosDTO filtros,
+            String nombreQuery,
+            String provincia,
+            String claveCursor,
+            ContextoProcesamiento contexto,
+            int tamanoPagina,
+            int maxRegistros) {
 
-                actualizarContadores(provinciaRepo,lote.size());
+        int procesados = 0;
+        PerfilEjecucion.anotarVariante(provincia, "cursor-servidor");
 
-                // Actualizar contadores
-                procesados += lote.size();
-                offset += batchSize;  // ✅ CAMBIO: Incrementar offset en lugar de lastId
-                iteracion++;
+        log.info("🧭 {} - Iniciando lectura con cursor de servidor", claveCursor);
 
-                // ✅ Log de progreso
-                if (estimacion != null && estimacion > 0) {
-                    double progreso = (double) procesados / estimacion * 100;
-                    log.info("📊 {} - Progreso: {}/{} registros ({:.1f}%) en {} iteraciones",
-                            provinciaRepo, procesados, estimacion, progreso, iteracion);
+        CursorServidor cursor = repo.abrirCursor(nombreQuery, filtros, tamanoPagina);
+        try {
+            procesados = leerPaginas(new FuentePaginas() {
+                @Override
+                public LoteFilas leer(int filas, int fetchSize) {
+                    cursor.setTamanoPagina(filas);
+                    cursor.setFetchSize(fetchSize);
+                    return repo.leerCursor(cursor);
                 }
 
-                actualizarContadores(provinciaRepo,lote.size());
+                @Override
+                public boolean isAgotada() {
+                    return cursor.isAgotado();
+                }
 
-                // ✅ Condición de salida: lote incompleto
-                if (lote.size() < batchSize) {
-                    log.info("🏁 {} - Última página (lote incompleto: {})",
-                            provinciaRepo, lote.size());
-                    break;
+                @Override
+                public int getPaginasLeidas() {
+                    return cursor.getPaginasLeidas();
                 }
+            }, nombreQuery, provincia, claveCursor, contexto, tamanoPagina, maxRegistros);
 
-                // Límite de seguridad
-                if (iteracion >= 100) {
-                    log.warn("⚠️ {} - Límite de iteraciones alcanzado", provinciaRepo);
-                    break;
+            if (procesados >= maxRegistros && !cursor.isAgotado()) {
+                log.error("⚠️ Límite de {} registros alcanzado para {}", maxRegistros, provincia);
+            }
+
+            log.info("✅ {} - Cursor completado: {} registros en {} páginas | Memoria: {}%",
+                    claveCursor, procesados, cursor.getPaginasLeidas(), memoriaUsada());
+
+            ajustadorLectura.persistir(nombreQuery, provincia);
+
+        } finally {
+            repo.cerrarCursor(cursor);
+        }
+
+        actualizarContadores(contexto, provincia, procesados);
+        return procesados;
+    }
+
+    /**
+     * 🔑 Recorre todas las páginas de una query en una provincia con KeysetProcessor.
+     * MEJORADO: El tamaño de página y el fetch size salen de AjustadorLectura
+     * (aprendidos por query y provincia); tamanoPagina queda como valor inicial.
+     *
+     * @param claveCursor Clave del cursor en la ejecución (provincia, o provincia#n por tramo)
+     * @see #recorrerPaginado
+     */
+    private int recorrerConKeyset(
+            InfraccionesRepositoryImpl repo,
+            CursorKeyset cursor,
+            ParametrosFiltrosDTO filtros,
+            String nombreQuery,
+            String provincia,
+            String claveCursor,
+            ContextoProcesamiento contexto,
+            int tamanoPagina,
+            int maxRegistros) {
+
+        Integer estimacion = obtenerEstimacionProvincia(nombreQuery, provincia);
+        PerfilEjecucion.anotarVariante(provincia, "keyset");
+
+        log.info("🔄 {} - Iniciando paginación KEYSET (estimado: {} registros)",
+                claveCursor, estimacion != null ? estimacion : "desconocido");
+
+        if (contexto.getEjecucion() != null) {
+            contexto.getEjecucion().registrarCursor(claveCursor, cursor);
+        }
+
+        // Sin catch: un error de página (clave nula/repetida, SQL, OOM) corta la
+        // exportación entera en vez de terminar la provincia en silencio
+        int procesados = leerPaginas(new FuentePaginas() {
+            @Override
+            public LoteFilas leer(int filas, int fetchSize) {
+                cursor.setTamanoPagina(filas);
+                cursor.setFetchSize(fetchSize);
+                return keysetProcessor.siguientePagina(repo, cursor, filtros);
+            }
+
+            @Override
+            public boolean isAgotada() {
+                return cursor.isAgotado();
+            }
+
+            @Override
+            public int getPaginasLeidas() {
+                return cursor.getPaginasLeidas();
+            }
+        }, nombreQuery, provincia, claveCursor, contexto, tamanoPagina, maxRegistros);
+
+        if (procesados >= maxRegistros && !cursor.isAgotado()) {
+            log.error("⚠️ Límite de {} registros alcanzado para {}", maxRegistros, provincia);
+        }
+
+        log.info("✅ {} - Paginación completada: {} registros en {} páginas | Memoria: {}%",
+                claveCursor, procesados, cursor.getPaginasLeidas(), memoriaUsada());
+
+        ajustadorLectura.persistir(nombreQuery, provincia);
+
+        actualizarContadores(contexto, provincia, procesados);
+        return procesados;
+    }
+
+    // =============== LECTURA DE PÁGINAS (KEYSET / CURSOR DE SERVIDOR) ===============
+
+    /**
+     * Origen de las páginas de un recorrido.
+     */
+    private interface FuentePaginas {
+
+        /** Lee la siguiente página de hasta {@code filas} filas (null o vacía = fin) */
+        LoteFilas leer(int filas, int fetchSize);
+
+        boolean isAgotada();
+
+        int getPaginasLeidas();
+    }
+
+    /**
+     * Página leída con su reserva de memoria, pendiente de entregar al contexto.
+     */
+    private static final class PaginaLeida {
+        private final LoteFilas lote;
+        private final ReservaMemoria reserva;
+        private final int numero;
+        private final long duracionMs;
+
+        private PaginaLeida(LoteFilas lote, ReservaMemoria reserva, int numero, long duracionMs) {
+            this.lote = lote;
+            this.reserva = reserva;
+            this.numero = numero;
+            this.duracionMs = duracionMs;
+        }
+    }
+
+    /**
+     * Lee páginas de una fuente y las entrega al contexto.
+     *
+     * Con app.batch.prefetch.profundidad > 0 la lectura corre en otro hilo y
+     * se adelanta hasta esa cantidad de páginas: la consulta de la página N+1
+     * viaja a la base mientras la página N se entrega (y, con la cola llena,
+     * se desborda a disco). Cada página adelantada tiene su reserva en el
+     * gobernador, así que el adelanto también queda dentro del presupuesto.
+     *
+     * @return Registros entregados
+     */
+    private int leerPaginas(
+            FuentePaginas fuente,
+            String nombreQuery,
+            String provincia,
+            String claveCursor,
+            ContextoProcesamiento contexto,
+            int tamanoPagina,
+            int maxRegistros) {
+
+        LectorPaginas lector = new LectorPaginas(fuente, nombreQuery, provincia, contexto, tamanoPagina, maxRegistros);
+        if (profundidadPrefetch <= 0) {
+            int procesados = 0;
+            PaginaLeida pagina;
+            while ((pagina = lector.siguiente()) != null) {
+                procesados = entregarPagina(pagina, provincia, claveCursor, contexto, procesados);
+            }
+            return procesados;
+        }
+
+        BlockingQueue<PaginaLeida> listas = new ArrayBlockingQueue<>(profundidadPrefetch);
+        AtomicBoolean detener = new AtomicBoolean(false);
+        AtomicReference<Throwable> errorLector = new AtomicReference<>();
+        CountDownLatch terminado = new CountDownLatch(1);
+
+        prefetchExecutor.execute(PerfilEjecucion.propagar(() -> {
+            try {
+                PaginaLeida pagina;
+                while (!detener.get() && (pagina = lector.siguiente()) != null) {
+                    if (detener.get()) {
+                        pagina.reserva.close();
+                        break;
+                    }
+                    listas.put(pagina);
                 }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Throwable t) {
+                errorLector.set(t);
+            } finally {
+                terminado.countDown();
+            }
+        }));
 
-                if (esMemoriaAlta()) {
-                    pausarSiNecesario();
+        int procesados = 0;
+        boolean completo = false;
+        try {
+            while (true) {
+                PaginaLeida pagina = listas.poll(100, TimeUnit.MILLISECONDS);
+                if (pagina != null) {
+                    procesados = entregarPagina(pagina, provincia, claveCursor, contexto, procesados);
+                } else if (terminado.getCount() == 0 && listas.isEmpty()) {
+                    break;
                 }
+            }
+            completo = true;
 
-            } catch (Exception e) {
-                log.error("❌ {} - Error en iteración {}: {}",
-                        provinciaRepo, iteracion, e.getMessage(), e);
-                break;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrumpido esperando páginas de " + claveCursor, e);
+
+        } finally {
+            if (!completo) {
+                detener.set(true);
+            }
+            // La conexión (fija o del pool) no se suelta con una lectura en curso
+            esperarLector(terminado, listas);
+        }
+
+        Throwable error = errorLector.get();
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        }
+        if (error instanceof Error) {
+            throw (Error) error;
+        }
+        if (error != null) {
+            throw new RuntimeException("Error leyendo páginas de " + claveCursor, error);
+        }
+        return procesados;
+    }
+
+    /**
+     * Espera a que termine el hilo lector, liberando las páginas que no se
+     * llegaron a entregar (así un put bloqueado en la cola llena avanza).
+     */
+    private static void esperarLector(CountDownLatch terminado, BlockingQueue<PaginaLeida> listas) {
+        boolean interrumpido = false;
+        while (true) {
+            descartarPaginas(listas);
+            try {
+                if (terminado.await(100, TimeUnit.MILLISECONDS)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                interrumpido = true;
             }
         }
+        descartarPaginas(listas);
+
+        if (interrumpido) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void descartarPaginas(BlockingQueue<PaginaLeida> listas) {
+        PaginaLeida sobrante;
+        while ((sobrante = listas.poll()) != null) {
+            sobrante.reserva.close();
+        }
+    }
+
+    /**
+     * Entrega la página al contexto (sin row_id y con la provincia del repositorio).
+     *
+     * @return Total entregado incluyendo esta página
+     */
+    private int entregarPagina(
+            PaginaLeida pagina,
+            String provincia,
+            String claveCursor,
+            ContextoProcesamiento contexto,
+            int procesados) {
 
-        log.info("✅ {} - Paginación completada: {} registros en {} iteraciones | Memoria: {:.1f}%",
-                provinciaRepo, procesados, iteracion, obtenerPorcentajeMemoriaUsada());
+        int total = procesados + pagina.lote.tamano();
+        contexto.agregarLote(pagina.lote.conConstante(COLUMNA_PROVINCIA, provincia, COLUMNA_ROW_ID), pagina.reserva);
 
-        actualizarContadores(provinciaRepo, procesados);
+        log.info("✅ {} - Página {}: {} registros en {}ms (total: {})",
+                claveCursor, pagina.numero, pagina.lote.tamano(), pagina.duracionMs, total);
+        return total;
     }
 
+    /**
+     * Lectura de páginas de una fuente: reserva memoria antes de cada página
+     * (sin presupuesto la página se achica), toma página y fetch size del
+     * ajustador y le informa lo observado. Se usa desde un solo hilo.
+     */
+    private final class LectorPaginas {
+
+        private final FuentePaginas fuente;
+        private final String nombreQuery;
+        private final String provincia;
+        private final ContextoProcesamiento contexto;
+        private final int tamanoPagina;
+        private final int maxRegistros;
+
+        private int columnas = 0;
+        private int leidos = 0;
+
+        private LectorPaginas(FuentePaginas fuente, String nombreQuery, String provincia,
+                              ContextoProcesamiento contexto, int tamanoPagina, int maxRegistros) {
+            this.fuente = fuente;
+            this.nombreQuery = nombreQuery;
+            this.provincia = provincia;
+            this.contexto = contexto;
+            this.tamanoPagina = tamanoPagina;
+            this.maxRegistros = maxRegistros;
+        }
+
+        /**
+         * @return Siguiente página, o null si la fuente se agotó o se alcanzó el tope
+         */
+        private PaginaLeida siguiente() {
+            if (fuente.isAgotada() || leidos >= maxRegistros) {
+                return null;
+            }
+
+            int paginaDeseada = ajustadorLectura.tamanoPagina(nombreQuery, provincia, tamanoPagina);
+            int fetchSize = ajustadorLectura.fetchSize(nombreQuery, provincia);
 
+            long bytesFila = GobernadorMemoria.bytesPorFila(columnas);
+            long inicioReserva = System.nanoTime();
+            ReservaMemoria reserva = gobernadorMemoria.reservar(idEjecucion(contexto),
+                    bytesFila * paginaDeseada, bytesFila * Math.min(TAMANO_PAGINA_MINIMO, paginaDeseada));
+            metricasConsulta.registrarPausaMemoria(nombreQuery, System.nanoTime() - inicioReserva);
+            int filas = Math.min(GobernadorMemoria.filasPara(reserva, columnas), maxRegistros - leidos);
+
+            long inicioPagina = System.currentTimeMillis();
+            EventosJfr.Tramo tramo = EventosJfr.pagina(nombreQuery, provincia);
+            LoteFilas pagina;
+            try {
+                pagina = fuente.leer(filas, fetchSize);
+            } catch (RuntimeException | Error e) {
+                tramo.close();
+                reserva.close();
+                throw e;
+            }
+            long duracionPagina = System.currentTimeMillis() - inicioPagina;
+
+            if (pagina == null || pagina.isEmpty()) {
+                tramo.close();
+                reserva.close();
+                return null;
+            }
+
+            columnas = pagina.getEsquema().cantidadColumnas();
+            long bytesPagina = pagina.estimarBytes();
+            tramo.filas(pagina.tamano()).bytes(bytesPagina).close();
+            reserva.ajustar(bytesPagina);
+            leidos += pagina.tamano();
+            metricasConsulta.registrarPagina(nombreQuery, provincia, pagina.tamano(), bytesPagina, duracionPagina);
+
+            // La última página (incompleta) no representa la latencia por fila
+            if (!fuente.isAgotada() || fuente.getPaginasLeidas() == 1) {
+                ajustadorLectura.registrarPagina(nombreQuery, provincia, pagina, duracionPagina);
+            }
+
+            return new PaginaLeida(pagina, reserva, fuente.getPaginasLeidas(), duracionPagina);
+        }
+    }
 
     /**
      * Convierte un Object a Integer de forma segura.
@@ -1209,35 +1947,6 @@ private void procesarChunk(
         }
     }
 
-    /**
-     * Crea copias inmutables SIN incluir row_id (campo técnico).
-     *
-     * @param registros Lista de registros
-     * @param provincia Nombre de la provincia
-     * @return Lista de copias limpias
-     */
-    private List<Map<String, Object>> crearCopiasInmutablesLimpio(
-            List<Map<String, Object>> registros,
-            String provincia) {
-
-        return registros.stream()
-                .map(registro -> {
-                    Map<String, Object> copia = new HashMap<>();
-
-                    // Copiar todos los campos EXCEPTO row_id
-                    registro.entrySet().stream()
-                            .filter(e -> !"row_id".equals(e.getKey()))  // ✅ Excluir row_id
-                            .filter(e -> !"provincia".equals(e.getKey()))
-                            .forEach(e -> copia.put(e.getKey(), e.getValue()));
-
-                    // Agregar provincia
-                    copia.put("provincia", provincia);
-
-                    return copia;
-                })
-                .collect(Collectors.toList());
-    }
-
     /**
      * Obtiene estimación de registros para una provincia.
      */
@@ -1286,233 +1995,62 @@ private void procesarChunk(
     }
 
 
-    private List<Map<String, Object>> crearCopiasInmutables(List<Map<String, Object>> registros, String provincia) {
-        return registros.stream()
-                .map(registro -> {
-                    Map<String, Object> copia = new HashMap<>();
-                    registro.entrySet().stream()
-                            .filter(e -> !"provincia".equals(e.getKey()))
-                            .forEach(e -> copia.put(e.getKey(), e.getValue()));
-                    copia.put("provincia", provincia);
-                    return copia;
-                })
-                .collect(Collectors.toList());
-    }
-
-    private void actualizarContadores(String provincia, int cantidad) {
-        // ✅ SUMAR al contador de la provincia (no reemplazar)
-        contadoresPorProvincia.merge(provincia, cantidad, Integer::sum);
+    private void actualizarContadores(ContextoProcesamiento contexto, String provincia, int cantidad) {
+        EjecucionBatch ejecucion = contexto.getEjecucion();
+        if (ejecucion == null) {
+            return;
+        }
 
-        // ✅ SUMAR al contador global
-        totalRegistrosGlobales.addAndGet(cantidad);
+        // ✅ SUMAR al contador de la provincia y al total de ESTA ejecución
+        int totalProvincia = ejecucion.registrarProcesados(provincia, cantidad);
 
-        log.debug("📊 Contadores actualizados - {}: +{} → Total provincia: {}, Total global: {}",
+        log.debug("📊 [{}] Contadores actualizados - {}: +{} → Total provincia: {}, Total ejecución: {}",
+                ejecucion.getId(),
                 provincia,
                 cantidad,
-                contadoresPorProvincia.get(provincia),
-                totalRegistrosGlobales.get());
+                totalProvincia,
+                ejecucion.getTotalProcesados());
     }
 
-    /**
-     * MÉTODO CORREGIDO: Guarda lastKey detectando el tipo correcto
-     *
-     * PROBLEMA ANTERIOR:
-     * - Asumía que lastKey[0] siempre era Integer
-     * - Queries de consolidación NO tienen campo 'id'
-     *
-     * SOLUCIÓN:
-     * - Guardar los valores tal como vienen
-     * - NO asumir tipos en guardarLastKey
-     * - Validar tipos en crearFiltrosParaLoteSiguiente
-     */
-    private void guardarLastKey(List<Map<String, Object>> lote, String provincia) {
-        if (lote == null || lote.isEmpty()) {
+    private void logHeartbeat(EjecucionBatch ejecucion) {
+        if (ejecucion == null || !ejecucion.debeEmitirHeartbeat(HEARTBEAT_INTERVAL_MS)) {
             return;
         }
 
-        try {
-            Map<String, Object> ultimo = lote.get(lote.size() - 1);
-
-            // CASO 1: Query estándar con campo 'id'
-            if (ultimo.containsKey("id") && ultimo.get("id") != null) {
-                Object id = ultimo.get("id");
-
-                lastKeyPerProvince.put(provincia, new Object[] {
-                        id,
-                        ultimo.get("serie_equipo"),
-                        ultimo.get("lugar")
-                });
-
-                log.debug("🔑 Keyset estándar guardado para {}: id={} (tipo: {})",
-                        provincia, id, id.getClass().getSimpleName());
-            }
-            // CASO 2: Query de consolidación SIN campo 'id'
-            else {
-                // Tomar los primeros 3 campos disponibles (sin asumir tipos)
-                List<Object> keyValues = new ArrayList<>();
-                int count = 0;
-
-                for (Map.Entry<String, Object> entry : ultimo.entrySet()) {
-                    if (entry.getValue() != null && count < 3) {
-                        keyValues.add(entry.getValue());
-                        count++;
-                    }
-                }
-
-                if (!keyValues.isEmpty()) {
-                    lastKeyPerProvince.put(provincia, keyValues.toArray());
-
-                    log.debug("🔑 Keyset consolidación guardado para {}: {} campos (tipos: {})",
-                            provincia,
-                            keyValues.size(),
-                            keyValues.stream()
-                                    .map(v -> v.getClass().getSimpleName())
-                                    .collect(Collectors.joining(", ")));
-                }
-            }
-        } catch (Exception e) {
-            log.warn("⚠️ Error guardando lastKey para {}: {}", provincia, e.getMessage());
-        }
-    }
-
-   private void logHeartbeat(int totalRepositorios) {
-    long ahora = System.currentTimeMillis();
-    long ultimo = ultimoHeartbeat.get();
-
-    if (ahora - ultimo > HEARTBEAT_INTERVAL_MS) {
-        // Actualizar sin condición de carrera
-        ultimoHeartbeat.set(ahora);
-        log.info("Heartbeat - {}s | {} registros | Memoria: {:.1f}%",
-                (ahora - tiempoInicioGlobal) / 1000,
-                totalRegistrosGlobales.get(),
-                obtenerPorcentajeMemoriaUsada());
+        // compareAndSet en EjecucionBatch: solo un hilo emite el heartbeat
+        log.info("[{}] Heartbeat - {}s | {} registros | Memoria: {}%",
+                ejecucion.getId(),
+                ejecucion.getDuracionMs() / 1000,
+                ejecucion.getTotalProcesados(),
+                memoriaUsada());
     }
-}
 
     private double obtenerPorcentajeMemoriaUsada() {
         Runtime runtime = Runtime.getRuntime();
         return (double) (runtime.totalMemory() - runtime.freeMemory()) / runtime.maxMemory() * 100;
     }
 
-    private boolean esMemoriaCritica() {
-        Runtime runtime = Runtime.getRuntime();
-        return ((double) (runtime.totalMemory() - runtime.freeMemory())
-                / runtime.maxMemory()) > memoryCriticalThreshold;
-    }
-
-    private boolean esMemoriaAlta() {
-        Runtime runtime = Runtime.getRuntime();
-        return ((double) (runtime.totalMemory() - runtime.freeMemory()) / runtime.maxMemory()) > 0.70;
-    }
-
-    private void pausarSiNecesario() {
-        if (esMemoriaAlta()) {
-            try {
-                Thread.sleep(50);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
-        }
+    /**
+     * Porcentaje de heap usado con un decimal, para los logs.
+     */
+    private String memoriaUsada() {
+        return String.format("%.1f", obtenerPorcentajeMemoriaUsada());
     }
 
-    private int calcularTamanoLoteOptimo(ParametrosFiltrosDTO filtros) {
+    /**
+     * Tamaño de página pedido; lo que se lee efectivamente depende de la
+     * reserva que otorgue el gobernador de memoria.
+     */
+    private int calcularTamanoLoteBase(ParametrosFiltrosDTO filtros) {
         int batchSizeBase = filtros.getLimiteEfectivo();
         if (batchSizeBase < 1000) {
             batchSizeBase = defaultBatchSize;
         }
-
-        Runtime runtime = Runtime.getRuntime();
-        long memoriaLibre = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
-        double porcentajeLibre = (double) memoriaLibre / runtime.maxMemory();
-
-        if (porcentajeLibre < 0.20) {
-            return Math.max(1000, batchSizeBase / 4);
-        } else if (porcentajeLibre < 0.30) {
-            return Math.max(2000, batchSizeBase / 2);
-        }
         return Math.min(batchSizeBase, 10000);
     }
 
-    /**
-     * MÉTODO CORREGIDO: crearFiltrosParaLote
-     *
-     * CAMBIOS:
-     * 1. Primera iteración YA usa límite razonable (no Integer.MAX_VALUE)
-     * 2. Keyset se activa desde la SEGUNDA iteración
-     * 3. NUNCA usa offset (solo keyset)
-     */
-    private ParametrosFiltrosDTO crearFiltrosParaLote(
-            ParametrosFiltrosDTO filtrosOriginales,
-            int batchSize,
-            int offset,
-            String provincia) {
-
-        // PRIMERA ITERACIÓN: offset=0, sin keyset aún
-        if (offset == 0 || !lastKeyPerProvince.containsKey(provincia)) {
-            log.debug("🔹 Primera iteración para {}: limite={}, keyset=INACTIVO", provincia, batchSize);
-
-            return filtrosOriginales.toBuilder()
-                    .limite(batchSize)  // CRÍTICO: Usar límite razonable
-                    .offset(null)       // NUNCA usar offset
-                    .lastId(null)
-                    .lastSerieEquipo(null)
-                    .lastLugar(null)
-                    .lastKeysetConsolidacion(null)
-                    .build();
-        }
-
-        // ITERACIONES SIGUIENTES: usar keyset
-        Object[] lastKey = lastKeyPerProvince.get(provincia);
-
-        // Detectar tipo de keyset
-        if (esKeysetEstandar(lastKey)) {
-            // Keyset estándar (id, serie_equipo, lugar)
-            log.debug("🔑 Keyset estándar para {}: id={}", provincia, lastKey[0]);
-
-            return filtrosOriginales.toBuilder()
-                    .limite(batchSize)
-                    .offset(null)  // NUNCA usar offset con keyset
-                    .lastId((Integer) lastKey[0])
-                    .lastSerieEquipo(lastKey.length > 1 ? (String) lastKey[1] : null)
-                    .lastLugar(lastKey.length > 2 ? (String) lastKey[2] : null)
-                    .build();
-
-        } else {
-            // Keyset consolidación genérico
-            Map<String, Object> keysetMap = construirKeysetMap(lastKey);
-
-            log.debug("🔑 Keyset consolidación para {}: {} campos", provincia, keysetMap.size());
-
-            return filtrosOriginales.toBuilder()
-                    .limite(batchSize)
-                    .offset(null)
-                    .lastKeysetConsolidacion(keysetMap)
-                    .build();
-        }
-    }
-
-    /**
-     * Detecta si es keyset estándar (con id numérico)
-     */
-    private boolean esKeysetEstandar(Object[] lastKey) {
-        return lastKey != null
-                && lastKey.length >= 1
-                && lastKey[0] instanceof Integer;
-    }
-
-    /**
-     * Construye mapa de keyset para queries de consolidación
-     */
-    private Map<String, Object> construirKeysetMap(Object[] lastKey) {
-        Map<String, Object> keysetMap = new HashMap<>();
-
-        for (int i = 0; i < Math.min(lastKey.length, 3); i++) {
-            if (lastKey[i] != null) {
-                keysetMap.put("campo_" + i, lastKey[i]);
-            }
-        }
-
-        return keysetMap;
+    private static String idEjecucion(ContextoProcesamiento contexto) {
+        return contexto.getEjecucion() != null ? contexto.getEjecucion().getId() : null;
     }
 
 }
\ No newline at end of file
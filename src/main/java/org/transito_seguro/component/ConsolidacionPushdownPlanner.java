@@ -0,0 +1,201 @@
+package org.transito_seguro.component;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.transito_seguro.dto.ParametrosFiltrosDTO;
+import org.transito_seguro.enums.TipoDatoKeyset;
+import org.transito_seguro.model.consolidacion.agregacion.PlanPushdown;
+import org.transito_seguro.model.consolidacion.analisis.AnalisisConsolidacion;
+import org.transito_seguro.repository.impl.InfraccionesRepositoryImpl;
+import org.transito_seguro.utils.SqlUtils;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Planificador de consolidación empujada a la base de datos.
+ *
+ * Envuelve la query registrada como subconsulta y la agrega en SQL:
+ * <pre>
+ * SELECT "g1", "g2", SUM("n1") AS "n1", ..., COUNT(*) AS consolidacion_filas
+ * FROM ( query sin ORDER BY/LIMIT/OFFSET ) AS consolidacion_src
+ * GROUP BY "g1", "g2"
+ * </pre>
+ *
+ * Al trabajar sobre la subconsulta funciona también con queries que ya tienen
+ * GROUP BY propio (a diferencia de QueryAnalisisService.reescribirConAgregacionAutomatica,
+ * que reemplaza el SELECT con expresiones regulares).
+ *
+ * La provincia no se agrupa en SQL: cada base es una provincia, por lo que se
+ * agrega como constante a cada parcial antes de fusionarlo.
+ */
+@Slf4j
+@Component
+public class ConsolidacionPushdownPlanner {
+
+    private static final String ALIAS_SUBCONSULTA = "consolidacion_src";
+
+    public static final String COLUMNA_CONTEO = "consolidacion_filas";
+
+    /** Campos que se completan en Java con la provincia del repositorio */
+    private static final Set<String> CAMPOS_PROVINCIA = new HashSet<>(Arrays.asList(
+            "provincia", "provincia_origen"
+    ));
+
+    // =============== API PÚBLICA ===============
+
+    /**
+     * @return true si el análisis identifica campos de agrupación y numéricos
+     */
+    public boolean esCandidata(AnalisisConsolidacion analisis) {
+        return analisis != null
+                && analisis.isEsConsolidable()
+                && analisis.getCamposAgrupacion() != null && !analisis.getCamposAgrupacion().isEmpty()
+                && analisis.getCamposNumericos() != null && !analisis.getCamposNumericos().isEmpty();
+    }
+
+    /**
+     * Obtiene las columnas del resultado de la query (label → java.sql.Types)
+     * ejecutándola con LIMIT 0 en un repositorio de referencia.
+     */
+    public Map<String, Integer> obtenerColumnas(
+            InfraccionesRepositoryImpl repo,
+            String nombreQuery,
+            ParametrosFiltrosDTO filtros) {
+
+        String sqlBase = SqlUtils.limpiarParaSubconsulta(repo.obtenerSqlQuery(nombreQuery));
+        return repo.obtenerColumnasResultado(envolver(sqlBase) + "\nLIMIT 0", filtros);
+    }
+
+    /**
+     * Primeras {@code filas} filas crudas de la query en un repositorio de
+     * referencia, para detectar los campos numéricos con la misma regla que
+     * la consolidación en Java (nombre + valores de una muestra).
+     */
+    public List<Map<String, Object>> obtenerMuestra(
+            InfraccionesRepositoryImpl repo,
+            String nombreQuery,
+            ParametrosFiltrosDTO filtros,
+            int filas) {
+
+        String sqlBase = SqlUtils.limpiarParaSubconsulta(repo.obtenerSqlQuery(nombreQuery));
+        return repo.ejecutarSQLConFiltros(envolver(sqlBase) + "\nLIMIT " + Math.max(filas, 1), filtros,
+                Collections.<String, Object>emptyMap());
+    }
+
+    /**
+     * @return true si la columna puede sumarse en SQL
+     */
+    public boolean esColumnaNumerica(Integer tipoJdbc) {
+        if (tipoJdbc == null) {
+            return false;
+        }
+        TipoDatoKeyset tipo = TipoDatoKeyset.desdeTipoJdbc(tipoJdbc);
+        return tipo == TipoDatoKeyset.INTEGER || tipo == TipoDatoKeyset.BIGINT || tipo == TipoDatoKeyset.NUMERIC;
+    }
+
+    /**
+     * Construye el plan de consolidación en SQL.
+     *
+     * @param repo Repositorio de referencia (para obtener el SQL registrado)
+     * @param nombreQuery Código de la query
+     * @param camposAgrupacion Campos de agrupación del resultado
+     * @param camposNumericos Campos numéricos a sumar
+     * @param columnas Columnas del resultado (label → java.sql.Types)
+     * @return Plan o null si algún campo no existe en el resultado
+     */
+    public PlanPushdown planificar(
+            InfraccionesRepositoryImpl repo,
+            String nombreQuery,
+            List<String> camposAgrupacion,
+            List<String> camposNumericos,
+            Map<String, Integer> columnas) {
+
+        List<String> agrupacionSql = camposAgrupacion.stream()
+                .filter(campo -> !CAMPOS_PROVINCIA.contains(campo))
+                .collect(Collectors.toList());
+
+        List<String> numericos = camposNumericos.stream()
+                .filter(campo -> !camposAgrupacion.contains(campo))
+                .collect(Collectors.toList());
+
+        for (String campo : agrupacionSql) {
+            if (!columnas.containsKey(campo)) {
+                log.debug("Pushdown descartado: campo de agrupación '{}' no está en el resultado", campo);
+                return null;
+            }
+        }
+
+        for (String campo : numericos) {
+            if (!esColumnaNumerica(columnas.get(campo))) {
+                log.debug("Pushdown descartado: campo '{}' no es numérico en SQL", campo);
+                return null;
+            }
+        }
+
+        String sqlBase = SqlUtils.limpiarParaSubconsulta(repo.obtenerSqlQuery(nombreQuery));
+        String sql = construirSqlAgregado(sqlBase, agrupacionSql, numericos, columnas);
+
+        log.info("⬇️ Pushdown de consolidación para '{}': GROUP BY {} | SUM {}",
+                nombreQuery, agrupacionSql, numericos);
+        log.debug("SQL pushdown: {}", sql);
+
+        return new PlanPushdown(sql, camposAgrupacion, numericos, COLUMNA_CONTEO);
+    }
+
+    // =============== CONSTRUCCIÓN DE SQL ===============
+
+    private String construirSqlAgregado(
+            String sqlBase,
+            List<String> agrupacion,
+            List<String> numericos,
+            Map<String, Integer> columnas) {
+
+        List<String> select = new ArrayList<>();
+
+        for (String campo : agrupacion) {
+            select.add(columna(campo));
+        }
+
+        for (String campo : numericos) {
+            select.add(expresionSuma(campo, columnas.get(campo)) + " AS " + identificador(campo));
+        }
+
+        select.add("COUNT(*) AS " + COLUMNA_CONTEO);
+
+        StringBuilder sql = new StringBuilder()
+                .append("SELECT ").append(String.join(", ", select))
+                .append("\nFROM (\n").append(sqlBase).append("\n) AS ").append(ALIAS_SUBCONSULTA);
+
+        if (!agrupacion.isEmpty()) {
+            sql.append("\nGROUP BY ")
+                    .append(agrupacion.stream().map(this::columna).collect(Collectors.joining(", ")));
+        }
+
+        return sql.toString();
+    }
+
+    /**
+     * SUM con las mismas reglas que la agregación en Java: NULL cuenta como 0 y
+     * los decimales se truncan antes de sumar. El resultado se castea a BIGINT.
+     */
+    private String expresionSuma(String campo, Integer tipoJdbc) {
+        String valor = "COALESCE(" + columna(campo) + ", 0)";
+        if (TipoDatoKeyset.desdeTipoJdbc(tipoJdbc) == TipoDatoKeyset.NUMERIC) {
+            valor = "TRUNC(" + valor + "::NUMERIC)";
+        }
+        return "SUM(" + valor + ")::BIGINT";
+    }
+
+    private String envolver(String sqlBase) {
+        return "SELECT * FROM (\n" + sqlBase + "\n) AS " + ALIAS_SUBCONSULTA;
+    }
+
+    private String columna(String campo) {
+        return ALIAS_SUBCONSULTA + "." + identificador(campo);
+    }
+
+    private String identificador(String campo) {
+        return "\"" + campo.replace("\"", "\"\"") + "\"";
+    }
+}
@@ -4,12 +4,14 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import com.opencsv.CSVWriter;
 import org.apache.poi.ss.usermodel.*;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -20,6 +22,9 @@ public class FormatoConverter {
 
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    @Autowired
+    private MetricasConsulta metricasConsulta;
+
     /**
      * Convierte los datos al formato solicitado
      */
@@ -28,23 +33,51 @@ public class FormatoConverter {
             return generarRespuestaVacia(formato);
         }
 
+        long inicio = System.nanoTime();
         try {
+            Object resultado;
             switch (formato.toLowerCase()) {
                 case "json":
-                    return convertirAJson(datos);
+                    resultado = convertirAJson(datos);
+                    break;
                 case "csv":
-                    return convertirACSV(datos);
+                    resultado = convertirACSV(datos);
+                    break;
                 case "excel":
-                    return convertirAExcel(datos);
+                    resultado = convertirAExcel(datos);
+                    break;
                 default:
                     throw new IllegalArgumentException("Formato no soportado: " + formato);
             }
+            metricasConsulta.registrarEscritura(formato.toLowerCase(), datos.size(),
+                    resultado instanceof byte[] ? ((byte[]) resultado).length : -1,
+                    System.nanoTime() - inicio);
+            return resultado;
         } catch (Exception e) {
             log.error("Error convirtiendo a formato {}: {}", formato, e.getMessage(), e);
             throw new RuntimeException("Error en conversión de formato", e);
         }
     }
 
+    /**
+     * Convierte los datos al formato solicitado agregando metadatos a la respuesta JSON
+     * (ej: provincias fallidas en una consolidación parcial). CSV y Excel no llevan metadatos.
+     */
+    public Object convertir(List<Map<String, Object>> datos, String formato, Map<String, Object> metadatos) {
+        if (metadatos == null || metadatos.isEmpty() || !"json".equalsIgnoreCase(formato)) {
+            return convertir(datos, formato);
+        }
+
+        try {
+            Map<String, Object> mapa = new HashMap<>(metadatos);
+            mapa.put("datos", datos != null ? datos : Collections.emptyList());
+            mapa.put("total", datos != null ? datos.size() : 0);
+            return objectMapper.writeValueAsString(mapa);
+        } catch (Exception e) {
+            throw new RuntimeException("Error convirtiendo a JSON", e);
+        }
+    }
+
     private Object convertirAJson(List<Map<String, Object>> datos) {
         try {
             Map<String, Object> mapa = new HashMap<>();
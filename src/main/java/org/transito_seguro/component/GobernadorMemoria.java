@@ -0,0 +1,263 @@
+package org.transito_seguro.component;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.transito_seguro.model.LoteFilas;
+import org.transito_seguro.model.ReservaMemoria;
+
+import javax.annotation.PostConstruct;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Gobernador de memoria de todo el proceso.
+ *
+ * Reemplaza las heurísticas sobre Runtime.totalMemory() - freeMemory() (que
+ * cuentan basura todavía no recolectada) por un presupuesto de bytes: cada
+ * página o chunk reserva su peso estimado ANTES de leerse y lo libera cuando
+ * deja de estar retenido. Así el comportamiento bajo varias exportaciones
+ * concurrentes depende de lo que realmente está en vuelo.
+ *
+ * - Sin presupuesto suficiente, la reserva se achica hasta el mínimo pedido
+ *   (el llamador lee una página más chica)
+ * - Si ni el mínimo entra, el hilo espera (las requests quedan en cola) hasta
+ *   que otra reserva se libere; vencido el tope de espera la reserva se
+ *   rechaza (nunca se otorga por encima del presupuesto)
+ * - Reservas expuestas en /actuator/metrics/batch.memoria.* y /api/monitor/memoria
+ */
+@Slf4j
+@Component
+public class GobernadorMemoria {
+
+    /** Columnas supuestas antes de conocer el esquema de la query */
+    public static final int COLUMNAS_ESTIMADAS_DEFAULT = 20;
+
+    private static final String SIN_EJECUCION = "sin-ejecucion";
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    // =============== CONFIGURACIÓN ===============
+
+    /** Presupuesto fijo en bytes (0 = fracción del heap máximo) */
+    @Value("${app.memoria.presupuesto-bytes:0}")
+    private long presupuestoConfigurado;
+
+    @Value("${app.memoria.fraccion-heap:0.5}")
+    private double fraccionHeap;
+
+    /** Espera máxima por una reserva antes de rechazarla */
+    @Value("${app.memoria.espera-maxima-ms:30000}")
+    private long esperaMaximaMs;
+
+    // =============== ESTADO (guardado por this) ===============
+
+    private long presupuesto;
+    private long reservado;
+    private long picoReservado;
+    private int reservasActivas;
+
+    private final Map<String, Long> reservadoPorEjecucion = new ConcurrentHashMap<>();
+
+    private final AtomicLong reservasOtorgadas = new AtomicLong(0);
+    private final AtomicLong reservasReducidas = new AtomicLong(0);
+    private final AtomicLong esperas = new AtomicLong(0);
+    private final AtomicLong rechazos = new AtomicLong(0);
+
+    // =============== CICLO DE VIDA ===============
+
+    @PostConstruct
+    public void init() {
+        this.presupuesto = presupuestoConfigurado > 0
+                ? presupuestoConfigurado
+                : (long) (Runtime.getRuntime().maxMemory() * fraccionHeap);
+
+        if (meterRegistry != null) {
+            registrarMetricas(meterRegistry);
+        }
+
+        log.info("Gobernador de memoria: presupuesto {} MB para lotes en vuelo (espera máxima {} ms)",
+                presupuesto / (1024 * 1024), esperaMaximaMs);
+    }
+
+    // =============== API PÚBLICA ===============
+
+    /**
+     * Peso estimado de una fila con la cantidad de columnas dada.
+     */
+    public static long bytesPorFila(int columnas) {
+        return LoteFilas.estimarBytes(1, columnas > 0 ? columnas : COLUMNAS_ESTIMADAS_DEFAULT);
+    }
+
+    /**
+     * Reserva memoria para un lote antes de leerlo.
+     *
+     * Otorga lo deseado si entra; si no, lo que haya disponible siempre que
+     * alcance el mínimo. Si ni el mínimo entra, espera a que se liberen
+     * reservas hasta app.memoria.espera-maxima-ms; vencida la espera la reserva
+     * se rechaza y la exportación falla en lugar de pasarse del presupuesto.
+     * Una reserva mayor al presupuesto entero se otorga solo cuando no hay
+     * ninguna otra en vuelo.
+     *
+     * @param ejecucion Id de la ejecución (request) que reserva
+     * @param bytesDeseados Peso del lote completo
+     * @param bytesMinimos Peso del lote más chico aceptable
+     * @return Reserva otorgada (entre el mínimo y lo deseado)
+     * @throws IllegalStateException si el mínimo no entró en el presupuesto dentro de la espera máxima
+     */
+    public ReservaMemoria reservar(String ejecucion, long bytesDeseados, long bytesMinimos) {
+        if (bytesDeseados <= 0) {
+            return ReservaMemoria.vacia();
+        }
+
+        String clave = ejecucion != null ? ejecucion : SIN_EJECUCION;
+        long minimos = Math.max(Math.min(bytesMinimos, bytesDeseados), 1);
+        long otorgados;
+
+        synchronized (this) {
+            // Una reserva mayor al presupuesto entero solo espera a que no haya otras
+            long necesarios = Math.min(minimos, presupuesto);
+            long limite = System.currentTimeMillis() + esperaMaximaMs;
+            boolean espero = false;
+
+            while (presupuesto - reservado < necesarios && reservado > 0) {
+                long restante = limite - System.currentTimeMillis();
+                if (restante <= 0) {
+                    rechazos.incrementAndGet();
+                    log.warn("⏱️ [{}] Sin presupuesto de memoria tras {} ms: se rechazan {} bytes (disponibles {})",
+                            clave, esperaMaximaMs, minimos, presupuesto - reservado);
+                    throw new IllegalStateException("Sin presupuesto de memoria para " + minimos + " bytes tras "
+                            + esperaMaximaMs + " ms de espera (" + clave + ")");
+                }
+                if (!espero) {
+                    esperas.incrementAndGet();
+                    espero = true;
+                    log.debug("[{}] Esperando presupuesto de memoria: {} bytes (disponibles {})",
+                            clave, minimos, presupuesto - reservado);
+                }
+                try {
+                    wait(restante);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException("Interrumpido esperando presupuesto de memoria", e);
+                }
+            }
+
+            otorgados = Math.max(minimos, Math.min(bytesDeseados, presupuesto - reservado));
+            reservado += otorgados;
+            picoReservado = Math.max(picoReservado, reservado);
+            reservasActivas++;
+        }
+
+        reservasOtorgadas.incrementAndGet();
+        if (otorgados < bytesDeseados) {
+            reservasReducidas.incrementAndGet();
+        }
+        acumularPorEjecucion(clave, otorgados);
+
+        return new ReservaMemoria(otorgados, bytes -> liberar(clave, bytes), this::cerrarReserva);
+    }
+
+    /**
+     * Filas de la página que entran en una reserva.
+     */
+    public static int filasPara(ReservaMemoria reserva, int columnas) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE, reserva.getBytes() / bytesPorFila(columnas)));
+    }
+
+    public synchronized long getPresupuestoBytes() {
+        return presupuesto;
+    }
+
+    public synchronized long getBytesReservados() {
+        return reservado;
+    }
+
+    public synchronized long getPicoBytesReservados() {
+        return picoReservado;
+    }
+
+    public synchronized int getReservasActivas() {
+        return reservasActivas;
+    }
+
+    /**
+     * Estado actual para el endpoint de monitoreo.
+     */
+    public Map<String, Object> obtenerEstado() {
+        Map<String, Object> estado = new LinkedHashMap<>();
+        synchronized (this) {
+            estado.put("presupuesto_bytes", presupuesto);
+            estado.put("reservado_bytes", reservado);
+            estado.put("pico_reservado_bytes", picoReservado);
+            estado.put("reservas_activas", reservasActivas);
+        }
+        estado.put("reservas_otorgadas", reservasOtorgadas.get());
+        estado.put("reservas_reducidas", reservasReducidas.get());
+        estado.put("esperas", esperas.get());
+        estado.put("rechazos", rechazos.get());
+
+        estado.put("reservado_por_ejecucion", new LinkedHashMap<>(reservadoPorEjecucion));
+        return estado;
+    }
+
+    // =============== MÉTODOS PRIVADOS ===============
+
+    private void liberar(String ejecucion, long bytes) {
+        synchronized (this) {
+            reservado -= bytes;
+            if (reservado < 0) {
+                reservado = 0;
+            }
+            picoReservado = Math.max(picoReservado, reservado);
+            notifyAll();
+        }
+
+        acumularPorEjecucion(ejecucion, -bytes);
+    }
+
+    /** Suma (o resta) a la ejecución; la quita del mapa al llegar a 0 */
+    private void acumularPorEjecucion(String ejecucion, long bytes) {
+        if (bytes > 0) {
+            reservadoPorEjecucion.merge(ejecucion, bytes, Long::sum);
+            return;
+        }
+        reservadoPorEjecucion.computeIfPresent(ejecucion, (clave, actual) -> {
+            long total = actual + bytes;
+            return total > 0 ? total : null;
+        });
+    }
+
+    private synchronized void cerrarReserva() {
+        reservasActivas--;
+    }
+
+    private void registrarMetricas(MeterRegistry registry) {
+        Gauge.builder("batch.memoria.presupuesto", this, GobernadorMemoria::getPresupuestoBytes)
+                .baseUnit("bytes")
+                .description("Presupuesto de memoria para lotes en vuelo")
+                .register(registry);
+        Gauge.builder("batch.memoria.reservada", this, GobernadorMemoria::getBytesReservados)
+                .baseUnit("bytes")
+                .description("Bytes reservados por lotes en vuelo")
+                .register(registry);
+        Gauge.builder("batch.memoria.reservas.activas", this, GobernadorMemoria::getReservasActivas)
+                .register(registry);
+        FunctionCounter.builder("batch.memoria.esperas", esperas, AtomicLong::get)
+                .description("Reservas que tuvieron que esperar presupuesto")
+                .register(registry);
+        FunctionCounter.builder("batch.memoria.reservas.reducidas", reservasReducidas, AtomicLong::get)
+                .description("Reservas otorgadas por debajo de lo pedido (páginas achicadas)")
+                .register(registry);
+        FunctionCounter.builder("batch.memoria.rechazos", rechazos, AtomicLong::get)
+                .description("Reservas rechazadas por falta de presupuesto tras vencer la espera")
+                .register(registry);
+    }
+}
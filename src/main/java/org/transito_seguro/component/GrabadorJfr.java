@@ -0,0 +1,174 @@
+package org.transito_seguro.component;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.transito_seguro.model.jfr.EventosJfr;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Grabaciones de Java Flight Recorder bajo demanda, para perfilar lentitudes
+ * en producción sin reproducirlas localmente.
+ *
+ * Hay a lo sumo una grabación a la vez, acotada en duración y tamaño: si nadie
+ * la detiene termina sola al cumplir la duración y queda disponible para
+ * descargar. Además de los eventos de la JVM (configuración "profile" por
+ * defecto) graba los eventos propios de {@link EventosJfr}.
+ *
+ * Todo se invoca desde /api/monitor/jfr (DataSourceMonitorController).
+ */
+@Slf4j
+@Component
+public class GrabadorJfr {
+
+    // =============== CONFIGURACIÓN ===============
+
+    /** Configuración de JFR incluida en la JVM ("default" o "profile") */
+    @Value("${app.jfr.configuracion:profile}")
+    private String configuracion;
+
+    @Value("${app.jfr.duracion-por-defecto-seg:60}")
+    private int duracionPorDefectoSeg;
+
+    /** Tope de duración aunque se pida más */
+    @Value("${app.jfr.duracion-maxima-seg:600}")
+    private int duracionMaximaSeg;
+
+    @Value("${app.jfr.tamano-maximo-mb:200}")
+    private int tamanoMaximoMb;
+
+    /**
+     * Grabación actual. Se guarda dentro de {@link Actual} para que el bean no
+     * declare tipos de jdk.jfr y cargue igual en JVMs sin JFR.
+     */
+    private Actual actual;
+
+    // =============== API PÚBLICA ===============
+
+    /**
+     * Inicia una grabación acotada.
+     *
+     * @param duracionSeg Duración pedida (null = la de por defecto); se recorta a la máxima
+     * @return Estado de la grabación iniciada
+     * @throws IllegalStateException si la JVM no trae JFR o ya hay una grabación en curso
+     */
+    public synchronized Map<String, Object> iniciar(Integer duracionSeg) {
+        if (!EventosJfr.disponible()) {
+            throw new IllegalStateException("La JVM no incluye Java Flight Recorder (requiere JDK 8u262 o superior)");
+        }
+        if (actual != null && actual.grabacion.getState() == RecordingState.RUNNING) {
+            throw new IllegalStateException("Ya hay una grabación JFR en curso: " + actual.grabacion.getName());
+        }
+        descartar();
+
+        int duracion = Math.min(duracionSeg != null && duracionSeg > 0 ? duracionSeg : duracionPorDefectoSeg,
+                duracionMaximaSeg);
+
+        Recording nueva;
+        try {
+            nueva = new Recording(Configuration.getConfiguration(configuracion));
+        } catch (IOException | ParseException e) {
+            throw new IllegalStateException("Configuración JFR '" + configuracion + "' no disponible: " + e.getMessage(), e);
+        }
+        nueva.setName("transito-seguro-" + System.currentTimeMillis());
+        nueva.setDuration(Duration.ofSeconds(duracion));
+        nueva.setMaxSize(tamanoMaximoMb * 1024L * 1024L);
+        nueva.setToDisk(true);
+        nueva.enable(EventosJfr.ProcesarQueryEvento.class);
+        nueva.enable(EventosJfr.PaginaEvento.class);
+        nueva.enable(EventosJfr.ConsolidacionEvento.class);
+        nueva.enable(EventosJfr.EscrituraEvento.class);
+        nueva.start();
+        actual = new Actual(nueva);
+
+        log.info("🎥 Grabación JFR {} iniciada: {}s, máx {}MB, configuración '{}'",
+                nueva.getName(), duracion, tamanoMaximoMb, configuracion);
+        return obtenerEstado();
+    }
+
+    /**
+     * Detiene la grabación (si sigue corriendo) y la vuelca a un archivo
+     * temporal. El llamador debe borrar el archivo después de enviarlo.
+     *
+     * @return Archivo .jfr con la grabación
+     * @throws IllegalStateException si no hay grabación
+     */
+    public synchronized Path detener() throws IOException {
+        if (actual == null) {
+            throw new IllegalStateException("No hay grabación JFR para detener");
+        }
+        Recording grabacion = actual.grabacion;
+
+        if (grabacion.getState() == RecordingState.RUNNING) {
+            grabacion.stop();
+        }
+
+        Path archivo = Files.createTempFile(grabacion.getName(), ".jfr");
+        try {
+            grabacion.dump(archivo);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(archivo);
+            throw e;
+        }
+
+        log.info("🎥 Grabación JFR {} detenida: {} bytes", grabacion.getName(), Files.size(archivo));
+        descartar();
+        return archivo;
+    }
+
+    /**
+     * Estado de la grabación actual para el endpoint de monitoreo.
+     */
+    public synchronized Map<String, Object> obtenerEstado() {
+        Map<String, Object> estado = new LinkedHashMap<>();
+        estado.put("disponible", EventosJfr.disponible());
+        if (actual == null) {
+            estado.put("estado", "SIN_GRABACION");
+            return estado;
+        }
+        Recording grabacion = actual.grabacion;
+
+        estado.put("nombre", grabacion.getName());
+        estado.put("estado", grabacion.getState().name());
+        estado.put("configuracion", configuracion);
+        estado.put("inicio", grabacion.getStartTime() != null ? grabacion.getStartTime().toString() : null);
+        estado.put("duracion_seg", grabacion.getDuration() != null ? grabacion.getDuration().getSeconds() : null);
+        estado.put("tamano_maximo_mb", tamanoMaximoMb);
+        estado.put("bytes_grabados", grabacion.getSize());
+        return estado;
+    }
+
+    @PreDestroy
+    public synchronized void shutdown() {
+        descartar();
+    }
+
+    // =============== MÉTODOS PRIVADOS ===============
+
+    private void descartar() {
+        if (actual != null) {
+            actual.grabacion.close();
+            actual = null;
+        }
+    }
+
+    private static final class Actual {
+
+        private final Recording grabacion;
+
+        private Actual(Recording grabacion) {
+            this.grabacion = grabacion;
+        }
+    }
+}
@@ -0,0 +1,315 @@
+package org.transito_seguro.component;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.transito_seguro.dto.ParametrosFiltrosDTO;
+import org.transito_seguro.enums.TipoDatoKeyset;
+import org.transito_seguro.model.AnalisisPaginacion;
+import org.transito_seguro.model.CampoKeyset;
+import org.transito_seguro.model.CursorKeyset;
+import org.transito_seguro.model.LoteFilas;
+import org.transito_seguro.repository.impl.InfraccionesRepositoryImpl;
+import org.transito_seguro.utils.SqlUtils;
+
+import java.util.*;
+
+/**
+ * Motor de paginación keyset sobre una clave compuesta terminada en el ID.
+ *
+ * Reescribe una query almacenada como:
+ * <pre>
+ * SELECT * FROM ( query sin LIMIT/OFFSET ) AS keyset_src
+ * WHERE (keyset_src."fecha_infraccion", keyset_src."id") > (:keyset0::DATE, :keyset1::BIGINT)
+ * ORDER BY keyset_src."fecha_infraccion", keyset_src."id"
+ * LIMIT :limite            -- tamaño de página + 1
+ * </pre>
+ *
+ * Las columnas previas al ID salen de los campos keyset que detecta
+ * PaginationStrategyAnalyzer: se usan las que el resultado devuelve con un
+ * tipo ordenable igual en Java y en PostgreSQL (fechas y enteros, no texto,
+ * cuyo orden depende de la collation) y que el driver informa NOT NULL. El ID
+ * entero siempre cierra la clave y la hace única. Si ningún campo califica la
+ * clave es solo el ID.
+ *
+ * Solo aplica a queries "planas" (sin GROUP BY, DISTINCT, UNION ni ventanas)
+ * que no piden un orden propio y devuelven una columna de ID entera. En ese
+ * caso PostgreSQL aplana la subconsulta y la comparación de filas y el orden
+ * llegan a las columnas de la tabla base: con un índice sobre esas columnas
+ * (ej: fecha, id) cada página es un index scan de costo constante.
+ * Sobre una query que agrega, el filtro no puede usar índices y cada página
+ * re-ejecutaría la query completa; y si la query tiene ORDER BY propio el
+ * keyset cambiaría el orden de la salida. Para esos casos {@link #abrirCursor}
+ * devuelve null y BatchProcessor lee con un cursor de servidor.
+ *
+ * La clave no usa COALESCE (impediría el índice): un valor nulo o una clave
+ * repetida o que no avanza es un error, nunca un fin silencioso del recorrido.
+ * Cada página lee una fila de más para detectar claves repetidas en el borde.
+ */
+@Slf4j
+@Component
+public class KeysetProcessor {
+
+    private static final String ALIAS_SUBCONSULTA = "keyset_src";
+
+    /**
+     * Tipos admitidos para las columnas previas al ID.
+     */
+    private static final Set<TipoDatoKeyset> TIPOS_ORDENABLES = EnumSet.of(
+            TipoDatoKeyset.DATE, TipoDatoKeyset.TIMESTAMP, TipoDatoKeyset.INTEGER, TipoDatoKeyset.BIGINT
+    );
+
+    /**
+     * Nombres de columna que identifican unívocamente una infracción.
+     */
+    private static final List<String> COLUMNAS_ID = Arrays.asList(
+            "id", "id_infracciones", "id_infraccion", "infraccion_id"
+    );
+
+    @Autowired
+    private PaginationStrategyAnalyzer paginationStrategyAnalyzer;
+
+    /**
+     * Columnas del analizador que preceden al ID en la clave (0 = solo el ID).
+     * Sin un índice que empiece por esas columnas conviene 0: el ID usa la PK.
+     */
+    @Value("${app.batch.keyset.max-campos-previos:1}")
+    private int maxCamposPrevios;
+
+    // =============== API PÚBLICA ===============
+
+    /**
+     * Abre un cursor keyset para una query en una provincia.
+     *
+     * @param repo Repositorio de la provincia
+     * @param nombreQuery Código de la query
+     * @param filtros Filtros originales del request
+     * @param tamanoPagina Registros por página
+     * @return Cursor listo para leer la primera página, o null si la query no
+     *         admite keyset (agrega filas, tiene ORDER BY propio o no devuelve un ID)
+     */
+    public CursorKeyset abrirCursor(
+            InfraccionesRepositoryImpl repo,
+            String nombreQuery,
+            ParametrosFiltrosDTO filtros,
+            int tamanoPagina) {
+
+        String sqlOriginal = repo.obtenerSqlQuery(nombreQuery);
+        String sqlBase = SqlUtils.limpiarParaSubconsulta(sqlOriginal);
+
+        if (SqlUtils.agregaFilas(sqlBase)) {
+            log.info("🔑 {} - Query '{}' agrega filas: sin keyset", repo.getProvincia(), nombreQuery);
+            return null;
+        }
+        if (SqlUtils.tieneClausulaExterna(sqlOriginal, "ORDER BY")) {
+            log.info("🔑 {} - Query '{}' tiene ORDER BY propio: sin keyset", repo.getProvincia(), nombreQuery);
+            return null;
+        }
+
+        // Columnas reales del resultado (label -> java.sql.Types)
+        String sqlMetadatos = envolver(sqlBase) + "\nLIMIT 0";
+        ParametrosFiltrosDTO filtrosMetadatos = filtrosParaPagina(filtros, tamanoPagina);
+        Map<String, Integer> columnas = repo.obtenerColumnasResultado(sqlMetadatos, filtrosMetadatos);
+
+        CampoKeyset id = resolverId(columnas);
+        if (id == null) {
+            log.info("🔑 {} - Query '{}' sin columna de ID entera: sin keyset", repo.getProvincia(), nombreQuery);
+            return null;
+        }
+
+        List<CampoKeyset> clave = new ArrayList<>();
+        List<String> previos = resolverCamposPrevios(sqlOriginal, columnas, id.getNombreCampo());
+        if (!previos.isEmpty()) {
+            Set<String> noNulas = repo.obtenerColumnasNoNulas(sqlMetadatos, filtrosMetadatos);
+            for (String label : previos) {
+                if (clave.size() < maxCamposPrevios && noNulas.contains(label)) {
+                    TipoDatoKeyset tipo = TipoDatoKeyset.desdeTipoJdbc(columnas.get(label));
+                    clave.add(new CampoKeyset(label, CursorKeyset.PREFIJO_PARAMETRO + clave.size(), tipo, clave.size()));
+                }
+            }
+        }
+        clave.add(new CampoKeyset(id.getNombreCampo(), CursorKeyset.PREFIJO_PARAMETRO + clave.size(),
+                id.getTipoDato(), clave.size()));
+
+        StringJoiner columnasClave = new StringJoiner(", ");
+        StringJoiner parametrosClave = new StringJoiner(", ");
+        for (CampoKeyset campo : clave) {
+            columnasClave.add(expresionColumna(campo));
+            parametrosClave.add(campo.getParametroJdbc());
+        }
+
+        // Una columna: comparación simple; varias: comparación de filas (usa el índice compuesto)
+        String condicion = clave.size() == 1
+                ? columnasClave + " > " + parametrosClave
+                : "(" + columnasClave + ") > (" + parametrosClave + ")";
+        String orderBy = "\nORDER BY " + columnasClave;
+        String sqlPrimeraPagina = envolver(sqlBase) + orderBy + "\nLIMIT :limite";
+        String sqlSiguientePagina = envolver(sqlBase)
+                + "\nWHERE " + condicion
+                + orderBy + "\nLIMIT :limite";
+
+        StringJoiner descripcion = new StringJoiner(", ");
+        for (CampoKeyset campo : clave) {
+            descripcion.add(campo.getNombreCampo() + ":" + campo.getTipoDato());
+        }
+        log.info("🔑 {} - Keyset para '{}': ({})", repo.getProvincia(), nombreQuery, descripcion);
+
+        return new CursorKeyset(repo.getProvincia(), clave, sqlPrimeraPagina, sqlSiguientePagina, tamanoPagina);
+    }
+
+    /**
+     * Lee la siguiente página del cursor y avanza la clave.
+     * MEJORADO: la página se lee como lote columnar (sin un Map por fila).
+     *
+     * @param repo Repositorio de la provincia
+     * @param cursor Cursor abierto con abrirCursor
+     * @param filtros Filtros originales del request
+     * @return Lote de la página (null si el cursor ya estaba agotado)
+     * @throws IllegalStateException si la página trae una clave nula o repetida
+     */
+    public LoteFilas siguientePagina(
+            InfraccionesRepositoryImpl repo,
+            CursorKeyset cursor,
+            ParametrosFiltrosDTO filtros) {
+
+        if (cursor.isAgotado()) {
+            return null;
+        }
+
+        int tamanoPagina = Math.max(cursor.getTamanoPagina(), 1);
+
+        // Una fila de más: dice si hay otra página y deja ver una clave repetida en el borde
+        LoteFilas leidas = repo.ejecutarSQLComoLote(
+                cursor.getSqlActual(),
+                filtrosParaPagina(filtros, tamanoPagina + 1),
+                cursor.getParametrosClave(),
+                cursor.getFetchSize());
+
+        validarClaves(leidas, cursor);
+
+        boolean hayMas = leidas != null && leidas.tamano() > tamanoPagina;
+        LoteFilas pagina = hayMas ? leidas.primeras(tamanoPagina) : leidas;
+
+        cursor.registrarPagina(pagina, hayMas);
+        return pagina;
+    }
+
+    // =============== RESOLUCIÓN DE CLAVE ===============
+
+    /**
+     * Columna de ID entera del resultado, en el orden de preferencia de COLUMNAS_ID.
+     */
+    private CampoKeyset resolverId(Map<String, Integer> columnas) {
+        Map<String, String> labelsPorNombre = new HashMap<>();
+        for (String label : columnas.keySet()) {
+            labelsPorNombre.put(label.toLowerCase(), label);
+        }
+
+        for (String candidato : COLUMNAS_ID) {
+            String label = labelsPorNombre.get(candidato);
+            if (label == null) {
+                continue;
+            }
+            TipoDatoKeyset tipo = TipoDatoKeyset.desdeTipoJdbc(columnas.get(label));
+            if (tipo == TipoDatoKeyset.INTEGER || tipo == TipoDatoKeyset.BIGINT) {
+                return new CampoKeyset(label, CursorKeyset.PREFIJO_PARAMETRO + 0, tipo, 0);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Labels del resultado que corresponden a campos keyset del analizador y
+     * tienen un tipo ordenable: primero fechas, después enteros (ver
+     * CampoKeyset.getPrioridadTipo). El analizador infiere el tipo por el
+     * nombre del campo; acá manda el tipo JDBC real.
+     */
+    private List<String> resolverCamposPrevios(String sqlOriginal, Map<String, Integer> columnas, String labelId) {
+        if (maxCamposPrevios <= 0) {
+            return Collections.emptyList();
+        }
+
+        AnalisisPaginacion analisis;
+        try {
+            analisis = paginationStrategyAnalyzer.determinarEstrategia(sqlOriginal);
+        } catch (IllegalArgumentException e) {
+            log.debug("Sin campos keyset del analizador: {}", e.getMessage());
+            return Collections.emptyList();
+        }
+
+        Map<String, String> labelsPorNombre = new HashMap<>();
+        for (String label : columnas.keySet()) {
+            labelsPorNombre.put(label.toLowerCase(), label);
+        }
+
+        List<String> previos = new ArrayList<>();
+        for (CampoKeyset campo : analisis.getCamposDisponibles()) {
+            // "i.fecha_infraccion" -> "fecha_infraccion"
+            String nombre = campo.getNombreCampo();
+            String label = labelsPorNombre.get(nombre.substring(nombre.lastIndexOf('.') + 1).toLowerCase());
+            if (label == null || label.equals(labelId) || previos.contains(label)) {
+                continue;
+            }
+            if (TIPOS_ORDENABLES.contains(TipoDatoKeyset.desdeTipoJdbc(columnas.get(label)))) {
+                previos.add(label);
+            }
+        }
+        previos.sort(Comparator.comparingInt(label ->
+                CampoKeyset.getPrioridadTipo(TipoDatoKeyset.desdeTipoJdbc(columnas.get(label)))));
+        return previos;
+    }
+
+    /**
+     * Verifica que las claves de la página (incluida la fila de más) sean no
+     * nulas y estrictamente crecientes: con ORDER BY sobre la clave, una tupla
+     * igual a la anterior significa que la clave no es única.
+     */
+    private void validarClaves(LoteFilas leidas, CursorKeyset cursor) {
+        if (leidas == null) {
+            return;
+        }
+
+        Object[] anterior = null;
+        for (int fila = 0; fila < leidas.tamano(); fila++) {
+            Object[] valores = cursor.claveDeFila(leidas, fila);
+            for (int i = 0; i < valores.length; i++) {
+                if (valores[i] == null) {
+                    throw new IllegalStateException("Valor nulo en la columna keyset "
+                            + cursor.getClave().get(i).getNombreCampo() + " (" + cursor.getProvincia() + ")");
+                }
+            }
+            if (anterior != null && CursorKeyset.comparar(anterior, valores) >= 0) {
+                throw new IllegalStateException("La clave keyset (" + cursor.getNombresClave() + ") no es única en "
+                        + cursor.getProvincia() + ": valor " + Arrays.toString(valores) + " repetido o fuera de orden");
+            }
+            anterior = valores;
+        }
+    }
+
+    // =============== CONSTRUCCIÓN DE SQL ===============
+
+    private String envolver(String sqlBase) {
+        return "SELECT * FROM (\n" + sqlBase + "\n) AS " + ALIAS_SUBCONSULTA;
+    }
+
+    private String expresionColumna(CampoKeyset campo) {
+        return ALIAS_SUBCONSULTA + "." + SqlUtils.citarIdentificador(campo.getNombreCampo());
+    }
+
+    /**
+     * Filtros de una página: solo límite.
+     * Se anulan los campos del keyset legacy para no interferir con el SQL original.
+     */
+    private ParametrosFiltrosDTO filtrosParaPagina(ParametrosFiltrosDTO filtros, int limite) {
+        ParametrosFiltrosDTO base = filtros != null ? filtros : new ParametrosFiltrosDTO();
+        return base.toBuilder()
+                .limite(limite)
+                .offset(null)
+                .lastId(null)
+                .lastSerieEquipo(null)
+                .lastLugar(null)
+                .lastKeysetConsolidacion(null)
+                .build();
+    }
+}
@@ -0,0 +1,261 @@
+package org.transito_seguro.component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.transito_seguro.model.PerfilEjecucion;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Métricas Micrometer del pipeline de queries (antes solo estaban en los logs).
+ *
+ * Todas las métricas llevan el código de query y, cuando aplica, la provincia,
+ * para armar dashboards y alertas desde /actuator/metrics o Prometheus:
+ *
+ * - consulta.conteo: latencia del COUNT(*) de estimación
+ * - consulta.pagina: latencia de cada página leída (con histograma)
+ * - consulta.filas / consulta.bytes: filas y bytes leídos
+ * - consulta.lote.filas: tamaño de las páginas/chunks leídos
+ * - consulta.memoria.pausa: espera por presupuesto del gobernador de memoria
+ * - consulta.estrategia: ejecuciones por estrategia (PARALELO/HIBRIDO/SECUENCIAL)
+ * - consulta.ejecucion: duración total de cada ejecución batch
+ * - consolidacion.grupos: grupos resultantes de cada consolidación
+ * - escritor.lote / escritor.filas / escritor.bytes: escritura por formato
+ *
+ * Sin MeterRegistry (o con app.metricas.habilitado=false) no registra nada.
+ * Conteos, lecturas y estrategia alimentan además el {@link PerfilEjecucion}
+ * del request, si pidió perfil.
+ */
+@Slf4j
+@Component
+public class MetricasConsulta {
+
+    private static final String SIN_VALOR = "desconocida";
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    @Value("${app.metricas.habilitado:true}")
+    private boolean habilitado;
+
+    /** Publica buckets de histograma en las latencias (para percentiles en Prometheus) */
+    @Value("${app.metricas.histogramas:true}")
+    private boolean histogramas;
+
+    // =============== LECTURA ===============
+
+    /**
+     * COUNT(*) de estimación en una provincia.
+     *
+     * @param registros Resultado del conteo
+     */
+    public void registrarConteo(String codigoQuery, String provincia, long registros, long nanos) {
+        PerfilEjecucion perfil = PerfilEjecucion.actual();
+        if (perfil != null) {
+            perfil.registrarConteo(provincia, registros, TimeUnit.NANOSECONDS.toMillis(nanos));
+        }
+        if (!activo()) {
+            return;
+        }
+        Timer.builder("consulta.conteo")
+                .description("Latencia del COUNT(*) de estimación")
+                .tag("query", valor(codigoQuery))
+                .tag("provincia", valor(provincia))
+                .publishPercentileHistogram(histogramas)
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Página leída (keyset, cursor de servidor o tramo de fechas).
+     *
+     * @param filas Filas de la página
+     * @param bytes Bytes estimados de la página
+     * @param duracionMs Ida y vuelta de la página
+     */
+    public void registrarPagina(String codigoQuery, String provincia, int filas, long bytes, long duracionMs) {
+        PerfilEjecucion perfil = PerfilEjecucion.actual();
+        if (perfil != null) {
+            perfil.registrarLectura(provincia, filas, duracionMs);
+        }
+        if (!activo()) {
+            return;
+        }
+        Timer.builder("consulta.pagina")
+                .description("Latencia de lectura de cada página")
+                .tag("query", valor(codigoQuery))
+                .tag("provincia", valor(provincia))
+                .publishPercentileHistogram(histogramas)
+                .register(meterRegistry)
+                .record(duracionMs, TimeUnit.MILLISECONDS);
+
+        contarFilas(codigoQuery, provincia, filas, bytes);
+    }
+
+    /**
+     * Lote leído sin latencia propia (chunks de streaming).
+     */
+    public void registrarFilas(String codigoQuery, String provincia, int filas, long bytes) {
+        PerfilEjecucion perfil = PerfilEjecucion.actual();
+        if (perfil != null) {
+            perfil.registrarLectura(provincia, filas, 0);
+        }
+        if (!activo()) {
+            return;
+        }
+        contarFilas(codigoQuery, provincia, filas, bytes);
+    }
+
+    private void contarFilas(String codigoQuery, String provincia, int filas, long bytes) {
+        String query = valor(codigoQuery);
+        String prov = valor(provincia);
+
+        Counter.builder("consulta.filas")
+                .description("Filas leídas")
+                .tag("query", query)
+                .tag("provincia", prov)
+                .register(meterRegistry)
+                .increment(filas);
+        Counter.builder("consulta.bytes")
+                .description("Bytes leídos (estimados)")
+                .baseUnit("bytes")
+                .tag("query", query)
+                .tag("provincia", prov)
+                .register(meterRegistry)
+                .increment(bytes);
+        DistributionSummary.builder("consulta.lote.filas")
+                .description("Filas por página o chunk")
+                .tag("query", query)
+                .register(meterRegistry)
+                .record(filas);
+    }
+
+    /**
+     * Tiempo esperando presupuesto del gobernador de memoria antes de leer.
+     */
+    public void registrarPausaMemoria(String codigoQuery, long nanos) {
+        if (!activo()) {
+            return;
+        }
+        Timer.builder("consulta.memoria.pausa")
+                .description("Espera por presupuesto de memoria antes de leer")
+                .tag("query", valor(codigoQuery))
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    // =============== EJECUCIÓN ===============
+
+    /**
+     * Estrategia elegida para una ejecución batch.
+     */
+    public void registrarEstrategia(String codigoQuery, String estrategia) {
+        PerfilEjecucion perfil = PerfilEjecucion.actual();
+        if (perfil != null) {
+            perfil.registrarEstrategia(estrategia);
+        }
+        if (!activo()) {
+            return;
+        }
+        Counter.builder("consulta.estrategia")
+                .description("Ejecuciones batch por estrategia")
+                .tag("query", valor(codigoQuery))
+                .tag("estrategia", valor(estrategia))
+                .register(meterRegistry)
+                .increment();
+    }
+
+    /**
+     * Ejecución batch terminada.
+     */
+    public void registrarEjecucion(String codigoQuery, String estrategia, long duracionMs) {
+        if (!activo()) {
+            return;
+        }
+        Timer.builder("consulta.ejecucion")
+                .description("Duración total de la ejecución batch")
+                .tag("query", valor(codigoQuery))
+                .tag("estrategia", valor(estrategia))
+                .register(meterRegistry)
+                .record(duracionMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Expone la cantidad de ejecuciones batch en curso.
+     */
+    public void registrarEjecucionesActivas(AtomicInteger ejecucionesActivas) {
+        if (!activo()) {
+            return;
+        }
+        Gauge.builder("consulta.ejecuciones.activas", ejecucionesActivas, AtomicInteger::get)
+                .description("Ejecuciones batch en curso")
+                .register(meterRegistry);
+    }
+
+    // =============== CONSOLIDACIÓN ===============
+
+    /**
+     * Grupos resultantes de una consolidación.
+     */
+    public void registrarGruposConsolidacion(String codigoQuery, int grupos) {
+        if (!activo()) {
+            return;
+        }
+        DistributionSummary.builder("consolidacion.grupos")
+                .description("Grupos resultantes de la consolidación")
+                .tag("query", valor(codigoQuery))
+                .register(meterRegistry)
+                .record(grupos);
+    }
+
+    // =============== ESCRITURA ===============
+
+    /**
+     * Lote escrito en un formato de salida.
+     *
+     * @param bytes Bytes escritos (negativo si no se conocen)
+     */
+    public void registrarEscritura(String formato, int filas, long bytes, long nanos) {
+        if (!activo()) {
+            return;
+        }
+        String fmt = valor(formato);
+
+        Timer.builder("escritor.lote")
+                .description("Tiempo de escritura de cada lote")
+                .tag("formato", fmt)
+                .register(meterRegistry)
+                .record(nanos, TimeUnit.NANOSECONDS);
+        Counter.builder("escritor.filas")
+                .description("Filas escritas")
+                .tag("formato", fmt)
+                .register(meterRegistry)
+                .increment(filas);
+        if (bytes >= 0) {
+            Counter.builder("escritor.bytes")
+                    .description("Bytes escritos")
+                    .baseUnit("bytes")
+                    .tag("formato", fmt)
+                    .register(meterRegistry)
+                    .increment(bytes);
+        }
+    }
+
+    // =============== MÉTODOS PRIVADOS ===============
+
+    private boolean activo() {
+        return habilitado && meterRegistry != null;
+    }
+
+    private static String valor(String valor) {
+        return valor != null && !valor.isEmpty() ? valor : SIN_VALOR;
+    }
+}
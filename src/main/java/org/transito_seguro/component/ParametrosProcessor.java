@@ -1,9 +1,13 @@
 package org.transito_seguro.component;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.stereotype.Component;
 import org.transito_seguro.dto.ParametrosFiltrosDTO;
+import org.transito_seguro.model.jfr.EventosJfr;
+import org.transito_seguro.model.query.PlanSqlCompilado;
 import org.transito_seguro.model.query.QueryResult;
 
 import java.sql.Types;
@@ -15,15 +19,37 @@ import java.util.Map;
 @Component
 public class ParametrosProcessor {
 
+    /** Máximo de SQL distintos con plan compilado (queries registradas + variantes keyset/pushdown) */
+    private static final int MAX_PLANES = 512;
+
+    /**
+     * Planes compilados por texto SQL. El texto identifica código + versión de la
+     * query (una nueva versión es otro texto) y también a los SQL derivados
+     * (keyset, pushdown) que no tienen código propio.
+     */
+    private final Cache<String, PlanSqlCompilado> planes = Caffeine.newBuilder()
+            .maximumSize(MAX_PLANES)
+            .build();
+
     /**
      * Método principal para procesar cualquier query con filtros dinámicos
      * CORREGIDO: Ahora valida y activa keyset correctamente
+     * MEJORADO: El SQL se analiza una sola vez (plan cacheado); en cada llamada
+     * solo se enlazan los parámetros que la query usa
+     * Cada llamada se registra como evento JFR (transito_seguro.ProcesarQuery)
      */
     public QueryResult procesarQuery(String queryOriginal, ParametrosFiltrosDTO filtros) {
-        MapSqlParameterSource parametros = new MapSqlParameterSource();
+        try (EventosJfr.Tramo ignored = EventosJfr.procesarQuery(queryOriginal)) {
+            return prepararQuery(queryOriginal, filtros);
+        }
+    }
+
+    private QueryResult prepararQuery(String queryOriginal, ParametrosFiltrosDTO filtros) {
+        PlanSqlCompilado plan = obtenerPlan(queryOriginal);
+        MapSqlParameterSource parametros = new ParametrosDelPlan(plan);
         Map<String, Object> metadata = new HashMap<>();
 
-        // 1. Mapear TODOS los parámetros básicos
+        // 1. Mapear los parámetros básicos (solo se guardan los que usa la query)
         mapearParametroFechasSeguro(filtros, parametros);
         mapearParametrosUbicacion(filtros, parametros);
         mapearParametrosEquipos(filtros, parametros);
@@ -33,24 +59,16 @@ public class ParametrosProcessor {
 
         // 2. KEYSET SIMPLIFICADO + PAGINACIÓN CORREGIDA
         mapearKeysetSimplificado(parametros, filtros);
-        mapearPaginacionKeyset(parametros, filtros);
+        int limite = mapearPaginacionKeyset(parametros, filtros);
 
-        // 3. ✅ NUEVO: Detectar modo streaming y modificar SQL si es necesario
-        String sqlFinal = queryOriginal;
-        Object limiteParam = parametros.getValue("limite");
-        boolean esModoStreaming = limiteParam != null &&
-                (Integer) limiteParam == Integer.MAX_VALUE;
+        // 3. Modo streaming: usar la variante sin LIMIT/OFFSET ya compilada
+        boolean esModoStreaming = limite == Integer.MAX_VALUE;
+        String sqlFinal = esModoStreaming ? plan.getSqlStreaming() : plan.getSqlOriginal();
 
         if (esModoStreaming) {
-            // Remover LIMIT y OFFSET del SQL para streaming sin límite
-            sqlFinal = sqlFinal.replaceAll("(?i)\\s+LIMIT\\s+[^;]*$", "");
-            sqlFinal = sqlFinal.replaceAll("(?i)\\s+OFFSET\\s+[^;]*$", "");
-
-            log.info("🌊 Modo STREAMING activado: LIMIT/OFFSET removidos del SQL");
-            metadata.put("modo_streaming", true);
-        } else {
-            metadata.put("modo_streaming", false);
+            log.debug("🌊 Modo STREAMING activado: LIMIT/OFFSET removidos del SQL");
         }
+        metadata.put("modo_streaming", esModoStreaming);
 
         // 4. Detectar estado de keyset para logging
         boolean keysetActivo = filtros != null && filtros.getLastId() != null;
@@ -64,6 +82,16 @@ public class ParametrosProcessor {
         return new QueryResult(sqlFinal, parametros, metadata);
     }
 
+    /**
+     * Obtiene (o compila y cachea) el plan de un SQL.
+     *
+     * @param sql SQL con parámetros nombrados
+     * @return Plan con variantes streaming/conteo y parámetros usados
+     */
+    public PlanSqlCompilado obtenerPlan(String sql) {
+        return planes.get(sql, PlanSqlCompilado::compilar);
+    }
+
     // =================== KEYSET SIMPLIFICADO ===================
 
     /**
@@ -135,11 +163,11 @@ public class ParametrosProcessor {
     /**
      * PAGINACIÓN CORREGIDA con OFFSET
      */
-    private void mapearPaginacionKeyset(MapSqlParameterSource params, ParametrosFiltrosDTO filtros) {
+    private int mapearPaginacionKeyset(MapSqlParameterSource params, ParametrosFiltrosDTO filtros) {
         if (filtros == null) {
             params.addValue("offset", 0, Types.INTEGER);      // ✅ AGREGAR
             params.addValue("limite", 10000, Types.INTEGER);
-            return;
+            return 10000;
         }
 
         // ✅ CRÍTICO: Mapear OFFSET
@@ -166,6 +194,7 @@ public class ParametrosProcessor {
         params.addValue("limite", limiteFinal, Types.INTEGER);
 
         log.debug("📊 Paginación: offset={}, limite={}", offset, limiteFinal);
+        return limiteFinal;
     }
 
     // =================== MAPEO DE FECHAS ===================
@@ -237,6 +266,25 @@ public class ParametrosProcessor {
         return lista.toArray(new Integer[0]);
     }
 
+    /**
+     * Parámetros de una ejecución: descarta los que el SQL del plan no usa, así
+     * cada lote solo enlaza los valores necesarios. Los parámetros agregados
+     * después con addValue(nombre, valor) (ej: claves keyset) se guardan siempre.
+     */
+    private static final class ParametrosDelPlan extends MapSqlParameterSource {
+
+        private final PlanSqlCompilado plan;
+
+        ParametrosDelPlan(PlanSqlCompilado plan) {
+            this.plan = plan;
+        }
+
+        @Override
+        public MapSqlParameterSource addValue(String paramName, Object value, int sqlType) {
+            return plan.usaParametro(paramName) ? super.addValue(paramName, value, sqlType) : this;
+        }
+    }
+
     // =================== MÉTODOS DE DEBUGGING ===================
 
     public void logParametros(MapSqlParameterSource params) {
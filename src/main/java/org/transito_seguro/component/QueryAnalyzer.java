@@ -318,8 +318,8 @@ public class QueryAnalyzer {
         // Log unificado del resultado
         log.info("📊 RESULTADO ANÁLISIS AGREGADA:");
         log.info("   ├─ Tipo: {}", tipo);
-        log.info("   ├─ Estimación: {:,} registros (confianza: {:.0f}%)",
-                estimacion.registrosEstimados, estimacion.confianza * 100);
+        log.info("   ├─ Estimación: {} registros (confianza: {}%)",
+                String.format("%,d", estimacion.registrosEstimados), String.format("%.0f", estimacion.confianza * 100));
         log.info("   ├─ Campos GROUP BY: {}", camposGroupBy);
         log.info("   └─ Estrategia: {}", recomendacion);
 
@@ -510,8 +510,8 @@ public class QueryAnalyzer {
                 camposDesconocidos
         );
 
-        log.debug("Estimación completada: {} registros (confianza: {:.0f}%)",
-                estimacionFinal, confianza * 100);
+        log.debug("Estimación completada: {} registros (confianza: {}%)",
+                estimacionFinal, String.format("%.0f", confianza * 100));
 
         return new EstimacionRegistros(estimacionFinal, confianza, explicacion);
     }
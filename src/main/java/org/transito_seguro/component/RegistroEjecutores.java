@@ -0,0 +1,301 @@
+package org.transito_seguro.component;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.transito_seguro.model.PerfilEjecucion;
+import org.transito_seguro.repository.impl.InfraccionesRepositoryImpl;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Ejecutores administrados para el trabajo en paralelo de los servicios.
+ *
+ * Reemplaza los parallelStream() que corrían JDBC bloqueante en el
+ * ForkJoinPool común (dimensionado a la cantidad de núcleos y compartido con
+ * todo el proceso): una provincia lenta ocupaba hilos que necesitaban las
+ * demás y las etapas de CPU.
+ *
+ * - Un pool de E/S por provincia, dimensionado con el maximum-pool-size de su
+ *   datasource (más hilos solo esperarían conexión en Hikari)
+ * - Un pool de CPU (núcleos disponibles) para conversión de formato y armado
+ *   de resultados
+ * - Pools propios de un componente ({@link #acotado}, {@link #sinLimite}),
+ *   registrados acá para que se midan y se cierren igual que los demás
+ * - Por pool: tareas en cola, hilos activos y espera en cola, expuestos en
+ *   /actuator/metrics/ejecutor.* y /api/monitor/ejecutores
+ */
+@Slf4j
+@Component
+public class RegistroEjecutores {
+
+    private static final String POOL_CPU = "cpu";
+    private static final String PREFIJO_POOL_IO = "io-";
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    // =============== CONFIGURACIÓN ===============
+
+    /** Hilos por provincia (0 = maximum-pool-size del datasource de la provincia) */
+    @Value("${app.ejecutores.io.hilos-por-provincia:0}")
+    private int hilosPorProvincia;
+
+    @Value("${app.ejecutores.io.capacidad-cola:200}")
+    private int capacidadColaIo;
+
+    /** Hilos del pool de CPU (0 = núcleos disponibles) */
+    @Value("${app.ejecutores.cpu.hilos:0}")
+    private int hilosCpu;
+
+    @Value("${app.ejecutores.cpu.capacidad-cola:100}")
+    private int capacidadColaCpu;
+
+    private final Map<String, EjecutorInstrumentado> ejecutores = new ConcurrentHashMap<>();
+
+    // =============== CICLO DE VIDA ===============
+
+    @PostConstruct
+    public void init() {
+        int hilos = hilosCpu > 0 ? hilosCpu : Runtime.getRuntime().availableProcessors();
+        ejecutores.put(POOL_CPU, new EjecutorInstrumentado(POOL_CPU, hilos, capacidadColaCpu));
+
+        log.info("Registro de ejecutores: pool de CPU con {} hilos; pools de E/S por provincia bajo demanda", hilos);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        ejecutores.values().forEach(EjecutorInstrumentado::cerrar);
+    }
+
+    // =============== API PÚBLICA ===============
+
+    /**
+     * Ejecuta la tarea en cada provincia, cada una en el pool de E/S de su
+     * provincia, y devuelve los resultados en el orden de los repositorios.
+     * Reemplaza repositories.parallelStream().map(tarea).collect(toList()).
+     *
+     * @param repositories Repositorios (uno por provincia)
+     * @param tarea Trabajo bloqueante sobre la provincia
+     * @return Resultados en el mismo orden que repositories
+     */
+    public <T> List<T> enCadaProvincia(
+            List<InfraccionesRepositoryImpl> repositories,
+            Function<InfraccionesRepositoryImpl, T> tarea) {
+
+        List<CompletableFuture<T>> futures = new ArrayList<>(repositories.size());
+        for (InfraccionesRepositoryImpl repo : repositories) {
+            futures.add(CompletableFuture.supplyAsync(() -> tarea.apply(repo), io(repo)));
+        }
+
+        List<T> resultados = new ArrayList<>(futures.size());
+        for (CompletableFuture<T> future : futures) {
+            resultados.add(esperar(future));
+        }
+        return resultados;
+    }
+
+    /**
+     * Ejecuta un trabajo de CPU (conversión de formato, armado de resultados)
+     * en el pool de CPU y espera su resultado. Acota cuántos de estos trabajos
+     * corren a la vez entre todas las requests.
+     */
+    public <T> T enCpu(Supplier<T> trabajo) {
+        return esperar(CompletableFuture.supplyAsync(trabajo, ejecutores.get(POOL_CPU)));
+    }
+
+    /**
+     * Pool de E/S de la provincia del repositorio (se crea en el primer uso).
+     */
+    public EjecutorInstrumentado io(InfraccionesRepositoryImpl repo) {
+        return ejecutores.computeIfAbsent(PREFIJO_POOL_IO + repo.getProvincia(),
+                nombre -> new EjecutorInstrumentado(nombre, hilosIo(repo), capacidadColaIo));
+    }
+
+    /**
+     * Pool propio con hilos y cola fijos (se crea en el primer uso). Con la
+     * cola llena la tarea corre en el hilo que la envía.
+     */
+    public EjecutorInstrumentado acotado(String nombre, int hilos, int capacidadCola) {
+        return ejecutores.computeIfAbsent(nombre,
+                n -> new EjecutorInstrumentado(n, hilos, capacidadCola));
+    }
+
+    /**
+     * Pool propio sin tope de hilos ni cola (se crea en el primer uso): cada
+     * tarea toma un hilo libre o crea uno.
+     *
+     * Solo para tareas que otra tarea de la misma ejecución espera (consumidor
+     * de una cola, lectura adelantada, lectores de un tramo): en un pool
+     * acotado podrían quedar encoladas detrás de quien las espera y trabar la
+     * ejecución. El llamador es quien acota cuántas lanza.
+     */
+    public EjecutorInstrumentado sinLimite(String nombre) {
+        return ejecutores.computeIfAbsent(nombre,
+                n -> new EjecutorInstrumentado(n, 0, Integer.MAX_VALUE, new SynchronousQueue<>(),
+                        new ThreadPoolExecutor.AbortPolicy()));
+    }
+
+    /**
+     * Estado de todos los pools para el endpoint de monitoreo.
+     */
+    public Map<String, Object> obtenerEstado() {
+        Map<String, Object> estado = new LinkedHashMap<>();
+        ejecutores.values().stream()
+                .sorted((a, b) -> a.nombre.compareTo(b.nombre))
+                .forEach(ejecutor -> estado.put(ejecutor.nombre, ejecutor.obtenerEstado()));
+        return estado;
+    }
+
+    // =============== MÉTODOS PRIVADOS ===============
+
+    private int hilosIo(InfraccionesRepositoryImpl repo) {
+        if (hilosPorProvincia > 0) {
+            return hilosPorProvincia;
+        }
+        DataSource dataSource = repo.getNamedParameterJdbcTemplate().getJdbcTemplate().getDataSource();
+        return dataSource instanceof HikariDataSource
+                ? Math.max(((HikariDataSource) dataSource).getMaximumPoolSize(), 1)
+                : Runtime.getRuntime().availableProcessors();
+    }
+
+    private static <T> T esperar(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new RuntimeException("Error en tarea paralela", e.getCause());
+        }
+    }
+
+    /**
+     * ThreadPoolExecutor que mide la espera en cola de cada tarea.
+     * Con la cola llena la tarea corre en el hilo que la envía (CallerRunsPolicy).
+     */
+    public final class EjecutorInstrumentado extends ThreadPoolExecutor {
+
+        private final String nombre;
+        private final AtomicLong tareasEjecutadas = new AtomicLong(0);
+        private final AtomicLong esperaTotalNanos = new AtomicLong(0);
+        private final AtomicLong esperaMaximaNanos = new AtomicLong(0);
+        private final Timer timerEspera;
+
+        private EjecutorInstrumentado(String nombre, int hilos, int capacidadCola) {
+            this(nombre, hilos, hilos, new LinkedBlockingQueue<>(Math.max(capacidadCola, 1)), new CallerRunsPolicy());
+            allowCoreThreadTimeOut(true);
+        }
+
+        private EjecutorInstrumentado(String nombre,
+                                      int hilosBase,
+                                      int hilosMaximos,
+                                      BlockingQueue<Runnable> cola,
+                                      RejectedExecutionHandler rechazo) {
+            super(hilosBase, hilosMaximos, 60L, TimeUnit.SECONDS, cola, fabricaHilos(nombre), rechazo);
+            this.nombre = nombre;
+
+            if (meterRegistry != null) {
+                Tags tags = Tags.of("pool", nombre);
+                Gauge.builder("ejecutor.cola", this, e -> e.getQueue().size())
+                        .tags(tags)
+                        .description("Tareas esperando hilo")
+                        .register(meterRegistry);
+                Gauge.builder("ejecutor.activos", this, ThreadPoolExecutor::getActiveCount)
+                        .tags(tags)
+                        .description("Hilos ejecutando tareas")
+                        .register(meterRegistry);
+                this.timerEspera = Timer.builder("ejecutor.espera")
+                        .tags(tags)
+                        .description("Tiempo de las tareas en cola antes de tomar un hilo")
+                        .register(meterRegistry);
+            } else {
+                this.timerEspera = null;
+            }
+
+            log.debug("Ejecutor {} creado con {} hilos", nombre,
+                    hilosMaximos == Integer.MAX_VALUE ? "ilimitados" : hilosMaximos);
+        }
+
+        @Override
+        public void execute(Runnable tarea) {
+            long encolada = System.nanoTime();
+            Runnable conPerfil = PerfilEjecucion.propagar(tarea);
+            super.execute(() -> {
+                registrarEspera(System.nanoTime() - encolada);
+                conPerfil.run();
+            });
+        }
+
+        private void registrarEspera(long nanos) {
+            tareasEjecutadas.incrementAndGet();
+            esperaTotalNanos.addAndGet(nanos);
+            esperaMaximaNanos.accumulateAndGet(nanos, Math::max);
+            if (timerEspera != null) {
+                timerEspera.record(nanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private Map<String, Object> obtenerEstado() {
+            long tareas = tareasEjecutadas.get();
+            Map<String, Object> estado = new LinkedHashMap<>();
+            estado.put("hilos_maximos", getMaximumPoolSize());
+            estado.put("hilos_activos", getActiveCount());
+            estado.put("en_cola", getQueue().size());
+            estado.put("tareas_ejecutadas", tareas);
+            estado.put("espera_promedio_ms", tareas > 0 ? esperaTotalNanos.get() / tareas / 1_000_000.0 : 0.0);
+            estado.put("espera_maxima_ms", esperaMaximaNanos.get() / 1_000_000.0);
+            return estado;
+        }
+
+        private void cerrar() {
+            shutdown();
+            try {
+                if (!awaitTermination(30, TimeUnit.SECONDS)) {
+                    log.warn("⏱️ Ejecutor {} no terminó en 30s, forzando shutdown", nombre);
+                    shutdownNow();
+                }
+            } catch (InterruptedException e) {
+                shutdownNow();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private static java.util.concurrent.ThreadFactory fabricaHilos(String nombre) {
+        AtomicInteger contador = new AtomicInteger(0);
+        return r -> {
+            Thread hilo = new Thread(r, nombre + "-" + contador.incrementAndGet());
+            hilo.setDaemon(true);
+            return hilo;
+        };
+    }
+}
@@ -0,0 +1,255 @@
+package org.transito_seguro.component;
+
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.transito_seguro.dto.ParametrosFiltrosDTO;
+import org.transito_seguro.model.query.ClaveResultadoQuery;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Cache de resultados de queries por provincia.
+ *
+ * Evita volver a consultar las bases provinciales cuando llegan consultas
+ * idénticas con pocos segundos de diferencia. La clave es código + versión
+ * de la query + hash canónico de los filtros + provincia.
+ *
+ * - Tamaño acotado por cantidad total de registros (no de entradas), con TTL
+ * - Resultados demasiado grandes no se cachean (no desplazan al resto)
+ * - Al actualizar una query se invalidan todas sus entradas
+ * - Hits/misses expuestos en /actuator/metrics/cache.gets?tag=cache:resultados-query
+ *
+ * Los registros se copian al guardar y al leer: los llamadores pueden
+ * modificarlos (ej: agregar la provincia) sin afectar al cache.
+ */
+@Slf4j
+@Component
+public class ResultadoQueryCache {
+
+    public static final String NOMBRE_CACHE = "resultados-query";
+
+    /** Hash usado cuando la consulta no trae filtros */
+    private static final String SIN_FILTROS = "sin-filtros";
+
+    @Autowired(required = false)
+    private MeterRegistry meterRegistry;
+
+    // =============== CONFIGURACIÓN ===============
+
+    @Value("${app.cache.resultados.habilitado:true}")
+    private boolean habilitado;
+
+    @Value("${app.cache.resultados.ttl-segundos:300}")
+    private long ttlSegundos;
+
+    /** Máximo de registros sumando todas las entradas */
+    @Value("${app.cache.resultados.max-registros:500000}")
+    private long maxRegistros;
+
+    /** Resultados de una provincia más grandes que esto no se cachean */
+    @Value("${app.cache.resultados.max-registros-por-entrada:50000}")
+    private int maxRegistrosPorEntrada;
+
+    /** Serialización determinística de los filtros (propiedades y mapas ordenados) */
+    private final ObjectMapper mapperCanonico = new ObjectMapper()
+            .configure(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY, true)
+            .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+    /**
+     * Cache asíncrono: la entrada es un future que se inserta al instante y se
+     * completa fuera del lock del mapa (la carga es JDBC bloqueante).
+     */
+    private AsyncCache<ClaveResultadoQuery, List<Map<String, Object>>> cache;
+
+    // =============== CICLO DE VIDA ===============
+
+    @PostConstruct
+    public void init() {
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(maxRegistros)
+                .weigher((ClaveResultadoQuery clave, List<Map<String, Object>> registros) ->
+                        Math.max(1, registros.size()))
+                .expireAfterWrite(ttlSegundos, TimeUnit.SECONDS)
+                .recordStats()
+                .buildAsync();
+
+        if (meterRegistry != null) {
+            CaffeineCacheMetrics.monitor(meterRegistry, cache.synchronous(), NOMBRE_CACHE);
+        }
+
+        log.info("Cache de resultados {}: TTL {}s, máximo {} registros ({} por provincia)",
+                habilitado ? "habilitado" : "deshabilitado", ttlSegundos, maxRegistros, maxRegistrosPorEntrada);
+    }
+
+    // =============== API PÚBLICA ===============
+
+    /**
+     * Construye la clave de la entrada de una provincia.
+     *
+     * @param codigo Código de la query
+     * @param version Versión de la query (null si no se conoce)
+     * @param variante Forma de ejecución (cada una cachea un resultado distinto)
+     * @param filtros Filtros de la consulta
+     * @param provincia Provincia del repositorio
+     * @return Clave, o null si los filtros no pudieron serializarse (no se cachea)
+     */
+    public ClaveResultadoQuery clave(String codigo,
+                                     Integer version,
+                                     String variante,
+                                     ParametrosFiltrosDTO filtros,
+                                     String provincia) {
+        String hashFiltros = hashFiltros(filtros);
+        if (hashFiltros == null) {
+            return null;
+        }
+        return new ClaveResultadoQuery(codigo, version, variante, hashFiltros, provincia);
+    }
+
+    /**
+     * Devuelve el resultado cacheado de la clave o lo carga y lo guarda.
+     *
+     * Si varios requests piden la misma clave a la vez, el primero inserta un
+     * future en el cache y ejecuta la query en su propio hilo, fuera del lock
+     * del mapa; el resto espera ese future. Un resultado mayor a
+     * max-registros-por-entrada no se guarda (el future se completa con null y
+     * Caffeine descarta la entrada): quienes lo esperaban ejecutan su propia carga.
+     *
+     * Si la carga lanza una excepción no se guarda nada y la excepción se
+     * propaga al que cargó; quienes esperaban cargan por su cuenta.
+     *
+     * @param clave Clave de la entrada (null = sin cache)
+     * @param cargador Ejecución real contra la base provincial
+     * @return Registros (copia modificable en caso de hit)
+     */
+    public List<Map<String, Object>> obtenerOCargar(ClaveResultadoQuery clave,
+                                                    Supplier<List<Map<String, Object>>> cargador) {
+        if (!habilitado || clave == null) {
+            return cargador.get();
+        }
+
+        CompletableFuture<List<Map<String, Object>>> propia = new CompletableFuture<>();
+        CompletableFuture<List<Map<String, Object>>> entrada = cache.get(clave, (k, ejecutor) -> propia);
+
+        if (entrada != propia) {
+            List<Map<String, Object>> cacheado = esperar(entrada);
+            if (cacheado == null) {
+                return cargador.get();
+            }
+            log.debug("Cache HIT: {} ({} registros)", clave, cacheado.size());
+            return copiar(cacheado);
+        }
+
+        List<Map<String, Object>> registros;
+        try {
+            registros = cargador.get();
+        } catch (RuntimeException | Error e) {
+            propia.completeExceptionally(e);
+            throw e;
+        }
+
+        if (registros != null && registros.size() <= maxRegistrosPorEntrada) {
+            propia.complete(copiar(registros));
+            log.debug("Cache MISS: {} ({} registros guardados)", clave, registros.size());
+        } else {
+            propia.complete(null);
+        }
+        return registros;
+    }
+
+    /**
+     * Invalida todas las entradas de una query (todas sus versiones y provincias).
+     */
+    public void invalidarQuery(String codigo) {
+        if (cache == null || codigo == null) {
+            return;
+        }
+
+        long antes = cache.synchronous().estimatedSize();
+        cache.asMap().keySet().removeIf(clave -> codigo.equals(clave.getCodigo()));
+        log.info("Cache de resultados invalidado para '{}' ({} entradas)", codigo,
+                antes - cache.synchronous().estimatedSize());
+    }
+
+    /**
+     * Huella corta de un texto (ej: SQL generado) para usar como variante.
+     */
+    public String huella(String texto) {
+        return sha256(texto != null ? texto.getBytes(StandardCharsets.UTF_8) : new byte[0]);
+    }
+
+    // =============== MÉTODOS PRIVADOS ===============
+
+    /**
+     * Resultado de la carga de otro request (null si no se guardó o si falló).
+     */
+    private static List<Map<String, Object>> esperar(CompletableFuture<List<Map<String, Object>>> entrada) {
+        try {
+            return entrada.join();
+        } catch (CancellationException | CompletionException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Hash canónico de los filtros. baseDatos/usarTodasLasBDS se excluyen porque
+     * solo deciden qué provincias consultar y la entrada ya es por provincia.
+     */
+    private String hashFiltros(ParametrosFiltrosDTO filtros) {
+        if (filtros == null) {
+            return SIN_FILTROS;
+        }
+
+        try {
+            ParametrosFiltrosDTO canonicos = filtros.toBuilder()
+                    .baseDatos(null)
+                    .usarTodasLasBDS(null)
+                    .build();
+            return sha256(mapperCanonico.writeValueAsBytes(canonicos));
+
+        } catch (Exception e) {
+            log.warn("No se pudo calcular hash de filtros, se omite el cache: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    private String sha256(byte[] datos) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(datos);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (Exception e) {
+            throw new RuntimeException("Error calculando hash SHA-256", e);
+        }
+    }
+
+    private List<Map<String, Object>> copiar(List<Map<String, Object>> registros) {
+        List<Map<String, Object>> copia = new ArrayList<>(registros.size());
+        for (Map<String, Object> registro : registros) {
+            copia.add(new LinkedHashMap<>(registro));
+        }
+        return copia;
+    }
+}
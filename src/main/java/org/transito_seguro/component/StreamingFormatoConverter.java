@@ -5,11 +5,17 @@ import com.opencsv.CSVWriter;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.ss.SpreadsheetVersion;
 import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
+import org.transito_seguro.model.EsquemaFilas;
+import org.transito_seguro.model.LoteFilas;
+import org.transito_seguro.model.jfr.EventosJfr;
 
 import java.io.*;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -22,6 +28,21 @@ public class StreamingFormatoConverter {
 
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    @Autowired
+    private MetricasConsulta metricasConsulta;
+
+    /** Filas que SXSSF mantiene en memoria; el resto se vuelca a archivos temporales */
+    private static final int EXCEL_VENTANA_FILAS = 100;
+
+    /** Máximo de filas por hoja en formato .xlsx (1.048.576) */
+    private static final int EXCEL_MAX_FILAS_POR_HOJA = SpreadsheetVersion.EXCEL2007.getMaxRows();
+
+    /** Filas muestreadas por hoja para estimar el ancho de columnas */
+    private static final int EXCEL_FILAS_MUESTRA_ANCHO = 1000;
+
+    /** Ancho máximo de columna en caracteres (límite de Excel: 255) */
+    private static final int EXCEL_ANCHO_MAXIMO_CHARS = 80;
+
     /**
      * Contexto para mantener estado durante procesamiento streaming
      */
@@ -37,11 +58,21 @@ public class StreamingFormatoConverter {
         // Para CSV
         private CSVWriter csvWriter;
         private boolean csvHeadersEscritos = false;
+        private String[] csvHeaders;
+
+        // Para lotes columnares: índices de los headers en el esquema del último lote
+        private EsquemaFilas esquemaLote;
+        private int[] indicesLote;
 
-        // Para Excel
-        private XSSFWorkbook workbook;
+        // Para Excel (SXSSF: ventana de filas en memoria, resto en disco)
+        private SXSSFWorkbook workbook;
         private Sheet sheet;
         private int currentRowIndex = 0;
+        private int numeroHoja = 1;
+        private String[] excelHeaders;
+        private CellStyle excelHeaderStyle;
+        private int[] anchoMuestreado;
+        private int filasMuestreadas = 0;
 
         // Para JSON
         private boolean jsonPrimerRegistro = true;
@@ -135,7 +166,9 @@ public class StreamingFormatoConverter {
         log.debug("Iniciando procesamiento de lote: {} registros, formato: {}",
                 lote.size(), context.getFormato());
 
-        try {
+        long inicio = System.nanoTime();
+        long bytesAntes = context.bytesEscritos.get();
+        try (EventosJfr.Tramo tramo = EventosJfr.escritura(context.getFormato())) {
             switch (context.getFormato()) {
                 case "csv":
                     procesarLoteCSV(context, lote);
@@ -154,6 +187,10 @@ public class StreamingFormatoConverter {
 
             // Forzar flush del OutputStream principal
             context.getOutputStream().flush();
+            long bytesLote = context.bytesEscritos.get() - bytesAntes;
+            metricasConsulta.registrarEscritura(context.getFormato(), lote.size(),
+                    bytesLote, System.nanoTime() - inicio);
+            tramo.filas(lote.size()).bytes(bytesLote);
 
             log.debug("Lote procesado exitosamente: {} registros, total acumulado: {}",
                     lote.size(), context.getTotalRegistros());
@@ -165,6 +202,65 @@ public class StreamingFormatoConverter {
     }
 
 
+    /**
+     * Procesa un lote columnar en streaming.
+     *
+     * CSV y Excel leen los valores por índice de columna (resuelto una vez por
+     * esquema) sin armar un Map por fila; JSON serializa vistas de solo lectura
+     * de cada fila.
+     */
+    public void procesarLoteStreaming(StreamingContext context, LoteFilas lote) throws IOException {
+        if (lote == null || lote.isEmpty()) {
+            log.warn("Lote vacío recibido para formato: {}", context.getFormato());
+            return;
+        }
+
+        long inicio = System.nanoTime();
+        long bytesAntes = context.bytesEscritos.get();
+        try (EventosJfr.Tramo tramo = EventosJfr.escritura(context.getFormato())) {
+            switch (context.getFormato()) {
+                case "csv":
+                    procesarLoteCSV(context, lote);
+                    break;
+                case "json":
+                    procesarLoteJSON(context, lote.comoMapas());
+                    break;
+                case "excel":
+                    procesarLoteExcel(context, lote);
+                    break;
+                default:
+                    throw new IllegalStateException("Formato no reconocido: " + context.getFormato());
+            }
+
+            context.totalRegistros.addAndGet(lote.tamano());
+            context.getOutputStream().flush();
+            long bytesLote = context.bytesEscritos.get() - bytesAntes;
+            metricasConsulta.registrarEscritura(context.getFormato(), lote.tamano(),
+                    bytesLote, System.nanoTime() - inicio);
+            tramo.filas(lote.tamano()).bytes(bytesLote);
+
+        } catch (IOException e) {
+            log.error("Error procesando lote columnar de {} registros", lote.tamano(), e);
+            throw e;
+        }
+    }
+
+    /**
+     * Índices de los headers ya fijados en el esquema del lote. Se recalculan
+     * solo cuando cambia el esquema (normalmente uno por provincia).
+     */
+    private int[] indicesEnLote(StreamingContext context, String[] headers, LoteFilas lote) {
+        if (context.esquemaLote != lote.getEsquema()) {
+            context.esquemaLote = lote.getEsquema();
+            context.indicesLote = lote.getEsquema().indices(headers);
+        }
+        return context.indicesLote;
+    }
+
+    private static String[] nombresColumnas(EsquemaFilas esquema) {
+        return esquema.getNombres().toArray(new String[0]);
+    }
+
     /**
      * Finaliza el streaming y cierra recursos
      */
@@ -185,6 +281,58 @@ public class StreamingFormatoConverter {
                 context.getTotalRegistros(), context.getBytesEscritos());
     }
 
+    /**
+     * Corta el streaming por un error a mitad de la descarga. No cierra el
+     * OutputStream de la respuesta: el llamador relanza el error para que el
+     * contenedor aborte la conexión y el cliente vea una transferencia
+     * incompleta en vez de un archivo que parece completo.
+     *
+     * JSON deja además un trailer con "completo": false y el error. CSV no
+     * admite trailer sin mezclarlo con los datos; Excel no escribió nada todavía
+     * (el libro se escribe al finalizar) y solo se descartan sus temporales.
+     * No lanza excepciones.
+     *
+     * @param context Contexto a cortar
+     * @param error Error que cortó la descarga
+     */
+    public void abortarStreaming(StreamingContext context, Throwable error) {
+        if (context == null) {
+            return;
+        }
+        try {
+            switch (context.getFormato()) {
+                case "json":
+                    if (context.jsonWriter != null) {
+                        context.jsonWriter.println();
+                        context.jsonWriter.println("  ],");
+                        context.jsonWriter.println("  \"total\": " + context.getTotalRegistros() + ",");
+                        context.jsonWriter.println("  \"completo\": false,");
+                        context.jsonWriter.println("  \"error\": " + objectMapper.writeValueAsString(
+                                error != null ? String.valueOf(error.getMessage()) : "error desconocido"));
+                        context.jsonWriter.println("}");
+                        context.jsonWriter.flush();
+                    }
+                    break;
+                case "csv":
+                    if (context.csvWriter != null) {
+                        context.csvWriter.flush();
+                    }
+                    break;
+                case "excel":
+                    if (context.workbook != null) {
+                        context.workbook.dispose();
+                        context.workbook.close();
+                    }
+                    break;
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("⚠️ Error cortando el streaming: {}", e.getMessage());
+        }
+
+        log.warn("Streaming abortado: {} registros, {} bytes escritos",
+                context.getTotalRegistros(), context.getBytesEscritos());
+    }
+
     // =========================== CSV STREAMING ===========================
 
     private void inicializarCSVStreaming(StreamingContext context, CoutingOutputStream countingStream) throws IOException {
@@ -195,7 +343,8 @@ public class StreamingFormatoConverter {
     private void procesarLoteCSV(StreamingContext context, List<Map<String, Object>> lote) throws IOException {
         if (!context.csvHeadersEscritos && !lote.isEmpty()) {
             Set<String> headers = lote.get(0).keySet();
-            context.csvWriter.writeNext(headers.toArray(new String[0]));
+            context.csvHeaders = headers.toArray(new String[0]);
+            context.csvWriter.writeNext(context.csvHeaders);
             context.csvHeadersEscritos = true;
         }
 
@@ -218,6 +367,28 @@ public class StreamingFormatoConverter {
         }
     }
 
+    private void procesarLoteCSV(StreamingContext context, LoteFilas lote) {
+        if (!context.csvHeadersEscritos) {
+            context.csvHeaders = nombresColumnas(lote.getEsquema());
+            context.csvWriter.writeNext(context.csvHeaders);
+            context.csvHeadersEscritos = true;
+        }
+
+        int[] indices = indicesEnLote(context, context.csvHeaders, lote);
+        String[] valores = new String[indices.length];
+
+        for (int fila = 0; fila < lote.tamano(); fila++) {
+            for (int k = 0; k < indices.length; k++) {
+                Object valor = indices[k] >= 0 ? lote.valor(fila, indices[k]) : null;
+                valores[k] = valor != null ? String.valueOf(valor) : "";
+            }
+            // writeNext escribe la línea antes de volver: se puede reusar el arreglo
+            context.csvWriter.writeNext(valores);
+        }
+
+        context.csvWriter.flush();
+    }
+
     private void finalizarCSVStreaming(StreamingContext context) throws IOException {
         if (context.csvWriter != null) {
             context.csvWriter.close();
@@ -272,89 +443,161 @@ public class StreamingFormatoConverter {
 
     // =========================== EXCEL STREAMING ===========================
 
+    /**
+     * MEJORADO: Usa SXSSFWorkbook en lugar de XSSFWorkbook.
+     * Solo se mantienen EXCEL_VENTANA_FILAS filas en memoria; las anteriores se
+     * vuelcan a archivos temporales comprimidos, por lo que el heap ya no crece
+     * con el total de registros.
+     */
     private void inicializarExcelStreaming(StreamingContext context, CoutingOutputStream countingStream) {
-        context.workbook = new XSSFWorkbook();
-        context.sheet = context.workbook.createSheet("Infracciones");
+        SXSSFWorkbook workbook = new SXSSFWorkbook(EXCEL_VENTANA_FILAS);
+        workbook.setCompressTempFiles(true);
+
+        context.workbook = workbook;
+        context.sheet = workbook.createSheet("Infracciones");
         context.coutingOutputStream = countingStream;
+
+        CellStyle headerStyle = workbook.createCellStyle();
+        Font font = workbook.createFont();
+        font.setBold(true);
+        headerStyle.setFont(font);
+        context.excelHeaderStyle = headerStyle;
     }
 
 
     private void procesarLoteExcel(StreamingContext context, List<Map<String, Object>> lote) {
         if (lote.isEmpty()) return;
 
-        // Escribir headers solo una vez
-        if (context.currentRowIndex == 0) {
-            Row headerRow = context.sheet.createRow(0);
-            String[] headers = lote.get(0).keySet().toArray(new String[0]);
+        // Headers fijados con el primer lote
+        if (context.excelHeaders == null) {
+            context.excelHeaders = lote.get(0).keySet().toArray(new String[0]);
+            context.anchoMuestreado = new int[context.excelHeaders.length];
+            escribirHeadersExcel(context);
+        }
 
-            CellStyle headerStyle = context.workbook.createCellStyle();
-            Font font = context.workbook.createFont();
-            font.setBold(true);
-            headerStyle.setFont(font);
+        String[] headers = context.excelHeaders;
 
-            for (int i = 0; i < headers.length; i++) {
-                Cell cell = headerRow.createCell(i);
-                cell.setCellValue(headers[i]);
-                cell.setCellStyle(headerStyle);
+        for (Map<String, Object> registro : lote) {
+            // Rollover: al llegar al máximo de filas se continúa en una hoja nueva
+            if (context.currentRowIndex >= EXCEL_MAX_FILAS_POR_HOJA) {
+                crearNuevaHojaExcel(context);
             }
-            context.currentRowIndex = 1;
-        }
 
-        // Procesar en sub-chunks pequeños
-        String[] headers = lote.get(0).keySet().toArray(new String[0]);
-        int subChunkSize = Math.min(100, lote.size()); // Sub-chunks de 100 para Excel
+            Row row = context.sheet.createRow(context.currentRowIndex++);
+            boolean muestrear = context.filasMuestreadas < EXCEL_FILAS_MUESTRA_ANCHO;
 
-        for (int i = 0; i < lote.size(); i += subChunkSize) {
-            int endIndex = Math.min(i + subChunkSize, lote.size());
+            for (int k = 0; k < headers.length; k++) {
+                Object valor = registro.get(headers[k]);
+                if (valor == null) continue;
 
-            for (int j = i; j < endIndex; j++) {
-                Map<String, Object> registro = lote.get(j);
-                Row row = context.sheet.createRow(context.currentRowIndex++);
+                String texto = String.valueOf(valor);
+                row.createCell(k).setCellValue(texto);
 
-                for (int k = 0; k < headers.length; k++) {
-                    Cell cell = row.createCell(k);
-                    Object valor = registro.get(headers[k]);
-                    if (valor != null) {
-                        cell.setCellValue(String.valueOf(valor));
-                    }
+                if (muestrear && texto.length() > context.anchoMuestreado[k]) {
+                    context.anchoMuestreado[k] = texto.length();
                 }
             }
 
-            // NUEVO: Limpiar referencias periódicamente para Excel
-            if ((i / subChunkSize) % 5 == 0) {
-                // Excel mantiene todo en memoria, solo podemos sugerir GC
-                System.gc();
+            if (muestrear) {
+                context.filasMuestreadas++;
             }
         }
+    }
 
-        // Auto-size cada 500 registros (menos frecuente para performance)
-        if (context.currentRowIndex % 500 == 0) {
-            for (int i = 0; i < headers.length && i < 15; i++) {
-                context.sheet.autoSizeColumn(i);
+    private void procesarLoteExcel(StreamingContext context, LoteFilas lote) {
+        if (context.excelHeaders == null) {
+            context.excelHeaders = nombresColumnas(lote.getEsquema());
+            context.anchoMuestreado = new int[context.excelHeaders.length];
+            escribirHeadersExcel(context);
+        }
+
+        int[] indices = indicesEnLote(context, context.excelHeaders, lote);
+
+        for (int fila = 0; fila < lote.tamano(); fila++) {
+            if (context.currentRowIndex >= EXCEL_MAX_FILAS_POR_HOJA) {
+                crearNuevaHojaExcel(context);
+            }
+
+            Row row = context.sheet.createRow(context.currentRowIndex++);
+            boolean muestrear = context.filasMuestreadas < EXCEL_FILAS_MUESTRA_ANCHO;
+
+            for (int k = 0; k < indices.length; k++) {
+                Object valor = indices[k] >= 0 ? lote.valor(fila, indices[k]) : null;
+                if (valor == null) continue;
+
+                String texto = String.valueOf(valor);
+                row.createCell(k).setCellValue(texto);
+
+                if (muestrear && texto.length() > context.anchoMuestreado[k]) {
+                    context.anchoMuestreado[k] = texto.length();
+                }
+            }
+
+            if (muestrear) {
+                context.filasMuestreadas++;
             }
         }
     }
 
+    private void escribirHeadersExcel(StreamingContext context) {
+        Row headerRow = context.sheet.createRow(0);
+        String[] headers = context.excelHeaders;
+
+        for (int i = 0; i < headers.length; i++) {
+            Cell cell = headerRow.createCell(i);
+            cell.setCellValue(headers[i]);
+            cell.setCellStyle(context.excelHeaderStyle);
+            context.anchoMuestreado[i] = Math.max(context.anchoMuestreado[i], headers[i].length());
+        }
+        context.currentRowIndex = 1;
+    }
+
+    /**
+     * Cierra la hoja actual (aplicando anchos) y abre la siguiente con los mismos headers.
+     */
+    private void crearNuevaHojaExcel(StreamingContext context) {
+        aplicarAnchoColumnas(context);
+
+        context.numeroHoja++;
+        context.sheet = context.workbook.createSheet("Infracciones_" + context.numeroHoja);
+        // Muestreo propio de la hoja: los anchos de la anterior no se arrastran
+        context.filasMuestreadas = 0;
+        Arrays.fill(context.anchoMuestreado, 0);
+        escribirHeadersExcel(context);
+
+        log.info("Excel: límite de {} filas alcanzado, continuando en hoja {}",
+                EXCEL_MAX_FILAS_POR_HOJA, context.numeroHoja);
+    }
+
+    /**
+     * Reemplaza autoSizeColumn (que mide fuentes y requiere filas en memoria) por
+     * un ancho calculado a partir del largo de los textos muestreados.
+     */
+    private void aplicarAnchoColumnas(StreamingContext context) {
+        if (context.anchoMuestreado == null) return;
+
+        for (int i = 0; i < context.anchoMuestreado.length; i++) {
+            int chars = Math.min(context.anchoMuestreado[i] + 2, EXCEL_ANCHO_MAXIMO_CHARS);
+            context.sheet.setColumnWidth(i, chars * 256);
+        }
+    }
+
     private void finalizarExcelStreaming(StreamingContext context) throws IOException {
         if (context.workbook != null) {
-            // Auto-size final de columnas
-            if (context.sheet.getLastRowNum() > 0) {
-                Row firstRow = context.sheet.getRow(0);
-                if (firstRow != null) {
-                    int numCols = Math.min(firstRow.getLastCellNum(), 20);
-                    for (int i = 0; i < numCols; i++) {
-                        context.sheet.autoSizeColumn(i);
-                    }
-                }
+            aplicarAnchoColumnas(context);
+
+            try {
+                // Escribir al OutputStream counting
+                context.workbook.write(context.coutingOutputStream);
+                context.coutingOutputStream.flush(); // Flush explícito
+            } finally {
+                // Eliminar archivos temporales de SXSSF
+                context.workbook.dispose();
+                context.workbook.close();
             }
 
-            // Escribir al OutputStream counting
-            context.workbook.write(context.coutingOutputStream);
-            context.coutingOutputStream.flush(); // Flush explícito
-            context.workbook.close();
-
-            log.debug("Excel finalizado - Total registros: {}, Bytes escritos: {}",
-                    context.getTotalRegistros(), context.getBytesEscritos());
+            log.debug("Excel finalizado - Total registros: {}, Hojas: {}, Bytes escritos: {}",
+                    context.getTotalRegistros(), context.numeroHoja, context.getBytesEscritos());
         }
     }
 
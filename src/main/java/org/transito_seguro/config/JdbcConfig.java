@@ -2,6 +2,7 @@ package org.transito_seguro.config;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
@@ -12,13 +13,15 @@ import javax.sql.DataSource;
 @Slf4j
 public class JdbcConfig {
 
-    private static final int FETCH_SIZE = 1000; // Para streaming eficiente
+    /** Fetch size inicial; el ajustador de lectura lo afina por query y provincia */
+    @Value("${app.jdbc.fetch-size:1000}")
+    private int fetchSize;
 
     @Bean(name = "pbaJdbcTemplate")
     public NamedParameterJdbcTemplate pbaJdbcTemplate(@Qualifier("pbaDataSource") DataSource dataSource) {
         log.debug("Configurando JdbcTemplate: Buenos Aires");
         NamedParameterJdbcTemplate template = new NamedParameterJdbcTemplate(dataSource);
-        template.getJdbcTemplate().setFetchSize(FETCH_SIZE);
+        template.getJdbcTemplate().setFetchSize(fetchSize);
         return template;
     }
 
@@ -26,7 +29,7 @@ public class JdbcConfig {
     public NamedParameterJdbcTemplate mdaJdbcTemplate(@Qualifier("mdaDataSource") DataSource dataSource) {
         log.debug("Configurando JdbcTemplate: Avellaneda");
         NamedParameterJdbcTemplate template = new NamedParameterJdbcTemplate(dataSource);
-        template.getJdbcTemplate().setFetchSize(FETCH_SIZE);
+        template.getJdbcTemplate().setFetchSize(fetchSize);
         return template;
     }
 
@@ -34,7 +37,7 @@ public class JdbcConfig {
     public NamedParameterJdbcTemplate santaRosaJdbcTemplate(@Qualifier("santa-rosaDataSource") DataSource dataSource) {
         log.debug("Configurando JdbcTemplate: La Pampa");
         NamedParameterJdbcTemplate template = new NamedParameterJdbcTemplate(dataSource);
-        template.getJdbcTemplate().setFetchSize(FETCH_SIZE);
+        template.getJdbcTemplate().setFetchSize(fetchSize);
         return template;
     }
 
@@ -42,7 +45,7 @@ public class JdbcConfig {
     public NamedParameterJdbcTemplate chacoJdbcTemplate(@Qualifier("chacoDataSource") DataSource dataSource) {
         log.debug("Configurando JdbcTemplate: Chaco");
         NamedParameterJdbcTemplate template = new NamedParameterJdbcTemplate(dataSource);
-        template.getJdbcTemplate().setFetchSize(FETCH_SIZE);
+        template.getJdbcTemplate().setFetchSize(fetchSize);
         return template;
     }
 
@@ -50,7 +53,7 @@ public class JdbcConfig {
     public NamedParameterJdbcTemplate entreRiosJdbcTemplate(@Qualifier("entre-riosDataSource") DataSource dataSource) {
         log.debug("Configurando JdbcTemplate: Entre Ríos");
         NamedParameterJdbcTemplate template = new NamedParameterJdbcTemplate(dataSource);
-        template.getJdbcTemplate().setFetchSize(FETCH_SIZE);
+        template.getJdbcTemplate().setFetchSize(fetchSize);
         return template;
     }
 
@@ -58,7 +61,7 @@ public class JdbcConfig {
     public NamedParameterJdbcTemplate formosaJdbcTemplate(@Qualifier("formosaDataSource") DataSource dataSource) {
         log.debug("Configurando JdbcTemplate: Formosa");
         NamedParameterJdbcTemplate template = new NamedParameterJdbcTemplate(dataSource);
-        template.getJdbcTemplate().setFetchSize(FETCH_SIZE);
+        template.getJdbcTemplate().setFetchSize(fetchSize);
         return template;
     }
 }
\ No newline at end of file
@@ -4,11 +4,26 @@ import com.zaxxer.hikari.HikariDataSource;
 import com.zaxxer.hikari.HikariPoolMXBean;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.transito_seguro.component.GobernadorMemoria;
+import org.transito_seguro.component.GrabadorJfr;
+import org.transito_seguro.component.RegistroEjecutores;
 
 import javax.sql.DataSource;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -23,6 +38,16 @@ public class DataSourceMonitorController {
     private final HikariDataSource chacoDataSource;
     private final HikariDataSource entreRiosDataSource;
     private final HikariDataSource formosaDataSource;
+    private final GobernadorMemoria gobernadorMemoria;
+    private final RegistroEjecutores registroEjecutores;
+    private final GrabadorJfr grabadorJfr;
+
+    /**
+     * Habilita /api/monitor/jfr. Apagado por defecto: una grabación toca la
+     * JVM de producción y el archivo descargado expone datos del proceso.
+     */
+    @Value("${app.jfr.habilitado:false}")
+    private boolean jfrHabilitado;
 
     public DataSourceMonitorController(
             @Qualifier("pbaDataSource") DataSource pbaDs,
@@ -30,7 +55,10 @@ public class DataSourceMonitorController {
             @Qualifier("santa-rosaDataSource") DataSource santaRosaDs,
             @Qualifier("chacoDataSource") DataSource chacoDs,
             @Qualifier("entre-riosDataSource") DataSource entreRiosDs,
-            @Qualifier("formosaDataSource") DataSource formosaDs) {
+            @Qualifier("formosaDataSource") DataSource formosaDs,
+            GobernadorMemoria gobernadorMemoria,
+            RegistroEjecutores registroEjecutores,
+            GrabadorJfr grabadorJfr) {
 
         this.pbaDataSource = (HikariDataSource) pbaDs;
         this.mdaDataSource = (HikariDataSource) mdaDs;
@@ -38,6 +66,9 @@ public class DataSourceMonitorController {
         this.chacoDataSource = (HikariDataSource) chacoDs;
         this.entreRiosDataSource = (HikariDataSource) entreRiosDs;
         this.formosaDataSource = (HikariDataSource) formosaDs;
+        this.gobernadorMemoria = gobernadorMemoria;
+        this.registroEjecutores = registroEjecutores;
+        this.grabadorJfr = grabadorJfr;
     }
 
     @GetMapping("/pools")
@@ -68,6 +99,89 @@ public class DataSourceMonitorController {
         return stats;
     }
 
+    /**
+     * Reservas del gobernador de memoria (lotes en vuelo por ejecución).
+     */
+    @GetMapping("/memoria")
+    public Map<String, Object> getMemoria() {
+        return gobernadorMemoria.obtenerEstado();
+    }
+
+    /**
+     * Pools de hilos administrados (E/S por provincia y CPU): hilos, cola y espera.
+     */
+    @GetMapping("/ejecutores")
+    public Map<String, Object> getEjecutores() {
+        return registroEjecutores.obtenerEstado();
+    }
+
+    // =============== JAVA FLIGHT RECORDER ===============
+
+    /**
+     * Estado de la grabación JFR bajo demanda.
+     */
+    @GetMapping("/jfr")
+    public ResponseEntity<Map<String, Object>> getJfr() {
+        if (!jfrHabilitado) {
+            return jfrDeshabilitado();
+        }
+        return ResponseEntity.ok(grabadorJfr.obtenerEstado());
+    }
+
+    /**
+     * Inicia una grabación JFR acotada (duración y tamaño máximos en app.jfr).
+     */
+    @PostMapping("/jfr/iniciar")
+    public ResponseEntity<Map<String, Object>> iniciarJfr(
+            @RequestParam(value = "duracionSeg", required = false) Integer duracionSeg) {
+        if (!jfrHabilitado) {
+            return jfrDeshabilitado();
+        }
+        try {
+            return ResponseEntity.ok(grabadorJfr.iniciar(duracionSeg));
+        } catch (IllegalStateException e) {
+            log.warn("No se pudo iniciar la grabación JFR: {}", e.getMessage());
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(Collections.singletonMap("error", e.getMessage()));
+        }
+    }
+
+    /**
+     * Detiene la grabación JFR y devuelve el archivo .jfr (abrir con JDK Mission Control).
+     */
+    @PostMapping("/jfr/detener")
+    public ResponseEntity<?> detenerJfr() throws IOException {
+        if (!jfrHabilitado) {
+            return jfrDeshabilitado();
+        }
+        Path archivo;
+        try {
+            archivo = grabadorJfr.detener();
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT)
+                    .body(Collections.singletonMap("error", e.getMessage()));
+        }
+
+        StreamingResponseBody cuerpo = outputStream -> {
+            try {
+                Files.copy(archivo, outputStream);
+            } finally {
+                Files.deleteIfExists(archivo);
+            }
+        };
+
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .contentLength(Files.size(archivo))
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + archivo.getFileName() + "\"")
+                .body(cuerpo);
+    }
+
+    private ResponseEntity<Map<String, Object>> jfrDeshabilitado() {
+        return ResponseEntity.status(HttpStatus.NOT_FOUND)
+                .body(Collections.singletonMap("error", "Grabación JFR deshabilitada (app.jfr.habilitado=false)"));
+    }
+
     private Map<String, Object> getPoolInfo(HikariDataSource ds) {
         Map<String, Object> info = new LinkedHashMap<>();
         try {
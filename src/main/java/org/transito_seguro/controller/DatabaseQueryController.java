@@ -2,6 +2,7 @@ package org.transito_seguro.controller;
 
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -10,6 +11,7 @@ import org.transito_seguro.component.QueryAnalyzer;
 import org.transito_seguro.dto.ConsultaQueryDTO;
 import org.transito_seguro.dto.ParametrosFiltrosDTO;
 import org.transito_seguro.dto.QueryStorageDTO;
+import org.transito_seguro.model.PerfilEjecucion;
 import org.transito_seguro.model.consolidacion.analisis.AnalisisConsolidacion;
 import org.transito_seguro.model.query.QueryStorage;
 import org.transito_seguro.service.DatabaseQueryService;
@@ -34,15 +36,26 @@ public class DatabaseQueryController {
     @Autowired
     private QueryAnalyzer queryAnalyzer;
 
+    /** Permite pedir el perfil de ejecución con ?perfil=true */
+    @Value("${app.perfil.habilitado:true}")
+    private boolean perfilHabilitado;
+
     // =============== EJECUCIÓN DE QUERIES ===============
 
     /**
-     * Ejecutar query por código con soporte completo de consolidación
+     * Ejecutar query por código con soporte completo de consolidación.
+     * Con ?perfil=true agrega el perfil de ejecución en headers X-Perfil-*.
      */
     @PostMapping("/ejecutar/{codigo}")
     public ResponseEntity<?> ejecutarQuery(
             @PathVariable String codigo,
-            @Valid @RequestBody ConsultaQueryDTO consulta) {
+            @Valid @RequestBody ConsultaQueryDTO consulta,
+            @RequestParam(value = "perfil", defaultValue = "false") boolean perfil) {
+
+        long tiempoInicio = System.currentTimeMillis();
+        if (perfil && perfilHabilitado) {
+            PerfilEjecucion.iniciar(codigo);
+        }
 
         try {
             boolean consolidado = esConsolidado(consulta);
@@ -60,6 +73,13 @@ public class DatabaseQueryController {
                 responseBuilder.header("X-Query-Consolidada", "true");
             }
 
+            PerfilEjecucion perfilEjecucion = PerfilEjecucion.actual();
+            if (perfilEjecucion != null) {
+                responseBuilder.header("X-Tiempo-Ejecucion-Ms", String.valueOf(System.currentTimeMillis() - tiempoInicio));
+                perfilEjecucion.comoHeaders().forEach(responseBuilder::header);
+                log.info("⏱️ Perfil de {}: {}", codigo, perfilEjecucion.aMapa());
+            }
+
             return responseBuilder.body(resultado);
 
         } catch (IllegalArgumentException e) {
@@ -67,6 +87,8 @@ public class DatabaseQueryController {
         } catch (Exception e) {
             log.error("Error ejecutando query '{}': {}", codigo, e.getMessage(), e);
             return crearRespuestaError("Error interno", codigo, e.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR);
+        } finally {
+            PerfilEjecucion.finalizar();
         }
     }
 
@@ -76,7 +98,8 @@ public class DatabaseQueryController {
     @PostMapping("/consolidada/{codigo}")
     public ResponseEntity<?> ejecutarQueryConsolidada(
             @PathVariable String codigo,
-            @Valid @RequestBody ConsultaQueryDTO consulta) {
+            @Valid @RequestBody ConsultaQueryDTO consulta,
+            @RequestParam(value = "perfil", defaultValue = "false") boolean perfil) {
 
         // Forzar consolidación
         ParametrosFiltrosDTO filtrosConsolidados = consulta.getParametrosFiltros() != null ?
@@ -90,7 +113,7 @@ public class DatabaseQueryController {
                         .build();
         consulta.setParametrosFiltros(filtrosConsolidados);
 
-        return ejecutarQuery(codigo, consulta);
+        return ejecutarQuery(codigo, consulta, perfil);
     }
 
     /**
@@ -10,6 +10,7 @@ import org.springframework.validation.FieldError;
 import org.springframework.web.bind.annotation.*;
 import org.transito_seguro.dto.ConsultaQueryDTO;
 import org.transito_seguro.dto.ParametrosFiltrosDTO;
+import org.transito_seguro.model.PerfilEjecucion;
 import org.transito_seguro.service.InfraccionesService;
 import org.transito_seguro.component.ConsultaValidator;
 
@@ -52,6 +53,10 @@ public class InfraccionesController {
     @Value("${app.limits.max-records-download:1000000}")
     private int maxRecordsDownload;
 
+    /** Permite pedir el perfil de ejecución con ?perfil=true */
+    @Value("${app.perfil.habilitado:true}")
+    private boolean perfilHabilitado;
+
     // =============== ENDPOINTS PRINCIPALES ===============
 
     /**
@@ -66,15 +71,20 @@ public class InfraccionesController {
      * @param tipoConsulta Código de la query a ejecutar
      * @param consulta DTO con parámetros de filtros
      * @param bindingResult Resultado de validación de Spring
+     * @param perfil Si es true, agrega el perfil de ejecución en headers X-Perfil-*
      * @return Resultados de la consulta o errores detallados
      */
     @PostMapping("/{tipoConsulta}")
     public ResponseEntity<?> ejecutarConsulta(
             @PathVariable String tipoConsulta,
             @Valid @RequestBody ConsultaQueryDTO consulta,
-            BindingResult bindingResult) {
+            BindingResult bindingResult,
+            @RequestParam(value = "perfil", defaultValue = "false") boolean perfil) {
 
         long tiempoInicio = System.currentTimeMillis();
+        if (perfil && perfilHabilitado) {
+            PerfilEjecucion.iniciar(tipoConsulta);
+        }
 
         try {
             // VALIDACIÓN 1: Errores de binding de Spring (anotaciones @Valid)
@@ -171,15 +181,20 @@ public class InfraccionesController {
                     HttpStatus.INTERNAL_SERVER_ERROR,
                     sugerenciasError
             );
+        } finally {
+            PerfilEjecucion.finalizar();
         }
     }
 
     /**
      * Endpoint de descarga de archivos.
      * Elimina límites para obtener todos los datos.
+     *
+     * Las descargas no consolidadas se devuelven como StreamingResponseBody:
+     * el archivo se escribe al cliente a medida que llegan los lotes.
      */
     @PostMapping("/{tipoConsulta}/descargar")
-    public ResponseEntity<byte[]> descargarArchivo(
+    public ResponseEntity<?> descargarArchivo(
             @PathVariable String tipoConsulta,
             @Valid @RequestBody ConsultaQueryDTO consulta,
             BindingResult bindingResult) {
@@ -245,7 +260,7 @@ public class InfraccionesController {
      * Endpoint alternativo de descarga.
      */
     @PostMapping("/descargar/{tipoConsulta}")
-    public ResponseEntity<byte[]> descargarArchivoAlternativo(
+    public ResponseEntity<?> descargarArchivoAlternativo(
             @PathVariable String tipoConsulta,
             @Valid @RequestBody ConsultaQueryDTO consulta,
             BindingResult bindingResult) {
@@ -496,6 +511,13 @@ public class InfraccionesController {
             }
         }
 
+        // Perfil de ejecución (solo si se pidió con ?perfil=true)
+        PerfilEjecucion perfil = PerfilEjecucion.actual();
+        if (perfil != null) {
+            perfil.comoHeaders().forEach(responseBuilder::header);
+            log.info("⏱️ Perfil de {}: {}", tipoConsulta, perfil.aMapa());
+        }
+
         log.info("✅ Consulta exitosa: {} - Tiempo: {}ms - Consolidado: {}",
                 tipoConsulta, tiempoEjecucion, consolidado);
 
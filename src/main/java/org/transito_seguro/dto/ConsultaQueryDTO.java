@@ -14,9 +14,21 @@ import javax.validation.constraints.Pattern;
 @Builder
 public class ConsultaQueryDTO {
 
+    /** Exportación CSV generada por PostgreSQL con COPY (ver exportacion) */
+    public static final String EXPORTACION_COPY = "copy";
+
     @Pattern(regexp = "csv|excel|json", message = "El formato debe ser csv, excel o json")
     private String formato;
     private ParametrosFiltrosDTO parametrosFiltros;
 
+    /**
+     * Solo descargas csv: "copy" pide el CSV generado por PostgreSQL con COPY
+     * (más rápido, con el dialecto de PostgreSQL: comillas solo si hacen falta,
+     * booleanos t/f, fechas y números en su formato de texto). Sin valor, el
+     * CSV sale de StreamingFormatoConverter como siempre.
+     */
+    @Pattern(regexp = "(?i)lotes|copy", message = "La exportación debe ser lotes o copy")
+    private String exportacion;
+
 
 }
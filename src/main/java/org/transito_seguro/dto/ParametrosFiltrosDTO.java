@@ -36,6 +36,9 @@ public class ParametrosFiltrosDTO {
     private Integer offset;
     private Boolean forzarPaginacion;
 
+    /** Lectura sobre un único snapshot por provincia (null = app.batch.lectura-consistente) */
+    private Boolean lecturaConsistente;
+
     /** Para keyset para la consolidacion
      * Cuando la query no esta bien formaada para la consolidacion aplicamos estrategias
      */
@@ -2,10 +2,14 @@ package org.transito_seguro.enums;
 
 import lombok.Getter;
 
+import java.sql.Types;
+
 @Getter
 public enum TipoDatoKeyset {
 
     INTEGER("INTEGER"),
+    BIGINT("BIGINT"),
+    NUMERIC("NUMERIC"),
     TEXT("TEXT"),
     DATE("DATE"),
     TIMESTAMP("TIMESTAMP"),
@@ -30,4 +34,43 @@ public enum TipoDatoKeyset {
             return TEXT;
         }
     }
+
+    /**
+     * Resuelve el tipo a partir del tipo JDBC real de la columna (ResultSetMetaData).
+     *
+     * @param tipoJdbc Valor de java.sql.Types
+     * @return Tipo keyset o null si la columna no es ordenable/comparable de forma segura
+     */
+    public static TipoDatoKeyset desdeTipoJdbc(int tipoJdbc) {
+        switch (tipoJdbc) {
+            case Types.SMALLINT:
+            case Types.TINYINT:
+            case Types.INTEGER:
+                return INTEGER;
+            case Types.BIGINT:
+                return BIGINT;
+            case Types.NUMERIC:
+            case Types.DECIMAL:
+            case Types.REAL:
+            case Types.FLOAT:
+            case Types.DOUBLE:
+                return NUMERIC;
+            case Types.CHAR:
+            case Types.VARCHAR:
+            case Types.LONGVARCHAR:
+            case Types.NCHAR:
+            case Types.NVARCHAR:
+                return TEXT;
+            case Types.DATE:
+                return DATE;
+            case Types.TIMESTAMP:
+            case Types.TIMESTAMP_WITH_TIMEZONE:
+                return TIMESTAMP;
+            case Types.BOOLEAN:
+            case Types.BIT:
+                return BOOLEAN;
+            default:
+                return null;
+        }
+    }
 }
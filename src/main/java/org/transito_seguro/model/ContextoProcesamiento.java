@@ -2,11 +2,18 @@ package org.transito_seguro.model;
 
 import java.io.BufferedWriter;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -17,6 +24,18 @@ import com.fasterxml.jackson.databind.ObjectMapper;
  * Clase que representa el contexto de procesamiento de resultados.
  * Permite agregar, validar, consultar y limpiar resultados de manera segura
  * en entornos concurrentes.
+ *
+ * NUEVO: con {@link #iniciarEscritor} los lotes pasan por una cola acotada
+ * (filas y/o bytes) hacia un único hilo escritor. Los hilos que leen provincias
+ * se bloquean cuando la cola está llena, así la memoria retenida queda acotada
+ * por la capacidad de la cola y no por el volumen total de la ejecución.
+ * Sin escritor se mantiene el comportamiento anterior (cola sin límite que se
+ * vacía en {@link #procesarTodosResultados()}).
+ *
+ * NUEVO: con un {@link DesbordeDisco}, cuando la cola en memoria está llena el
+ * lote se escribe a un archivo temporal en vez de bloquear al productor; el
+ * escritor lo relee en orden. El productor solo se bloquea si también se agota
+ * el presupuesto de disco.
  */
 public class ContextoProcesamiento {
 
@@ -28,22 +47,73 @@ public class ContextoProcesamiento {
     /** Cola para resultados intermedios o parciales. */
     private final ConcurrentLinkedQueue<Map<String, Object>> resultadosParciales = new ConcurrentLinkedQueue<>();
 
+    /** Lotes columnares pendientes (agregados sin copiar filas a Map). */
+    private final ConcurrentLinkedQueue<LoteFilas> lotesParciales = new ConcurrentLinkedQueue<>();
+
     /** Procesador que se aplica sobre lotes de resultados. */
     private final Consumer<List<Map<String, Object>>> procesador;
 
+    /** Procesador de lotes columnares (opcional); si es null los lotes se entregan como Map. */
+    private final Consumer<LoteFilas> procesadorLotes;
+
     /** Archivo de salida opcional para escritura directa. */
     private final BufferedWriter archivo;
 
     /** Serializador JSON. */
     private final ObjectMapper mapper = new ObjectMapper();
 
+    /** Estado aislado de la ejecución batch a la que pertenece este contexto (puede ser null). */
+    private final EjecucionBatch ejecucion;
+
+    // =============== COLA ACOTADA (productor / escritor) ===============
+
+    /** Bytes estimados por valor cuando el lote llega como List&lt;Map&gt; (clave + entrada + valor). */
+    private static final int BYTES_POR_VALOR_MAPA = 80;
+
+    private final ReentrantLock lockCola = new ReentrantLock();
+    private final Condition hayEspacio = lockCola.newCondition();
+    private final Condition hayPendientes = lockCola.newCondition();
+    private final ArrayDeque<EntradaCola> cola = new ArrayDeque<>();
+
+    /** Límites de la cola (0 = sin límite en esa dimensión). */
+    private int maxFilasEnCola;
+    private long maxBytesEnCola;
+
+    private int filasEnCola;
+    private long bytesEnCola;
+    private int picoFilasEnCola;
+    private long picoBytesEnCola;
+    private long esperasProductores;
+
+    private boolean colaCerrada;
+    private volatile Throwable errorEscritor;
+    private Future<?> escritor;
+
+    /** Nivel de desborde a disco (opcional). */
+    private DesbordeDisco desborde;
+
     // =====================================================
     // CONSTRUCTOR
     // =====================================================
 
     public ContextoProcesamiento(Consumer<List<Map<String, Object>>> procesador, BufferedWriter archivo) {
+        this(procesador, archivo, null);
+    }
+
+    public ContextoProcesamiento(Consumer<List<Map<String, Object>>> procesador,
+                                 BufferedWriter archivo,
+                                 EjecucionBatch ejecucion) {
+        this(procesador, null, archivo, ejecucion);
+    }
+
+    public ContextoProcesamiento(Consumer<List<Map<String, Object>>> procesador,
+                                 Consumer<LoteFilas> procesadorLotes,
+                                 BufferedWriter archivo,
+                                 EjecucionBatch ejecucion) {
         this.procesador = procesador;
+        this.procesadorLotes = procesadorLotes;
         this.archivo = archivo;
+        this.ejecucion = ejecucion;
     }
 
     // =====================================================
@@ -57,19 +127,90 @@ public class ContextoProcesamiento {
      */
     public void agregarResultados(List<Map<String, Object>> resultados) {
         if (resultados != null && !resultados.isEmpty()) {
+            if (escritor != null) {
+                List<Map<String, Object>> copia = new ArrayList<>(resultados);
+                encolar(new EntradaCola(null, copia, copia.size(), estimarBytes(copia), null));
+                return;
+            }
             resultadosParciales.addAll(resultados);
         }
     }
 
+    /**
+     * Agrega un lote columnar sin materializar sus filas.
+     *
+     * @param lote Lote a agregar (no debe modificarse después).
+     */
+    public void agregarLote(LoteFilas lote) {
+        agregarLote(lote, null);
+    }
+
+    /**
+     * Agrega un lote columnar junto con su reserva del gobernador de memoria.
+     * Con escritor activo la reserva se libera cuando el lote deja de estar
+     * retenido (entregado o desbordado a disco); sin escritor se libera al
+     * agregarlo, ya que la cola sin límite no tiene contrapresión.
+     *
+     * @param lote Lote a agregar (no debe modificarse después).
+     * @param reserva Reserva del lote (puede ser null)
+     */
+    public void agregarLote(LoteFilas lote, ReservaMemoria reserva) {
+        if (lote == null || lote.isEmpty()) {
+            cerrar(reserva);
+            return;
+        }
+
+        if (escritor != null) {
+            try {
+                encolar(new EntradaCola(lote, null, lote.tamano(), lote.estimarBytes(), reserva));
+            } catch (RuntimeException e) {
+                cerrar(reserva);
+                throw e;
+            }
+            return;
+        }
+
+        lotesParciales.add(lote);
+        cerrar(reserva);
+    }
+
     /**
      * Procesa todos los resultados almacenados en la cola parcial.
      * Dependiendo de la configuración, los envía al procesador o los escribe en archivo.
+     *
+     * Los lotes columnares van al procesador de lotes si existe; si no, se
+     * entregan junto al resto como vistas Map (sin copiar valores).
+     *
+     * Con escritor activo los lotes ya se entregan a medida que llegan; aquí
+     * solo se propaga un error de la etapa de escritura.
      */
     public synchronized void procesarTodosResultados() {
-        if (resultadosParciales.isEmpty()) return;
+        if (escritor != null) {
+            verificarEscritor();
+            return;
+        }
 
-        List<Map<String, Object>> todosResultados = new ArrayList<>(resultadosParciales);
-        resultadosParciales.clear();
+        if (resultadosParciales.isEmpty() && lotesParciales.isEmpty()) return;
+
+        // poll() y no copia + clear(): los productores pueden seguir agregando
+        // (HÍBRIDO entrega mientras otras provincias leen) y clear() borraría
+        // filas agregadas después de la copia
+        List<Map<String, Object>> todosResultados = new ArrayList<>();
+        Map<String, Object> fila;
+        while ((fila = resultadosParciales.poll()) != null) {
+            todosResultados.add(fila);
+        }
+
+        LoteFilas lote;
+        while ((lote = lotesParciales.poll()) != null) {
+            if (procesadorLotes != null) {
+                procesadorLotes.accept(lote);
+            } else {
+                todosResultados.addAll(lote.comoMapas());
+            }
+        }
+
+        if (todosResultados.isEmpty()) return;
 
         if (procesador != null) {
             procesador.accept(todosResultados);
@@ -78,6 +219,402 @@ public class ContextoProcesamiento {
         }
     }
 
+    // =====================================================
+    // ETAPA DE ESCRITURA (COLA ACOTADA)
+    // =====================================================
+
+    /**
+     * Activa la cola acotada y arranca el hilo escritor que entrega los lotes
+     * al procesador a medida que llegan. Debe llamarse antes de agregar lotes
+     * y cerrarse con {@link #finalizarEscritor()}.
+     *
+     * @param executor Executor del escritor (NO el de los productores: si
+     *                 compartieran hilos, productores bloqueados podrían dejar
+     *                 al escritor sin hilo)
+     * @param maxFilas Máximo de filas en cola (0 = sin límite por filas)
+     * @param maxBytes Máximo de bytes estimados en cola (0 = sin límite por bytes)
+     * @return true si se activó; false si ambos límites son 0 (modo anterior)
+     */
+    public boolean iniciarEscritor(ExecutorService executor, int maxFilas, long maxBytes) {
+        return iniciarEscritor(executor, maxFilas, maxBytes, null);
+    }
+
+    /**
+     * Igual que {@link #iniciarEscritor(ExecutorService, int, long)} con desborde
+     * a disco cuando la cola en memoria está llena. El contexto cierra el
+     * desborde (y borra sus archivos) al finalizar o abortar el escritor.
+     *
+     * @param desborde Desborde a disco (null = los productores se bloquean)
+     */
+    public boolean iniciarEscritor(ExecutorService executor, int maxFilas, long maxBytes,
+                                   DesbordeDisco desborde) {
+        if (maxFilas <= 0 && maxBytes <= 0) {
+            if (desborde != null) {
+                desborde.close();
+            }
+            return false;
+        }
+        if (escritor != null) {
+            throw new IllegalStateException("El escritor ya fue iniciado");
+        }
+
+        this.maxFilasEnCola = Math.max(maxFilas, 0);
+        this.maxBytesEnCola = Math.max(maxBytes, 0);
+        this.desborde = desborde;
+        this.escritor = executor.submit(this::ejecutarEscritor);
+        return true;
+    }
+
+    /**
+     * @return true si los lotes pasan por la cola acotada (con contrapresión)
+     */
+    public boolean isColaAcotada() {
+        return escritor != null;
+    }
+
+    /**
+     * Cierra la cola, espera a que el escritor entregue todo lo pendiente y
+     * propaga su error si lo hubo. Idempotente; sin escritor no hace nada.
+     */
+    public void finalizarEscritor() {
+        if (escritor == null) {
+            return;
+        }
+
+        cerrarCola();
+        try {
+            escritor.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            escritor.cancel(true);
+            throw new RuntimeException("Interrumpido esperando la etapa de escritura", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Error en la etapa de escritura", e.getCause());
+        } finally {
+            cerrarDesborde();
+        }
+
+        verificarEscritor();
+
+        LOGGER.log(Level.FINE,
+                "Cola de escritura cerrada - pico: {0} filas / {1} bytes, esperas de productores: {2}",
+                new Object[]{picoFilasEnCola, picoBytesEnCola, esperasProductores});
+    }
+
+    /**
+     * Corta el escritor sin esperar lo pendiente (la ejecución ya falló).
+     * Descarta los lotes en cola y libera a los productores bloqueados.
+     */
+    public void abortarEscritor() {
+        if (escritor == null || escritor.isDone()) {
+            return;
+        }
+
+        lockCola.lock();
+        try {
+            colaCerrada = true;
+            descartarPendientes();
+            hayPendientes.signalAll();
+        } finally {
+            lockCola.unlock();
+        }
+        escritor.cancel(true);
+        cerrarDesborde();
+    }
+
+    /**
+     * Encola una entrada. Sin capacidad en memoria, la desborda a disco si hay
+     * desborde con espacio; si no, bloquea al productor hasta que el escritor
+     * libere capacidad. Una entrada más grande que la capacidad total se admite
+     * con la cola vacía para no bloquear para siempre.
+     */
+    private void encolar(EntradaCola entrada) {
+        boolean desbordar = false;
+
+        lockCola.lock();
+        try {
+            boolean esperaContada = false;
+            while (true) {
+                verificarColaAbierta();
+                if (cola.isEmpty() || hayCapacidadPara(entrada)) {
+                    break;
+                }
+                if (desborde != null && desborde.admite()) {
+                    desbordar = true;
+                    break;
+                }
+                if (!esperaContada) {
+                    esperasProductores++;
+                    esperaContada = true;
+                }
+                hayEspacio.await();
+            }
+
+            if (!desbordar) {
+                agregarACola(entrada);
+                return;
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrumpido esperando espacio en la cola de escritura", e);
+        } finally {
+            lockCola.unlock();
+        }
+
+        // Serializar fuera del lock: otros productores y el escritor siguen
+        EntradaCola enDisco = desbordarADisco(entrada);
+
+        // En disco el lote ya no retiene heap
+        cerrar(entrada.reserva);
+
+        lockCola.lock();
+        try {
+            verificarColaAbierta();
+            agregarACola(enDisco);
+        } catch (RuntimeException e) {
+            desborde.descartar(enDisco.archivo);
+            throw e;
+        } finally {
+            lockCola.unlock();
+        }
+    }
+
+    /** Requiere lockCola tomado. */
+    private void agregarACola(EntradaCola entrada) {
+        cola.add(entrada);
+        filasEnCola += entrada.filas;
+        bytesEnCola += entrada.bytes;
+        picoFilasEnCola = Math.max(picoFilasEnCola, filasEnCola);
+        picoBytesEnCola = Math.max(picoBytesEnCola, bytesEnCola);
+        hayPendientes.signal();
+    }
+
+    private void verificarColaAbierta() {
+        verificarEscritor();
+        if (colaCerrada) {
+            throw new IllegalStateException("La cola de escritura ya está cerrada");
+        }
+    }
+
+    /**
+     * Escribe la entrada a disco. En la cola queda solo la referencia al
+     * archivo, que no cuenta contra la capacidad en memoria.
+     */
+    private EntradaCola desbordarADisco(EntradaCola entrada) {
+        try {
+            if (entrada.lote != null) {
+                Path archivo = desborde.escribir(entrada.lote);
+                return new EntradaCola(archivo, entrada.lote.getEsquema());
+            }
+            return new EntradaCola(desborde.escribir(entrada.registros), null);
+        } catch (IOException e) {
+            throw new RuntimeException("Error desbordando lote a disco", e);
+        }
+    }
+
+    private boolean hayCapacidadPara(EntradaCola entrada) {
+        boolean porFilas = maxFilasEnCola <= 0 || filasEnCola + entrada.filas <= maxFilasEnCola;
+        boolean porBytes = maxBytesEnCola <= 0 || bytesEnCola + entrada.bytes <= maxBytesEnCola;
+        return porFilas && porBytes;
+    }
+
+    /**
+     * Bucle del hilo escritor: toma entradas en orden de llegada, las entrega y
+     * recién entonces libera su capacidad (lo retenido es la cola más el lote
+     * que se está escribiendo).
+     */
+    private void ejecutarEscritor() {
+        try {
+            while (true) {
+                EntradaCola entrada;
+
+                lockCola.lock();
+                try {
+                    while (cola.isEmpty() && !colaCerrada) {
+                        hayPendientes.await();
+                    }
+                    entrada = cola.peek();
+                    if (entrada == null) {
+                        return;
+                    }
+                } finally {
+                    lockCola.unlock();
+                }
+
+                try {
+                    entregar(entrada);
+                } finally {
+                    cerrar(entrada.reserva);
+                }
+
+                lockCola.lock();
+                try {
+                    if (cola.peek() == entrada) {
+                        cola.poll();
+                        filasEnCola -= entrada.filas;
+                        bytesEnCola -= entrada.bytes;
+                    }
+                    hayEspacio.signalAll();
+                } finally {
+                    lockCola.unlock();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            registrarErrorEscritor(e);
+        } catch (RuntimeException | Error e) {
+            registrarErrorEscritor(e);
+        }
+    }
+
+    private void entregar(EntradaCola entrada) {
+        if (entrada.archivo != null) {
+            entregarDesdeDisco(entrada);
+        } else if (entrada.lote != null) {
+            entregarLote(entrada.lote);
+        } else {
+            entregarFilas(entrada.registros);
+        }
+    }
+
+    private void entregarDesdeDisco(EntradaCola entrada) {
+        try {
+            if (entrada.esquema != null) {
+                entregarLote(desborde.leerLote(entrada.archivo, entrada.esquema));
+            } else {
+                entregarFilas(desborde.leerRegistros(entrada.archivo));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("Error releyendo lote desbordado a disco", e);
+        }
+    }
+
+    private void entregarLote(LoteFilas lote) {
+        if (procesadorLotes != null) {
+            procesadorLotes.accept(lote);
+        } else {
+            entregarFilas(lote.comoMapas());
+        }
+    }
+
+    private void entregarFilas(List<Map<String, Object>> filas) {
+        if (procesador != null) {
+            procesador.accept(filas);
+        } else if (archivo != null) {
+            escribirArchivo(filas);
+        }
+    }
+
+    /**
+     * Guarda el error del escritor y libera a los productores: los que estén
+     * esperando (o lleguen después) fallan en lugar de quedar bloqueados.
+     */
+    private void registrarErrorEscritor(Throwable error) {
+        lockCola.lock();
+        try {
+            errorEscritor = error;
+            descartarPendientes();
+        } finally {
+            lockCola.unlock();
+        }
+        LOGGER.log(Level.SEVERE, "Error en la etapa de escritura: " + error.getMessage(), error);
+    }
+
+    /** Requiere lockCola tomado. */
+    private void descartarPendientes() {
+        for (EntradaCola entrada : cola) {
+            cerrar(entrada.reserva);
+        }
+        cola.clear();
+        filasEnCola = 0;
+        bytesEnCola = 0;
+        hayEspacio.signalAll();
+    }
+
+    private void cerrarDesborde() {
+        if (desborde != null) {
+            if (desborde.getLotesDesbordados() > 0) {
+                LOGGER.log(Level.INFO, "Desborde a disco - lotes: {0}, pico en disco: {1} bytes",
+                        new Object[]{desborde.getLotesDesbordados(), desborde.getPicoBytesEnDisco()});
+            }
+            desborde.close();
+        }
+    }
+
+    private void cerrarCola() {
+        lockCola.lock();
+        try {
+            colaCerrada = true;
+            hayPendientes.signalAll();
+        } finally {
+            lockCola.unlock();
+        }
+    }
+
+    private static void cerrar(ReservaMemoria reserva) {
+        if (reserva != null) {
+            reserva.close();
+        }
+    }
+
+    private void verificarEscritor() {
+        Throwable error = errorEscritor;
+        if (error == null) {
+            return;
+        }
+        if (error instanceof RuntimeException) {
+            throw (RuntimeException) error;
+        }
+        throw new RuntimeException("Error en la etapa de escritura", error);
+    }
+
+    private static long estimarBytes(List<Map<String, Object>> registros) {
+        int columnas = registros.get(0).size();
+        return (long) registros.size() * columnas * BYTES_POR_VALOR_MAPA;
+    }
+
+    /**
+     * Lote en cola: columnar, lista de Map o referencia a un archivo desbordado,
+     * con su peso en memoria ya calculado (0 para los desbordados).
+     */
+    private static final class EntradaCola {
+        private final LoteFilas lote;
+        private final List<Map<String, Object>> registros;
+        private final int filas;
+        private final long bytes;
+
+        /** Archivo del lote desbordado (null si está en memoria). */
+        private final Path archivo;
+
+        /** Esquema del lote desbordado (null si eran registros Map). */
+        private final EsquemaFilas esquema;
+
+        /** Reserva del gobernador de memoria (null si no hay). */
+        private final ReservaMemoria reserva;
+
+        private EntradaCola(LoteFilas lote, List<Map<String, Object>> registros, int filas, long bytes,
+                            ReservaMemoria reserva) {
+            this.lote = lote;
+            this.registros = registros;
+            this.filas = filas;
+            this.bytes = bytes;
+            this.archivo = null;
+            this.esquema = null;
+            this.reserva = reserva;
+        }
+
+        private EntradaCola(Path archivo, EsquemaFilas esquema) {
+            this.lote = null;
+            this.registros = null;
+            this.filas = 0;
+            this.bytes = 0;
+            this.archivo = archivo;
+            this.esquema = esquema;
+            this.reserva = null;
+        }
+    }
+
     /**
      * Agrega un resultado individual al contexto de manera segura.
      *
@@ -122,6 +659,10 @@ public class ContextoProcesamiento {
     // MÉTODOS DE CONSULTA
     // =====================================================
 
+    public EjecucionBatch getEjecucion() {
+        return ejecucion;
+    }
+
     public List<Map<String, Object>> getResultados() {
         return new ArrayList<>(resultados);
     }
@@ -0,0 +1,80 @@
+package org.transito_seguro.model;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Control de los COPY de una descarga que se vuelcan a archivos temporales
+ * mientras la respuesta todavía escribe provincias anteriores.
+ *
+ * Cada copia escribe a través de {@link #envolver}: si la descarga se cancela
+ * (falla otra provincia o el cliente corta) o los temporales superan el tope
+ * de bytes, la siguiente escritura lanza IOException. pgjdbc responde a ese
+ * error cancelando el COPY en el servidor, así las provincias pendientes no
+ * siguen leyendo la base ni llenando el disco.
+ */
+public class CopiasEnDisco {
+
+    private final long maxBytesDisco;
+    private final AtomicLong bytesEnDisco = new AtomicLong(0);
+    private volatile boolean cancelada;
+
+    /**
+     * @param maxBytesDisco Máximo de bytes en temporales a la vez (0 = sin límite)
+     */
+    public CopiasEnDisco(long maxBytesDisco) {
+        this.maxBytesDisco = Math.max(maxBytesDisco, 0);
+    }
+
+    /**
+     * Corta todas las copias en curso y las que todavía no empezaron.
+     */
+    public void cancelar() {
+        cancelada = true;
+    }
+
+    public boolean isCancelada() {
+        return cancelada;
+    }
+
+    /**
+     * Descuenta los bytes de un temporal ya agregado a la respuesta y borrado.
+     */
+    public void liberar(long bytes) {
+        bytesEnDisco.addAndGet(-bytes);
+    }
+
+    /**
+     * Destino de una copia: cuenta sus bytes contra el tope y se corta al
+     * cancelar la descarga.
+     */
+    public OutputStream envolver(OutputStream destino) {
+        return new FilterOutputStream(destino) {
+
+            @Override
+            public void write(int b) throws IOException {
+                reservar(1);
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                reservar(len);
+                out.write(b, off, len);
+            }
+        };
+    }
+
+    private void reservar(int bytes) throws IOException {
+        if (cancelada) {
+            throw new IOException("Descarga cancelada");
+        }
+        long enDisco = bytesEnDisco.addAndGet(bytes);
+        if (maxBytesDisco > 0 && enDisco > maxBytesDisco) {
+            bytesEnDisco.addAndGet(-bytes);
+            throw new IOException("Los temporales del COPY superan " + maxBytesDisco + " bytes");
+        }
+    }
+}
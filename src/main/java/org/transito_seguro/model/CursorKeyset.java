@@ -0,0 +1,146 @@
+package org.transito_seguro.model;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Estado de un recorrido keyset sobre una query en una provincia.
+ *
+ * La clave es una tupla de columnas no nulas cuya última columna es el ID
+ * (ej: fecha, id): mantiene los valores de la última fila entregada y las
+ * variantes de SQL (primera página / páginas siguientes). Cada recorrido tiene
+ * su propio cursor, por lo que no comparte estado entre provincias ni entre
+ * requests.
+ */
+@Getter
+public class CursorKeyset {
+
+    public static final String PREFIJO_PARAMETRO = "keyset";
+
+    private final String provincia;
+    /** Columnas de la clave en el orden del ORDER BY */
+    private final List<CampoKeyset> clave;
+    private final String sqlPrimeraPagina;
+    private final String sqlSiguientePagina;
+
+    @Setter
+    private int tamanoPagina;
+
+    /** Fetch size de las páginas (0 = el de la plantilla JDBC) */
+    @Setter
+    private int fetchSize;
+
+    private Object[] ultimaClave;
+    private int paginasLeidas = 0;
+    private int registrosLeidos = 0;
+    private boolean agotado = false;
+
+    public CursorKeyset(String provincia,
+                        List<CampoKeyset> clave,
+                        String sqlPrimeraPagina,
+                        String sqlSiguientePagina,
+                        int tamanoPagina) {
+        this.provincia = provincia;
+        this.clave = Collections.unmodifiableList(clave);
+        this.sqlPrimeraPagina = sqlPrimeraPagina;
+        this.sqlSiguientePagina = sqlSiguientePagina;
+        this.tamanoPagina = tamanoPagina;
+    }
+
+    public boolean esPrimeraPagina() {
+        return paginasLeidas == 0;
+    }
+
+    /**
+     * SQL a ejecutar para la próxima página según el estado actual.
+     */
+    public String getSqlActual() {
+        return esPrimeraPagina() ? sqlPrimeraPagina : sqlSiguientePagina;
+    }
+
+    /**
+     * Parámetros :keyset0..:keysetN con los valores de la última clave entregada.
+     */
+    public Map<String, Object> getParametrosClave() {
+        if (ultimaClave == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, Object> parametros = new LinkedHashMap<>();
+        for (int i = 0; i < clave.size(); i++) {
+            parametros.put(clave.get(i).getNombreParametro(), ultimaClave[i]);
+        }
+        return parametros;
+    }
+
+    /**
+     * Valores de la clave en una fila del lote (alguno puede ser null).
+     */
+    public Object[] claveDeFila(LoteFilas lote, int fila) {
+        Object[] valores = new Object[clave.size()];
+        for (int i = 0; i < valores.length; i++) {
+            valores[i] = lote.valor(fila, clave.get(i).getNombreCampo());
+        }
+        return valores;
+    }
+
+    /**
+     * Compara dos claves como lo hace la comparación de filas de PostgreSQL:
+     * columna por columna, decide la primera distinta.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public static int comparar(Object[] a, Object[] b) {
+        for (int i = 0; i < a.length; i++) {
+            int comparacion = ((Comparable) a[i]).compareTo(b[i]);
+            if (comparacion != 0) {
+                return comparacion;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Registra una página entregada y avanza la clave.
+     *
+     * @param pagina Lote entregado (ya validado por KeysetProcessor)
+     * @param hayMas true si la base devolvió al menos una fila después de la página
+     * @throws IllegalStateException si la clave no avanzó (se perderían o repetirían filas)
+     */
+    public void registrarPagina(LoteFilas pagina, boolean hayMas) {
+        paginasLeidas++;
+
+        if (pagina == null || pagina.isEmpty()) {
+            agotado = true;
+            return;
+        }
+
+        Object[] nuevaClave = claveDeFila(pagina, pagina.tamano() - 1);
+        if (ultimaClave != null && comparar(nuevaClave, ultimaClave) <= 0) {
+            throw new IllegalStateException("La clave keyset " + getNombresClave() + " no avanzó en "
+                    + provincia + " (" + Arrays.toString(ultimaClave) + " -> " + Arrays.toString(nuevaClave) + ")");
+        }
+
+        registrosLeidos += pagina.tamano();
+        ultimaClave = nuevaClave;
+        agotado = !hayMas;
+    }
+
+    /**
+     * Columnas de la clave separadas por coma (para logs y errores).
+     */
+    public String getNombresClave() {
+        StringBuilder nombres = new StringBuilder();
+        for (CampoKeyset campo : clave) {
+            if (nombres.length() > 0) {
+                nombres.append(", ");
+            }
+            nombres.append(campo.getNombreCampo());
+        }
+        return nombres.toString();
+    }
+}
@@ -0,0 +1,90 @@
+package org.transito_seguro.model;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.io.Closeable;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Cursor de servidor sobre una query en una provincia: un PreparedStatement
+ * con parámetros enlazados y fetch size, ejecutado en una conexión sin
+ * autocommit. Así pgjdbc no trae todo el resultado, lo lee por un portal de a
+ * fetch size filas.
+ *
+ * A diferencia de {@link CursorKeyset}, la query se planifica y ejecuta una
+ * sola vez: cada página sigue leyendo el mismo ResultSet, así el costo de la
+ * página N no depende de N (los JOIN/GROUP BY no se repiten) y se respeta el
+ * ORDER BY de la query. Vive dentro de la transacción de la conexión fija que
+ * lo abrió; {@link #close()} libera el portal.
+ */
+@Getter
+public class CursorServidor implements Closeable {
+
+    private final String provincia;
+    private final PreparedStatement sentencia;
+    private final ResultSet resultados;
+
+    @Setter
+    private int tamanoPagina;
+
+    /** Fetch size de las páginas (0 = el de la apertura) */
+    @Setter
+    private int fetchSize;
+
+    /** Esquema del resultado, compartido por todas las páginas */
+    @Setter
+    private EsquemaFilas esquema;
+
+    private int paginasLeidas = 0;
+    private long registrosLeidos = 0;
+    private boolean agotado = false;
+
+    public CursorServidor(String provincia, PreparedStatement sentencia, ResultSet resultados, int tamanoPagina) {
+        this.provincia = provincia;
+        this.sentencia = sentencia;
+        this.resultados = resultados;
+        this.tamanoPagina = tamanoPagina;
+    }
+
+    /**
+     * Registra una página leída. El cursor se agota con la primera página
+     * incompleta (el ResultSet terminó antes de las filas pedidas).
+     *
+     * @param pagina Lote leído en esta página
+     * @param filasPedidas Filas pedidas para la página
+     */
+    public void registrarPagina(LoteFilas pagina, int filasPedidas) {
+        paginasLeidas++;
+
+        if (pagina == null || pagina.isEmpty()) {
+            agotado = true;
+            return;
+        }
+
+        registrosLeidos += pagina.tamano();
+        if (pagina.tamano() < filasPedidas) {
+            agotado = true;
+        }
+    }
+
+    /**
+     * Cierra el ResultSet y la sentencia (libera el portal aunque el recorrido
+     * se haya cortado antes de agotarlo). No lanza excepciones.
+     */
+    @Override
+    public void close() {
+        try {
+            resultados.close();
+        } catch (SQLException ignored) {
+            // La transacción se descarta igual con el rollback de la conexión fija
+        }
+        try {
+            sentencia.close();
+        } catch (SQLException ignored) {
+            // Ídem
+        }
+    }
+}
@@ -0,0 +1,423 @@
+package org.transito_seguro.model;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Nivel de desborde a disco de la cola de escritura de {@link ContextoProcesamiento}.
+ *
+ * Cuando la cola en memoria está llena, el lote se serializa a un archivo
+ * temporal (codificación binaria con marca de tipo por valor, sin nombres de
+ * columna: el esquema queda en memoria) y en la cola solo queda la referencia.
+ * El escritor lo relee en el mismo orden de llegada y borra el archivo.
+ *
+ * Un directorio temporal por ejecución, creado recién en el primer desborde.
+ * Thread-safe: cada lote va a su propio archivo.
+ */
+public final class DesbordeDisco implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(DesbordeDisco.class.getName());
+
+    private static final int BUFFER_BYTES = 64 * 1024;
+
+    // Tipo de contenido del archivo
+    private static final byte CONTENIDO_LOTE = 1;
+    private static final byte CONTENIDO_MAPAS = 2;
+
+    // Marcas de tipo de valor
+    private static final byte NULO = 0;
+    private static final byte TEXTO = 1;
+    private static final byte ENTERO = 2;
+    private static final byte LARGO = 3;
+    private static final byte DOBLE = 4;
+    private static final byte DECIMAL = 5;
+    private static final byte BOOLEANO = 6;
+    private static final byte FECHA_SQL = 7;
+    private static final byte TIMESTAMP = 8;
+    private static final byte HORA_SQL = 9;
+    private static final byte CORTO = 10;
+    private static final byte FLOTANTE = 11;
+    private static final byte ENTERO_GRANDE = 12;
+    private static final byte FECHA = 13;
+    private static final byte SERIALIZADO = 14;
+
+    private final Path directorioBase;
+    private final String prefijo;
+    private final long maxBytesDisco;
+
+    private final AtomicLong secuencia = new AtomicLong(0);
+    private final AtomicLong bytesEnDisco = new AtomicLong(0);
+    private final AtomicLong lotesDesbordados = new AtomicLong(0);
+    private final AtomicLong picoBytesEnDisco = new AtomicLong(0);
+
+    private volatile Path directorio;
+    private volatile boolean cerrado;
+
+    /**
+     * @param directorioBase Directorio donde crear la carpeta temporal de la ejecución
+     * @param prefijo Prefijo de la carpeta (ej: id de la ejecución)
+     * @param maxBytesDisco Máximo de bytes en disco (0 = sin límite)
+     */
+    public DesbordeDisco(Path directorioBase, String prefijo, long maxBytesDisco) {
+        this.directorioBase = directorioBase;
+        this.prefijo = prefijo;
+        this.maxBytesDisco = Math.max(maxBytesDisco, 0);
+    }
+
+    // =============== ADMISIÓN ===============
+
+    /**
+     * @return true si queda espacio de disco para desbordar otro lote
+     *         (aproximado: se controla con el tamaño real ya escrito)
+     */
+    public boolean admite() {
+        return !cerrado && (maxBytesDisco == 0 || bytesEnDisco.get() < maxBytesDisco);
+    }
+
+    // =============== ESCRITURA / LECTURA ===============
+
+    /**
+     * Serializa un lote columnar. Solo se escriben los valores; el esquema se
+     * conserva en memoria para reconstruirlo.
+     *
+     * @return Archivo escrito
+     */
+    public Path escribir(LoteFilas lote) throws IOException {
+        Path archivo = nuevoArchivo();
+        try (DataOutputStream out = abrirEscritura(archivo)) {
+            int columnas = lote.getEsquema().cantidadColumnas();
+            int filas = lote.tamano();
+
+            out.writeByte(CONTENIDO_LOTE);
+            out.writeInt(columnas);
+            out.writeInt(filas);
+            for (int c = 0; c < columnas; c++) {
+                for (int f = 0; f < filas; f++) {
+                    escribirValor(out, lote.valor(f, c));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(archivo);
+            throw e;
+        }
+        return registrarArchivo(archivo);
+    }
+
+    /**
+     * Serializa una lista de registros Map (claves por fila).
+     *
+     * @return Archivo escrito
+     */
+    public Path escribir(List<Map<String, Object>> registros) throws IOException {
+        Path archivo = nuevoArchivo();
+        try (DataOutputStream out = abrirEscritura(archivo)) {
+            out.writeByte(CONTENIDO_MAPAS);
+            out.writeInt(registros.size());
+            for (Map<String, Object> registro : registros) {
+                out.writeInt(registro.size());
+                for (Map.Entry<String, Object> entry : registro.entrySet()) {
+                    escribirTexto(out, entry.getKey());
+                    escribirValor(out, entry.getValue());
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(archivo);
+            throw e;
+        }
+        return registrarArchivo(archivo);
+    }
+
+    /**
+     * Relee un lote columnar y borra el archivo.
+     *
+     * @param esquema Esquema con el que se escribió el lote
+     */
+    public LoteFilas leerLote(Path archivo, EsquemaFilas esquema) throws IOException {
+        try (DataInputStream in = abrirLectura(archivo)) {
+            validarContenido(in, CONTENIDO_LOTE, archivo);
+            int columnas = in.readInt();
+            int filas = in.readInt();
+            if (columnas != esquema.cantidadColumnas()) {
+                throw new IOException("El archivo " + archivo + " tiene " + columnas
+                        + " columnas y el esquema " + esquema.cantidadColumnas());
+            }
+
+            Object[][] valores = new Object[columnas][filas];
+            for (int c = 0; c < columnas; c++) {
+                for (int f = 0; f < filas; f++) {
+                    valores[c][f] = leerValor(in);
+                }
+            }
+            return LoteFilas.deColumnas(esquema, valores, filas);
+        } finally {
+            borrar(archivo);
+        }
+    }
+
+    /**
+     * Relee una lista de registros Map y borra el archivo.
+     */
+    public List<Map<String, Object>> leerRegistros(Path archivo) throws IOException {
+        try (DataInputStream in = abrirLectura(archivo)) {
+            validarContenido(in, CONTENIDO_MAPAS, archivo);
+            int filas = in.readInt();
+
+            List<Map<String, Object>> registros = new ArrayList<>(filas);
+            for (int f = 0; f < filas; f++) {
+                int campos = in.readInt();
+                Map<String, Object> registro = new LinkedHashMap<>((int) (campos / 0.75f) + 1);
+                for (int i = 0; i < campos; i++) {
+                    registro.put(leerTexto(in), leerValor(in));
+                }
+                registros.add(registro);
+            }
+            return registros;
+        } finally {
+            borrar(archivo);
+        }
+    }
+
+    /**
+     * Borra un archivo desbordado sin leerlo (lote descartado).
+     */
+    public void descartar(Path archivo) {
+        borrar(archivo);
+    }
+
+    // =============== CICLO DE VIDA ===============
+
+    /**
+     * Borra los archivos pendientes y el directorio de la ejecución. Idempotente.
+     */
+    @Override
+    public void close() {
+        cerrado = true;
+        Path dir = directorio;
+        if (dir == null) {
+            return;
+        }
+
+        try (DirectoryStream<Path> archivos = Files.newDirectoryStream(dir)) {
+            for (Path archivo : archivos) {
+                borrar(archivo);
+            }
+            Files.deleteIfExists(dir);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "No se pudo limpiar el directorio de desborde " + dir, e);
+        }
+
+        LOGGER.log(Level.FINE, "Desborde a disco cerrado - lotes: {0}, pico: {1} bytes",
+                new Object[]{lotesDesbordados.get(), picoBytesEnDisco.get()});
+    }
+
+    public long getLotesDesbordados() {
+        return lotesDesbordados.get();
+    }
+
+    public long getBytesEnDisco() {
+        return bytesEnDisco.get();
+    }
+
+    public long getPicoBytesEnDisco() {
+        return picoBytesEnDisco.get();
+    }
+
+    // =============== CODIFICACIÓN ===============
+
+    private static void escribirValor(DataOutputStream out, Object valor) throws IOException {
+        if (valor == null) {
+            out.writeByte(NULO);
+        } else if (valor instanceof String) {
+            out.writeByte(TEXTO);
+            escribirTexto(out, (String) valor);
+        } else if (valor instanceof Integer) {
+            out.writeByte(ENTERO);
+            out.writeInt((Integer) valor);
+        } else if (valor instanceof Long) {
+            out.writeByte(LARGO);
+            out.writeLong((Long) valor);
+        } else if (valor instanceof Double) {
+            out.writeByte(DOBLE);
+            out.writeDouble((Double) valor);
+        } else if (valor instanceof BigDecimal) {
+            BigDecimal decimal = (BigDecimal) valor;
+            out.writeByte(DECIMAL);
+            out.writeInt(decimal.scale());
+            escribirBytes(out, decimal.unscaledValue().toByteArray());
+        } else if (valor instanceof Boolean) {
+            out.writeByte(BOOLEANO);
+            out.writeBoolean((Boolean) valor);
+        } else if (valor instanceof java.sql.Timestamp) {
+            java.sql.Timestamp timestamp = (java.sql.Timestamp) valor;
+            out.writeByte(TIMESTAMP);
+            out.writeLong(timestamp.getTime());
+            out.writeInt(timestamp.getNanos());
+        } else if (valor instanceof java.sql.Date) {
+            out.writeByte(FECHA_SQL);
+            out.writeLong(((java.sql.Date) valor).getTime());
+        } else if (valor instanceof java.sql.Time) {
+            out.writeByte(HORA_SQL);
+            out.writeLong(((java.sql.Time) valor).getTime());
+        } else if (valor instanceof java.util.Date) {
+            out.writeByte(FECHA);
+            out.writeLong(((java.util.Date) valor).getTime());
+        } else if (valor instanceof Short) {
+            out.writeByte(CORTO);
+            out.writeShort((Short) valor);
+        } else if (valor instanceof Float) {
+            out.writeByte(FLOTANTE);
+            out.writeFloat((Float) valor);
+        } else if (valor instanceof BigInteger) {
+            out.writeByte(ENTERO_GRANDE);
+            escribirBytes(out, ((BigInteger) valor).toByteArray());
+        } else if (valor instanceof Serializable) {
+            // Tipos poco frecuentes (PGobject, arrays, java.time): serialización estándar
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            try (ObjectOutputStream oos = new ObjectOutputStream(buffer)) {
+                oos.writeObject(valor);
+            }
+            out.writeByte(SERIALIZADO);
+            escribirBytes(out, buffer.toByteArray());
+        } else {
+            out.writeByte(TEXTO);
+            escribirTexto(out, valor.toString());
+        }
+    }
+
+    private static Object leerValor(DataInputStream in) throws IOException {
+        byte tipo = in.readByte();
+        switch (tipo) {
+            case NULO:
+                return null;
+            case TEXTO:
+                return leerTexto(in);
+            case ENTERO:
+                return in.readInt();
+            case LARGO:
+                return in.readLong();
+            case DOBLE:
+                return in.readDouble();
+            case DECIMAL:
+                int escala = in.readInt();
+                return new BigDecimal(new BigInteger(leerBytes(in)), escala);
+            case BOOLEANO:
+                return in.readBoolean();
+            case TIMESTAMP:
+                java.sql.Timestamp timestamp = new java.sql.Timestamp(in.readLong());
+                timestamp.setNanos(in.readInt());
+                return timestamp;
+            case FECHA_SQL:
+                return new java.sql.Date(in.readLong());
+            case HORA_SQL:
+                return new java.sql.Time(in.readLong());
+            case FECHA:
+                return new java.util.Date(in.readLong());
+            case CORTO:
+                return in.readShort();
+            case FLOTANTE:
+                return in.readFloat();
+            case ENTERO_GRANDE:
+                return new BigInteger(leerBytes(in));
+            case SERIALIZADO:
+                try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(leerBytes(in)))) {
+                    return ois.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("Tipo desbordado no disponible al releer", e);
+                }
+            default:
+                throw new IOException("Marca de tipo desconocida en archivo de desborde: " + tipo);
+        }
+    }
+
+    private static void escribirTexto(DataOutputStream out, String texto) throws IOException {
+        escribirBytes(out, texto.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String leerTexto(DataInputStream in) throws IOException {
+        return new String(leerBytes(in), StandardCharsets.UTF_8);
+    }
+
+    private static void escribirBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] leerBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    // =============== ARCHIVOS ===============
+
+    private Path nuevoArchivo() throws IOException {
+        if (cerrado) {
+            throw new IOException("El desborde a disco ya fue cerrado");
+        }
+        return obtenerDirectorio().resolve(String.format("lote-%08d.bin", secuencia.incrementAndGet()));
+    }
+
+    private Path obtenerDirectorio() throws IOException {
+        Path dir = directorio;
+        if (dir == null) {
+            synchronized (this) {
+                dir = directorio;
+                if (dir == null) {
+                    Files.createDirectories(directorioBase);
+                    dir = Files.createTempDirectory(directorioBase, prefijo + "-");
+                    directorio = dir;
+                    LOGGER.log(Level.INFO, "Desborde a disco activado en {0}", dir);
+                }
+            }
+        }
+        return dir;
+    }
+
+    private Path registrarArchivo(Path archivo) throws IOException {
+        long total = bytesEnDisco.addAndGet(Files.size(archivo));
+        picoBytesEnDisco.accumulateAndGet(total, Math::max);
+        lotesDesbordados.incrementAndGet();
+        return archivo;
+    }
+
+    private void borrar(Path archivo) {
+        try {
+            long tamano = Files.size(archivo);
+            if (Files.deleteIfExists(archivo)) {
+                bytesEnDisco.addAndGet(-tamano);
+            }
+        } catch (NoSuchFileException e) {
+            // ya borrado
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "No se pudo borrar el archivo de desborde " + archivo, e);
+        }
+    }
+
+    private static DataOutputStream abrirEscritura(Path archivo) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(archivo), BUFFER_BYTES));
+    }
+
+    private static DataInputStream abrirLectura(Path archivo) throws IOException {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(archivo), BUFFER_BYTES));
+    }
+
+    private static void validarContenido(DataInputStream in, byte esperado, Path archivo) throws IOException {
+        byte contenido = in.readByte();
+        if (contenido != esperado) {
+            throw new IOException("Contenido inesperado en " + archivo + ": " + contenido);
+        }
+    }
+}
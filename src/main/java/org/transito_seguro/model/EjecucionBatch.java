@@ -0,0 +1,97 @@
+package org.transito_seguro.model;
+
+import lombok.Getter;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Estado aislado de una ejecución de BatchProcessor.procesarEnLotes.
+ *
+ * Cada request crea su propia instancia, por lo que dos exportaciones
+ * concurrentes nunca comparten contadores, cursores keyset ni heartbeat.
+ * Todos los campos mutables son thread-safe porque las provincias de una
+ * misma ejecución se procesan en paralelo.
+ */
+@Getter
+public class EjecucionBatch {
+
+    private final String id;
+    private final String nombreQuery;
+    private final long tiempoInicio;
+
+    private final AtomicInteger totalRegistros = new AtomicInteger(0);
+    private final Map<String, Integer> contadoresPorProvincia = new ConcurrentHashMap<>();
+    private final Map<String, Integer> conteosPorProvincia = new ConcurrentHashMap<>();
+    private final Map<String, CursorKeyset> cursoresPorProvincia = new ConcurrentHashMap<>();
+
+    /** Conexiones por datasource de toda la ejecución (ventana HÍBRIDO + tramos de fecha) */
+    private final PresupuestoConexiones conexiones = new PresupuestoConexiones();
+    private final AtomicLong ultimoHeartbeat;
+
+    public EjecucionBatch(String nombreQuery) {
+        this.id = UUID.randomUUID().toString().substring(0, 8);
+        this.nombreQuery = nombreQuery;
+        this.tiempoInicio = System.currentTimeMillis();
+        this.ultimoHeartbeat = new AtomicLong(tiempoInicio);
+    }
+
+    /**
+     * Suma registros procesados a la provincia y al total de la ejecución.
+     *
+     * @return Total acumulado de la provincia
+     */
+    public int registrarProcesados(String provincia, int cantidad) {
+        totalRegistros.addAndGet(cantidad);
+        return contadoresPorProvincia.merge(provincia, cantidad, Integer::sum);
+    }
+
+    /**
+     * Guarda el COUNT(*) de la provincia obtenido al estimar el dataset.
+     */
+    public void registrarConteo(String provincia, int conteo) {
+        conteosPorProvincia.put(provincia, conteo);
+    }
+
+    /**
+     * @return COUNT(*) de la provincia (0 si no se estimó)
+     */
+    public int getConteoProvincia(String provincia) {
+        return conteosPorProvincia.getOrDefault(provincia, 0);
+    }
+
+    /**
+     * Registra el cursor keyset activo de una provincia (reemplaza el
+     * antiguo lastKeyPerProvince compartido del singleton). Una provincia
+     * particionada registra un cursor por tramo (provincia#n).
+     */
+    public void registrarCursor(String provincia, CursorKeyset cursor) {
+        cursoresPorProvincia.put(provincia, cursor);
+    }
+
+    /**
+     * @return true si pasó el intervalo desde el último heartbeat; en ese caso
+     *         lo marca como emitido (solo un hilo gana la carrera)
+     */
+    public boolean debeEmitirHeartbeat(long intervaloMs) {
+        long ahora = System.currentTimeMillis();
+        long ultimo = ultimoHeartbeat.get();
+        return ahora - ultimo > intervaloMs && ultimoHeartbeat.compareAndSet(ultimo, ahora);
+    }
+
+    public int getTotalProcesados() {
+        return totalRegistros.get();
+    }
+
+    public long getDuracionMs() {
+        return System.currentTimeMillis() - tiempoInicio;
+    }
+
+    public Map<String, Integer> getContadoresPorProvincia() {
+        return Collections.unmodifiableMap(contadoresPorProvincia);
+    }
+}
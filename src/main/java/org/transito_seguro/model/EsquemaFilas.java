@@ -0,0 +1,189 @@
+package org.transito_seguro.model;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Esquema compartido de las filas de una query: nombres de columna, tipo JDBC
+ * e índice por nombre.
+ *
+ * Se resuelve UNA vez por ejecución desde ResultSetMetaData y lo comparten
+ * todos los {@link LoteFilas} de esa ejecución, en lugar de repetir los nombres
+ * de columna como claves de un Map por cada fila.
+ *
+ * Las proyecciones (columnas excluidas + columnas constantes, ej: quitar row_id
+ * y fijar provincia) se calculan una vez y quedan cacheadas en el esquema origen.
+ *
+ * Inmutable y thread-safe.
+ */
+public final class EsquemaFilas {
+
+    private final String[] columnas;
+    private final int[] tiposJdbc;
+    private final Map<String, Integer> indices;
+    private final Set<String> nombres;
+
+    /** Columna del ResultSet (base 1) de cada columna; null si el esquema es una proyección */
+    private final int[] columnasResultSet;
+
+    /** Columna del esquema origen de cada columna (-1 = constante); null si no es proyección */
+    private final int[] origen;
+
+    private final Map<String, EsquemaFilas> proyecciones = new ConcurrentHashMap<>();
+
+    private EsquemaFilas(List<String> columnas, List<Integer> tiposJdbc, int[] columnasResultSet, int[] origen) {
+        this.columnas = columnas.toArray(new String[0]);
+        this.tiposJdbc = new int[tiposJdbc.size()];
+        for (int i = 0; i < this.tiposJdbc.length; i++) {
+            this.tiposJdbc[i] = tiposJdbc.get(i);
+        }
+        this.columnasResultSet = columnasResultSet;
+        this.origen = origen;
+
+        Map<String, Integer> porNombre = new HashMap<>((int) (this.columnas.length / 0.75f) + 1);
+        for (int i = 0; i < this.columnas.length; i++) {
+            porNombre.put(this.columnas[i], i);
+        }
+        this.indices = porNombre;
+        this.nombres = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(this.columnas)));
+    }
+
+    /**
+     * Construye el esquema desde los metadatos del ResultSet.
+     *
+     * Igual que el mapeo a LinkedHashMap: si un label se repite, conserva la
+     * posición de la primera aparición y el valor de la última.
+     */
+    public static EsquemaFilas desde(ResultSetMetaData metaData) throws SQLException {
+        int cantidad = metaData.getColumnCount();
+
+        List<String> columnas = new ArrayList<>(cantidad);
+        List<Integer> tipos = new ArrayList<>(cantidad);
+        List<Integer> posiciones = new ArrayList<>(cantidad);
+
+        for (int i = 1; i <= cantidad; i++) {
+            String label = metaData.getColumnLabel(i);
+            int existente = columnas.indexOf(label);
+            if (existente >= 0) {
+                posiciones.set(existente, i);
+                tipos.set(existente, metaData.getColumnType(i));
+                continue;
+            }
+            columnas.add(label);
+            tipos.add(metaData.getColumnType(i));
+            posiciones.add(i);
+        }
+
+        int[] columnasResultSet = new int[posiciones.size()];
+        for (int i = 0; i < columnasResultSet.length; i++) {
+            columnasResultSet[i] = posiciones.get(i);
+        }
+
+        return new EsquemaFilas(columnas, tipos, columnasResultSet, null);
+    }
+
+    // =============== CONSULTA ===============
+
+    public int cantidadColumnas() {
+        return columnas.length;
+    }
+
+    public String getColumna(int indice) {
+        return columnas[indice];
+    }
+
+    public int getTipoJdbc(int indice) {
+        return tiposJdbc[indice];
+    }
+
+    /**
+     * @return Índice de la columna, o -1 si no existe
+     */
+    public int indice(Object columna) {
+        Integer indice = indices.get(columna);
+        return indice != null ? indice : -1;
+    }
+
+    /**
+     * @return Nombres de columna en orden (vista inmutable)
+     */
+    public Set<String> getNombres() {
+        return nombres;
+    }
+
+    /**
+     * @return Índices de los campos pedidos en este esquema (-1 si no existen)
+     */
+    public int[] indices(String[] campos) {
+        int[] resultado = new int[campos.length];
+        for (int i = 0; i < campos.length; i++) {
+            resultado[i] = indice(campos[i]);
+        }
+        return resultado;
+    }
+
+    /**
+     * @return Columna del ResultSet (base 1) de la que se lee la columna dada
+     */
+    public int getColumnaResultSet(int indice) {
+        return columnasResultSet[indice];
+    }
+
+    int getOrigen(int indice) {
+        return origen[indice];
+    }
+
+    // =============== PROYECCIÓN ===============
+
+    /**
+     * Esquema derivado sin las columnas excluidas y con las columnas constantes
+     * dadas. Una constante que ya existía conserva su posición; las nuevas se
+     * agregan al final. El resultado se cachea por combinación de argumentos.
+     *
+     * @param constantes Nombres de las columnas constantes (en orden)
+     * @param excluidas Columnas a quitar
+     * @return Esquema proyectado
+     */
+    public EsquemaFilas proyectar(Collection<String> constantes, Collection<String> excluidas) {
+        String clave = String.join(",", constantes) + "|" + String.join(",", excluidas);
+        return proyecciones.computeIfAbsent(clave, k -> crearProyeccion(constantes, excluidas));
+    }
+
+    private EsquemaFilas crearProyeccion(Collection<String> constantes, Collection<String> excluidas) {
+        List<String> nuevas = new ArrayList<>();
+        List<Integer> tipos = new ArrayList<>();
+        List<Integer> origenes = new ArrayList<>();
+
+        for (int i = 0; i < columnas.length; i++) {
+            if (excluidas.contains(columnas[i]) && !constantes.contains(columnas[i])) {
+                continue;
+            }
+            nuevas.add(columnas[i]);
+            tipos.add(tiposJdbc[i]);
+            origenes.add(constantes.contains(columnas[i]) ? -1 : i);
+        }
+
+        for (String constante : constantes) {
+            if (!indices.containsKey(constante)) {
+                nuevas.add(constante);
+                tipos.add(Types.OTHER);
+                origenes.add(-1);
+            }
+        }
+
+        int[] origen = new int[origenes.size()];
+        for (int i = 0; i < origen.length; i++) {
+            origen[i] = origenes.get(i);
+        }
+
+        return new EsquemaFilas(nuevas, tipos, null, origen);
+    }
+
+    @Override
+    public String toString() {
+        return "EsquemaFilas" + Arrays.toString(columnas);
+    }
+}
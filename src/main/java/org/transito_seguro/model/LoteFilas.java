@@ -0,0 +1,308 @@
+package org.transito_seguro.model;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Lote de filas en formato columnar: un arreglo de valores por columna y un
+ * {@link EsquemaFilas} compartido por todos los lotes de la misma ejecución.
+ *
+ * Reemplaza el List&lt;Map&lt;String, Object&gt;&gt; con un LinkedHashMap/HashMap
+ * por fila: los nombres de columna no se repiten por fila y agregar una
+ * columna constante (provincia) o quitar una técnica (row_id) no copia filas,
+ * solo reordena referencias a las columnas existentes.
+ *
+ * Para los consumidores que siguen trabajando con Map existen vistas de solo
+ * lectura ({@link #fila(int)}, {@link #comoMapas()}) y copias mutables
+ * ({@link #copiarFila(int)}).
+ *
+ * Se llena desde un único hilo (el que lee el ResultSet); una vez entregado
+ * al consumidor no se modifica.
+ */
+public final class LoteFilas {
+
+    /** Tamaño aproximado por valor: referencia + objeto promedio (Long, String corto, Timestamp) */
+    private static final int BYTES_POR_VALOR_ESTIMADO = 48;
+
+    private final EsquemaFilas esquema;
+
+    /** columnas[columna][fila] */
+    private final Object[][] columnas;
+
+    private int filas;
+
+    public LoteFilas(EsquemaFilas esquema, int capacidad) {
+        this.esquema = esquema;
+        this.columnas = new Object[esquema.cantidadColumnas()][capacidad];
+    }
+
+    private LoteFilas(EsquemaFilas esquema, Object[][] columnas, int filas) {
+        this.esquema = esquema;
+        this.columnas = columnas;
+        this.filas = filas;
+    }
+
+    /**
+     * Reconstruye un lote desde sus columnas (ej: al releer un lote desbordado a disco).
+     */
+    static LoteFilas deColumnas(EsquemaFilas esquema, Object[][] columnas, int filas) {
+        return new LoteFilas(esquema, columnas, filas);
+    }
+
+    // =============== CARGA ===============
+
+    /**
+     * Lee la fila actual del ResultSet. El esquema debe haberse creado con
+     * {@link EsquemaFilas#desde} sobre el mismo ResultSet. Si se supera la
+     * capacidad inicial, las columnas se amplían al doble.
+     */
+    public void agregarFila(ResultSet rs) throws SQLException {
+        if (columnas.length > 0 && filas == columnas[0].length) {
+            int nuevaCapacidad = Math.max(16, filas * 2);
+            for (int c = 0; c < columnas.length; c++) {
+                columnas[c] = Arrays.copyOf(columnas[c], nuevaCapacidad);
+            }
+        }
+
+        for (int c = 0; c < columnas.length; c++) {
+            columnas[c][filas] = rs.getObject(esquema.getColumnaResultSet(c));
+        }
+        filas++;
+    }
+
+    // =============== CONSULTA ===============
+
+    public EsquemaFilas getEsquema() {
+        return esquema;
+    }
+
+    public int tamano() {
+        return filas;
+    }
+
+    public boolean isEmpty() {
+        return filas == 0;
+    }
+
+    /**
+     * Estimación gruesa del heap que retiene el lote, usada para acotar colas
+     * por bytes. No recorre los valores.
+     */
+    public long estimarBytes() {
+        return estimarBytes(filas, columnas.length);
+    }
+
+    /**
+     * Misma estimación para un lote todavía no leído (reservas de memoria).
+     */
+    public static long estimarBytes(int filas, int columnas) {
+        return (long) filas * columnas * BYTES_POR_VALOR_ESTIMADO;
+    }
+
+    /**
+     * Ancho promedio de fila medido sobre una muestra de filas según el tipo y
+     * largo real de cada valor (a diferencia de {@link #estimarBytes()}, que
+     * solo cuenta columnas). Lo usa el ajuste de tamaño de página.
+     *
+     * @param maxFilas Filas a muestrear como máximo (repartidas en el lote)
+     * @return Bytes por fila, o 0 si el lote está vacío
+     */
+    public double medirBytesPorFila(int maxFilas) {
+        if (filas == 0) {
+            return 0;
+        }
+
+        int paso = Math.max(1, filas / Math.max(1, maxFilas));
+        long total = 0;
+        int muestreadas = 0;
+        for (int f = 0; f < filas; f += paso) {
+            for (Object[] columna : columnas) {
+                total += bytesValor(columna[f]);
+            }
+            muestreadas++;
+        }
+        return (double) total / muestreadas;
+    }
+
+    /** Referencia + objeto, con tamaños típicos de una JVM de 64 bits con oops comprimidos */
+    private static int bytesValor(Object valor) {
+        if (valor == null) {
+            return 4;
+        }
+        if (valor instanceof String) {
+            return 4 + 40 + ((String) valor).length() * 2;
+        }
+        if (valor instanceof Integer || valor instanceof Short || valor instanceof Boolean) {
+            return 4 + 16;
+        }
+        if (valor instanceof Long || valor instanceof Double) {
+            return 4 + 24;
+        }
+        if (valor instanceof java.math.BigDecimal) {
+            return 4 + 40 + ((java.math.BigDecimal) valor).unscaledValue().bitLength() / 8;
+        }
+        if (valor instanceof java.util.Date) {
+            return 4 + 32;
+        }
+        return 4 + BYTES_POR_VALOR_ESTIMADO;
+    }
+
+    public Object valor(int fila, int columna) {
+        return columnas[columna][fila];
+    }
+
+    /**
+     * @return Valor de la columna en la fila, o null si la columna no existe
+     */
+    public Object valor(int fila, String columna) {
+        int indice = esquema.indice(columna);
+        return indice >= 0 ? columnas[indice][fila] : null;
+    }
+
+    // =============== PROYECCIÓN ===============
+
+    /**
+     * Lote con las primeras filas de este (comparte las columnas, no copia).
+     */
+    public LoteFilas primeras(int cantidad) {
+        return cantidad >= filas ? this : new LoteFilas(esquema, columnas, cantidad);
+    }
+
+    /**
+     * Lote con una columna constante (ej: provincia) y sin las columnas excluidas.
+     */
+    public LoteFilas conConstante(String columna, Object valor, String... excluidas) {
+        return conConstantes(Collections.singletonMap(columna, valor), Arrays.asList(excluidas));
+    }
+
+    /**
+     * Lote con las columnas constantes dadas y sin las excluidas. Las columnas
+     * conservadas se comparten con este lote (no se copian filas).
+     *
+     * @param constantes Columna → valor para todas las filas
+     * @param excluidas Columnas a quitar
+     * @return Lote proyectado
+     */
+    public LoteFilas conConstantes(Map<String, Object> constantes, Collection<String> excluidas) {
+        EsquemaFilas proyectado = esquema.proyectar(constantes.keySet(), excluidas);
+        Object[][] nuevas = new Object[proyectado.cantidadColumnas()][];
+
+        for (int c = 0; c < nuevas.length; c++) {
+            int origen = proyectado.getOrigen(c);
+            if (origen >= 0) {
+                nuevas[c] = columnas[origen];
+            } else {
+                Object[] constante = new Object[filas];
+                Arrays.fill(constante, constantes.get(proyectado.getColumna(c)));
+                nuevas[c] = constante;
+            }
+        }
+
+        return new LoteFilas(proyectado, nuevas, filas);
+    }
+
+    // =============== VISTAS COMO MAP ===============
+
+    /**
+     * @return Vista de solo lectura de una fila
+     */
+    public Map<String, Object> fila(int fila) {
+        return new VistaFila(fila);
+    }
+
+    /**
+     * @return Copia mutable de una fila (para consumidores que modifican el registro)
+     */
+    public Map<String, Object> copiarFila(int fila) {
+        Map<String, Object> copia = new LinkedHashMap<>((int) ((columnas.length + 2) / 0.75f) + 1);
+        for (int c = 0; c < columnas.length; c++) {
+            copia.put(esquema.getColumna(c), columnas[c][fila]);
+        }
+        return copia;
+    }
+
+    /**
+     * @return Vista de solo lectura del lote como lista de filas
+     */
+    public List<Map<String, Object>> comoMapas() {
+        return new AbstractList<Map<String, Object>>() {
+            @Override
+            public Map<String, Object> get(int index) {
+                if (index < 0 || index >= filas) {
+                    throw new IndexOutOfBoundsException("Fila " + index + " de " + filas);
+                }
+                return new VistaFila(index);
+            }
+
+            @Override
+            public int size() {
+                return filas;
+            }
+        };
+    }
+
+    /**
+     * Fila del lote vista como Map: get por índice del esquema, sin copiar valores.
+     */
+    private final class VistaFila extends AbstractMap<String, Object> {
+
+        private final int fila;
+
+        private VistaFila(int fila) {
+            this.fila = fila;
+        }
+
+        @Override
+        public Object get(Object key) {
+            int indice = esquema.indice(key);
+            return indice >= 0 ? columnas[indice][fila] : null;
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return esquema.indice(key) >= 0;
+        }
+
+        @Override
+        public int size() {
+            return columnas.length;
+        }
+
+        @Override
+        public Set<String> keySet() {
+            return esquema.getNombres();
+        }
+
+        @Override
+        public Set<Entry<String, Object>> entrySet() {
+            return new AbstractSet<Entry<String, Object>>() {
+                @Override
+                public Iterator<Entry<String, Object>> iterator() {
+                    return new Iterator<Entry<String, Object>>() {
+                        private int columna = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return columna < columnas.length;
+                        }
+
+                        @Override
+                        public Entry<String, Object> next() {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            int c = columna++;
+                            return new SimpleImmutableEntry<>(esquema.getColumna(c), columnas[c][fila]);
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return columnas.length;
+                }
+            };
+        }
+    }
+}
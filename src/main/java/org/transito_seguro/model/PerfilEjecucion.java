@@ -0,0 +1,426 @@
+package org.transito_seguro.model;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Perfil de ejecución de un request (modo opt-in con ?perfil=true).
+ *
+ * Desglosa dónde se fue el tiempo de una consulta: etapas (preparación,
+ * estimación, lectura, consolidación, conversión), filas y latencias por
+ * provincia, estrategia elegida y variante de SQL usada. Cada etapa mide
+ * además los bytes asignados (ThreadMXBean) por el hilo del request y por las
+ * tareas que trabajaron para él en otros pools.
+ *
+ * El perfil vive en un ThreadLocal del hilo del request; los pools que
+ * ejecutan trabajo del request lo propagan con {@link #propagar(Runnable)}.
+ * Sin perfil activo todos los métodos estáticos son no-op.
+ */
+public final class PerfilEjecucion {
+
+    private static final ThreadLocal<PerfilEjecucion> ACTUAL = new ThreadLocal<>();
+
+    private static final com.sun.management.ThreadMXBean HILOS = inicializarMedicionBytes();
+
+    /** Etapa vacía para cuando no hay perfil activo */
+    private static final Etapa SIN_PERFIL = () -> { };
+
+    private final String codigoQuery;
+    private final long inicioNanos;
+
+    private volatile String procesamiento;
+    private volatile String estrategia;
+
+    /** Etapa abierta en el hilo del request (a ella se suman los bytes de las tareas) */
+    private volatile String etapaActual;
+
+    private final Map<String, MedidaEtapa> etapas = new LinkedHashMap<>();
+    private final Map<String, MedidaProvincia> provincias = new ConcurrentHashMap<>();
+
+    private PerfilEjecucion(String codigoQuery) {
+        this.codigoQuery = codigoQuery;
+        this.inicioNanos = System.nanoTime();
+    }
+
+    // =============== CICLO DE VIDA ===============
+
+    /**
+     * Activa un perfil en el hilo actual.
+     */
+    public static PerfilEjecucion iniciar(String codigoQuery) {
+        PerfilEjecucion perfil = new PerfilEjecucion(codigoQuery);
+        ACTUAL.set(perfil);
+        return perfil;
+    }
+
+    /**
+     * @return Perfil activo en el hilo, o null si el request no lo pidió
+     */
+    public static PerfilEjecucion actual() {
+        return ACTUAL.get();
+    }
+
+    /**
+     * Desactiva el perfil del hilo actual (llamar en un finally).
+     */
+    public static void finalizar() {
+        ACTUAL.remove();
+    }
+
+    // =============== REGISTRO (NO-OP SIN PERFIL) ===============
+
+    /**
+     * Abre una etapa; se cierra con try-with-resources. Las etapas pueden
+     * anidarse (ej: estimación dentro de lectura).
+     */
+    public static Etapa etapa(String nombre) {
+        PerfilEjecucion perfil = ACTUAL.get();
+        if (perfil == null) {
+            return SIN_PERFIL;
+        }
+
+        String anterior = perfil.etapaActual;
+        perfil.etapaActual = nombre;
+        long inicio = System.nanoTime();
+        long bytesInicio = bytesAsignados();
+
+        return () -> {
+            perfil.sumarEtapa(nombre, System.nanoTime() - inicio, diferencia(bytesInicio), true);
+            perfil.etapaActual = anterior;
+        };
+    }
+
+    /**
+     * Envuelve una tarea para que vea el perfil del hilo que la envía y sume
+     * sus bytes asignados a la etapa abierta en ese momento.
+     */
+    public static Runnable propagar(Runnable tarea) {
+        PerfilEjecucion perfil = ACTUAL.get();
+        if (perfil == null) {
+            return tarea;
+        }
+        String etapa = perfil.etapaActual;
+
+        return () -> {
+            PerfilEjecucion previo = ACTUAL.get();
+            ACTUAL.set(perfil);
+            long bytesInicio = bytesAsignados();
+            try {
+                tarea.run();
+            } finally {
+                perfil.sumarBytesTarea(etapa, diferencia(bytesInicio));
+                restaurar(previo);
+            }
+        };
+    }
+
+    /**
+     * Variante de {@link #propagar(Runnable)} para tareas con resultado.
+     */
+    public static <T> Callable<T> propagar(Callable<T> tarea) {
+        PerfilEjecucion perfil = ACTUAL.get();
+        if (perfil == null) {
+            return tarea;
+        }
+        String etapa = perfil.etapaActual;
+
+        return () -> {
+            PerfilEjecucion previo = ACTUAL.get();
+            ACTUAL.set(perfil);
+            long bytesInicio = bytesAsignados();
+            try {
+                return tarea.call();
+            } finally {
+                perfil.sumarBytesTarea(etapa, diferencia(bytesInicio));
+                restaurar(previo);
+            }
+        };
+    }
+
+    /**
+     * Tipo de procesamiento del request (CONSOLIDADO, LOTES, NORMAL).
+     */
+    public static void anotarProcesamiento(String procesamiento) {
+        PerfilEjecucion perfil = ACTUAL.get();
+        if (perfil != null) {
+            perfil.procesamiento = procesamiento;
+        }
+    }
+
+    /**
+     * Variante de SQL con la que se leyó la provincia (keyset, cursor-servidor,
+     * tramos-fecha, streaming, pushdown, directa...).
+     */
+    public static void anotarVariante(String provincia, String variante) {
+        PerfilEjecucion perfil = ACTUAL.get();
+        if (perfil != null) {
+            perfil.provincia(provincia).anotarVariante(variante);
+        }
+    }
+
+    /**
+     * Lectura de una provincia que no pasa por las métricas de página
+     * (ej: query directa o pushdown de consolidación).
+     */
+    public static void anotarLectura(String provincia, long filas, long duracionMs) {
+        PerfilEjecucion perfil = ACTUAL.get();
+        if (perfil != null) {
+            perfil.registrarLectura(provincia, filas, duracionMs);
+        }
+    }
+
+    /**
+     * Tiempo total de trabajo sobre la provincia (lectura + entrega).
+     */
+    public static void anotarDuracionProvincia(String provincia, long duracionMs) {
+        PerfilEjecucion perfil = ACTUAL.get();
+        if (perfil != null) {
+            perfil.provincia(provincia).sumarTotal(duracionMs);
+        }
+    }
+
+    public void registrarEstrategia(String estrategia) {
+        this.estrategia = estrategia;
+    }
+
+    public void registrarConteo(String provincia, long registros, long duracionMs) {
+        provincia(provincia).registrarConteo(registros, duracionMs);
+    }
+
+    public void registrarLectura(String provincia, long filas, long duracionMs) {
+        provincia(provincia).registrarLectura(filas, duracionMs);
+    }
+
+    // =============== SALIDA ===============
+
+    public long getDuracionMs() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - inicioNanos);
+    }
+
+    /**
+     * Perfil completo (para logs o respuestas JSON).
+     */
+    public Map<String, Object> aMapa() {
+        Map<String, Object> mapa = new LinkedHashMap<>();
+        mapa.put("query", codigoQuery);
+        mapa.put("duracion_ms", getDuracionMs());
+        mapa.put("procesamiento", procesamiento);
+        mapa.put("estrategia", estrategia);
+
+        Map<String, Object> porEtapa = new LinkedHashMap<>();
+        synchronized (etapas) {
+            etapas.forEach((nombre, medida) -> porEtapa.put(nombre, medida.aMapa()));
+        }
+        mapa.put("etapas", porEtapa);
+
+        Map<String, Object> porProvincia = new LinkedHashMap<>();
+        new TreeMap<>(provincias).forEach((nombre, medida) -> porProvincia.put(nombre, medida.aMapa()));
+        mapa.put("provincias", porProvincia);
+        return mapa;
+    }
+
+    /**
+     * Perfil compacto en headers HTTP (sirve para cualquier formato de respuesta).
+     */
+    public Map<String, String> comoHeaders() {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("X-Perfil-Duracion-Ms", String.valueOf(getDuracionMs()));
+
+        String tipo = procesamiento != null ? procesamiento : "";
+        if (estrategia != null) {
+            tipo = tipo.isEmpty() ? estrategia : tipo + "/" + estrategia;
+        }
+        if (!tipo.isEmpty()) {
+            headers.put("X-Perfil-Estrategia", tipo);
+        }
+
+        List<String> partesEtapas = new ArrayList<>();
+        synchronized (etapas) {
+            etapas.forEach((nombre, medida) -> partesEtapas.add(nombre + "=" + medida.resumen()));
+        }
+        headers.put("X-Perfil-Etapas", String.join(",", partesEtapas));
+
+        List<String> partesProvincias = new ArrayList<>();
+        Set<String> variantes = new LinkedHashSet<>();
+        new TreeMap<>(provincias).forEach((nombre, medida) -> {
+            partesProvincias.add(nombre + "=" + medida.resumen());
+            variantes.addAll(medida.getVariantes());
+        });
+        headers.put("X-Perfil-Provincias", String.join(";", partesProvincias));
+        if (!variantes.isEmpty()) {
+            headers.put("X-Perfil-Variante-Sql", String.join(",", variantes));
+        }
+        return headers;
+    }
+
+    // =============== MÉTODOS PRIVADOS ===============
+
+    private MedidaProvincia provincia(String provincia) {
+        return provincias.computeIfAbsent(provincia != null ? provincia : "?", k -> new MedidaProvincia());
+    }
+
+    private void sumarEtapa(String nombre, long nanos, long bytes, boolean cerrada) {
+        synchronized (etapas) {
+            etapas.computeIfAbsent(nombre, k -> new MedidaEtapa()).sumar(nanos, bytes, cerrada);
+        }
+    }
+
+    private void sumarBytesTarea(String etapa, long bytes) {
+        sumarEtapa(etapa != null ? etapa : "sin-etapa", 0, bytes, false);
+    }
+
+    private static void restaurar(PerfilEjecucion previo) {
+        if (previo != null) {
+            ACTUAL.set(previo);
+        } else {
+            ACTUAL.remove();
+        }
+    }
+
+    /**
+     * @return Bytes asignados por el hilo actual, o -1 si la JVM no lo soporta
+     */
+    private static long bytesAsignados() {
+        return HILOS != null ? HILOS.getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+    }
+
+    private static long diferencia(long bytesInicio) {
+        return bytesInicio >= 0 ? bytesAsignados() - bytesInicio : -1;
+    }
+
+    private static com.sun.management.ThreadMXBean inicializarMedicionBytes() {
+        try {
+            ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+            if (bean instanceof com.sun.management.ThreadMXBean) {
+                com.sun.management.ThreadMXBean hilos = (com.sun.management.ThreadMXBean) bean;
+                if (hilos.isThreadAllocatedMemorySupported()) {
+                    if (!hilos.isThreadAllocatedMemoryEnabled()) {
+                        hilos.setThreadAllocatedMemoryEnabled(true);
+                    }
+                    return hilos;
+                }
+            }
+        } catch (RuntimeException | LinkageError e) {
+            // JVM sin la extensión de HotSpot: el perfil sale sin bytes
+        }
+        return null;
+    }
+
+    private static String formatearBytes(long bytes) {
+        if (bytes < 0) {
+            return "n/d";
+        }
+        if (bytes >= 1024L * 1024) {
+            return String.format("%.1fMB", bytes / (1024.0 * 1024));
+        }
+        return (bytes / 1024) + "KB";
+    }
+
+    /**
+     * Medición que cierra una etapa. close() no lanza excepciones chequeadas.
+     */
+    @FunctionalInterface
+    public interface Etapa extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private static final class MedidaEtapa {
+        private long nanos;
+        private long bytes;
+        private boolean sinBytes;
+        private int veces;
+
+        void sumar(long nanos, long bytes, boolean cerrada) {
+            this.nanos += nanos;
+            if (bytes < 0) {
+                sinBytes = true;
+            } else {
+                this.bytes += bytes;
+            }
+            if (cerrada) {
+                veces++;
+            }
+        }
+
+        Map<String, Object> aMapa() {
+            Map<String, Object> mapa = new LinkedHashMap<>();
+            mapa.put("ms", TimeUnit.NANOSECONDS.toMillis(nanos));
+            mapa.put("bytes_asignados", sinBytes ? null : bytes);
+            mapa.put("veces", veces);
+            return mapa;
+        }
+
+        String resumen() {
+            return TimeUnit.NANOSECONDS.toMillis(nanos) + "ms/" + formatearBytes(sinBytes ? -1 : bytes);
+        }
+    }
+
+    private static final class MedidaProvincia {
+        private long conteo = -1;
+        private long conteoMs;
+        private long filas;
+        private long lecturaMs;
+        private long totalMs;
+        private final Set<String> variantes = new LinkedHashSet<>();
+
+        synchronized void registrarConteo(long registros, long duracionMs) {
+            conteo = registros;
+            conteoMs += duracionMs;
+        }
+
+        synchronized void registrarLectura(long filas, long duracionMs) {
+            this.filas += filas;
+            lecturaMs += duracionMs;
+        }
+
+        synchronized void sumarTotal(long duracionMs) {
+            totalMs += duracionMs;
+        }
+
+        synchronized void anotarVariante(String variante) {
+            variantes.add(variante);
+        }
+
+        synchronized Set<String> getVariantes() {
+            return new LinkedHashSet<>(variantes);
+        }
+
+        synchronized Map<String, Object> aMapa() {
+            Map<String, Object> mapa = new LinkedHashMap<>();
+            mapa.put("conteo", conteo >= 0 ? conteo : null);
+            mapa.put("conteo_ms", conteoMs);
+            mapa.put("filas", filas);
+            mapa.put("lectura_ms", lecturaMs);
+            mapa.put("total_ms", totalMs);
+            mapa.put("variante_sql", String.join(",", variantes));
+            return mapa;
+        }
+
+        synchronized String resumen() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("filas:").append(filas)
+                    .append(" lectura_ms:").append(lecturaMs);
+            if (conteo >= 0) {
+                sb.append(" conteo:").append(conteo).append(" conteo_ms:").append(conteoMs);
+            }
+            if (totalMs > 0) {
+                sb.append(" total_ms:").append(totalMs);
+            }
+            if (!variantes.isEmpty()) {
+                sb.append(" variante:").append(String.join("+", variantes));
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package org.transito_seguro.model;
+
+import javax.sql.DataSource;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Conexiones que una ejecución tiene tomadas en cada datasource: las
+ * provincias en curso del modo HÍBRIDO y los lectores adicionales de los
+ * tramos de fecha. Se cuentan juntas, por ejecución, para que la suma de
+ * ambas nunca supere el pool del datasource (varias provincias pueden
+ * compartir un mismo datasource).
+ */
+public class PresupuestoConexiones {
+
+    private final Map<DataSource, Integer> enUso = new IdentityHashMap<>();
+
+    /**
+     * Reserva hasta {@code pedidas} conexiones sin pasar de {@code maximo} en
+     * uso en el datasource. No espera: otorga las que haya libres.
+     *
+     * @return Conexiones otorgadas (0..pedidas); se devuelven con {@link #liberar}
+     */
+    public synchronized int reservar(DataSource dataSource, int pedidas, int maximo) {
+        int actuales = enUso.getOrDefault(dataSource, 0);
+        int otorgadas = Math.max(0, Math.min(pedidas, maximo - actuales));
+        if (otorgadas > 0) {
+            enUso.put(dataSource, actuales + otorgadas);
+        }
+        return otorgadas;
+    }
+
+    public synchronized void liberar(DataSource dataSource, int cantidad) {
+        if (cantidad <= 0) {
+            return;
+        }
+        enUso.computeIfPresent(dataSource, (ds, n) -> n > cantidad ? n - cantidad : null);
+    }
+
+    public synchronized int enUso(DataSource dataSource) {
+        return enUso.getOrDefault(dataSource, 0);
+    }
+}
@@ -0,0 +1,74 @@
+package org.transito_seguro.model;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * Bytes de heap reservados en el gobernador de memoria para un lote en vuelo.
+ *
+ * Se pide antes de leer la página, se ajusta al peso real del lote una vez
+ * leído y se libera cuando el lote deja de estar retenido (entregado al
+ * consumidor o desbordado a disco). {@link #close()} es idempotente, así el
+ * lote puede pasar de mano sin riesgo de liberar dos veces.
+ */
+public final class ReservaMemoria implements AutoCloseable {
+
+    private final AtomicLong bytes;
+    private final AtomicBoolean cerrada = new AtomicBoolean(false);
+
+    /** Devuelve al gobernador la diferencia (positiva = libera, negativa = toma más) */
+    private final LongConsumer liberador;
+
+    /** Aviso al gobernador de que la reserva terminó */
+    private final Runnable alCerrar;
+
+    public ReservaMemoria(long bytes, LongConsumer liberador, Runnable alCerrar) {
+        this.bytes = new AtomicLong(bytes);
+        this.liberador = liberador;
+        this.alCerrar = alCerrar;
+    }
+
+    /**
+     * @return Reserva sin bytes (sin gobernador o lote vacío)
+     */
+    public static ReservaMemoria vacia() {
+        return new ReservaMemoria(0, delta -> { }, () -> { });
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * Ajusta la reserva al peso real del lote leído. Si el lote pesa más de lo
+     * reservado, el excedente se toma sin esperar (el lote ya está en memoria).
+     *
+     * @param bytesReales Peso estimado del lote
+     */
+    public void ajustar(long bytesReales) {
+        if (cerrada.get()) {
+            return;
+        }
+        long anterior = bytes.getAndSet(Math.max(bytesReales, 0));
+        long diferencia = anterior - Math.max(bytesReales, 0);
+        if (diferencia != 0) {
+            liberador.accept(diferencia);
+        }
+    }
+
+    /**
+     * Libera lo que quede reservado.
+     */
+    @Override
+    public void close() {
+        if (!cerrada.compareAndSet(false, true)) {
+            return;
+        }
+        long liberados = bytes.getAndSet(0);
+        if (liberados != 0) {
+            liberador.accept(liberados);
+        }
+        alCerrar.run();
+    }
+}
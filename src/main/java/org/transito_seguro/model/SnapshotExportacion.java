@@ -0,0 +1,63 @@
+package org.transito_seguro.model;
+
+import java.io.Closeable;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Snapshot de PostgreSQL exportado con pg_export_snapshot() para que varias
+ * conexiones de una misma provincia lean exactamente los mismos datos.
+ *
+ * La conexión coordinadora mantiene abierta su transacción REPEATABLE READ:
+ * el snapshot solo se puede importar (SET TRANSACTION SNAPSHOT) mientras esa
+ * transacción siga viva, así que se cierra recién cuando terminaron todos
+ * los lectores. {@link #close()} hace rollback (solo se leyó) y devuelve la
+ * conexión al pool.
+ */
+public final class SnapshotExportacion implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(SnapshotExportacion.class.getName());
+
+    private final String provincia;
+    private final String id;
+    private final Connection coordinadora;
+    private final long tiempoInicio;
+
+    public SnapshotExportacion(String provincia, String id, Connection coordinadora) {
+        this.provincia = provincia;
+        this.id = id;
+        this.coordinadora = coordinadora;
+        this.tiempoInicio = System.currentTimeMillis();
+    }
+
+    public String getProvincia() {
+        return provincia;
+    }
+
+    /**
+     * @return Identificador del snapshot para SET TRANSACTION SNAPSHOT
+     */
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public void close() {
+        try {
+            coordinadora.rollback();
+        } catch (SQLException e) {
+            LOGGER.log(Level.WARNING, "No se pudo cerrar la transacción del snapshot " + id + ": " + e.getMessage());
+        } finally {
+            try {
+                coordinadora.close();
+            } catch (SQLException e) {
+                LOGGER.log(Level.WARNING, "No se pudo liberar la conexión del snapshot " + id + ": " + e.getMessage());
+            }
+        }
+
+        LOGGER.log(Level.FINE, "Snapshot {0} de {1} liberado tras {2} ms",
+                new Object[]{id, provincia, System.currentTimeMillis() - tiempoInicio});
+    }
+}
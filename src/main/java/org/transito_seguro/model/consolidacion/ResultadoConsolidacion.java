@@ -0,0 +1,43 @@
+package org.transito_seguro.model.consolidacion;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resultado de una consolidación multi-provincia.
+ *
+ * Además de los datos consolidados informa qué provincias fallaron o
+ * excedieron el timeout, para que la respuesta indique que es parcial.
+ */
+@Getter
+@AllArgsConstructor
+public class ResultadoConsolidacion {
+
+    private final List<Map<String, Object>> datos;
+
+    private final int provinciasConsultadas;
+
+    /** Provincia → motivo del fallo (error o timeout) */
+    private final Map<String, String> provinciasFallidas;
+
+    public boolean esParcial() {
+        return !provinciasFallidas.isEmpty();
+    }
+
+    /**
+     * Metadatos para incluir en la respuesta JSON (vacío si no hubo fallos).
+     */
+    public Map<String, Object> getMetadatos() {
+        Map<String, Object> metadatos = new LinkedHashMap<>();
+        if (esParcial()) {
+            metadatos.put("consolidacion_parcial", true);
+            metadatos.put("provincias_consultadas", provinciasConsultadas);
+            metadatos.put("provincias_fallidas", provinciasFallidas);
+        }
+        return metadatos;
+    }
+}
@@ -0,0 +1,206 @@
+package org.transito_seguro.model.consolidacion.agregacion;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.transito_seguro.model.EsquemaFilas;
+import org.transito_seguro.model.LoteFilas;
+
+import java.util.*;
+
+/**
+ * Operador de agregación hash incremental para consolidación.
+ *
+ * Consume registros de a uno (streaming), agrupa por {@link ClaveGrupo} y
+ * acumula los campos numéricos en slots primitivos long[]. La memoria usada
+ * es proporcional a la cantidad de grupos, no a la cantidad de registros.
+ *
+ * Cada provincia puede acumular en un parcial propio (crearParcial) que luego
+ * se fusiona en el agregador global (fusionar).
+ *
+ * No es thread-safe: cada parcial debe ser usado por un solo hilo.
+ */
+@Slf4j
+public class AgregadorHash {
+
+    @Getter
+    private final List<String> camposAgrupacion;
+
+    @Getter
+    private final List<String> camposNumericos;
+
+    private final String[] agrupacion;
+    private final String[] numericos;
+
+    /** LinkedHashMap para mantener el orden de aparición de los grupos */
+    private final Map<ClaveGrupo, long[]> grupos = new LinkedHashMap<>();
+
+    @Getter
+    private long registrosProcesados = 0;
+
+    /** Índices de agrupación/numéricos resueltos para el esquema del último lote */
+    private EsquemaFilas esquemaLote;
+    private int[] indicesAgrupacion;
+    private int[] indicesNumericos;
+
+    public AgregadorHash(List<String> camposAgrupacion, List<String> camposNumericos) {
+        this.camposAgrupacion = Collections.unmodifiableList(new ArrayList<>(camposAgrupacion));
+
+        // Un campo de agrupación nunca se suma (ej: fecha_anio)
+        List<String> soloNumericos = new ArrayList<>(camposNumericos);
+        soloNumericos.removeAll(camposAgrupacion);
+        this.camposNumericos = Collections.unmodifiableList(soloNumericos);
+
+        this.agrupacion = this.camposAgrupacion.toArray(new String[0]);
+        this.numericos = this.camposNumericos.toArray(new String[0]);
+    }
+
+    /**
+     * @return Agregador vacío con la misma configuración (para una provincia)
+     */
+    public AgregadorHash crearParcial() {
+        return new AgregadorHash(camposAgrupacion, camposNumericos);
+    }
+
+    /**
+     * Acumula un registro crudo en su grupo.
+     */
+    public void acumular(Map<String, Object> registro) {
+        acumular(registro, 1);
+    }
+
+    /**
+     * Acumula un registro que ya representa varias filas crudas
+     * (parcial agregado en SQL por el pushdown).
+     *
+     * @param registro Registro con los campos numéricos ya sumados
+     * @param filas Cantidad de filas crudas que representa
+     */
+    public void acumular(Map<String, Object> registro, long filas) {
+        ClaveGrupo clave = ClaveGrupo.de(registro, agrupacion);
+
+        long[] acumulados = grupos.get(clave);
+        if (acumulados == null) {
+            acumulados = new long[numericos.length];
+            grupos.put(clave, acumulados);
+        }
+
+        for (int i = 0; i < numericos.length; i++) {
+            acumulados[i] += aLong(registro.get(numericos[i]));
+        }
+
+        registrosProcesados += filas;
+    }
+
+    /**
+     * Acumula las filas de un lote columnar desde la fila indicada.
+     * Los índices de los campos se resuelven una vez por esquema, no por fila.
+     *
+     * @param lote Lote con filas crudas
+     * @param desde Primera fila a acumular
+     */
+    public void acumular(LoteFilas lote, int desde) {
+        if (lote.getEsquema() != esquemaLote) {
+            esquemaLote = lote.getEsquema();
+            indicesAgrupacion = esquemaLote.indices(agrupacion);
+            indicesNumericos = esquemaLote.indices(numericos);
+        }
+
+        for (int fila = desde; fila < lote.tamano(); fila++) {
+            ClaveGrupo clave = ClaveGrupo.de(lote, fila, indicesAgrupacion);
+
+            long[] acumulados = grupos.get(clave);
+            if (acumulados == null) {
+                acumulados = new long[numericos.length];
+                grupos.put(clave, acumulados);
+            }
+
+            for (int i = 0; i < indicesNumericos.length; i++) {
+                if (indicesNumericos[i] >= 0) {
+                    acumulados[i] += aLong(lote.valor(fila, indicesNumericos[i]));
+                }
+            }
+        }
+
+        registrosProcesados += Math.max(0, lote.tamano() - desde);
+    }
+
+    /**
+     * Fusiona un agregador parcial en este.
+     */
+    public void fusionar(AgregadorHash parcial) {
+        for (Map.Entry<ClaveGrupo, long[]> entry : parcial.grupos.entrySet()) {
+            long[] acumulados = grupos.get(entry.getKey());
+            if (acumulados == null) {
+                grupos.put(entry.getKey(), entry.getValue().clone());
+                continue;
+            }
+
+            long[] otros = entry.getValue();
+            for (int i = 0; i < acumulados.length; i++) {
+                acumulados[i] += otros[i];
+            }
+        }
+
+        registrosProcesados += parcial.registrosProcesados;
+    }
+
+    public int cantidadGrupos() {
+        return grupos.size();
+    }
+
+    /**
+     * Materializa los grupos como registros: campos de agrupación en el orden
+     * solicitado seguidos de los campos numéricos sumados.
+     */
+    public List<Map<String, Object>> generarResultados() {
+        List<Map<String, Object>> resultado = new ArrayList<>(grupos.size());
+
+        for (Map.Entry<ClaveGrupo, long[]> entry : grupos.entrySet()) {
+            Map<String, Object> fila = new LinkedHashMap<>(
+                    (int) ((agrupacion.length + numericos.length) / 0.75f) + 1);
+
+            for (int i = 0; i < agrupacion.length; i++) {
+                fila.put(agrupacion[i], entry.getKey().getValor(i));
+            }
+
+            long[] acumulados = entry.getValue();
+            for (int i = 0; i < numericos.length; i++) {
+                fila.put(numericos[i], acumulados[i]);
+            }
+
+            resultado.add(fila);
+        }
+
+        return resultado;
+    }
+
+    /**
+     * Convierte un valor a long sin boxing. Mismas reglas que la consolidación
+     * original: null/vacío/no convertible → 0, decimales se truncan.
+     */
+    public static long aLong(Object valor) {
+        if (valor == null) {
+            return 0L;
+        }
+
+        if (valor instanceof Number) {
+            return ((Number) valor).longValue();
+        }
+
+        if (valor instanceof String) {
+            String str = ((String) valor).trim();
+            if (str.isEmpty()) {
+                return 0L;
+            }
+            try {
+                int punto = str.indexOf('.');
+                return Long.parseLong(punto > 0 ? str.substring(0, punto) : str);
+            } catch (NumberFormatException e) {
+                log.warn("Error convirtiendo '{}' a Long: {}", str, e.getMessage());
+                return 0L;
+            }
+        }
+
+        return 0L;
+    }
+}
@@ -0,0 +1,78 @@
+package org.transito_seguro.model.consolidacion.agregacion;
+
+import org.transito_seguro.model.LoteFilas;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Clave compuesta de un grupo de consolidación.
+ *
+ * Guarda los valores de los campos de agrupación en un arreglo con el hash
+ * precalculado, en lugar de concatenar strings con "||" por cada registro.
+ * Los enteros se normalizan a Long para que INTEGER/BIGINT de distintas
+ * provincias caigan en el mismo grupo.
+ */
+public final class ClaveGrupo {
+
+    private final Object[] valores;
+    private final int hash;
+
+    private ClaveGrupo(Object[] valores) {
+        this.valores = valores;
+        this.hash = Arrays.hashCode(valores);
+    }
+
+    /**
+     * Construye la clave de un registro según los campos de agrupación.
+     */
+    public static ClaveGrupo de(Map<String, Object> registro, String[] camposAgrupacion) {
+        Object[] valores = new Object[camposAgrupacion.length];
+        for (int i = 0; i < camposAgrupacion.length; i++) {
+            valores[i] = normalizar(registro.get(camposAgrupacion[i]));
+        }
+        return new ClaveGrupo(valores);
+    }
+
+    /**
+     * Construye la clave de una fila de un lote columnar.
+     *
+     * @param indices Índice de cada campo de agrupación en el esquema del lote (-1 = ausente)
+     */
+    public static ClaveGrupo de(LoteFilas lote, int fila, int[] indices) {
+        Object[] valores = new Object[indices.length];
+        for (int i = 0; i < indices.length; i++) {
+            valores[i] = indices[i] >= 0 ? normalizar(lote.valor(fila, indices[i])) : null;
+        }
+        return new ClaveGrupo(valores);
+    }
+
+    private static Object normalizar(Object valor) {
+        if (valor instanceof Integer || valor instanceof Short || valor instanceof Byte) {
+            return ((Number) valor).longValue();
+        }
+        return valor;
+    }
+
+    public Object getValor(int indice) {
+        return valores[indice];
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof ClaveGrupo)) return false;
+        ClaveGrupo otra = (ClaveGrupo) o;
+        return hash == otra.hash && Arrays.equals(valores, otra.valores);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(valores);
+    }
+}
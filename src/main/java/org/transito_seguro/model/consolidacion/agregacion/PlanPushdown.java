@@ -0,0 +1,29 @@
+package org.transito_seguro.model.consolidacion.agregacion;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+import java.util.List;
+
+/**
+ * Plan de consolidación empujada a SQL (GROUP BY por provincia).
+ *
+ * El SQL devuelve un parcial por provincia con los campos numéricos ya sumados
+ * y la cantidad de filas crudas de cada grupo; en Java solo se fusionan los parciales.
+ */
+@Getter
+@AllArgsConstructor
+public class PlanPushdown {
+
+    /** SQL agregado (la query registrada envuelta como subconsulta) */
+    private final String sql;
+
+    /** Campos de agrupación del resultado final (incluye provincia si se pidió) */
+    private final List<String> camposAgrupacion;
+
+    /** Campos numéricos sumados en SQL */
+    private final List<String> camposNumericos;
+
+    /** Columna con el COUNT(*) de filas crudas por grupo */
+    private final String columnaConteo;
+}
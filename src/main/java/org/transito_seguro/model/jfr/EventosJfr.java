@@ -0,0 +1,237 @@
+package org.transito_seguro.model.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Eventos propios de Java Flight Recorder para las etapas calientes del
+ * pipeline: preparación del SQL, páginas leídas por provincia, consolidación
+ * y escritura de cada lote en streaming.
+ *
+ * Los eventos solo se graban mientras hay una grabación JFR activa (ver
+ * {@link org.transito_seguro.component.GrabadorJfr}); sin grabación el costo
+ * es crear el objeto del evento. Si la JVM no trae JFR (JDK 8 anteriores a
+ * 8u262) los métodos devuelven un tramo vacío y nunca se carga jdk.jfr.
+ *
+ * Uso:
+ * <pre>
+ * try (EventosJfr.Tramo tramo = EventosJfr.escritura("csv")) {
+ *     ...
+ *     tramo.filas(lote.size()).bytes(bytes);
+ * }
+ * </pre>
+ */
+public final class EventosJfr {
+
+    public static final String CATEGORIA = "Transito Seguro";
+
+    private static final boolean DISPONIBLE = detectarJfr();
+
+    /** Largo máximo del SQL guardado en el evento de preparación */
+    private static final int LARGO_SQL = 200;
+
+    /** Tramo vacío para JVMs sin JFR */
+    private static final Tramo SIN_JFR = new Tramo() {
+        @Override
+        public Tramo filas(long filas) {
+            return this;
+        }
+
+        @Override
+        public Tramo bytes(long bytes) {
+            return this;
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private EventosJfr() {
+    }
+
+    /**
+     * Etapa medida por un evento JFR. close() la cierra y la graba si la
+     * grabación activa la habilita; no lanza excepciones.
+     */
+    public interface Tramo extends AutoCloseable {
+
+        Tramo filas(long filas);
+
+        Tramo bytes(long bytes);
+
+        @Override
+        void close();
+    }
+
+    // =============== FÁBRICAS ===============
+
+    /**
+     * @return true si la JVM trae Java Flight Recorder
+     */
+    public static boolean disponible() {
+        return DISPONIBLE;
+    }
+
+    /**
+     * ParametrosProcessor.procesarQuery: plan + enlace de parámetros.
+     */
+    public static Tramo procesarQuery(String sql) {
+        if (!DISPONIBLE) {
+            return SIN_JFR;
+        }
+        ProcesarQueryEvento evento = new ProcesarQueryEvento();
+        evento.sql = sql != null && sql.length() > LARGO_SQL ? sql.substring(0, LARGO_SQL) : sql;
+        evento.begin();
+        return evento;
+    }
+
+    /**
+     * Página leída de una provincia (cursor de servidor, keyset o tramo de fechas).
+     */
+    public static Tramo pagina(String codigoQuery, String provincia) {
+        if (!DISPONIBLE) {
+            return SIN_JFR;
+        }
+        PaginaEvento evento = new PaginaEvento();
+        evento.query = codigoQuery;
+        evento.provincia = provincia;
+        evento.begin();
+        return evento;
+    }
+
+    /**
+     * Consolidación completa de una query sobre varias provincias.
+     * Las filas del tramo son las filas consolidadas resultantes.
+     */
+    public static Tramo consolidacion(String codigoQuery, int provincias) {
+        if (!DISPONIBLE) {
+            return SIN_JFR;
+        }
+        ConsolidacionEvento evento = new ConsolidacionEvento();
+        evento.query = codigoQuery;
+        evento.provincias = provincias;
+        evento.begin();
+        return evento;
+    }
+
+    /**
+     * Escritura y flush de un lote en StreamingFormatoConverter.
+     */
+    public static Tramo escritura(String formato) {
+        if (!DISPONIBLE) {
+            return SIN_JFR;
+        }
+        EscrituraEvento evento = new EscrituraEvento();
+        evento.formato = formato;
+        evento.begin();
+        return evento;
+    }
+
+    private static boolean detectarJfr() {
+        try {
+            Class.forName("jdk.jfr.Event", false, EventosJfr.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    // =============== EVENTOS ===============
+
+    /**
+     * Base de los eventos. Sin stack trace: los eventos son frecuentes y la
+     * etapa ya los identifica.
+     */
+    @Category(CATEGORIA)
+    @StackTrace(false)
+    public abstract static class EventoBase extends Event implements Tramo {
+
+        @Override
+        public Tramo filas(long filas) {
+            return this;
+        }
+
+        @Override
+        public Tramo bytes(long bytes) {
+            return this;
+        }
+
+        @Override
+        public void close() {
+            commit();
+        }
+    }
+
+    /**
+     * Evento con volumen: filas y bytes se completan antes de cerrar el tramo.
+     */
+    public abstract static class EventoConVolumen extends EventoBase {
+
+        @Label("Filas")
+        long filas;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+
+        @Override
+        public Tramo filas(long filas) {
+            this.filas = filas;
+            return this;
+        }
+
+        @Override
+        public Tramo bytes(long bytes) {
+            this.bytes = bytes;
+            return this;
+        }
+    }
+
+    @Name("transito_seguro.ProcesarQuery")
+    @Label("Procesar query")
+    @Description("Plan del SQL y enlace de parámetros de filtros")
+    public static final class ProcesarQueryEvento extends EventoBase {
+
+        @Label("SQL")
+        String sql;
+    }
+
+    @Name("transito_seguro.Pagina")
+    @Label("Página de provincia")
+    @Description("Lectura de una página de la base de una provincia")
+    public static final class PaginaEvento extends EventoConVolumen {
+
+        @Label("Query")
+        String query;
+
+        @Label("Provincia")
+        String provincia;
+    }
+
+    @Name("transito_seguro.Consolidacion")
+    @Label("Consolidación")
+    @Description("Consolidación de una query entre provincias")
+    public static final class ConsolidacionEvento extends EventoConVolumen {
+
+        @Label("Query")
+        String query;
+
+        @Label("Provincias")
+        int provincias;
+    }
+
+    @Name("transito_seguro.Escritura")
+    @Label("Escritura de lote")
+    @Description("Escritura y flush de un lote en el formato de salida")
+    public static final class EscrituraEvento extends EventoConVolumen {
+
+        @Label("Formato")
+        String formato;
+    }
+}
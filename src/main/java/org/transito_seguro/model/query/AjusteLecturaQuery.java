@@ -0,0 +1,68 @@
+package org.transito_seguro.model.query;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import javax.persistence.*;
+import java.time.LocalDateTime;
+
+/**
+ * Tamaños de lectura aprendidos para una query en una provincia.
+ *
+ * Los escribe el ajustador de lectura al terminar cada recorrido, así la
+ * próxima ejecución arranca con página y fetch size ya ajustados en lugar de
+ * los valores fijos. Se guarda junto a query_storage (misma base), por código
+ * de query.
+ */
+@Entity
+@Table(name = "query_ajuste_lectura",
+        uniqueConstraints = @UniqueConstraint(name = "uk_ajuste_query_provincia",
+                columnNames = {"codigo_query", "provincia"}),
+        indexes = @Index(name = "idx_ajuste_codigo", columnList = "codigo_query"))
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder(toBuilder = true)
+public class AjusteLecturaQuery {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "codigo_query", nullable = false, length = 100)
+    private String codigoQuery;
+
+    @Column(name = "provincia", nullable = false, length = 100)
+    private String provincia;
+
+    /** Filas por página keyset */
+    @Column(name = "tamano_pagina", nullable = false)
+    private Integer tamanoPagina;
+
+    /** Filas por viaje al servidor (Statement.setFetchSize) */
+    @Column(name = "fetch_size", nullable = false)
+    private Integer fetchSize;
+
+    /** Ancho observado de una fila (promedio móvil) */
+    @Column(name = "bytes_por_fila")
+    private Double bytesPorFila;
+
+    /** Latencia observada por fila en la lectura de páginas (promedio móvil) */
+    @Column(name = "ms_por_fila")
+    private Double msPorFila;
+
+    /** Páginas observadas desde que se creó el ajuste */
+    @Column(name = "muestras")
+    private Long muestras;
+
+    @Column(name = "fecha_actualizacion")
+    private LocalDateTime fechaActualizacion;
+
+    @PrePersist
+    @PreUpdate
+    protected void onSave() {
+        this.fechaActualizacion = LocalDateTime.now();
+    }
+}
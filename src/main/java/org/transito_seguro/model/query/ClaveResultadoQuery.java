@@ -0,0 +1,37 @@
+package org.transito_seguro.model.query;
+
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Clave de una entrada del cache de resultados.
+ *
+ * Una entrada corresponde al resultado de UNA provincia, por lo que una
+ * consulta a varias provincias reutiliza las entradas ya calculadas aunque
+ * el conjunto de provincias pedido sea distinto.
+ */
+@Getter
+@EqualsAndHashCode
+@RequiredArgsConstructor
+public class ClaveResultadoQuery {
+
+    /** Código de la query (QueryStorage.codigo) */
+    private final String codigo;
+
+    /** Versión de la query; cambia cuando se actualiza el SQL */
+    private final Integer version;
+
+    /** Forma de ejecución (normal, consolidación, pushdown...) */
+    private final String variante;
+
+    /** Hash canónico de ParametrosFiltrosDTO (sin los campos de selección de provincias) */
+    private final String hashFiltros;
+
+    private final String provincia;
+
+    @Override
+    public String toString() {
+        return codigo + "@v" + version + "/" + variante + "/" + provincia + "/" + hashFiltros;
+    }
+}
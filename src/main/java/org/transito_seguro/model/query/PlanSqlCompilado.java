@@ -0,0 +1,68 @@
+package org.transito_seguro.model.query;
+
+import lombok.Getter;
+import org.transito_seguro.utils.SqlUtils;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * SQL registrado ya analizado una sola vez, listo para enlazar valores.
+ *
+ * Guarda las variantes que antes se recalculaban en cada ejecución (y en cada
+ * lote de un recorrido keyset):
+ * - sqlStreaming: sin LIMIT/OFFSET final (límite infinito)
+ * - sqlConteo: envuelta en SELECT COUNT(*) sin ORDER BY/LIMIT/OFFSET externos
+ * - parametros: nombres de parámetros (:nombre) que la query realmente usa
+ */
+@Getter
+public class PlanSqlCompilado {
+
+    /** :nombre que no sea parte de un cast (::tipo) ni de un literal como '12:30' */
+    private static final Pattern PARAMETRO_NOMBRADO = Pattern.compile("(?<![:\\w]):([A-Za-z_]\\w*)");
+
+    private final String sqlOriginal;
+
+    private final String sqlStreaming;
+
+    private final String sqlConteo;
+
+    private final Set<String> parametros;
+
+    private PlanSqlCompilado(String sqlOriginal, String sqlStreaming, String sqlConteo, Set<String> parametros) {
+        this.sqlOriginal = sqlOriginal;
+        this.sqlStreaming = sqlStreaming;
+        this.sqlConteo = sqlConteo;
+        this.parametros = parametros;
+    }
+
+    /**
+     * Analiza el SQL y construye todas sus variantes.
+     */
+    public static PlanSqlCompilado compilar(String sql) {
+        String sqlStreaming = sql.replaceAll("(?i)\\s+LIMIT\\s+[^;]*$", "");
+        sqlStreaming = sqlStreaming.replaceAll("(?i)\\s+OFFSET\\s+[^;]*$", "");
+
+        String sqlConteo = sql.trim().isEmpty()
+                ? null
+                : "SELECT COUNT(*) as total FROM (" + SqlUtils.limpiarParaSubconsulta(sql) + ") AS conteo_wrapper";
+
+        Set<String> parametros = new LinkedHashSet<>();
+        Matcher matcher = PARAMETRO_NOMBRADO.matcher(sql);
+        while (matcher.find()) {
+            parametros.add(matcher.group(1));
+        }
+
+        return new PlanSqlCompilado(sql, sqlStreaming, sqlConteo, Collections.unmodifiableSet(parametros));
+    }
+
+    /**
+     * @return true si la query usa el parámetro (solo esos se enlazan)
+     */
+    public boolean usaParametro(String nombre) {
+        return parametros.contains(nombre);
+    }
+}
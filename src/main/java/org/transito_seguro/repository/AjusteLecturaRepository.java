@@ -0,0 +1,13 @@
+package org.transito_seguro.repository;
+
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Repository;
+import org.transito_seguro.model.query.AjusteLecturaQuery;
+
+import java.util.Optional;
+
+@Repository
+public interface AjusteLecturaRepository extends JpaRepository<AjusteLecturaQuery, Long> {
+
+    Optional<AjusteLecturaQuery> findByCodigoQueryAndProvincia(String codigoQuery, String provincia);
+}
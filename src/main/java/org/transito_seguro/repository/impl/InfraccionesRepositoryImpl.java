@@ -3,25 +3,48 @@ package org.transito_seguro.repository.impl;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
 import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreatorFactory;
+import org.springframework.jdbc.core.SqlParameter;
+import org.springframework.jdbc.core.namedparam.NamedParameterUtils;
+import org.springframework.jdbc.core.namedparam.ParsedSql;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
 import org.transito_seguro.component.ParametrosProcessor;
 import org.transito_seguro.model.query.QueryResult;
 import org.transito_seguro.dto.ParametrosFiltrosDTO;
 import org.transito_seguro.exception.SQLExecutionException;
+import org.transito_seguro.model.CursorServidor;
+import org.transito_seguro.model.EsquemaFilas;
+import org.transito_seguro.model.LoteFilas;
+import org.transito_seguro.model.SnapshotExportacion;
 import org.transito_seguro.model.query.QueryStorage;
 import org.transito_seguro.repository.InfraccionesRepository;
 import org.transito_seguro.repository.QueryStorageRepository;
 import org.transito_seguro.utils.SQLExceptionParser;
 import org.transito_seguro.utils.SqlUtils;
 
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * Implementación del repositorio de infracciones para una provincia específica.
@@ -31,13 +54,28 @@ import java.util.function.Consumer;
 @Slf4j
 public class InfraccionesRepositoryImpl implements InfraccionesRepository {
 
+    /** Filas por lote en la lectura columnar en streaming */
+    public static final int TAMANO_LOTE_STREAMING = 1000;
+
+    private static final String COLUMNA_PROVINCIA = "provincia";
+
     private final NamedParameterJdbcTemplate jdbcTemplate;
 
+    /** Plantillas con otro fetch size (el ajustador usa pocos valores fijos) */
+    private final Map<Integer, NamedParameterJdbcTemplate> plantillasPorFetchSize = new ConcurrentHashMap<>();
+
     @Getter
     private final String provincia;
 
     private final ParametrosProcessor parametrosProcessor;
 
+    /** true si el repositorio está atado a una conexión en transacción (ver atadoA) */
+    @Getter
+    private boolean conexionFija = false;
+
+    /** Conexión en transacción del repositorio atado (null si no es de conexión fija) */
+    private Connection conexion;
+
     @Setter
     private QueryStorageRepository queryStorageRepository;
 
@@ -85,12 +123,11 @@ public class InfraccionesRepositoryImpl implements InfraccionesRepository {
                         resultado.getParametros(),
                         rs -> {
                             List<Map<String, Object>> lista = new ArrayList<>();
-                            ResultSetMetaData metaData = rs.getMetaData();
-                            int columnCount = metaData.getColumnCount();
+                            EsquemaFilas esquema = EsquemaFilas.desde(rs.getMetaData());
 
                             // ✅ 6. LEER FILA POR FILA (STREAMING REAL)
                             while (rs.next()) {
-                                Map<String, Object> row = mapearFila(rs, metaData, columnCount);
+                                Map<String, Object> row = mapearFila(rs, esquema);
                                 lista.add(row);
 
                                 int leidos = registrosLeidos.incrementAndGet();
@@ -100,8 +137,8 @@ public class InfraccionesRepositoryImpl implements InfraccionesRepository {
                                     long transcurrido = System.currentTimeMillis() - inicioQuery;
                                     double velocidad = leidos * 1000.0 / Math.max(transcurrido, 1);
 
-                                    log.info("📊 {} - Leyendo: {} registros en {}ms ({:.0f} reg/s)",
-                                            provincia, leidos, transcurrido, velocidad);
+                                    log.info("📊 {} - Leyendo: {} registros en {}ms ({} reg/s)",
+                                            provincia, leidos, transcurrido, String.format("%.0f", velocidad));
                                 }
                             }
 
@@ -127,8 +164,8 @@ public class InfraccionesRepositoryImpl implements InfraccionesRepository {
             long duracionTotal = System.currentTimeMillis() - inicioQuery;
             double velocidadPromedio = resultados.size() * 1000.0 / Math.max(duracionTotal, 1);
 
-            log.info("✅ {} - Query completada: {} registros en {}ms ({:.0f} reg/s)",
-                    provincia, resultados.size(), duracionTotal, velocidadPromedio);
+            log.info("✅ {} - Query completada: {} registros en {}ms ({} reg/s)",
+                    provincia, resultados.size(), duracionTotal, String.format("%.0f", velocidadPromedio));
 
             // ✅ 9. ANÁLISIS DE ESTRUCTURA (solo para debugging)
             if (log.isDebugEnabled() && !resultados.isEmpty()) {
@@ -178,16 +215,15 @@ public class InfraccionesRepositoryImpl implements InfraccionesRepository {
     /**
      * 🔧 Mapea una fila del ResultSet a Map
      * (Versión optimizada del método original mapearFila)
+     * MEJORADO: los labels salen del esquema resuelto una vez por query
+     * y el mapa se crea con la capacidad final.
      */
-    private Map<String, Object> mapearFila(ResultSet rs, ResultSetMetaData metaData, int columnCount)
-            throws SQLException {
-
-        Map<String, Object> row = new LinkedHashMap<>();
+    private Map<String, Object> mapearFila(ResultSet rs, EsquemaFilas esquema) throws SQLException {
+        int columnCount = esquema.cantidadColumnas();
+        Map<String, Object> row = new LinkedHashMap<>((int) (columnCount / 0.75f) + 1);
 
-        for (int i = 1; i <= columnCount; i++) {
-            String columnName = metaData.getColumnLabel(i);
-            Object value = rs.getObject(i);
-            row.put(columnName, value);
+        for (int i = 0; i < columnCount; i++) {
+            row.put(esquema.getColumna(i), rs.getObject(esquema.getColumnaResultSet(i)));
         }
 
         return row;
@@ -221,6 +257,562 @@ public class InfraccionesRepositoryImpl implements InfraccionesRepository {
     }
 
 
+    /**
+     * Obtiene el SQL de una query (BD o archivo) sin procesar parámetros.
+     *
+     * @param nombreQuery Código de la query
+     * @return SQL original almacenado
+     */
+    public String obtenerSqlQuery(String nombreQuery) {
+        return cargarQuery(nombreQuery);
+    }
+
+    /**
+     * Obtiene las columnas del resultado de un SQL sin leer filas.
+     * Se usa con un SQL que termina en LIMIT 0 para resolver tipos reales.
+     *
+     * @param sql SQL con parámetros nombrados
+     * @param filtros Filtros para resolver los parámetros
+     * @return Mapa ordenado label → java.sql.Types
+     */
+    public Map<String, Integer> obtenerColumnasResultado(String sql, ParametrosFiltrosDTO filtros) {
+        return leerMetadatos(sql, filtros, metaData -> {
+            Map<String, Integer> columnas = new LinkedHashMap<>();
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                columnas.put(metaData.getColumnLabel(i), metaData.getColumnType(i));
+            }
+            return columnas;
+        });
+    }
+
+    /**
+     * Columnas del resultado que el driver informa como NOT NULL (columnas de
+     * tabla con restricción NOT NULL; las expresiones calculadas no califican).
+     * Se usa con un SQL que termina en LIMIT 0.
+     *
+     * @param sql SQL con parámetros nombrados
+     * @param filtros Filtros para resolver los parámetros
+     * @return Labels de las columnas no nulas
+     */
+    public Set<String> obtenerColumnasNoNulas(String sql, ParametrosFiltrosDTO filtros) {
+        return leerMetadatos(sql, filtros, metaData -> {
+            Set<String> noNulas = new HashSet<>();
+            for (int i = 1; i <= metaData.getColumnCount(); i++) {
+                if (metaData.isNullable(i) == ResultSetMetaData.columnNoNulls) {
+                    noNulas.add(metaData.getColumnLabel(i));
+                }
+            }
+            return noNulas;
+        });
+    }
+
+    /**
+     * Ejecuta un SQL sin leer filas y extrae datos de su ResultSetMetaData.
+     */
+    private <T> T leerMetadatos(String sql, ParametrosFiltrosDTO filtros, LectorMetadatos<T> lector) {
+        QueryResult resultado = parametrosProcessor.procesarQuery(sql, filtros);
+
+        try {
+            return jdbcTemplate.query(
+                    resultado.getQueryModificada(),
+                    resultado.getParametros(),
+                    rs -> lector.leer(rs.getMetaData())
+            );
+        } catch (DataAccessException e) {
+            SQLExecutionException executionException = SQLExceptionParser.parse(e, sql, "metadata", provincia);
+            log.error("{}", executionException.getMessageDetallado());
+            throw executionException;
+        }
+    }
+
+    /**
+     * Ejecuta un SQL ya construido (ej: reescrito por KeysetProcessor) aplicando
+     * los filtros estándar más parámetros adicionales.
+     *
+     * @param sql SQL con parámetros nombrados
+     * @param filtros Filtros del request
+     * @param parametrosAdicionales Parámetros extra (ej: valores de la clave keyset)
+     * @return Filas resultantes
+     */
+    public List<Map<String, Object>> ejecutarSQLConFiltros(
+            String sql,
+            ParametrosFiltrosDTO filtros,
+            Map<String, Object> parametrosAdicionales) {
+
+        QueryResult resultado = parametrosProcessor.procesarQuery(sql, filtros);
+        MapSqlParameterSource parametros = resultado.getParametros();
+
+        if (parametrosAdicionales != null) {
+            parametrosAdicionales.forEach(parametros::addValue);
+        }
+
+        long inicio = System.currentTimeMillis();
+
+        try {
+            List<Map<String, Object>> filas = jdbcTemplate.query(
+                    resultado.getQueryModificada(),
+                    parametros,
+                    rs -> {
+                        List<Map<String, Object>> lista = new ArrayList<>();
+                        EsquemaFilas esquema = EsquemaFilas.desde(rs.getMetaData());
+
+                        while (rs.next()) {
+                            lista.add(mapearFila(rs, esquema));
+                        }
+                        return lista;
+                    }
+            );
+
+            log.debug("✅ {} - SQL ejecutado: {} registros en {}ms",
+                    provincia, filas != null ? filas.size() : 0, System.currentTimeMillis() - inicio);
+
+            return filas;
+
+        } catch (DataAccessException e) {
+            SQLExecutionException executionException = SQLExceptionParser.parse(e, sql, "keyset", provincia);
+            log.error(SQLExceptionParser.obtenerSugerencias(e, sql));
+            log.error("{}", executionException.getMessageDetallado());
+            throw executionException;
+        }
+    }
+
+    /**
+     * Igual que ejecutarSQLConFiltros pero devuelve un lote columnar: los
+     * metadatos se resuelven una vez y cada fila se guarda en arreglos por
+     * columna en lugar de un LinkedHashMap por fila.
+     *
+     * @param sql SQL con parámetros nombrados
+     * @param filtros Filtros del request
+     * @param parametrosAdicionales Parámetros extra (ej: valores de la clave keyset)
+     * @return Lote con todas las filas resultantes
+     */
+    public LoteFilas ejecutarSQLComoLote(
+            String sql,
+            ParametrosFiltrosDTO filtros,
+            Map<String, Object> parametrosAdicionales) {
+        return ejecutarSQLComoLote(sql, filtros, parametrosAdicionales, 0);
+    }
+
+    /**
+     * Igual que {@link #ejecutarSQLComoLote(String, ParametrosFiltrosDTO, Map)}
+     * con un fetch size propio (0 = el de la plantilla JDBC).
+     */
+    public LoteFilas ejecutarSQLComoLote(
+            String sql,
+            ParametrosFiltrosDTO filtros,
+            Map<String, Object> parametrosAdicionales,
+            int fetchSize) {
+
+        QueryResult resultado = parametrosProcessor.procesarQuery(sql, filtros);
+        MapSqlParameterSource parametros = resultado.getParametros();
+
+        if (parametrosAdicionales != null) {
+            parametrosAdicionales.forEach(parametros::addValue);
+        }
+
+        // El límite de la página dimensiona el lote (crece si hace falta)
+        int capacidadInicial = filtros != null && filtros.getLimite() != null && filtros.getLimite() > 0
+                ? Math.min(filtros.getLimite(), TAMANO_LOTE_STREAMING * 10) : TAMANO_LOTE_STREAMING;
+        long inicio = System.currentTimeMillis();
+
+        try {
+            LoteFilas lote = plantilla(fetchSize).query(
+                    resultado.getQueryModificada(),
+                    parametros,
+                    rs -> {
+                        LoteFilas filas = new LoteFilas(EsquemaFilas.desde(rs.getMetaData()), capacidadInicial);
+                        while (rs.next()) {
+                            filas.agregarFila(rs);
+                        }
+                        return filas;
+                    }
+            );
+
+            log.debug("✅ {} - SQL ejecutado: {} registros en {}ms",
+                    provincia, lote != null ? lote.tamano() : 0, System.currentTimeMillis() - inicio);
+
+            return lote;
+
+        } catch (DataAccessException e) {
+            SQLExecutionException executionException = SQLExceptionParser.parse(e, sql, "keyset", provincia);
+            log.error(SQLExceptionParser.obtenerSugerencias(e, sql));
+            log.error("{}", executionException.getMessageDetallado());
+            throw executionException;
+        }
+    }
+
+    // =============== EXPORTACIÓN CSV CON COPY ===============
+
+    /**
+     * @return true si la conexión de esta provincia es PostgreSQL y admite COPY
+     */
+    public boolean soportaCopy() {
+        try {
+            Boolean soporta = jdbcTemplate.getJdbcTemplate().execute(
+                    (ConnectionCallback<Boolean>) con -> con.isWrapperFor(PGConnection.class));
+            return Boolean.TRUE.equals(soporta);
+        } catch (Exception e) {
+            log.debug("{} - COPY no disponible: {}", provincia, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Columnas del resultado de la query (SELECT ... LIMIT 0). Todas las
+     * provincias ejecutan la misma query, así que se resuelven una vez por
+     * exportación y se pasan a {@link #prepararCopyCsv}.
+     *
+     * @param nombreQuery Código de la query
+     * @param filtros Filtros aplicados (se ignoran límite y offset)
+     * @return Nombres de columna en el orden del resultado
+     */
+    public List<String> obtenerColumnasCopy(String nombreQuery, ParametrosFiltrosDTO filtros) {
+        ParametrosFiltrosDTO filtrosCompletos = filtrosSinPaginar(filtros);
+        QueryResult resultado = parametrosProcessor.procesarQuery(cargarQuery(nombreQuery), filtrosCompletos);
+
+        Map<String, Integer> columnas = obtenerColumnasResultado(
+                "SELECT * FROM (\n" + quitarPuntoYComa(resultado.getQueryModificada()) + "\n) AS copy_src LIMIT 0",
+                filtrosCompletos);
+        return new ArrayList<>(columnas.keySet());
+    }
+
+    /**
+     * Prepara el COPY ... TO STDOUT de una query: compila el SQL con
+     * ParametrosProcessor (variante sin LIMIT/OFFSET), inlinea los parámetros
+     * (COPY no admite parámetros enlazados) y agrega la columna provincia.
+     *
+     * Se separa de copiarCsv para poder validar todas las provincias antes de
+     * escribir el primer byte de la respuesta.
+     *
+     * @param nombreQuery Código de la query
+     * @param filtros Filtros aplicados (se ignoran límite y offset)
+     * @param columnas Columnas de obtenerColumnasCopy (para reemplazar o agregar provincia sin duplicarla)
+     * @param conEncabezado true para incluir la fila de encabezados
+     * @return Sentencia COPY lista para ejecutar
+     */
+    public String prepararCopyCsv(String nombreQuery, ParametrosFiltrosDTO filtros, List<String> columnas,
+                                  boolean conEncabezado) {
+        QueryResult resultado = parametrosProcessor.procesarQuery(cargarQuery(nombreQuery), filtrosSinPaginar(filtros));
+        String sqlQuery = SqlUtils.inlinearParametros(
+                quitarPuntoYComa(resultado.getQueryModificada()), resultado.getParametros());
+
+        StringBuilder select = new StringBuilder();
+        boolean tieneProvincia = false;
+        for (String columna : columnas) {
+            if (select.length() > 0) {
+                select.append(", ");
+            }
+            if (COLUMNA_PROVINCIA.equalsIgnoreCase(columna)) {
+                select.append(SqlUtils.literal(provincia, Types.VARCHAR)).append(" AS ").append(COLUMNA_PROVINCIA);
+                tieneProvincia = true;
+            } else {
+                select.append("copy_src.").append(SqlUtils.citarIdentificador(columna));
+            }
+        }
+        if (!tieneProvincia) {
+            select.append(select.length() > 0 ? ", " : "")
+                    .append(SqlUtils.literal(provincia, Types.VARCHAR)).append(" AS ").append(COLUMNA_PROVINCIA);
+        }
+
+        return "COPY (SELECT " + select + " FROM (\n" + sqlQuery + "\n) AS copy_src) TO STDOUT WITH CSV"
+                + (conEncabezado ? " HEADER" : "");
+    }
+
+    /**
+     * Ejecuta un COPY preparado con prepararCopyCsv y escribe los bytes CSV
+     * que devuelve PostgreSQL directamente en el destino, sin pasar por
+     * ResultSet ni Map. No cierra el destino.
+     *
+     * @param sentenciaCopy Sentencia de prepararCopyCsv
+     * @param destino Stream de salida (ej: respuesta HTTP)
+     * @return Filas exportadas
+     * @throws IOException si falla la escritura en el destino
+     */
+    public long copiarCsv(String sentenciaCopy, OutputStream destino) throws IOException {
+        long inicio = System.currentTimeMillis();
+
+        try {
+            Long filas = jdbcTemplate.getJdbcTemplate().execute((ConnectionCallback<Long>) con -> {
+                try {
+                    return con.unwrap(PGConnection.class).getCopyAPI().copyOut(sentenciaCopy, destino);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+
+            long exportadas = filas != null ? filas : 0;
+            log.info("✅ {} - COPY CSV: {} registros en {}ms",
+                    provincia, exportadas, System.currentTimeMillis() - inicio);
+            return exportadas;
+
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+
+        } catch (DataAccessException e) {
+            SQLExecutionException executionException = SQLExceptionParser.parse(e, sentenciaCopy, "copy", provincia);
+            log.error("{}", executionException.getMessageDetallado());
+            throw executionException;
+        }
+    }
+
+    // =============== LECTURA CONSISTENTE (SNAPSHOT) ===============
+
+    /**
+     * Abre una transacción REPEATABLE READ en una conexión propia y exporta su
+     * snapshot. Mientras no se cierre, otras conexiones de la provincia pueden
+     * leer exactamente los mismos datos con
+     * {@link #ejecutarEnLecturaConsistente(String, Function)}.
+     *
+     * @return Snapshot exportado (cerrarlo al terminar todos los lectores)
+     */
+    public SnapshotExportacion exportarSnapshot() {
+        DataSource dataSource = jdbcTemplate.getJdbcTemplate().getDataSource();
+        Connection con = null;
+
+        try {
+            con = dataSource.getConnection();
+            con.setAutoCommit(false);
+            con.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+
+            String id;
+            try (Statement st = con.createStatement();
+                 ResultSet rs = st.executeQuery("SELECT pg_export_snapshot()")) {
+                rs.next();
+                id = rs.getString(1);
+            }
+
+            log.debug("📸 {} - Snapshot exportado: {}", provincia, id);
+            return new SnapshotExportacion(provincia, id, con);
+
+        } catch (SQLException e) {
+            cerrarSinError(con);
+            throw new RuntimeException("Error exportando snapshot en " + provincia, e);
+        }
+    }
+
+    /**
+     * Ejecuta un trabajo de lectura sobre una única conexión en transacción
+     * REPEATABLE READ: todas las consultas del trabajo (ej: todas las páginas
+     * de un cursor keyset) ven los mismos datos.
+     *
+     * El trabajo recibe un repositorio de la misma provincia atado a esa
+     * conexión; no debe usarse fuera del trabajo ni desde otro hilo.
+     *
+     * @param snapshotId Snapshot a importar (de {@link #exportarSnapshot()}), o
+     *                   null para un snapshot propio de la transacción
+     * @param trabajo Lectura a ejecutar con el repositorio atado
+     * @return Resultado del trabajo
+     */
+    public <T> T ejecutarEnLecturaConsistente(String snapshotId, Function<InfraccionesRepositoryImpl, T> trabajo) {
+        DataSource dataSource = jdbcTemplate.getJdbcTemplate().getDataSource();
+
+        try (Connection con = dataSource.getConnection()) {
+            boolean autoCommitOriginal = con.getAutoCommit();
+            int aislamientoOriginal = con.getTransactionIsolation();
+
+            con.setAutoCommit(false);
+            con.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            try {
+                if (snapshotId != null) {
+                    // Tiene que ser la primera sentencia de la transacción
+                    try (Statement st = con.createStatement()) {
+                        st.execute("SET TRANSACTION SNAPSHOT " + SqlUtils.literal(snapshotId, Types.VARCHAR));
+                    }
+                }
+
+                return trabajo.apply(atadoA(con));
+
+            } finally {
+                // Solo lectura: rollback, y recién fuera de la transacción restaurar la conexión
+                con.rollback();
+                con.setTransactionIsolation(aislamientoOriginal);
+                con.setAutoCommit(autoCommitOriginal);
+            }
+
+        } catch (SQLException e) {
+            throw new RuntimeException("Error en lectura consistente de " + provincia, e);
+        }
+    }
+
+    /**
+     * Repositorio de la misma provincia que usa siempre la conexión dada.
+     */
+    private InfraccionesRepositoryImpl atadoA(Connection con) {
+        JdbcTemplate base = jdbcTemplate.getJdbcTemplate();
+
+        // suppressClose: los close() de JdbcTemplate no devuelven la conexión al pool
+        JdbcTemplate sobreConexion = new JdbcTemplate(new SingleConnectionDataSource(con, true));
+        sobreConexion.setExceptionTranslator(base.getExceptionTranslator());
+        sobreConexion.setQueryTimeout(base.getQueryTimeout());
+        sobreConexion.setMaxRows(base.getMaxRows());
+        sobreConexion.setFetchSize(base.getFetchSize());
+
+        InfraccionesRepositoryImpl atado = new InfraccionesRepositoryImpl(
+                new NamedParameterJdbcTemplate(sobreConexion), provincia, parametrosProcessor);
+        atado.setQueryStorageRepository(queryStorageRepository);
+        atado.conexionFija = true;
+        atado.conexion = con;
+        return atado;
+    }
+
+    // =============== CURSOR DE SERVIDOR ===============
+
+    /**
+     * Abre un cursor de servidor con la query completa (sin LIMIT/OFFSET).
+     * La query se planifica y ejecuta una sola vez; las páginas se leen con
+     * {@link #leerCursor(CursorServidor)}.
+     *
+     * Es un PreparedStatement con los parámetros enlazados y fetch size sobre
+     * la conexión fija (sin autocommit): pgjdbc ejecuta la query en un portal y
+     * trae de a fetch size filas, sin materializar el resultado en memoria.
+     *
+     * Solo en un repositorio de conexión fija (dentro de
+     * {@link #ejecutarEnLecturaConsistente(String, Function)}): el portal vive
+     * en esa transacción y se libera con su rollback.
+     *
+     * @param nombreQuery Código de la query
+     * @param filtros Filtros aplicados (se ignoran límite y offset)
+     * @param tamanoPagina Filas por página (fetch size inicial)
+     * @return Cursor abierto
+     */
+    public CursorServidor abrirCursor(String nombreQuery, ParametrosFiltrosDTO filtros, int tamanoPagina) {
+        if (!conexionFija) {
+            throw new IllegalStateException("El cursor de servidor requiere una conexión fija en transacción ("
+                    + provincia + ")");
+        }
+
+        ParametrosFiltrosDTO filtrosCompletos = (filtros != null ? filtros : new ParametrosFiltrosDTO())
+                .toBuilder()
+                .limite(null)
+                .offset(null)
+                .build();
+
+        QueryResult resultado = parametrosProcessor.procesarQuery(cargarQuery(nombreQuery), filtrosCompletos);
+        String sqlQuery = resultado.getQueryModificada();
+        MapSqlParameterSource parametros = resultado.getParametros();
+
+        // Mismo enlace de parámetros nombrados que NamedParameterJdbcTemplate
+        ParsedSql sqlParseado = NamedParameterUtils.parseSqlStatement(sqlQuery);
+        String sqlJdbc = NamedParameterUtils.substituteNamedParameters(sqlParseado, parametros);
+        Object[] valores = NamedParameterUtils.buildValueArray(sqlParseado, parametros, null);
+        List<SqlParameter> declarados = NamedParameterUtils.buildSqlParameterList(sqlParseado, parametros);
+
+        long inicio = System.currentTimeMillis();
+        PreparedStatement sentencia = null;
+
+        try {
+            sentencia = new PreparedStatementCreatorFactory(sqlJdbc, declarados)
+                    .newPreparedStatementCreator(valores)
+                    .createPreparedStatement(conexion);
+            sentencia.setFetchSize(Math.max(tamanoPagina, 1));
+            int timeout = jdbcTemplate.getJdbcTemplate().getQueryTimeout();
+            if (timeout > 0) {
+                sentencia.setQueryTimeout(timeout);
+            }
+
+            ResultSet rs = sentencia.executeQuery();
+
+            log.debug("🧭 {} - Cursor abierto para {} en {}ms",
+                    provincia, nombreQuery, System.currentTimeMillis() - inicio);
+            return new CursorServidor(provincia, sentencia, rs, tamanoPagina);
+
+        } catch (SQLException e) {
+            cerrarSinError(sentencia);
+            throw errorDeCursor(e, sqlQuery, nombreQuery);
+        }
+    }
+
+    /**
+     * Lee la siguiente página del cursor: hasta tamanoPagina filas del mismo
+     * ResultSet.
+     *
+     * @return Lote de la página (null si el cursor ya estaba agotado)
+     */
+    public LoteFilas leerCursor(CursorServidor cursor) {
+        if (cursor.isAgotado()) {
+            return null;
+        }
+
+        int filas = Math.max(cursor.getTamanoPagina(), 1);
+        ResultSet rs = cursor.getResultados();
+
+        try {
+            if (cursor.getFetchSize() > 0) {
+                rs.setFetchSize(cursor.getFetchSize());
+            }
+            if (cursor.getEsquema() == null) {
+                cursor.setEsquema(EsquemaFilas.desde(rs.getMetaData()));
+            }
+
+            LoteFilas pagina = new LoteFilas(cursor.getEsquema(), Math.min(filas, TAMANO_LOTE_STREAMING * 10));
+            while (pagina.tamano() < filas && rs.next()) {
+                pagina.agregarFila(rs);
+            }
+
+            cursor.registrarPagina(pagina, filas);
+            return pagina;
+
+        } catch (SQLException e) {
+            throw errorDeCursor(e, "cursor " + cursor.getProvincia(), "cursor");
+        }
+    }
+
+    /**
+     * Cierra el cursor antes de terminar la transacción (libera el portal si
+     * el recorrido se cortó antes de agotarlo).
+     */
+    public void cerrarCursor(CursorServidor cursor) {
+        cursor.close();
+    }
+
+    private SQLExecutionException errorDeCursor(SQLException e, String sql, String nombreQuery) {
+        DataAccessException traducida = jdbcTemplate.getJdbcTemplate().getExceptionTranslator()
+                .translate("cursor de servidor", sql, e);
+        SQLExecutionException executionException = SQLExceptionParser.parse(
+                traducida != null ? traducida : e, sql, nombreQuery, provincia);
+        log.error("{}", executionException.getMessageDetallado());
+        return executionException;
+    }
+
+    private static void cerrarSinError(Statement sentencia) {
+        if (sentencia == null) {
+            return;
+        }
+        try {
+            sentencia.close();
+        } catch (SQLException e) {
+            log.debug("Error cerrando sentencia: {}", e.getMessage());
+        }
+    }
+
+    private static void cerrarSinError(Connection con) {
+        if (con == null) {
+            return;
+        }
+        try {
+            con.rollback();
+            con.close();
+        } catch (SQLException e) {
+            log.debug("Error cerrando conexión: {}", e.getMessage());
+        }
+    }
+
+    private static ParametrosFiltrosDTO filtrosSinPaginar(ParametrosFiltrosDTO filtros) {
+        return (filtros != null ? filtros : new ParametrosFiltrosDTO())
+                .toBuilder()
+                .limite(null)
+                .offset(null)
+                .build();
+    }
+
+    private static String quitarPuntoYComa(String sql) {
+        String limpio = sql.trim();
+        while (limpio.endsWith(";")) {
+            limpio = limpio.substring(0, limpio.length() - 1).trim();
+        }
+        return limpio;
+    }
+
     public boolean validarConectividad() {
         try {
             jdbcTemplate.queryForObject("SELECT 1", new HashMap<>(), Integer.class);
@@ -232,6 +824,26 @@ public class InfraccionesRepositoryImpl implements InfraccionesRepository {
         }
     }
 
+    /**
+     * Plantilla con el fetch size pedido. Comparte DataSource y traductor de
+     * excepciones con la principal; se crea una vez por fetch size.
+     */
+    private NamedParameterJdbcTemplate plantilla(int fetchSize) {
+        JdbcTemplate base = jdbcTemplate.getJdbcTemplate();
+        if (fetchSize <= 0 || fetchSize == base.getFetchSize()) {
+            return jdbcTemplate;
+        }
+
+        return plantillasPorFetchSize.computeIfAbsent(fetchSize, tamano -> {
+            JdbcTemplate ajustada = new JdbcTemplate(base.getDataSource());
+            ajustada.setExceptionTranslator(base.getExceptionTranslator());
+            ajustada.setQueryTimeout(base.getQueryTimeout());
+            ajustada.setMaxRows(base.getMaxRows());
+            ajustada.setFetchSize(tamano);
+            return new NamedParameterJdbcTemplate(ajustada);
+        });
+    }
+
     public NamedParameterJdbcTemplate getNamedParameterJdbcTemplate() {
         return jdbcTemplate;
     }
@@ -310,30 +922,40 @@ public class InfraccionesRepositoryImpl implements InfraccionesRepository {
                     sqlModificada,
                     parametros,
                     rs -> {
-                        try {
-                            // Mapear fila
-                            Map<String, Object> registro = mapearResultSetStreaming(rs);
+                        // Metadatos resueltos una vez por query, no por fila
+                        EsquemaFilas esquema = EsquemaFilas.desde(rs.getMetaData());
+                        int columnaProvincia = esquema.indice("provincia");
 
-                            // Procesar inmediatamente
-                            procesarRegistro.accept(registro);
+                        while (rs.next()) {
+                            try {
+                                // Mapear fila
+                                Map<String, Object> registro = mapearResultSetStreaming(rs, esquema, columnaProvincia);
 
-                            // Incrementar contador
-                            int count = contador.incrementAndGet();
+                                // Procesar inmediatamente
+                                procesarRegistro.accept(registro);
 
-                            // Log cada 10,000 registros
-                            if (count % 10000 == 0) {
-                                long ahora = System.currentTimeMillis();
-                                long transcurrido = ahora - inicioStreaming;
-                                double velocidad = count * 1000.0 / Math.max(transcurrido, 1);
+                                // Incrementar contador
+                                int count = contador.incrementAndGet();
 
-                                log.info("🌊 Streaming {}: {} registros ({:.0f} reg/s)",
-                                        provincia, count, velocidad);
-                            }
+                                // Log cada 10,000 registros
+                                if (count % 10000 == 0) {
+                                    long ahora = System.currentTimeMillis();
+                                    long transcurrido = ahora - inicioStreaming;
+                                    double velocidad = count * 1000.0 / Math.max(transcurrido, 1);
 
-                        } catch (Exception e) {
-                            log.error("❌ Error procesando registro en streaming: {}", e.getMessage());
-                            // Continuar con siguiente registro
+                                    log.info("🌊 Streaming {}: {} registros ({} reg/s)",
+                                            provincia, count, String.format("%.0f", velocidad));
+                                }
+
+                            } catch (CancellationException e) {
+                                // El consumidor canceló (ej: timeout de provincia): cortar el streaming
+                                throw e;
+                            } catch (Exception e) {
+                                log.error("❌ Error procesando registro en streaming: {}", e.getMessage());
+                                // Continuar con siguiente registro
+                            }
                         }
+                        return null;
                     }
             );
 
@@ -341,8 +963,110 @@ public class InfraccionesRepositoryImpl implements InfraccionesRepository {
             long duracionTotal = System.currentTimeMillis() - inicioStreaming;
             double velocidadPromedio = contador.get() * 1000.0 / Math.max(duracionTotal, 1);
 
-            log.info("✅ STREAMING COMPLETADO para {}: {} registros en {}ms ({:.0f} reg/s)",
-                    provincia, contador.get(), duracionTotal, velocidadPromedio);
+            log.info("✅ STREAMING COMPLETADO para {}: {} registros en {}ms ({} reg/s)",
+                    provincia, contador.get(), duracionTotal, String.format("%.0f", velocidadPromedio));
+
+        } catch (DataAccessException e) {
+            SQLExecutionException executionException = SQLExceptionParser.parse(
+                    e,
+                    nombreQuery,
+                    nombreQuery,
+                    provincia
+            );
+
+            log.error("💥 Error en streaming para {}: {}",
+                    provincia, executionException.getMessageDetallado());
+            throw new RuntimeException("Error en streaming: " + e.getMessage(), e);
+
+        } catch (Exception e) {
+            log.error("💥 Error inesperado en streaming para {}: {}", provincia, e.getMessage(), e);
+            throw new RuntimeException("Error en streaming: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * 🌊 Ejecuta query con streaming entregando lotes columnares.
+     *
+     * Los metadatos se leen una vez y las filas se acumulan en arreglos por
+     * columna (LoteFilas) con un esquema compartido por todos los lotes. A
+     * diferencia de ejecutarQueryConStreaming, NO agrega la columna provincia:
+     * el consumidor la fija a nivel de lote con LoteFilas.conConstante.
+     *
+     * @param nombreQuery Código de la query
+     * @param filtros Filtros aplicados
+     * @param tamanoLote Filas por lote
+     * @param procesarLote Callback ejecutado por cada lote completo (y el último parcial)
+     * @return Total de filas leídas
+     */
+    public int ejecutarQueryConStreamingEnLotes(
+            String nombreQuery,
+            ParametrosFiltrosDTO filtros,
+            int tamanoLote,
+            Consumer<LoteFilas> procesarLote) {
+        return ejecutarQueryConStreamingEnLotes(nombreQuery, filtros, tamanoLote, 0, procesarLote);
+    }
+
+    /**
+     * Igual que {@link #ejecutarQueryConStreamingEnLotes(String, ParametrosFiltrosDTO, int, Consumer)}
+     * con un fetch size propio (0 = el de la plantilla JDBC).
+     */
+    public int ejecutarQueryConStreamingEnLotes(
+            String nombreQuery,
+            ParametrosFiltrosDTO filtros,
+            int tamanoLote,
+            int fetchSize,
+            Consumer<LoteFilas> procesarLote) {
+
+        try {
+            String sql = cargarQuery(nombreQuery);
+            QueryResult queryResult = parametrosProcessor.procesarQuery(sql, filtros);
+
+            log.info(" STREAMING EN LOTES INICIADO para {} - Query: {}", provincia, nombreQuery);
+
+            long inicioStreaming = System.currentTimeMillis();
+
+            Integer total = plantilla(fetchSize).query(
+                    queryResult.getQueryModificada(),
+                    queryResult.getParametros(),
+                    rs -> {
+                        EsquemaFilas esquema = EsquemaFilas.desde(rs.getMetaData());
+                        LoteFilas lote = new LoteFilas(esquema, tamanoLote);
+                        int leidos = 0;
+
+                        while (rs.next()) {
+                            lote.agregarFila(rs);
+                            leidos++;
+
+                            if (lote.tamano() >= tamanoLote) {
+                                procesarLote.accept(lote);
+                                lote = new LoteFilas(esquema, tamanoLote);
+                            }
+
+                            if (leidos % 10000 == 0) {
+                                double velocidad = leidos * 1000.0
+                                        / Math.max(System.currentTimeMillis() - inicioStreaming, 1);
+                                log.info("🌊 Streaming {}: {} registros ({} reg/s)",
+                                        provincia, leidos, String.format("%.0f", velocidad));
+                            }
+                        }
+
+                        if (!lote.isEmpty()) {
+                            procesarLote.accept(lote);
+                        }
+                        return leidos;
+                    }
+            );
+
+            int leidos = total != null ? total : 0;
+            long duracionTotal = System.currentTimeMillis() - inicioStreaming;
+
+            log.info("✅ STREAMING EN LOTES COMPLETADO para {}: {} registros en {}ms ({} reg/s)",
+                    provincia, leidos, duracionTotal, String.format("%.0f", leidos * 1000.0 / Math.max(duracionTotal, 1)));
+
+            return leidos;
+
+        } catch (CancellationException e) {
+            throw e;
 
         } catch (DataAccessException e) {
             SQLExecutionException executionException = SQLExceptionParser.parse(
@@ -364,37 +1088,28 @@ public class InfraccionesRepositoryImpl implements InfraccionesRepository {
 
     /**
      * Mapea una fila del ResultSet a Map (versión para streaming).
+     * MEJORADO: recibe el esquema ya resuelto en lugar de pedir
+     * getMetaData() por cada fila.
      *
      * @param rs ResultSet posicionado en la fila actual
+     * @param esquema Columnas del ResultSet
+     * @param columnaProvincia Índice de "provincia" en el esquema (-1 si no está)
      * @return Map con columnas y valores
      */
-    private Map<String, Object> mapearResultSetStreaming(ResultSet rs) {
+    private Map<String, Object> mapearResultSetStreaming(ResultSet rs, EsquemaFilas esquema, int columnaProvincia) {
         try {
-            ResultSetMetaData metaData = rs.getMetaData();
-            int columnCount = metaData.getColumnCount();
+            int columnCount = esquema.cantidadColumnas();
 
             // Pre-dimensionar HashMap para performance
             Map<String, Object> registro = new HashMap<>((int)((columnCount + 1) / 0.75f) + 1);
 
-            boolean tieneColumnaProvinciaEnResultSet = false;
-
-            for (int i = 1; i <= columnCount; i++) {
-                String columna = metaData.getColumnLabel(i);
-                Object valor = rs.getObject(i);
-
-                // Detectar si hay columna "provincia" en el ResultSet
-                if ("provincia".equalsIgnoreCase(columna)) {
-                    tieneColumnaProvinciaEnResultSet = true;
-                    registro.put("provincia", valor != null ? valor : this.provincia);
-                    continue;
-                }
-
+            for (int i = 0; i < columnCount; i++) {
                 // Agregar columna (incluso si es null)
-                registro.put(columna, valor);
+                registro.put(esquema.getColumna(i), rs.getObject(esquema.getColumnaResultSet(i)));
             }
 
-            // Agregar provincia si NO estaba en el ResultSet
-            if (!tieneColumnaProvinciaEnResultSet) {
+            // Provincia del repositorio si el ResultSet no la trae (o viene null)
+            if (columnaProvincia < 0 || registro.get("provincia") == null) {
                 registro.put("provincia", this.provincia);
             }
 
@@ -406,4 +1121,12 @@ public class InfraccionesRepositoryImpl implements InfraccionesRepository {
         }
     }
 
+    /**
+     * Extrae datos de los metadatos de un resultado.
+     */
+    private interface LectorMetadatos<T> {
+
+        T leer(ResultSetMetaData metaData) throws SQLException;
+    }
+
 }
\ No newline at end of file
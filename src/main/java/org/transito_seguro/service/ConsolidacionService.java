@@ -1,16 +1,34 @@
 package org.transito_seguro.service;
 
+import com.zaxxer.hikari.HikariDataSource;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationContext;
 import org.springframework.stereotype.Service;
+import org.transito_seguro.component.ConsolidacionPushdownPlanner;
+import org.transito_seguro.component.MetricasConsulta;
+import org.transito_seguro.component.RegistroEjecutores;
+import org.transito_seguro.component.ResultadoQueryCache;
 import org.transito_seguro.dto.ParametrosFiltrosDTO;
 import org.transito_seguro.enums.PeriodoTemporal;
 import org.transito_seguro.factory.RepositoryFactory;
+import org.transito_seguro.model.LoteFilas;
+import org.transito_seguro.model.PerfilEjecucion;
+import org.transito_seguro.model.consolidacion.ResultadoConsolidacion;
+import org.transito_seguro.model.jfr.EventosJfr;
+import org.transito_seguro.model.consolidacion.agregacion.AgregadorHash;
+import org.transito_seguro.model.consolidacion.agregacion.PlanPushdown;
 import org.transito_seguro.model.consolidacion.analisis.AnalisisConsolidacion;
 import org.transito_seguro.repository.impl.InfraccionesRepositoryImpl;
 import org.transito_seguro.utils.NormalizadorProvincias;
 
+import javax.annotation.PostConstruct;
+import javax.sql.DataSource;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import static org.transito_seguro.model.consolidacion.analisis.AnalisisConsolidacion.crearAnalisisVacio;
@@ -40,6 +58,21 @@ public class ConsolidacionService {
     @Autowired
     private QueryRegistryService queryRegistryService;
 
+    @Autowired
+    private ConsolidacionPushdownPlanner pushdownPlanner;
+
+    @Autowired
+    private ApplicationContext applicationContext;
+
+    @Autowired
+    private ResultadoQueryCache resultadoQueryCache;
+
+    @Autowired
+    private MetricasConsulta metricasConsulta;
+
+    @Autowired
+    private RegistroEjecutores registroEjecutores;
+
     // =============== CONFIGURACIÓN ===============
 
     /** Mínimo de registros no nulos para considerar un campo como numérico */
@@ -51,6 +84,58 @@ public class ConsolidacionService {
     /** Tamaño de muestra para análisis dinámico de campos */
     private static final int TAMAÑO_MUESTRA = 50;
 
+    /** Campos de identificación que nunca deben sumarse */
+    private static final Set<String> CAMPOS_IDENTIFICADORES = new HashSet<>(Arrays.asList(
+            "id", "ID", "Id",
+            "codigo", "legajo", "dni", "cuit", "cuil",
+            "numero_infraccion", "acta", "boleta",
+            "id_infraccion", "infraccion_id"
+    ));
+
+    /** Prefijo de la variante de cache de los parciales agregados en SQL */
+    private static final String VARIANTE_CACHE_PUSHDOWN = "pushdown:";
+
+    /** Habilita la consolidación con GROUP BY en cada base provincial */
+    @Value("${app.consolidacion.pushdown.habilitado:true}")
+    private boolean pushdownHabilitado;
+
+    /** Máximo de hilos del fan-out (se ajusta a la suma de los pools provinciales) */
+    @Value("${app.consolidacion.paralelismo.max-hilos:24}")
+    private int maxHilosProvincias;
+
+    /** Timeout por provincia; las que lo exceden se informan como fallidas */
+    @Value("${app.consolidacion.paralelismo.timeout-provincia-segundos:300}")
+    private long timeoutProvinciaSegundos;
+
+    private ExecutorService provinciasExecutor;
+
+    // =============== CICLO DE VIDA ===============
+
+    /**
+     * Crea el executor dedicado al fan-out por provincia, registrado en
+     * RegistroEjecutores (métricas ejecutor.*, /api/monitor/ejecutores y cierre).
+     *
+     * Se dimensiona con la suma de maximum-pool-size de los datasources
+     * provinciales (sin superar max-hilos): cada tarea usa una conexión de su
+     * provincia, por lo que más hilos solo esperarían conexión en Hikari.
+     */
+    @PostConstruct
+    public void init() {
+        int conexionesProvinciales = applicationContext.getBeansOfType(DataSource.class).entrySet().stream()
+                .filter(e -> !"primaryDataSource".equals(e.getKey()))
+                .map(Map.Entry::getValue)
+                .filter(ds -> ds instanceof HikariDataSource)
+                .mapToInt(ds -> ((HikariDataSource) ds).getMaximumPoolSize())
+                .sum();
+
+        int hilos = Math.max(1, Math.min(maxHilosProvincias,
+                conexionesProvinciales > 0 ? conexionesProvinciales : maxHilosProvincias));
+
+        this.provinciasExecutor = registroEjecutores.acotado("consolidacion-provincias", hilos, 100);
+
+        log.info("Executor de consolidación: {} hilos ({} conexiones provinciales)", hilos, conexionesProvinciales);
+    }
+
     // =============== ENUMS ===============
 
     /**
@@ -69,11 +154,13 @@ public class ConsolidacionService {
      *
      * Proceso:
      * 1. Determina estrategia de consolidación según campos solicitados
-     * 2. Recopila datos de todas las provincias
-     * 3. Normaliza nombres de provincias
-     * 4. Aplica consolidación temporal si se solicita
-     * 5. Aplica consolidación por campos
-     * 6. Retorna resultados con límites aplicados
+     * 2. PUSHDOWN: si el análisis identifica campos de agrupación y numéricos,
+     *    cada provincia ejecuta GROUP BY con SUM/COUNT y solo se fusionan los parciales
+     * 3. Si no (o si falla), recorre cada provincia con ejecutarQueryConStreaming,
+     *    normaliza provincia, agrega campos temporales y agrega por hash
+     * 4. Retorna resultados con límites aplicados
+     *
+     * La memoria usada es proporcional a la cantidad de grupos, no de registros.
      *
      * @param repositories Lista de repositorios por provincia
      * @param nombreQuery Nombre de la query a ejecutar
@@ -85,6 +172,38 @@ public class ConsolidacionService {
             String nombreQuery,
             ParametrosFiltrosDTO filtros) {
 
+        return consolidar(repositories, nombreQuery, filtros).getDatos();
+    }
+
+    /**
+     * Igual que consolidarDatos pero informa además las provincias que fallaron
+     * o excedieron el timeout (consolidación parcial).
+     *
+     * Las provincias se consultan en paralelo, por lo que la latencia total
+     * depende de la provincia más lenta y no de la suma de todas.
+     *
+     * @param repositories Lista de repositorios por provincia
+     * @param nombreQuery Nombre de la query a ejecutar
+     * @param filtros Parámetros de filtrado y consolidación
+     * @return Datos consolidados y provincias fallidas
+     */
+    public ResultadoConsolidacion consolidar(
+            List<InfraccionesRepositoryImpl> repositories,
+            String nombreQuery,
+            ParametrosFiltrosDTO filtros) {
+
+        try (EventosJfr.Tramo tramo = EventosJfr.consolidacion(nombreQuery, repositories.size())) {
+            ResultadoConsolidacion resultado = consolidarProvincias(repositories, nombreQuery, filtros);
+            tramo.filas(resultado.getDatos().size());
+            return resultado;
+        }
+    }
+
+    private ResultadoConsolidacion consolidarProvincias(
+            List<InfraccionesRepositoryImpl> repositories,
+            String nombreQuery,
+            ParametrosFiltrosDTO filtros) {
+
         log.info("=== CONSOLIDACIÓN INICIADA ===");
         log.info("Provincias: {}, Query: {}, Campos solicitados: {}",
                 repositories.size(), nombreQuery, filtros.getConsolidacionSeguro());
@@ -96,37 +215,63 @@ public class ConsolidacionService {
         // 2. Obtener análisis de consolidación
         AnalisisConsolidacion analisis = obtenerAnalisisConsolidacion(nombreQuery);
 
-        // 3. Recopilar datos de todas las provincias
-        List<Map<String, Object>> todosLosDatos = recopilarDatos(repositories, nombreQuery, filtros);
-        if (todosLosDatos.isEmpty()) {
-            log.info("No se encontraron datos para consolidar");
-            return Collections.emptyList();
+        // 3. Detectar consolidación temporal si se solicita
+        PeriodoTemporal periodoTemporal = detectarPeriodoTemporal(filtros);
+        if (periodoTemporal != null) {
+            log.info("📅 Consolidación TEMPORAL detectada: {}", periodoTemporal.getDescripcion());
         }
 
-        // 4. Normalizar provincias
-        todosLosDatos = normalizarProvinciasEnDatos(todosLosDatos);
+        // La paginación se aplica sobre el resultado consolidado, no sobre las filas crudas
+        ParametrosFiltrosDTO filtrosCrudos = filtros.toBuilder()
+                .limite(null)
+                .offset(null)
+                .pagina(null)
+                .build();
 
-        // 5. Detectar y aplicar consolidación temporal si se solicita
-        PeriodoTemporal periodoTemporal = detectarPeriodoTemporal(filtros);
+        Map<String, String> provinciasFallidas = new ConcurrentHashMap<>();
+
+        // 4. Intentar consolidar en SQL (no aplica a consolidación temporal)
+        AgregadorHash agregador = null;
+        if (periodoTemporal == null) {
+            agregador = consolidarConPushdown(repositories, nombreQuery, filtros, filtrosCrudos,
+                    analisis, estrategia, provinciasFallidas);
+        }
+
+        // 5. Si no, recorrer provincias agregando en streaming
+        if (agregador == null) {
+            provinciasFallidas.clear();
+            AgregacionEnCurso agregacion = new AgregacionEnCurso(filtros, analisis, estrategia, periodoTemporal);
+            agregador = recopilarYAgregar(repositories, nombreQuery, filtrosCrudos, agregacion, provinciasFallidas);
+        }
 
-        List<Map<String, Object>> datosConsolidados;
+        if (!provinciasFallidas.isEmpty()) {
+            log.warn("⚠️ Consolidación PARCIAL: {}/{} provincias fallidas: {}",
+                    provinciasFallidas.size(), repositories.size(), provinciasFallidas.keySet());
+        }
+
+        if (agregador == null || agregador.cantidadGrupos() == 0) {
+            log.info("No se encontraron datos para consolidar");
+            return new ResultadoConsolidacion(Collections.emptyList(), repositories.size(),
+                    new TreeMap<>(provinciasFallidas));
+        }
+
+        List<Map<String, Object>> datosConsolidados = agregador.generarResultados();
+        logResumenAgregacion(agregador);
+        metricasConsulta.registrarGruposConsolidacion(nombreQuery, agregador.cantidadGrupos());
 
         if (periodoTemporal != null) {
-            log.info("📅 Consolidación TEMPORAL detectada: {}", periodoTemporal.getDescripcion());
-            datosConsolidados = aplicarConsolidacionTemporal(
-                    todosLosDatos, periodoTemporal, filtros, analisis);
-        } else {
-            datosConsolidados = aplicarEstrategiaConsolidacion(
-                    todosLosDatos, filtros, analisis, estrategia);
+            // Ordenar por período (más reciente primero)
+            datosConsolidados = ordenarPorPeriodoTemporal(
+                    datosConsolidados, agregador.getCamposAgrupacion().get(0));
+            log.info("✅ Consolidación temporal completada: {} períodos únicos", datosConsolidados.size());
         }
 
         // 6. Aplicar límites finales
         List<Map<String, Object>> resultado = aplicarLimites(datosConsolidados, filtros);
 
         log.info("=== CONSOLIDACIÓN COMPLETADA: {} registros finales ===", resultado.size());
-        return resultado;
+        return new ResultadoConsolidacion(resultado, repositories.size(), new TreeMap<>(provinciasFallidas));
     }
-
     // =============== ESTRATEGIAS DE CONSOLIDACIÓN ===============
 
     /**
@@ -172,29 +317,33 @@ public class ConsolidacionService {
     }
 
     /**
-     * Aplica la estrategia de consolidación determinada.
+     * Determina los campos de agrupación según la estrategia.
+     *
+     * @param camposDisponibles Columnas presentes en los datos
+     * @param filtros Filtros con campos solicitados
+     * @param analisis Análisis de la query
+     * @param estrategia Estrategia a aplicar
+     * @return Campos de agrupación en orden
      */
-    private List<Map<String, Object>> aplicarEstrategiaConsolidacion(
-            List<Map<String, Object>> datos,
+    private List<String> determinarCamposAgrupacion(
+            Set<String> camposDisponibles,
             ParametrosFiltrosDTO filtros,
             AnalisisConsolidacion analisis,
             EstrategiaConsolidacion estrategia) {
 
         switch (estrategia) {
             case JERARQUICA_USUARIO:
-                return aplicarConsolidacionJerarquicaUsuario(datos, filtros, analisis);
+                return camposJerarquicaUsuario(camposDisponibles, filtros);
 
             case GEOGRAFICA_AUTOMATICA:
-                return aplicarConsolidacionGeograficaAutomatica(datos, analisis);
+                return camposGeograficosAutomaticos(camposDisponibles);
 
             case INTELIGENTE_MIXTA:
-                return aplicarConsolidacionInteligenteMixta(datos, filtros, analisis);
+                return camposInteligenteMixta(camposDisponibles, filtros);
 
             default:
                 log.warn("Estrategia no reconocida, usando consolidación por defecto");
-                return consolidarPorCamposTradicional(datos,
-                        determinarCamposAgrupacionLegacy(filtros, analisis),
-                        determinarCamposNumericosLegacy(datos, analisis));
+                return determinarCamposAgrupacionLegacy(filtros, analisis);
         }
     }
 
@@ -209,49 +358,34 @@ public class ConsolidacionService {
      * - Usuario solicita: ["descripcion"]
      * - Resultado: Agrupa solo por "descripcion" (suma todas las provincias)
      *
-     * @param datos Datos a consolidar
+     * @param camposDisponibles Columnas presentes en los datos
      * @param filtros Filtros con campos solicitados
-     * @param analisis Análisis de la query
-     * @return Datos consolidados por los campos del usuario
+     * @return Campos de agrupación del usuario
      */
-    private List<Map<String, Object>> aplicarConsolidacionJerarquicaUsuario(
-            List<Map<String, Object>> datos,
-            ParametrosFiltrosDTO filtros,
-            AnalisisConsolidacion analisis) {
+    private List<String> camposJerarquicaUsuario(
+            Set<String> camposDisponibles,
+            ParametrosFiltrosDTO filtros) {
 
         log.info("🏗️ Aplicando CONSOLIDACIÓN JERÁRQUICA USUARIO");
 
         List<String> camposUsuario = new ArrayList<>(filtros.getConsolidacionSeguro());
 
         // Validar que los campos solicitados existen en los datos
-        Set<String> camposDisponibles = datos.isEmpty() ?
-                Collections.emptySet() : datos.get(0).keySet();
-
         List<String> camposValidos = camposUsuario.stream()
                 .filter(camposDisponibles::contains)
                 .collect(Collectors.toList());
 
         if (camposValidos.isEmpty()) {
             log.warn("Ningún campo solicitado está disponible en los datos");
-            return aplicarConsolidacionGeograficaAutomatica(datos, analisis);
+            return camposGeograficosAutomaticos(camposDisponibles);
         }
 
         // ⭐ CORRECCIÓN CRÍTICA: Usar EXACTAMENTE los campos del usuario
         // NO agregar campos adicionales automáticamente
-        List<String> camposFinales = new ArrayList<>(camposValidos);
-
-        log.info("🎯 Consolidación EXACTA por: {}", camposFinales);
+        log.info("🎯 Consolidación EXACTA por: {}", camposValidos);
         log.info("   → Sin campos automáticos adicionales");
 
-        // Detectar campos numéricos dinámicamente
-        List<String> camposNumericos = detectarCamposNumericosDinamicos(datos);
-
-        log.info("📊 Configuración final:");
-        log.info("   🔑 Agrupación: {}", camposFinales);
-        log.info("   🔢 Numéricos: {}", camposNumericos);
-
-        // Aplicar consolidación
-        return consolidarPorCamposOrdenados(datos, camposFinales, camposNumericos);
+        return camposValidos;
     }
 
     /**
@@ -260,13 +394,10 @@ public class ConsolidacionService {
      * Se ejecuta cuando el usuario NO especificó campos.
      * Agrupa automáticamente por ubicación geográfica (provincia, municipio, etc.)
      *
-     * @param datos Datos a consolidar
-     * @param analisis Análisis de la query
-     * @return Datos consolidados por geografía
+     * @param camposDisponibles Columnas presentes en los datos
+     * @return Campos geográficos de agrupación
      */
-    private List<Map<String, Object>> aplicarConsolidacionGeograficaAutomatica(
-            List<Map<String, Object>> datos,
-            AnalisisConsolidacion analisis) {
+    private List<String> camposGeograficosAutomaticos(Set<String> camposDisponibles) {
 
         log.info("🌍 Aplicando CONSOLIDACIÓN GEOGRÁFICA AUTOMÁTICA");
         log.info("   ℹ️ Usuario NO especificó campos → usando geografía por defecto");
@@ -276,9 +407,6 @@ public class ConsolidacionService {
                 "provincia", "municipio", "lugar", "contexto", "partido"
         );
 
-        Set<String> camposDisponibles = datos.isEmpty() ?
-                Collections.emptySet() : datos.get(0).keySet();
-
         List<String> camposAgrupacion = camposGeograficos.stream()
                 .filter(camposDisponibles::contains)
                 .limit(3) // Máximo 3 niveles geográficos
@@ -289,13 +417,7 @@ public class ConsolidacionService {
             camposAgrupacion.add(0, "provincia");
         }
 
-        List<String> camposNumericos = detectarCamposNumericosDinamicos(datos);
-
-        log.info("Consolidación geográfica automática:");
-        log.info("   🔑 Agrupación: {}", camposAgrupacion);
-        log.info("   🔢 Numéricos: {}", camposNumericos);
-
-        return consolidarPorCamposOrdenados(datos, camposAgrupacion, camposNumericos);
+        return camposAgrupacion;
     }
 
     /**
@@ -304,21 +426,17 @@ public class ConsolidacionService {
      * Combina campos categóricos y geográficos del usuario,
      * agregando campos de ubicación complementarios si es necesario.
      *
-     * @param datos Datos a consolidar
+     * @param camposDisponibles Columnas presentes en los datos
      * @param filtros Filtros con campos solicitados
-     * @param analisis Análisis de la query
-     * @return Datos consolidados de forma mixta
+     * @return Campos de agrupación mixtos
      */
-    private List<Map<String, Object>> aplicarConsolidacionInteligenteMixta(
-            List<Map<String, Object>> datos,
-            ParametrosFiltrosDTO filtros,
-            AnalisisConsolidacion analisis) {
+    private List<String> camposInteligenteMixta(
+            Set<String> camposDisponibles,
+            ParametrosFiltrosDTO filtros) {
 
         log.info("🧠 Aplicando CONSOLIDACIÓN INTELIGENTE MIXTA");
 
         List<String> camposUsuario = filtros.getConsolidacionSeguro();
-        Set<String> camposDisponibles = datos.isEmpty() ?
-                Collections.emptySet() : datos.get(0).keySet();
 
         // Clasificar campos del usuario por tipo
         List<String> camposGeograficos = new ArrayList<>();
@@ -342,13 +460,7 @@ public class ConsolidacionService {
         // Agregar campos de ubicación adicionales si no están
         agregarCamposUbicacionSiNecesario(camposFinales, camposDisponibles);
 
-        List<String> camposNumericos = detectarCamposNumericosDinamicos(datos);
-
-        log.info("Consolidación mixta:");
-        log.info("   🔑 Agrupación: {}", camposFinales);
-        log.info("   🔢 Numéricos: {}", camposNumericos);
-
-        return consolidarPorCamposOrdenados(datos, camposFinales, camposNumericos);
+        return camposFinales;
     }
 
     // =============== CONSOLIDACIÓN TEMPORAL ===============
@@ -391,66 +503,15 @@ public class ConsolidacionService {
         return null;
     }
 
-    /**
-     * Aplica consolidación temporal según el período solicitado.
-     *
-     * Proceso:
-     * 1. Preprocesa datos agregando campos temporales derivados (mes_anio, fecha_anio)
-     * 2. Construye campos de agrupación temporal
-     * 3. Consolida datos
-     * 4. Ordena por período (más reciente primero)
-     *
-     * @param datos Datos a consolidar
-     * @param periodo Período temporal (DIA, MES, ANIO)
-     * @param filtros Filtros con configuración
-     * @param analisis Análisis de la query
-     * @return Datos consolidados temporalmente
-     */
-    private List<Map<String, Object>> aplicarConsolidacionTemporal(
-            List<Map<String, Object>> datos,
-            PeriodoTemporal periodo,
-            ParametrosFiltrosDTO filtros,
-            AnalisisConsolidacion analisis) {
-
-        log.info("📅 Iniciando consolidación temporal por {}", periodo.getDescripcion());
-
-        // Preprocesar datos agregando campos temporales
-        datos = preprocesarCamposTemporales(datos, periodo);
-
-        // Construir lista de campos de agrupación
-        List<String> camposAgrupacion = construirCamposAgrupacionTemporal(
-                datos, periodo, filtros);
-
-        // Detectar campos numéricos
-        List<String> camposNumericos = detectarCamposNumericosDinamicos(datos);
-
-        log.info("Configuración temporal:");
-        log.info("   🔑 Agrupación: {}", camposAgrupacion);
-        log.info("   🔢 Numéricos: {}", camposNumericos);
-
-        // Consolidar
-        List<Map<String, Object>> resultado = consolidarPorCamposOrdenados(
-                datos, camposAgrupacion, camposNumericos);
-
-        // Ordenar por período (más reciente primero)
-        resultado = ordenarPorPeriodoTemporal(resultado, camposAgrupacion.get(0));
-
-        log.info("✅ Consolidación temporal completada: {} períodos únicos", resultado.size());
-
-        return resultado;
-    }
-
     /**
      * Construye los campos de agrupación para consolidación temporal.
      */
     private List<String> construirCamposAgrupacionTemporal(
-            List<Map<String, Object>> datos,
+            Set<String> camposDisponibles,
             PeriodoTemporal periodo,
             ParametrosFiltrosDTO filtros) {
 
         List<String> camposAgrupacion = new ArrayList<>();
-        Set<String> camposDisponibles = datos.isEmpty() ?
-                Collections.emptySet() : datos.get(0).keySet();
 
         // Agregar campo temporal según el período
         switch (periodo) {
@@ -499,46 +560,25 @@ public class ConsolidacionService {
     }
 
     /**
-     * Preprocesa datos agregando campos temporales derivados (mes_anio, fecha_anio).
+     * Agrega los campos temporales derivados (mes_anio, fecha_anio) a un registro,
+     * usando la primera columna de fecha no nula.
+     *
+     * @param registro Registro a enriquecer
+     * @param columnasFecha Columnas de fecha detectadas en el resultado
+     * @param periodo Período temporal solicitado
      */
-    private List<Map<String, Object>> preprocesarCamposTemporales(
-            List<Map<String, Object>> datos,
-            PeriodoTemporal periodo) {
-
-        if (datos.isEmpty()) {
-            return datos;
-        }
-
-        log.info("🔧 Preprocesando {} registros para período: {}",
-                datos.size(), periodo.getDescripcion());
-
-        Set<String> columnasFecha = detectarColumnasFecha(datos.get(0).keySet());
-
-        if (columnasFecha.isEmpty()) {
-            log.warn("No se encontraron columnas de fecha para preprocesar");
-            return datos;
-        }
-
-        log.debug("Columnas de fecha detectadas: {}", columnasFecha);
-
-        // Procesar cada registro
-        int procesados = 0;
-        for (Map<String, Object> registro : datos) {
-            for (String columnaFecha : columnasFecha) {
-                Object valorFecha = registro.get(columnaFecha);
-
-                if (valorFecha != null) {
-                    procesarCampoFecha(registro, valorFecha, periodo);
-                    procesados++;
-                    break;
-                }
+    private void preprocesarRegistroTemporal(Map<String, Object> registro,
+                                             Set<String> columnasFecha,
+                                             PeriodoTemporal periodo) {
+        for (String columnaFecha : columnasFecha) {
+            Object valorFecha = registro.get(columnaFecha);
+
+            if (valorFecha != null) {
+                procesarCampoFecha(registro, valorFecha, periodo);
+                return;
             }
         }
-
-        log.info("✅ Campos temporales agregados a {} registros", procesados);
-        return datos;
     }
-
     /**
      * Procesa un campo de fecha y agrega campos derivados según el período.
      */
@@ -718,19 +758,11 @@ public class ConsolidacionService {
         Set<String> todosLosCampos = datos.get(0).keySet();
         List<String> camposNumericos = new ArrayList<>();
 
-        // Campos que nunca deben sumarse
-        Set<String> camposExcluidos = new HashSet<>(Arrays.asList(
-                "id", "ID", "Id",
-                "codigo", "legajo", "dni", "cuit", "cuil",
-                "numero_infraccion", "acta", "boleta",
-                "id_infraccion", "infraccion_id"
-        ));
-
         log.info("🔍 Analizando campos disponibles: {}", todosLosCampos);
 
         for (String campo : todosLosCampos) {
             // Saltar campos de identificación
-            if (camposExcluidos.contains(campo.toLowerCase())) {
+            if (CAMPOS_IDENTIFICADORES.contains(campo.toLowerCase())) {
                 log.info("⏭️ Campo '{}' excluido (identificador)", campo);
                 continue;
             }
@@ -907,297 +939,431 @@ public class ConsolidacionService {
         }
     }
 
-    // =============== CONSOLIDACIÓN CORE ===============
+    // =============== FAN-OUT PARALELO POR PROVINCIA ===============
 
     /**
-     * Consolida datos respetando el orden de campos especificado.
+     * Ejecuta una tarea por provincia en paralelo (executor dedicado) y espera
+     * los resultados con timeout por provincia.
      *
-     * Proceso:
-     * 1. Agrupa registros por los campos de agrupación
-     * 2. Suma los valores de los campos numéricos
-     * 3. Mantiene el primer valor de los campos de agrupación
+     * Las provincias que fallan o exceden el timeout se registran en
+     * provinciasFallidas y no aportan resultado.
      *
-     * @param datos Datos a consolidar
-     * @param camposAgrupacion Campos por los que agrupar
-     * @param camposNumericos Campos a sumar
-     * @return Datos consolidados
+     * @param repositories Repositorios a consultar
+     * @param tarea Trabajo a ejecutar por provincia
+     * @param alExpirar Acción sobre la provincia que excede el timeout (ej: cancelar el streaming)
+     * @param provinciasFallidas Provincia → motivo, se completa con los fallos
+     * @return Resultados exitosos en el orden original de los repositorios
      */
-    private List<Map<String, Object>> consolidarPorCamposOrdenados(
-            List<Map<String, Object>> datos,
-            List<String> camposAgrupacion,
-            List<String> camposNumericos) {
-
-        if (camposAgrupacion.isEmpty()) {
-            log.warn("Sin campos de agrupación válidos");
-            return datos;
-        }
-
-        log.info("🧮 ==================== INICIO CONSOLIDACIÓN ====================");
-        log.info("   📊 Total registros de entrada: {}", datos.size());
-        log.info("   🔑 Campos de agrupación: {}", camposAgrupacion);
-        log.info("   🔢 Campos numéricos a sumar: {}", camposNumericos);
-
-        if (!datos.isEmpty()) {
-            log.info("   📋 Campos disponibles en datos: {}", datos.get(0).keySet());
-        }
+    private <T> Map<InfraccionesRepositoryImpl, T> ejecutarPorProvincia(
+            List<InfraccionesRepositoryImpl> repositories,
+            Function<InfraccionesRepositoryImpl, T> tarea,
+            Consumer<InfraccionesRepositoryImpl> alExpirar,
+            Map<String, String> provinciasFallidas) {
 
-        // Usar LinkedHashMap para mantener orden de inserción
-        Map<String, Map<String, Object>> grupos = new LinkedHashMap<>();
-        int registrosProcesados = 0;
-
-        for (Map<String, Object> registro : datos) {
-            // Crear clave respetando el ORDEN especificado
-            String claveGrupo = crearClaveGrupoOrdenada(registro, camposAgrupacion);
-
-            // Si es el primer registro del grupo, inicializar
-            if (!grupos.containsKey(claveGrupo)) {
-                Map<String, Object> nuevoGrupo = inicializarNuevoGrupoOrdenado(
-                        registro, camposAgrupacion, camposNumericos);
-                grupos.put(claveGrupo, nuevoGrupo);
-
-                // Log de los primeros 3 grupos
-                if (grupos.size() <= 3) {
-                    log.info("   📦 Grupo #{} creado:", grupos.size());
-                    log.info("      🔑 Clave: {}", claveGrupo);
-                    log.info("      📄 Contenido: {}", nuevoGrupo);
+        Map<InfraccionesRepositoryImpl, Future<T>> futures = new LinkedHashMap<>();
+        for (InfraccionesRepositoryImpl repo : repositories) {
+            futures.put(repo, provinciasExecutor.submit(PerfilEjecucion.propagar(() -> {
+                long inicio = System.currentTimeMillis();
+                try {
+                    return tarea.apply(repo);
+                } finally {
+                    PerfilEjecucion.anotarDuracionProvincia(repo.getProvincia(), System.currentTimeMillis() - inicio);
                 }
-            } else {
-                // Acumular valores numéricos
-                Map<String, Object> grupoExistente = grupos.get(claveGrupo);
-                acumularCamposNumericos(grupoExistente, registro, camposNumericos);
-            }
-
-            registrosProcesados++;
-
-            // Log de progreso cada 10,000 registros
-            if (registrosProcesados % 10000 == 0) {
-                log.debug("   ⏳ Procesados {} registros, {} grupos creados",
-                        registrosProcesados, grupos.size());
-            }
+            })));
         }
 
-        List<Map<String, Object>> resultado = new ArrayList<>(grupos.values());
+        long limite = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(timeoutProvinciaSegundos);
+        Map<InfraccionesRepositoryImpl, T> resultados = new LinkedHashMap<>();
 
-        log.info("✅ ==================== FIN CONSOLIDACIÓN ====================");
-        log.info("   📥 Registros originales: {}", datos.size());
-        log.info("   📤 Grupos consolidados: {}", resultado.size());
-        log.info("   📉 Factor de reducción: {}x",
-                String.format("%.2f", datos.size() > 0 ? (double) datos.size() / resultado.size() : 0));
-
-        if (!resultado.isEmpty()) {
-            log.info("   📋 Campos en resultado final: {}", resultado.get(0).keySet());
-            if (resultado.size() <= 5) {
-                log.info("   📊 Muestra de resultados:");
-                for (int i = 0; i < Math.min(3, resultado.size()); i++) {
-                    log.info("      Resultado #{}: {}", i + 1, resultado.get(i));
-                }
+        for (Map.Entry<InfraccionesRepositoryImpl, Future<T>> entry : futures.entrySet()) {
+            InfraccionesRepositoryImpl repo = entry.getKey();
+            String provincia = repo.getProvincia();
+
+            try {
+                long restante = Math.max(0, limite - System.currentTimeMillis());
+                resultados.put(repo, entry.getValue().get(restante, TimeUnit.MILLISECONDS));
+
+            } catch (TimeoutException e) {
+                alExpirar.accept(repo);
+                entry.getValue().cancel(true);
+                provinciasFallidas.put(provincia, "Timeout de " + timeoutProvinciaSegundos + "s");
+                log.error("⏱️ Provincia {} excedió el timeout de {}s", provincia, timeoutProvinciaSegundos);
+
+            } catch (ExecutionException e) {
+                Throwable causa = e.getCause() != null ? e.getCause() : e;
+                provinciasFallidas.put(provincia, causa.getMessage());
+                log.error("Error recopilando datos de provincia {}: {}", provincia, causa.getMessage());
+
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                futures.values().forEach(f -> f.cancel(true));
+                throw new RuntimeException("Consolidación interrumpida", e);
             }
         }
-        log.info("================================================================");
 
-        return resultado;
+        return resultados;
     }
 
+    // =============== CONSOLIDACIÓN CORE (STREAMING) ===============
+
     /**
-     * Crea una clave única para agrupar registros.
+     * Recorre todas las provincias en paralelo con streaming y alimenta la agregación.
      *
-     * @param registro Registro a procesar
-     * @param camposAgrupacion Campos que forman la clave
-     * @return Clave concatenada
+     * Cada provincia acumula en su propio parcial, que solo se fusiona al global
+     * si la provincia terminó sin errores ni timeout (una provincia con error no
+     * aporta datos).
+     *
+     * @param repositories Lista de repositorios
+     * @param nombreQuery Nombre de la query
+     * @param filtrosCrudos Filtros a aplicar (sin paginación)
+     * @param agregacion Estado de la agregación
+     * @param provinciasFallidas Provincia → motivo, se completa con los fallos
+     * @return Agregador global o null si no hubo registros
      */
-    private String crearClaveGrupoOrdenada(Map<String, Object> registro,
-                                           List<String> camposAgrupacion) {
-        return camposAgrupacion.stream()
-                .map(campo -> {
-                    Object valor = registro.get(campo);
-                    return valor != null ? valor.toString() : "NULL";
-                })
-                .collect(Collectors.joining("||"));
+    private AgregadorHash recopilarYAgregar(List<InfraccionesRepositoryImpl> repositories,
+                                            String nombreQuery,
+                                            ParametrosFiltrosDTO filtrosCrudos,
+                                            AgregacionEnCurso agregacion,
+                                            Map<String, String> provinciasFallidas) {
+
+        log.info("Agregando en streaming datos de {} provincias", repositories.size());
+
+        Map<InfraccionesRepositoryImpl, AgregacionEnCurso.ParcialProvincia> parciales = new ConcurrentHashMap<>();
+        for (InfraccionesRepositoryImpl repo : repositories) {
+            parciales.put(repo, agregacion.nuevaProvincia());
+        }
+
+        Map<InfraccionesRepositoryImpl, AgregacionEnCurso.ParcialProvincia> completadas = ejecutarPorProvincia(
+                repositories,
+                repo -> {
+                    AgregacionEnCurso.ParcialProvincia parcial = parciales.get(repo);
+                    String provinciaNormalizada = NormalizadorProvincias.normalizar(repo.getProvincia());
+
+                    // provincia y provincia_origen como columnas constantes del lote
+                    Map<String, Object> constantes = new LinkedHashMap<>();
+                    constantes.put("provincia", provinciaNormalizada);
+                    constantes.put("provincia_origen", provinciaNormalizada);
+
+                    PerfilEjecucion.anotarVariante(repo.getProvincia(), "streaming");
+                    repo.ejecutarQueryConStreamingEnLotes(nombreQuery, filtrosCrudos,
+                            InfraccionesRepositoryImpl.TAMANO_LOTE_STREAMING,
+                            lote -> {
+                                metricasConsulta.registrarFilas(nombreQuery, repo.getProvincia(),
+                                        lote.tamano(), lote.estimarBytes());
+                                parcial.acumular(lote.conConstantes(constantes, Collections.<String>emptyList()));
+                            });
+
+                    log.debug("Provincia {}: {} registros agregados", repo.getProvincia(), parcial.getRegistros());
+                    return parcial;
+                },
+                repo -> parciales.get(repo).cancelar(),
+                provinciasFallidas);
+
+        return agregacion.finalizar(new ArrayList<>(completadas.values()));
     }
 
     /**
-     * Inicializa un nuevo grupo con los campos de agrupación y numéricos.
+     * Consolida empujando el GROUP BY a cada base provincial.
+     *
+     * Las columnas se obtienen con LIMIT 0 en una provincia de referencia; los
+     * campos de agrupación salen de la misma estrategia que la ruta en Java y los
+     * numéricos de la misma detección (detectarCamposNumericosDinamicos sobre una
+     * muestra de la provincia de referencia); si alguno no es numérico en SQL el
+     * pushdown no aplica. Cada provincia devuelve (en paralelo) un parcial ya
+     * agregado que se fusiona en el agregador global.
      *
-     * @param registro Primer registro del grupo
-     * @param camposAgrupacion Campos de agrupación
-     * @param camposNumericos Campos numéricos
-     * @return Nuevo grupo inicializado
+     * @return Agregador con el resultado, o null si el pushdown no aplica o falló
+     *         en todas las provincias (se usa la agregación en streaming)
      */
-    private Map<String, Object> inicializarNuevoGrupoOrdenado(
-            Map<String, Object> registro,
-            List<String> camposAgrupacion,
-            List<String> camposNumericos) {
-
-        Map<String, Object> grupo = new LinkedHashMap<>();
-
-        // Agregar campos de agrupación
-        for (String campo : camposAgrupacion) {
-            Object valor = registro.get(campo);
-            grupo.put(campo, valor);
-            log.trace("   📋 Campo agrupación '{}' = {}", campo, valor);
+    private AgregadorHash consolidarConPushdown(List<InfraccionesRepositoryImpl> repositories,
+                                                String nombreQuery,
+                                                ParametrosFiltrosDTO filtros,
+                                                ParametrosFiltrosDTO filtrosCrudos,
+                                                AnalisisConsolidacion analisis,
+                                                EstrategiaConsolidacion estrategia,
+                                                Map<String, String> provinciasFallidas) {
+
+        if (!pushdownHabilitado || repositories.isEmpty() || !pushdownPlanner.esCandidata(analisis)) {
+            return null;
+        }
+
+        PlanPushdown plan;
+        try {
+            InfraccionesRepositoryImpl referencia = repositories.get(0);
+            Map<String, Integer> columnas = pushdownPlanner.obtenerColumnas(referencia, nombreQuery, filtrosCrudos);
+
+            // Igual que en streaming: provincia y provincia_origen siempre están disponibles
+            Set<String> camposDisponibles = new LinkedHashSet<>(columnas.keySet());
+            camposDisponibles.add("provincia");
+            camposDisponibles.add("provincia_origen");
+
+            List<String> camposAgrupacion = determinarCamposAgrupacion(camposDisponibles, filtros, analisis, estrategia);
+            if (camposAgrupacion.isEmpty()) {
+                return null;
+            }
+
+            // Misma regla que la ruta en Java (identificadores, nombre y valores de una
+            // muestra): si algún campo a sumar no es numérico en SQL, planificar lo descarta
+            List<Map<String, Object>> muestra = pushdownPlanner.obtenerMuestra(
+                    referencia, nombreQuery, filtrosCrudos, TAMAÑO_MUESTRA);
+            if (muestra.isEmpty()) {
+                return null;
+            }
+            List<String> camposNumericos = detectarCamposNumericosDinamicos(muestra).stream()
+                    .filter(campo -> !camposAgrupacion.contains(campo))
+                    .collect(Collectors.toList());
+
+            plan = pushdownPlanner.planificar(referencia, nombreQuery, camposAgrupacion, camposNumericos, columnas);
+
+        } catch (Exception e) {
+            log.warn("⚠️ No se pudo planificar pushdown para '{}', usando streaming: {}", nombreQuery, e.getMessage());
+            return null;
+        }
+
+        if (plan == null) {
+            return null;
         }
 
-        // Inicializar campos numéricos con el valor del registro actual
-        for (String campo : camposNumericos) {
-            Object valorOriginal = registro.get(campo);
-            Long valorInicial = convertirALong(valorOriginal);
+        AgregadorHash global = new AgregadorHash(plan.getCamposAgrupacion(), plan.getCamposNumericos());
+
+        // El SQL agregado ya refleja la versión de la query y los campos pedidos
+        String varianteCache = VARIANTE_CACHE_PUSHDOWN + resultadoQueryCache.huella(plan.getSql());
+
+        Map<InfraccionesRepositoryImpl, AgregadorHash> parciales = ejecutarPorProvincia(
+                repositories,
+                repo -> {
+                    String provinciaNormalizada = NormalizadorProvincias.normalizar(repo.getProvincia());
+                    long inicio = System.currentTimeMillis();
+                    List<Map<String, Object>> filas = resultadoQueryCache.obtenerOCargar(
+                            resultadoQueryCache.clave(nombreQuery, null, varianteCache, filtrosCrudos, repo.getProvincia()),
+                            () -> repo.ejecutarSQLConFiltros(
+                                    plan.getSql(), filtrosCrudos, Collections.<String, Object>emptyMap()));
+                    PerfilEjecucion.anotarVariante(repo.getProvincia(), "pushdown");
+                    PerfilEjecucion.anotarLectura(repo.getProvincia(), filas.size(), System.currentTimeMillis() - inicio);
+
+                    AgregadorHash parcial = global.crearParcial();
+                    for (Map<String, Object> fila : filas) {
+                        long filasCrudas = AgregadorHash.aLong(fila.remove(plan.getColumnaConteo()));
+                        fila.put("provincia", provinciaNormalizada);
+                        fila.put("provincia_origen", provinciaNormalizada);
+                        parcial.acumular(fila, filasCrudas);
+                    }
 
-            grupo.put(campo, valorInicial != null ? valorInicial : 0L);
+                    log.debug("Provincia {}: {} grupos parciales ({} registros)",
+                            repo.getProvincia(), filas.size(), parcial.getRegistrosProcesados());
+                    return parcial;
+                },
+                repo -> { },
+                provinciasFallidas);
 
-            log.trace("   🔢 Campo numérico '{}': {} -> {}",
-                    campo, valorOriginal, valorInicial);
+        if (parciales.isEmpty()) {
+            log.warn("⚠️ Pushdown falló en todas las provincias para '{}', usando streaming", nombreQuery);
+            return null;
         }
 
-        return grupo;
+        // Fusión en el hilo del request, en el orden original de provincias
+        parciales.values().forEach(global::fusionar);
+
+        log.info("⬇️ Pushdown completado: {}/{} provincias, {} grupos",
+                parciales.size(), repositories.size(), global.cantidadGrupos());
+        return global;
     }
 
     /**
-     * Acumula valores numéricos de un registro en un grupo existente.
+     * Crea el agregador a partir de una muestra de registros: decide campos de
+     * agrupación (según estrategia o período) y detecta campos numéricos.
      *
-     * @param grupo Grupo existente
-     * @param registro Registro a acumular
-     * @param camposNumericos Campos a sumar
+     * @param muestra Primeros registros recibidos
+     * @param filtros Filtros con campos solicitados
+     * @param analisis Análisis de la query
+     * @param estrategia Estrategia de consolidación
+     * @param periodo Período temporal (o null)
+     * @return Agregador configurado
      */
-    private void acumularCamposNumericos(Map<String, Object> grupo,
-                                         Map<String, Object> registro,
-                                         List<String> camposNumericos) {
-
-        for (String campo : camposNumericos) {
-            Object valorRegistro = registro.get(campo);
-            Object valorGrupo = grupo.get(campo);
+    private AgregadorHash configurarAgregador(List<Map<String, Object>> muestra,
+                                              ParametrosFiltrosDTO filtros,
+                                              AnalisisConsolidacion analisis,
+                                              EstrategiaConsolidacion estrategia,
+                                              PeriodoTemporal periodo) {
 
-            Long valorNumericoRegistro = convertirALong(valorRegistro);
-            Long valorNumericoGrupo = convertirALong(valorGrupo);
+        Set<String> camposDisponibles = muestra.get(0).keySet();
 
-            Long nuevoValor = valorNumericoGrupo + valorNumericoRegistro;
-            grupo.put(campo, nuevoValor);
+        List<String> camposAgrupacion = periodo != null
+                ? construirCamposAgrupacionTemporal(camposDisponibles, periodo, filtros)
+                : determinarCamposAgrupacion(camposDisponibles, filtros, analisis, estrategia);
 
-            log.trace("Acumulación - Campo: '{}', Grupo: {} + Registro: {} = {}",
-                    campo, valorNumericoGrupo, valorNumericoRegistro, nuevoValor);
+        if (camposAgrupacion.isEmpty()) {
+            log.warn("Sin campos de agrupación válidos, agrupando por provincia");
+            camposAgrupacion = new ArrayList<>(Collections.singletonList("provincia"));
         }
+
+        List<String> camposNumericos = detectarCamposNumericosDinamicos(muestra);
+
+        log.info("📊 Configuración final:");
+        log.info("   🔑 Agrupación: {}", camposAgrupacion);
+        log.info("   🔢 Numéricos: {}", camposNumericos);
+        log.info("   📋 Campos disponibles en datos: {}", camposDisponibles);
+
+        return new AgregadorHash(camposAgrupacion, camposNumericos);
+    }
+
+    private void logResumenAgregacion(AgregadorHash agregador) {
+        long registros = agregador.getRegistrosProcesados();
+        int grupos = agregador.cantidadGrupos();
+
+        log.info("✅ ==================== FIN CONSOLIDACIÓN ====================");
+        log.info("   📥 Registros originales: {}", registros);
+        log.info("   📤 Grupos consolidados: {}", grupos);
+        log.info("   📉 Factor de reducción: {}x",
+                String.format("%.2f", grupos > 0 ? (double) registros / grupos : 0));
+        log.info("================================================================");
     }
 
     /**
-     * Convierte un valor a Long para operaciones numéricas.
+     * Estado de una consolidación en streaming.
      *
-     * @param valor Valor a convertir
-     * @return Valor como Long o 0L si no es convertible
+     * Los campos numéricos se detectan con una muestra (TAMAÑO_MUESTRA registros).
+     * Cada provincia retiene sus primeros registros hasta que alguna provincia
+     * junta la muestra y configura la plantilla del agregador; a partir de ahí
+     * todas agregan directamente en su parcial. Las provincias corren en paralelo,
+     * por lo que la plantilla se publica de forma sincronizada.
      */
-    private Long convertirALong(Object valor) {
-        if (valor == null) {
-            return 0L;
+    private class AgregacionEnCurso {
+
+        private final ParametrosFiltrosDTO filtros;
+        private final AnalisisConsolidacion analisis;
+        private final EstrategiaConsolidacion estrategia;
+        private final PeriodoTemporal periodo;
+
+        /** Agregador vacío ya configurado (campos de agrupación y numéricos) */
+        private volatile AgregadorHash plantilla;
+
+        AgregacionEnCurso(ParametrosFiltrosDTO filtros,
+                          AnalisisConsolidacion analisis,
+                          EstrategiaConsolidacion estrategia,
+                          PeriodoTemporal periodo) {
+            this.filtros = filtros;
+            this.analisis = analisis;
+            this.estrategia = estrategia;
+            this.periodo = periodo;
         }
 
-        if (valor instanceof Number) {
-            return ((Number) valor).longValue();
+        ParcialProvincia nuevaProvincia() {
+            return new ParcialProvincia();
         }
 
-        if (valor instanceof String) {
-            String str = valor.toString().trim();
-            if (str.isEmpty()) {
-                return 0L;
+        /**
+         * Fusiona los parciales de las provincias completadas.
+         *
+         * @return Agregador global, o null si no hubo registros
+         */
+        AgregadorHash finalizar(List<ParcialProvincia> completadas) {
+            if (plantilla == null) {
+                // Ninguna provincia juntó la muestra sola: usar todas las muestras
+                List<Map<String, Object>> muestra = new ArrayList<>();
+                completadas.forEach(p -> muestra.addAll(p.muestra));
+                if (muestra.isEmpty()) {
+                    return null;
+                }
+                configurar(muestra);
             }
-            try {
-                // Manejar números con decimales
-                if (str.matches("^\\d+\\.\\d+$")) {
-                    return Long.parseLong(str.split("\\.")[0]);
+
+            AgregadorHash global = plantilla.crearParcial();
+            for (ParcialProvincia provincia : completadas) {
+                if (provincia.parcial != null) {
+                    global.fusionar(provincia.parcial);
+                } else {
+                    provincia.muestra.forEach(global::acumular);
                 }
-                return Long.parseLong(str);
-            } catch (NumberFormatException e) {
-                log.warn("Error convirtiendo '{}' a Long: {}", str, e.getMessage());
-                return 0L;
             }
+            return global;
         }
 
-        log.debug("Tipo no soportado para conversión: {} valor: {}",
-                valor.getClass().getSimpleName(), valor);
-        return 0L;
-    }
-
-    // =============== MÉTODOS DE RECOPILACIÓN Y NORMALIZACIÓN ===============
-
-    /**
-     * Recopila datos de todos los repositorios (provincias).
-     *
-     * @param repositories Lista de repositorios
-     * @param nombreQuery Nombre de la query
-     * @param filtros Filtros a aplicar
-     * @return Lista consolidada de datos de todas las provincias
-     */
-    private List<Map<String, Object>> recopilarDatos(List<InfraccionesRepositoryImpl> repositories,
-                                                     String nombreQuery,
-                                                     ParametrosFiltrosDTO filtros) {
-
-        log.info("Recopilando datos para consolidación de {} provincias", repositories.size());
-        List<Map<String, Object>> todosLosDatos = new ArrayList<>();
-
-        for (InfraccionesRepositoryImpl repo : repositories) {
-            String provincia = repo.getProvincia();
+        private synchronized AgregadorHash configurar(List<Map<String, Object>> muestra) {
+            if (plantilla == null) {
+                plantilla = configurarAgregador(muestra, filtros, analisis, estrategia, periodo);
+            }
+            return plantilla;
+        }
 
-            try {
-                List<Map<String, Object>> datosProvider = repo.ejecutarQueryConFiltros(nombreQuery, filtros);
+        /**
+         * Agregación de una provincia. Usada por un único hilo.
+         */
+        class ParcialProvincia {
+
+            private final List<Map<String, Object>> muestra = new ArrayList<>();
+            private AgregadorHash parcial;
+            private Set<String> columnasFecha;
+            private long registros;
+            private volatile boolean cancelada;
+
+            void acumular(Map<String, Object> registro) {
+                if (cancelada) {
+                    // Corta el streaming JDBC de una provincia que excedió el timeout
+                    throw new CancellationException("Provincia cancelada por timeout");
+                }
 
-                if (datosProvider != null && !datosProvider.isEmpty()) {
-                    // Agregar provincia a cada registro
-                    for (Map<String, Object> registro : datosProvider) {
-                        registro.put("provincia", provincia);
-                        registro.put("provincia_origen", provincia);
+                if (periodo != null) {
+                    if (columnasFecha == null) {
+                        columnasFecha = detectarColumnasFecha(registro.keySet());
                     }
-
-                    todosLosDatos.addAll(datosProvider);
-                    log.debug("Provincia {}: {} registros recopilados", provincia, datosProvider.size());
+                    preprocesarRegistroTemporal(registro, columnasFecha, periodo);
                 }
 
-            } catch (Exception e) {
-                log.error("Error recopilando datos de provincia {}: {}", provincia, e.getMessage());
-            }
-        }
+                registros++;
 
-        log.info("Recopilación completada: {} registros de {} provincias",
-                todosLosDatos.size(), repositories.size());
+                if (parcial != null) {
+                    parcial.acumular(registro);
+                    return;
+                }
 
-        return todosLosDatos;
-    }
+                muestra.add(registro);
 
-    /**
-     * Normaliza nombres de provincias en todos los registros.
-     *
-     * @param datos Datos a normalizar
-     * @return Datos con provincias normalizadas
-     */
-    private List<Map<String, Object>> normalizarProvinciasEnDatos(List<Map<String, Object>> datos) {
-        log.debug("Normalizando nombres de provincias en {} registros", datos.size());
+                AgregadorHash configurado = plantilla;
+                if (configurado == null && muestra.size() >= TAMAÑO_MUESTRA) {
+                    configurado = configurar(muestra);
+                }
 
-        for (Map<String, Object> registro : datos) {
-            String provincia = obtenerProvinciaDelRegistro(registro);
-            String provinciaNormalizada = NormalizadorProvincias.normalizar(provincia);
+                if (configurado != null) {
+                    parcial = configurado.crearParcial();
+                    muestra.forEach(parcial::acumular);
+                    muestra.clear();
+                }
+            }
 
-            registro.put("provincia", provinciaNormalizada);
-            registro.put("provincia_origen", provinciaNormalizada);
-        }
+            /**
+             * Acumula un lote columnar. Mientras se junta la muestra (o si hay
+             * preprocesamiento temporal, que modifica el registro) las filas se
+             * copian a Map; con el agregador ya configurado el lote se acumula
+             * directo por índice de columna.
+             */
+            void acumular(LoteFilas lote) {
+                int fila = 0;
+                while (fila < lote.tamano() && (parcial == null || periodo != null)) {
+                    acumular(lote.copiarFila(fila++));
+                }
 
-        return datos;
-    }
+                if (fila < lote.tamano()) {
+                    if (cancelada) {
+                        throw new CancellationException("Provincia cancelada por timeout");
+                    }
+                    registros += lote.tamano() - fila;
+                    parcial.acumular(lote, fila);
+                }
+            }
 
-    /**
-     * Obtiene el nombre de provincia de un registro.
-     *
-     * @param registro Registro a procesar
-     * @return Nombre de la provincia
-     */
-    private String obtenerProvinciaDelRegistro(Map<String, Object> registro) {
-        String[] camposProvincia = {"provincia", "provincia_origen", "contexto"};
+            void cancelar() {
+                cancelada = true;
+            }
 
-        for (String campo : camposProvincia) {
-            Object valor = registro.get(campo);
-            if (valor != null && !valor.toString().trim().isEmpty()) {
-                return valor.toString().trim();
+            long getRegistros() {
+                return registros;
             }
         }
-
-        return "SIN_PROVINCIA";
     }
 
+    // =============== LÍMITES Y ANÁLISIS ===============
+
     /**
      * Aplica límites de paginación a los resultados.
      *
@@ -1305,26 +1471,4 @@ public class ConsolidacionService {
         }
         return campos;
     }
-
-    /**
-     * Determina campos numéricos según análisis o detección dinámica (legacy).
-     */
-    private List<String> determinarCamposNumericosLegacy(List<Map<String, Object>> datos,
-                                                         AnalisisConsolidacion analisis) {
-        if (!analisis.getCamposNumericos().isEmpty()) {
-            return analisis.getCamposNumericos();
-        }
-        return detectarCamposNumericosDinamicos(datos);
-    }
-
-    /**
-     * Consolidación tradicional (legacy).
-     */
-    private List<Map<String, Object>> consolidarPorCamposTradicional(
-            List<Map<String, Object>> datos,
-            List<String> camposAgrupacion,
-            List<String> camposNumericos) {
-
-        return consolidarPorCamposOrdenados(datos, camposAgrupacion, camposNumericos);
-    }
 }
\ No newline at end of file
@@ -6,8 +6,9 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.transito_seguro.component.FormatoConverter;
 import org.transito_seguro.component.PaginationStrategyAnalyzer;
-import org.transito_seguro.component.ParametrosProcessor;
 import org.transito_seguro.component.QueryAnalyzer;
+import org.transito_seguro.component.RegistroEjecutores;
+import org.transito_seguro.component.ResultadoQueryCache;
 import org.transito_seguro.component.DynamicBuilderQuery;
 import org.transito_seguro.dto.ConsultaQueryDTO;
 import org.transito_seguro.dto.ParametrosFiltrosDTO;
@@ -16,9 +17,9 @@ import org.transito_seguro.enums.EstadoQuery;
 import org.transito_seguro.factory.RepositoryFactory;
 import org.transito_seguro.model.AnalisisPaginacion;
 import org.transito_seguro.model.FiltroMetadata;
+import org.transito_seguro.model.PerfilEjecucion;
 import org.transito_seguro.model.consolidacion.analisis.AnalisisConsolidacion;
 import org.transito_seguro.model.query.QueryStorage;
-import org.transito_seguro.model.query.QueryResult;
 import org.transito_seguro.repository.QueryStorageRepository;
 import org.transito_seguro.repository.impl.InfraccionesRepositoryImpl;
 
@@ -63,11 +64,16 @@ public class DatabaseQueryService {
     private FormatoConverter formatoConverter;
 
     @Autowired
-    private ParametrosProcessor parametrosProcessor;
+    private RepositoryFactory repositoryFactory;
 
     @Autowired
-    private RepositoryFactory repositoryFactory;
+    private ResultadoQueryCache resultadoQueryCache;
+
+    @Autowired
+    private RegistroEjecutores registroEjecutores;
 
+    /** Variante de cache de los datos crudos para consolidación */
+    private static final String VARIANTE_CACHE_CONSOLIDACION = "consolidacion-crudo";
 
     // =============== GESTIÓN DE QUERIES ===============
 
@@ -216,7 +222,12 @@ public class DatabaseQueryService {
             query.setTagsList(dto.getTags());
         }
 
-        return queryRepository.save(query);
+        QueryStorage actualizada = queryRepository.save(query);
+
+        // Los resultados cacheados de la versión anterior ya no son válidos
+        resultadoQueryCache.invalidarQuery(codigo);
+
+        return actualizada;
     }
 
     /**
@@ -231,6 +242,8 @@ public class DatabaseQueryService {
         query.setActiva(false);
         query.setEstado(EstadoQuery.OBSOLETA);
         queryRepository.save(query);
+
+        resultadoQueryCache.invalidarQuery(codigo);
     }
 
     // =============== EJECUCIÓN DE QUERIES ===============
@@ -244,17 +257,20 @@ public class DatabaseQueryService {
                 codigo, consulta.getParametrosFiltros() != null &&
                         consulta.getParametrosFiltros().esConsolidado());
 
-        // 1. Obtener query de la base de datos
-        QueryStorage queryStorage = queryRepository.findByCodigo(codigo)
-                .orElseThrow(() -> new IllegalArgumentException("Query no encontrada: " + codigo));
+        QueryStorage queryStorage;
+        try (PerfilEjecucion.Etapa etapa = PerfilEjecucion.etapa("preparacion")) {
+            // 1. Obtener query de la base de datos
+            queryStorage = queryRepository.findByCodigo(codigo)
+                    .orElseThrow(() -> new IllegalArgumentException("Query no encontrada: " + codigo));
 
-        if (!queryStorage.estaLista()) {
-            throw new IllegalStateException("Query no está disponible: " + codigo);
-        }
+            if (!queryStorage.estaLista()) {
+                throw new IllegalStateException("Query no está disponible: " + codigo);
+            }
 
-        // 2. Registrar uso
-        queryStorage.registrarUso();
-        queryRepository.save(queryStorage);
+            // 2. Registrar uso
+            queryStorage.registrarUso();
+            queryRepository.save(queryStorage);
+        }
 
         try {
             // 3. Ejecutar según consolidación
@@ -262,8 +278,10 @@ public class DatabaseQueryService {
                     consulta.getParametrosFiltros().esConsolidado() &&
                     queryStorage.getEsConsolidable()) {
 
+                PerfilEjecucion.anotarProcesamiento("CONSOLIDADO");
                 return ejecutarQueryConsolidada(queryStorage, consulta);
             } else {
+                PerfilEjecucion.anotarProcesamiento("NORMAL");
                 return ejecutarQueryNormal(queryStorage, consulta);
             }
 
@@ -314,8 +332,10 @@ public class DatabaseQueryService {
 
         try {
             // 2. Recopilar datos DIRECTAMENTE usando QueryStorage sin archivos temporales
-            List<Map<String, Object>> todosLosDatos = recopilarDatosConQueryStorageDirecto(
-                    queryStorage, repositories, filtros);
+            List<Map<String, Object>> todosLosDatos;
+            try (PerfilEjecucion.Etapa etapa = PerfilEjecucion.etapa("lectura")) {
+                todosLosDatos = recopilarDatosConQueryStorageDirecto(queryStorage, repositories, filtros);
+            }
 
             if (todosLosDatos.isEmpty()) {
                 return formatoConverter.convertir(Collections.emptyList(),
@@ -326,11 +346,15 @@ public class DatabaseQueryService {
             todosLosDatos = normalizarProvinciasEnDatos(todosLosDatos);
 
             // 4. Consolidar usando metadata de BD
-            List<Map<String, Object>> datosConsolidados = consolidarConMetadataDeBaseDatos(
-                    todosLosDatos, filtros, queryStorage);
+            List<Map<String, Object>> datosConsolidados;
+            try (PerfilEjecucion.Etapa etapa = PerfilEjecucion.etapa("consolidacion")) {
+                datosConsolidados = consolidarConMetadataDeBaseDatos(todosLosDatos, filtros, queryStorage);
+            }
 
             String formato = consulta.getFormato() != null ? consulta.getFormato() : "json";
-            return formatoConverter.convertir(datosConsolidados, formato);
+            try (PerfilEjecucion.Etapa etapa = PerfilEjecucion.etapa("conversion")) {
+                return formatoConverter.convertir(datosConsolidados, formato);
+            }
 
         } catch (Exception e) {
             log.error("Error en consolidación con QueryStorage '{}': {}", queryStorage.getCodigo(), e.getMessage(), e);
@@ -353,12 +377,21 @@ public class DatabaseQueryService {
                 String provincia = repo.getProvincia();
 
                 try {
-                    // ✅ Usar QueryExecutionService para ejecutar
-                    List<Map<String, Object>> datosProvider = queryExecutionService.ejecutarQueryEnRepositorio(
-                            repo,
-                            queryStorage.getSqlQuery(),
-                            filtros
-                    );
+                    long inicio = System.currentTimeMillis();
+
+                    // ✅ Usar QueryExecutionService para ejecutar (resultado por provincia cacheado)
+                    List<Map<String, Object>> datosProvider = resultadoQueryCache.obtenerOCargar(
+                            resultadoQueryCache.clave(queryStorage.getCodigo(), queryStorage.getVersion(),
+                                    VARIANTE_CACHE_CONSOLIDACION, filtros, provincia),
+                            () -> queryExecutionService.ejecutarQueryEnRepositorio(
+                                    repo,
+                                    queryStorage.getSqlQuery(),
+                                    filtros
+                            ));
+
+                    PerfilEjecucion.anotarVariante(provincia, "directa");
+                    PerfilEjecucion.anotarLectura(provincia, datosProvider != null ? datosProvider.size() : 0,
+                            System.currentTimeMillis() - inicio);
 
                     if (datosProvider != null && !datosProvider.isEmpty()) {
                         // Agregar metadata de provincia
@@ -605,39 +638,39 @@ public class DatabaseQueryService {
         }
 
         // Ejecutar en modo normal (sin consolidación) usando SQL directo
-        List<Map<String, Object>> resultadosCombinados = repositories.parallelStream()
-                .flatMap(repo -> {
-                    try {
-                        String provincia = repo.getProvincia();
-
-                        // Procesar parámetros con SQL de BD
-                        QueryResult resultado = parametrosProcessor.procesarQuery(
-                                queryStorage.getSqlQuery(), consulta.getParametrosFiltros());
-
-                        // Ejecutar
-                        List<Map<String, Object>> datos = repo.getNamedParameterJdbcTemplate().queryForList(
-                                resultado.getQueryModificada(),
-                                resultado.getParametros()
-                        );
-
-                        // Agregar provincia a cada registro
-                        datos.forEach(registro -> {
-                            registro.put("provincia", provincia);
-                            registro.put("query_codigo", queryStorage.getCodigo());
-                        });
-
-                        return datos.stream();
-
-                    } catch (Exception e) {
-                        log.error("Error ejecutando QueryStorage '{}' en provincia {}: {}",
-                                queryStorage.getCodigo(), repo.getProvincia(), e.getMessage());
-                        return java.util.stream.Stream.empty();
-                    }
-                })
-                .collect(java.util.stream.Collectors.toList());
+        List<Map<String, Object>> resultadosCombinados;
+        try (PerfilEjecucion.Etapa etapa = PerfilEjecucion.etapa("lectura")) {
+            resultadosCombinados = registroEjecutores.enCadaProvincia(repositories, repo -> {
+                        try {
+                            long inicio = System.currentTimeMillis();
+
+                            // Misma ejecución (y entrada de cache) que InfraccionesService
+                            List<Map<String, Object>> datos = resultadoQueryCache.obtenerOCargar(
+                                    resultadoQueryCache.clave(queryStorage.getCodigo(), queryStorage.getVersion(),
+                                            InfraccionesService.VARIANTE_CACHE_NORMAL,
+                                            consulta.getParametrosFiltros(), repo.getProvincia()),
+                                    () -> infraccionesService.ejecutarEnProvincia(
+                                            queryStorage, repo, consulta.getParametrosFiltros()));
+
+                            PerfilEjecucion.anotarVariante(repo.getProvincia(), "directa");
+                            PerfilEjecucion.anotarLectura(repo.getProvincia(), datos.size(),
+                                    System.currentTimeMillis() - inicio);
+                            return datos;
+
+                        } catch (Exception e) {
+                            log.error("Error ejecutando QueryStorage '{}' en provincia {}: {}",
+                                    queryStorage.getCodigo(), repo.getProvincia(), e.getMessage());
+                            return Collections.<Map<String, Object>>emptyList();
+                        }
+                    }).stream()
+                    .flatMap(List::stream)
+                    .collect(Collectors.toList());
+        }
 
         String formato = consulta.getFormato() != null ? consulta.getFormato() : "json";
-        return formatoConverter.convertir(resultadosCombinados, formato);
+        try (PerfilEjecucion.Etapa etapa = PerfilEjecucion.etapa("conversion")) {
+            return registroEjecutores.enCpu(() -> formatoConverter.convertir(resultadosCombinados, formato));
+        }
     }
 
     // =============== CONSULTAS Y BÚSQUEDAS ===============
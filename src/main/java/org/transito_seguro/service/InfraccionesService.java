@@ -9,6 +9,7 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import org.transito_seguro.component.*;
 import org.transito_seguro.dto.ConsultaQueryDTO;
 import org.transito_seguro.dto.ParametrosFiltrosDTO;
@@ -16,6 +17,10 @@ import org.transito_seguro.exception.RuntimesFormatoExceleException;
 import org.transito_seguro.repository.QueryStorageRepository;
 import org.transito_seguro.repository.impl.InfraccionesRepositoryImpl;
 import org.transito_seguro.factory.RepositoryFactory;
+import org.transito_seguro.model.CopiasEnDisco;
+import org.transito_seguro.model.LoteFilas;
+import org.transito_seguro.model.PerfilEjecucion;
+import org.transito_seguro.model.consolidacion.ResultadoConsolidacion;
 import org.transito_seguro.model.query.QueryStorage;
 import org.transito_seguro.model.query.QueryResult;
 
@@ -76,40 +81,35 @@ public class InfraccionesService {
     @Autowired
     private ParametrosProcessor parametrosProcessor;
 
+    @Autowired
+    private ResultadoQueryCache resultadoQueryCache;
+
+    @Autowired
+    private RegistroEjecutores registroEjecutores;
+
     // =============== CONFIGURACIÓN ===============
 
+    /** Variante de cache de la ejecución normal (sin consolidar) */
+    public static final String VARIANTE_CACHE_NORMAL = "normal";
+
     @Value("${app.limits.max-records-sync:1000}")
     private int maxRecordsSincrono;
 
     @Value("${app.limits.max-records-total:50000}")
     private int maxRecordsTotal;
 
-    @Value("${app.async.thread-pool-size:10}")
-    private int threadPoolSize;
+    @Value("${app.exportacion.copy-csv.habilitado:true}")
+    private boolean copyCsvHabilitado;
 
-    private ExecutorService executor;
+    /** Tope de bytes en temporales del COPY de una descarga (0 = sin límite) */
+    @Value("${app.exportacion.copy-csv.max-bytes-disco:2147483648}")
+    private long maxBytesDiscoCopy;
 
     // Cache para queries consolidables
     private final Map<String, Boolean> cacheQueryConsolidable = new ConcurrentHashMap<>();
 
     // =============== CONSTRUCTOR Y LIFECYCLE ===============
 
-    /**
-     * Inicializa el pool de threads para procesamiento paralelo.
-     */
-    @Autowired
-    public void init() {
-        this.executor = new ThreadPoolExecutor(
-                Math.max(threadPoolSize, 10),
-                Math.max(threadPoolSize, 10),
-                60L,
-                TimeUnit.SECONDS,
-                new LinkedBlockingQueue<>(100),
-                new ThreadPoolExecutor.CallerRunsPolicy()
-        );
-        log.info("InfraccionesService inicializado con pool de {} threads", threadPoolSize);
-    }
-
     /**
      * Limpieza ordenada de recursos al cerrar la aplicación.
      */
@@ -117,21 +117,6 @@ public class InfraccionesService {
     public void cleanup() {
         log.info("Cerrando InfraccionesService...");
         cacheQueryConsolidable.clear();
-
-        if (executor != null && !executor.isShutdown()) {
-            executor.shutdown();
-            try {
-                if (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
-                    executor.shutdownNow();
-                    if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
-                        log.error("ExecutorService no se pudo cerrar correctamente");
-                    }
-                }
-            } catch (InterruptedException e) {
-                executor.shutdownNow();
-                Thread.currentThread().interrupt();
-            }
-        }
         log.info("InfraccionesService cerrado exitosamente");
     }
 
@@ -157,10 +142,10 @@ public class InfraccionesService {
      *
      * @param tipoConsulta Código de la query
      * @param consulta Parámetros de la consulta
-     * @return ResponseEntity con el archivo generado
+     * @return ResponseEntity con el archivo generado (byte[] o StreamingResponseBody)
      * @throws ValidationException Si la consulta no es válida
      */
-    public ResponseEntity<byte[]> descargarConsultaPorTipo(String tipoConsulta, ConsultaQueryDTO consulta)
+    public ResponseEntity<?> descargarConsultaPorTipo(String tipoConsulta, ConsultaQueryDTO consulta)
             throws ValidationException {
         log.info("Descargando archivo: {}", tipoConsulta);
         validarTipoConsulta(tipoConsulta);
@@ -253,18 +238,21 @@ public class InfraccionesService {
                 codigoQuery, consulta.getParametrosFiltros() != null &&
                         consulta.getParametrosFiltros().esConsolidado());
 
-        // PASO 1: Obtener metadata de la query
-        QueryStorage queryStorage = obtenerYValidarQuery(codigoQuery);
+        QueryStorage queryStorage;
+        List<InfraccionesRepositoryImpl> repositories;
+        try (PerfilEjecucion.Etapa etapa = PerfilEjecucion.etapa("preparacion")) {
+            // PASO 1: Obtener metadata de la query
+            queryStorage = obtenerYValidarQuery(codigoQuery);
 
-        // PASO 2: Registrar uso para analytics
-        registrarUsoQuery(queryStorage);
+            // PASO 2: Registrar uso para analytics
+            registrarUsoQuery(queryStorage);
 
-        // PASO 3: Validar parámetros
-        validator.validarConsulta(consulta);
+            // PASO 3: Validar parámetros
+            validator.validarConsulta(consulta);
 
-        // PASO 4: Determinar qué provincias consultar
-        List<InfraccionesRepositoryImpl> repositories =
-                determinarRepositories(consulta.getParametrosFiltros());
+            // PASO 4: Determinar qué provincias consultar
+            repositories = determinarRepositories(consulta.getParametrosFiltros());
+        }
 
         if (repositories.isEmpty()) {
             log.warn("No hay repositorios válidos para: {}", codigoQuery);
@@ -281,14 +269,15 @@ public class InfraccionesService {
      *
      * CASOS:
      * - Consolidado → Usa ConsolidacionService y genera CSV
-     * - Normal → Usa BatchProcessor y genera el formato solicitado
+     * - Normal → Usa BatchProcessor y escribe el formato solicitado en streaming
+     *   directo sobre la respuesta HTTP (sin buffer en memoria)
      *
      * @param consulta Parámetros de la consulta
      * @param nombreQuery Nombre de la query
      * @return ResponseEntity con archivo generado
      * @throws ValidationException Si hay errores
      */
-    public ResponseEntity<byte[]> consultarInfraccionesComoArchivo(
+    public ResponseEntity<?> consultarInfraccionesComoArchivo(
             ConsultaQueryDTO consulta,
             String nombreQuery) throws ValidationException {
 
@@ -410,13 +399,16 @@ public class InfraccionesService {
 
         // ✅ DELEGACIÓN COMPLETA: Todas las variantes consolidadas usan ConsolidacionService
         if (esConsolidado) {
+            PerfilEjecucion.anotarProcesamiento("CONSOLIDADO");
             return ejecutarConsolidacion(queryStorage, repositories, consulta);
         }
         // Procesamiento sin consolidar
         else if (usarLotes) {
+            PerfilEjecucion.anotarProcesamiento("LOTES");
             return ejecutarConLotes(queryStorage, repositories, consulta);
         }
         else {
+            PerfilEjecucion.anotarProcesamiento("NORMAL");
             return ejecutarQueryStorageNormal(queryStorage, repositories, consulta);
         }
     }
@@ -496,18 +488,23 @@ public class InfraccionesService {
             ParametrosFiltrosDTO filtros = consulta.getParametrosFiltros();
 
             // ✅ DELEGACIÓN TOTAL: ConsolidacionService maneja toda la consolidación
-            List<Map<String, Object>> datosConsolidados =
-                    consolidacionService.consolidarDatos(
-                            repositories,
-                            queryStorage.getCodigo(),
-                            filtros
-                    );
+            ResultadoConsolidacion resultado;
+            try (PerfilEjecucion.Etapa etapa = PerfilEjecucion.etapa("consolidacion")) {
+                resultado = consolidacionService.consolidar(
+                        repositories,
+                        queryStorage.getCodigo(),
+                        filtros
+                );
+            }
+            List<Map<String, Object>> datosConsolidados = resultado.getDatos();
 
             log.info("✅ Consolidación completada: {} grupos únicos", datosConsolidados.size());
 
-            // Convertir al formato solicitado (JSON, CSV, Excel)
+            // Convertir al formato solicitado (JSON, CSV, Excel), informando provincias fallidas
             String formato = consulta.getFormato() != null ? consulta.getFormato() : "json";
-            return formatoConverter.convertir(datosConsolidados, formato);
+            try (PerfilEjecucion.Etapa etapa = PerfilEjecucion.etapa("conversion")) {
+                return formatoConverter.convertir(datosConsolidados, formato, resultado.getMetadatos());
+            }
 
         } catch (Exception e) {
             log.error("❌ Error en consolidación: {}", e.getMessage(), e);
@@ -536,15 +533,19 @@ public class InfraccionesService {
         List<Map<String, Object>> resultados = Collections.synchronizedList(new ArrayList<>());
 
         // BatchProcessor maneja la paginación y procesamiento paralelo
-        batchProcessor.procesarEnLotes(
-                repositories,
-                consulta.getParametrosFiltros(),
-                queryStorage.getCodigo(),
-                resultados::addAll  // Callback que acumula resultados
-        );
+        try (PerfilEjecucion.Etapa etapa = PerfilEjecucion.etapa("lectura")) {
+            batchProcessor.procesarEnLotes(
+                    repositories,
+                    consulta.getParametrosFiltros(),
+                    queryStorage.getCodigo(),
+                    resultados::addAll  // Callback que acumula resultados
+            );
+        }
 
         String formato = consulta.getFormato() != null ? consulta.getFormato() : "json";
-        return formatoConverter.convertir(resultados, formato);
+        try (PerfilEjecucion.Etapa etapa = PerfilEjecucion.etapa("conversion")) {
+            return formatoConverter.convertir(resultados, formato);
+        }
     }
 
     // =============== EJECUCIÓN: NORMAL (PARALELA) ===============
@@ -566,45 +567,76 @@ public class InfraccionesService {
 
         log.info("⚡ Ejecución PARALELA estándar");
 
-        // Procesamiento paralelo usando streams
-        List<Map<String, Object>> resultadosCombinados = repositories.parallelStream()
-                .flatMap(repo -> {
-                    try {
-                        String provincia = repo.getProvincia();
-                        String sqlDinamico = queryStorage.getSqlQuery();
-
-                        // Procesar query con parámetros dinámicos
-                        QueryResult resultado = parametrosProcessor.procesarQuery(
-                                sqlDinamico, consulta.getParametrosFiltros());
-
-                        // Ejecutar query en esta provincia
-                        List<Map<String, Object>> datos = repo.getNamedParameterJdbcTemplate()
-                                .queryForList(
-                                        resultado.getQueryModificada(),
-                                        resultado.getParametros()
-                                );
-
-                        // Agregar metadata de provincia
-                        datos.forEach(registro -> {
-                            registro.put("provincia", provincia);
-                            registro.put("query_codigo", queryStorage.getCodigo());
-                        });
-
-                        return datos.stream();
-
-                    } catch (Exception e) {
-                        log.error("Error ejecutando query '{}' en provincia '{}': {}",
-                                queryStorage.getCodigo(), repo.getProvincia(), e.getMessage());
-                        return java.util.stream.Stream.empty();
-                    }
-                })
-                .collect(Collectors.toList());
+        // Cada provincia en el pool de E/S de su provincia (no en el ForkJoinPool común)
+        List<Map<String, Object>> resultadosCombinados;
+        try (PerfilEjecucion.Etapa etapa = PerfilEjecucion.etapa("lectura")) {
+            resultadosCombinados = registroEjecutores.enCadaProvincia(repositories, repo -> {
+                        try {
+                            String provincia = repo.getProvincia();
+                            long inicio = System.currentTimeMillis();
+
+                            // Resultado por provincia cacheado (código + versión + filtros)
+                            List<Map<String, Object>> datos = resultadoQueryCache.obtenerOCargar(
+                                    resultadoQueryCache.clave(queryStorage.getCodigo(), queryStorage.getVersion(),
+                                            VARIANTE_CACHE_NORMAL, consulta.getParametrosFiltros(), provincia),
+                                    () -> ejecutarEnProvincia(queryStorage, repo, consulta.getParametrosFiltros()));
+
+                            PerfilEjecucion.anotarVariante(provincia, "directa");
+                            PerfilEjecucion.anotarLectura(provincia, datos.size(), System.currentTimeMillis() - inicio);
+                            return datos;
+
+                        } catch (Exception e) {
+                            log.error("Error ejecutando query '{}' en provincia '{}': {}",
+                                    queryStorage.getCodigo(), repo.getProvincia(), e.getMessage());
+                            return Collections.<Map<String, Object>>emptyList();
+                        }
+                    }).stream()
+                    .flatMap(List::stream)
+                    .collect(Collectors.toList());
+        }
 
         log.info("✅ Ejecución completada: {} registros de {} provincias",
                 resultadosCombinados.size(), repositories.size());
 
         String formato = consulta.getFormato() != null ? consulta.getFormato() : "json";
-        return formatoConverter.convertir(resultadosCombinados, formato);
+        try (PerfilEjecucion.Etapa etapa = PerfilEjecucion.etapa("conversion")) {
+            return registroEjecutores.enCpu(() -> formatoConverter.convertir(resultadosCombinados, formato));
+        }
+    }
+
+    /**
+     * Ejecuta la query de BD en una provincia y agrega la metadata de provincia.
+     * Compartido con DatabaseQueryService (misma entrada de cache).
+     *
+     * @param queryStorage Metadata de la query
+     * @param repo Repositorio de la provincia
+     * @param filtros Parámetros de filtrado
+     * @return Registros de la provincia
+     */
+    public List<Map<String, Object>> ejecutarEnProvincia(
+            QueryStorage queryStorage,
+            InfraccionesRepositoryImpl repo,
+            ParametrosFiltrosDTO filtros) {
+
+        String provincia = repo.getProvincia();
+
+        // Procesar query con parámetros dinámicos
+        QueryResult resultado = parametrosProcessor.procesarQuery(queryStorage.getSqlQuery(), filtros);
+
+        // Ejecutar query en esta provincia
+        List<Map<String, Object>> datos = repo.getNamedParameterJdbcTemplate()
+                .queryForList(
+                        resultado.getQueryModificada(),
+                        resultado.getParametros()
+                );
+
+        // Agregar metadata de provincia
+        datos.forEach(registro -> {
+            registro.put("provincia", provincia);
+            registro.put("query_codigo", queryStorage.getCodigo());
+        });
+
+        return datos;
     }
 
     // =============== GENERACIÓN DE ARCHIVOS ===============
@@ -630,12 +662,13 @@ public class InfraccionesService {
             log.info("📊 Generando archivo consolidado usando ConsolidacionService");
 
             // ✅ PASO 1: Obtener datos consolidados del servicio especializado
-            List<Map<String, Object>> datosConsolidados =
-                    consolidacionService.consolidarDatos(
+            ResultadoConsolidacion resultado =
+                    consolidacionService.consolidar(
                             repositories,
                             nombreQuery,
                             consulta.getParametrosFiltros()
                     );
+            List<Map<String, Object>> datosConsolidados = resultado.getDatos();
 
             log.info("✅ Datos consolidados obtenidos: {} registros", datosConsolidados.size());
 
@@ -666,13 +699,26 @@ public class InfraccionesService {
             byte[] contenido = Files.readAllBytes(tempFile);
             Files.delete(tempFile);
 
-            return construirRespuestaArchivo(
+            ResponseEntity<byte[]> respuesta = construirRespuestaArchivo(
                     contenido,
                     generarNombreArchivoConsolidado("csv"),
                     "csv",
                     repositories.size()
             );
 
+            if (!resultado.esParcial()) {
+                return respuesta;
+            }
+
+            // Consolidación parcial: informar provincias que fallaron o excedieron el timeout
+            HttpHeaders headers = new HttpHeaders();
+            headers.putAll(respuesta.getHeaders());
+            headers.set("X-Provincias-Fallidas", String.join(",", resultado.getProvinciasFallidas().keySet()));
+
+            return ResponseEntity.ok()
+                    .headers(headers)
+                    .body(respuesta.getBody());
+
         } catch (Exception e) {
             log.error("❌ Error generando archivo consolidado: {}", e.getMessage(), e);
             throw new RuntimeException("Error generando archivo consolidado", e);
@@ -680,54 +726,273 @@ public class InfraccionesService {
     }
 
     /**
-     * Genera archivo normal (sin consolidar) usando streaming.
+     * Genera archivo normal (sin consolidar) usando streaming end-to-end.
+     *
+     * MEJORADO: Ya no acumula el archivo completo en un ByteArrayOutputStream.
+     * Cada lote que entrega BatchProcessor se escribe con StreamingFormatoConverter
+     * directamente sobre el OutputStream del servlet, por lo que la memoria usada
+     * depende del tamaño de lote y no del total de registros.
+     *
+     * NOTA: Los headers (y el 200) se envían antes de leer datos, por lo que un
+     * error a mitad de la descarga no puede cambiar el status HTTP ni informarse
+     * en un header como X-Provincias-Fallidas. Si falla cualquier provincia,
+     * BatchProcessor falla la ejecución; acá se corta el formato (JSON deja un
+     * trailer con el error) y se relanza para que el contenedor aborte la
+     * conexión sin cerrar la respuesta chunked: el cliente ve una descarga
+     * incompleta, nunca un archivo truncado que parece completo.
      *
      * @param repositories Repositorios a consultar
      * @param consulta Parámetros
      * @param nombreQuery Nombre de la query
      * @param formato Formato de salida (json, csv, excel)
-     * @return ResponseEntity con archivo generado
+     * @return ResponseEntity con el cuerpo en streaming
      */
-    private ResponseEntity<byte[]> generarArchivoNormal(
+    private ResponseEntity<StreamingResponseBody> generarArchivoNormal(
             List<InfraccionesRepositoryImpl> repositories,
             ConsultaQueryDTO consulta,
             String nombreQuery,
             String formato) {
 
-        StreamingFormatoConverter.StreamingContext context = null;
+        final String formatoNormalizado = formato.toLowerCase();
+        final ParametrosFiltrosDTO filtros = consulta.getParametrosFiltros();
+
+        // CSV de PostgreSQL (COPY) solo si se pide explícitamente: su dialecto no es el de
+        // StreamingFormatoConverter (comillas, nulos, booleanos y fechas a la manera de PostgreSQL)
+        if ("csv".equals(formatoNormalizado) && copyCsvHabilitado
+                && ConsultaQueryDTO.EXPORTACION_COPY.equalsIgnoreCase(consulta.getExportacion())) {
+            List<String> sentenciasCopy = prepararCopyCsv(repositories, filtros, nombreQuery);
+            if (sentenciasCopy != null) {
+                return generarArchivoCsvConCopy(repositories, sentenciasCopy, nombreQuery);
+            }
+        }
+
+        StreamingResponseBody cuerpo = outputStream -> {
+            StreamingFormatoConverter.StreamingContext context = null;
+            long inicio = System.currentTimeMillis();
+
+            try {
+                // Inicializar contexto de streaming sobre el stream de la respuesta
+                context = streamingConverter.inicializarStreaming(formatoNormalizado, outputStream);
+
+                final StreamingFormatoConverter.StreamingContext finalContext = context;
+
+                // Procesar en lotes columnares y escribir directamente al cliente
+                batchProcessor.procesarEnLotesColumnar(
+                        repositories,
+                        filtros,
+                        nombreQuery,
+                        lote -> procesarLoteParaArchivo(finalContext, lote)
+                );
+
+                // Finalizar y cerrar archivo
+                streamingConverter.finalizarStreaming(context);
+                context = null;
 
-        try (ByteArrayOutputStream outputStream = new ByteArrayOutputStream()) {
+                log.info("📁 Descarga en streaming completada: {} en {}ms",
+                        nombreQuery, System.currentTimeMillis() - inicio);
 
-            // Inicializar contexto de streaming según formato
-            context = streamingConverter.inicializarStreaming(formato, outputStream);
-            if (context == null) {
-                throw new RuntimeException("No se pudo inicializar streaming para " + formato);
+            } catch (Exception e) {
+                log.error("❌ Error generando archivo en streaming: {}", e.getMessage(), e);
+                streamingConverter.abortarStreaming(context, e);
+                if (e instanceof IOException) {
+                    throw (IOException) e;
+                }
+                throw new IOException("Error generando archivo", e);
             }
+        };
 
-            final StreamingFormatoConverter.StreamingContext finalContext = context;
+        HttpHeaders headers = construirHeadersArchivo(
+                generarNombreArchivo(formatoNormalizado),
+                formatoNormalizado,
+                repositories.size()
+        );
+        headers.set("X-Streaming", "true");
 
-            // Procesar en lotes y escribir directamente al stream
-            batchProcessor.procesarEnLotes(
-                    repositories,
-                    consulta.getParametrosFiltros(),
-                    nombreQuery,
-                    lote -> procesarLoteParaArchivo(finalContext, lote)
-            );
+        log.info("📁 Iniciando descarga en streaming: {} provincias, formato: {}",
+                repositories.size(), formatoNormalizado);
 
-            // Finalizar y cerrar archivo
-            streamingConverter.finalizarStreaming(context);
+        return ResponseEntity.ok()
+                .headers(headers)
+                .body(cuerpo);
+    }
 
-            return construirRespuestaArchivo(
-                    outputStream.toByteArray(),
-                    generarNombreArchivo(formato),
-                    formato,
-                    repositories.size()
-            );
+    /**
+     * Prepara las sentencias COPY de todas las provincias (encabezado solo en
+     * la primera). Se valida todo antes de escribir la respuesta para poder
+     * volver al procesamiento por lotes si alguna provincia no lo soporta.
+     *
+     * @return Sentencias en el orden de los repositorios, o null si COPY no aplica
+     */
+    private List<String> prepararCopyCsv(
+            List<InfraccionesRepositoryImpl> repositories,
+            ParametrosFiltrosDTO filtros,
+            String nombreQuery) {
 
-        } catch (Exception e) {
-            log.error("❌ Error generando archivo: {}", e.getMessage(), e);
-            limpiarContextoStreaming(context);
-            throw new RuntimeException("Error generando archivo", e);
+        List<String> sentencias = new ArrayList<>(repositories.size());
+        List<String> columnas = null;
+
+        for (InfraccionesRepositoryImpl repo : repositories) {
+            if (!repo.soportaCopy()) {
+                log.info("COPY no disponible en {}, usando procesamiento por lotes", repo.getProvincia());
+                return null;
+            }
+
+            try {
+                // Misma query en todas las provincias: las columnas se resuelven una sola vez
+                if (columnas == null) {
+                    columnas = repo.obtenerColumnasCopy(nombreQuery, filtros);
+                }
+                sentencias.add(repo.prepararCopyCsv(nombreQuery, filtros, columnas, sentencias.isEmpty()));
+            } catch (Exception e) {
+                log.warn("No se pudo preparar COPY para {} en {}: {}. Usando procesamiento por lotes",
+                        nombreQuery, repo.getProvincia(), e.getMessage());
+                return null;
+            }
+        }
+
+        return sentencias;
+    }
+
+    /**
+     * Descarga CSV con COPY ... TO STDOUT, sin mapear filas en la JVM. La
+     * primera provincia escribe directo en la respuesta; las demás copian en
+     * paralelo (cada una en el pool de E/S de su provincia) a un archivo
+     * temporal que se agrega en orden apenas termina la anterior.
+     *
+     * Como en generarArchivoNormal, el 200 ya se envió: si falla cualquier
+     * provincia se relanza el error para que el contenedor aborte la conexión
+     * (el CSV no admite un trailer de error sin mezclarlo con los datos).
+     * Al cortar (error, cliente desconectado o temporales por encima de
+     * app.exportacion.copy-csv.max-bytes-disco) se cancelan las copias en
+     * curso y las pendientes: ver {@link CopiasEnDisco}.
+     *
+     * @param repositories Repositorios a consultar
+     * @param sentenciasCopy Sentencias de prepararCopyCsv (mismo orden)
+     * @param nombreQuery Nombre de la query
+     * @return ResponseEntity con el cuerpo en streaming
+     */
+    private ResponseEntity<StreamingResponseBody> generarArchivoCsvConCopy(
+            List<InfraccionesRepositoryImpl> repositories,
+            List<String> sentenciasCopy,
+            String nombreQuery) {
+
+        StreamingResponseBody cuerpo = outputStream -> {
+            long inicio = System.currentTimeMillis();
+            AtomicLong total = new AtomicLong(0);
+            CopiasEnDisco enDisco = new CopiasEnDisco(maxBytesDiscoCopy);
+            List<CompletableFuture<Path>> copias = new ArrayList<>(repositories.size());
+
+            try {
+                for (int i = 1; i < repositories.size(); i++) {
+                    InfraccionesRepositoryImpl repo = repositories.get(i);
+                    String sentencia = sentenciasCopy.get(i);
+                    copias.add(CompletableFuture.supplyAsync(
+                            () -> copiarATemporal(repo, sentencia, total, enDisco), registroEjecutores.io(repo)));
+                }
+
+                total.addAndGet(repositories.get(0).copiarCsv(sentenciasCopy.get(0), outputStream));
+                outputStream.flush();
+
+                for (CompletableFuture<Path> copia : copias) {
+                    Path archivo = esperarCopia(copia);
+                    try {
+                        Files.copy(archivo, outputStream);
+                    } finally {
+                        borrarTemporal(archivo, enDisco);
+                    }
+                    outputStream.flush();
+                }
+
+                log.info("📁 Descarga CSV con COPY completada: {} - {} registros en {}ms",
+                        nombreQuery, total.get(), System.currentTimeMillis() - inicio);
+
+            } catch (IOException | RuntimeException e) {
+                log.error("❌ Error en descarga CSV con COPY de {}: {}", nombreQuery, e.getMessage(), e);
+                if (e instanceof IOException) {
+                    throw (IOException) e;
+                }
+                throw new IOException("Error generando archivo con COPY", e);
+
+            } finally {
+                // Corte por error: los COPY en curso fallan en su próxima escritura
+                // (pgjdbc cancela la consulta) y los que no empezaron no abren conexión
+                enDisco.cancelar();
+                copias.forEach(copia -> copia.thenAccept(archivo -> borrarTemporal(archivo, enDisco)));
+            }
+        };
+
+        HttpHeaders headers = construirHeadersArchivo(
+                generarNombreArchivo("csv"),
+                "csv",
+                repositories.size()
+        );
+        headers.set("X-Streaming", "true");
+        headers.set("X-Exportacion", ConsultaQueryDTO.EXPORTACION_COPY);
+
+        log.info("📁 Iniciando descarga CSV con COPY: {} provincias", repositories.size());
+
+        return ResponseEntity.ok()
+                .headers(headers)
+                .body(cuerpo);
+    }
+
+    /**
+     * COPY de una provincia a un archivo temporal (lo borra si falla).
+     * Si la descarga ya se canceló no ejecuta nada.
+     */
+    private static Path copiarATemporal(InfraccionesRepositoryImpl repo, String sentencia, AtomicLong total,
+                                        CopiasEnDisco enDisco) {
+        if (enDisco.isCancelada()) {
+            throw new CancellationException("Descarga cancelada antes del COPY de " + repo.getProvincia());
+        }
+        Path archivo = null;
+        try {
+            archivo = Files.createTempFile("copy_" + repo.getProvincia() + "_", ".csv");
+            try (OutputStream destino = enDisco.envolver(new BufferedOutputStream(Files.newOutputStream(archivo)))) {
+                total.addAndGet(repo.copiarCsv(sentencia, destino));
+            }
+            return archivo;
+        } catch (IOException e) {
+            borrarTemporal(archivo, enDisco);
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException | Error e) {
+            borrarTemporal(archivo, enDisco);
+            throw e;
+        }
+    }
+
+    private static Path esperarCopia(CompletableFuture<Path> copia) throws IOException {
+        try {
+            return copia.join();
+        } catch (CompletionException e) {
+            Throwable causa = e.getCause();
+            if (causa instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) causa).getCause();
+            }
+            if (causa instanceof RuntimeException) {
+                throw (RuntimeException) causa;
+            }
+            if (causa instanceof Error) {
+                throw (Error) causa;
+            }
+            throw new IOException("Error en COPY", causa);
+        }
+    }
+
+    /**
+     * Borra un temporal del COPY y descuenta sus bytes del tope de disco.
+     */
+    private static void borrarTemporal(Path archivo, CopiasEnDisco enDisco) {
+        if (archivo == null) {
+            return;
+        }
+        try {
+            long bytes = Files.exists(archivo) ? Files.size(archivo) : 0;
+            if (Files.deleteIfExists(archivo)) {
+                enDisco.liberar(bytes);
+            }
+        } catch (IOException e) {
+            log.warn("⚠️ No se pudo borrar el temporal {}: {}", archivo, e.getMessage());
         }
     }
 
@@ -739,7 +1004,7 @@ public class InfraccionesService {
      */
     private void procesarLoteParaArchivo(
             StreamingFormatoConverter.StreamingContext context,
-            List<Map<String, Object>> lote) {
+            LoteFilas lote) {
         try {
             if (lote != null && !lote.isEmpty()) {
                 streamingConverter.procesarLoteStreaming(context, lote);
@@ -766,6 +1031,27 @@ public class InfraccionesService {
             String formato,
             int numProvincias) {
 
+        HttpHeaders headers = construirHeadersArchivo(filename, formato, numProvincias);
+        headers.set("X-Archivo-Tamano", String.valueOf(data.length));
+
+        log.info("📁 Archivo generado: {} bytes, {} provincias, formato: {}",
+                data.length, numProvincias, formato);
+
+        return ResponseEntity.ok()
+                .headers(headers)
+                .body(data);
+    }
+
+    /**
+     * Headers comunes de descarga (attachment, content type y metadata).
+     * Compartido entre respuestas en memoria y en streaming.
+     *
+     * @param filename Nombre del archivo
+     * @param formato Formato del archivo
+     * @param numProvincias Número de provincias consultadas
+     * @return Headers configurados
+     */
+    private HttpHeaders construirHeadersArchivo(String filename, String formato, int numProvincias) {
         HttpHeaders headers = new HttpHeaders();
 
         // Configurar descarga como attachment
@@ -780,29 +1066,8 @@ public class InfraccionesService {
 
         // Headers personalizados para metadata
         headers.set("X-Total-Provincias", String.valueOf(numProvincias));
-        headers.set("X-Archivo-Tamano", String.valueOf(data.length));
-
-        log.info("📁 Archivo generado: {} bytes, {} provincias, formato: {}",
-                data.length, numProvincias, formato);
-
-        return ResponseEntity.ok()
-                .headers(headers)
-                .body(data);
-    }
 
-    /**
-     * Limpia recursos del contexto de streaming en caso de error.
-     *
-     * @param context Contexto a limpiar
-     */
-    private void limpiarContextoStreaming(StreamingFormatoConverter.StreamingContext context) {
-        if (context != null) {
-            try {
-                streamingConverter.finalizarStreaming(context);
-            } catch (Exception e) {
-                log.warn("⚠️ Error limpiando contexto de streaming: {}", e.getMessage());
-            }
-        }
+        return headers;
     }
 
     /**
@@ -10,6 +10,8 @@ import org.springframework.jdbc.BadSqlGrammarException;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.transito_seguro.component.QueryAnalyzer;
+import org.transito_seguro.component.MetricasConsulta;
+import org.transito_seguro.component.RegistroEjecutores;
 import org.transito_seguro.dto.ParametrosFiltrosDTO;
 import org.transito_seguro.enums.TipoConsolidacion;
 import org.transito_seguro.model.EstimacionDataset;
@@ -22,7 +24,6 @@ import java.util.List;
 import java.util.Optional;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 
 /**
  * Servicio para análisis dinámico de queries con verificación de volumen.
@@ -44,6 +45,8 @@ public class QueryAnalisisService {
     private final QueryAnalyzer queryAnalyzer;
     private final  QueryRegistryService queryRegistryService;
     private final QueryExecutionService executionService;
+    private final RegistroEjecutores registroEjecutores;
+    private final MetricasConsulta metricasConsulta;
 
     /**
      * Analiza una query y determina la estrategia óptima ejecutando
@@ -117,9 +120,8 @@ public class QueryAnalisisService {
             String nombreQuery) {
 
         // Ejecutar COUNT(*) en paralelo para todas las provincias
-        List<Integer> conteos = repositories.parallelStream()
-                .map(repo -> obtenerConteoReal(repo, nombreQuery))
-                .collect(Collectors.toList());
+        List<Integer> conteos = registroEjecutores.enCadaProvincia(repositories,
+                repo -> obtenerConteoReal(repo, nombreQuery));
 
         // Calcular estadísticas
         int totalEstimado = conteos.stream().mapToInt(Integer::intValue).sum();
@@ -148,7 +150,10 @@ public class QueryAnalisisService {
 
             String queryOriginal = queryStorage.getSqlQuery();
             String queryConteo = construirQueryConteo(queryOriginal);
+            long inicioConteo = System.nanoTime();
             Integer conteoReal = repo.ejecutarQueryConteoDesdeSQL(queryConteo);
+            metricasConsulta.registrarConteo(nombreQuery, repo.getProvincia(),
+                    conteoReal != null ? conteoReal : 0, System.nanoTime() - inicioConteo);
 
             log.info("🔍 Conteo REAL para {}: {} registros (estimación previa: {})",
                     repo.getProvincia(),
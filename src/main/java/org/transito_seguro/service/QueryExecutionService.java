@@ -6,6 +6,8 @@ import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
 import org.transito_seguro.component.ParametrosProcessor;
+import org.transito_seguro.component.MetricasConsulta;
+import org.transito_seguro.component.RegistroEjecutores;
 import org.transito_seguro.dto.ParametrosFiltrosDTO;
 import org.transito_seguro.model.EstimacionDataset;
 import org.transito_seguro.model.query.QueryResult;
@@ -14,7 +16,6 @@ import org.transito_seguro.repository.impl.InfraccionesRepositoryImpl;
 
 import java.util.List;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 /**
  * Servicio para ejecutar queries SQL en repositorios de provincias.
@@ -37,6 +38,8 @@ public class QueryExecutionService {
 
     private final ParametrosProcessor parametrosProcessor;
     private final QueryRegistryService queryRegistryService;
+    private final RegistroEjecutores registroEjecutores;
+    private final MetricasConsulta metricasConsulta;
 
     /**
      * Estima el tamaño total del dataset ejecutando COUNT(*) en todas las provincias.
@@ -52,17 +55,16 @@ public class QueryExecutionService {
         log.debug("Estimando dataset para query: {}", nombreQuery);
 
         // Ejecutar COUNT(*) en paralelo para todas las provincias
-        List<Integer> conteos = repositories.parallelStream()
-                .map(repo -> obtenerConteoReal(repo, nombreQuery))
-                .collect(Collectors.toList());
+        List<Integer> conteos = registroEjecutores.enCadaProvincia(repositories,
+                repo -> obtenerConteoReal(repo, nombreQuery));
 
         // Calcular estadísticas
         int totalEstimado = conteos.stream().mapToInt(Integer::intValue).sum();
         double promedio = repositories.isEmpty() ? 0 : (double) totalEstimado / repositories.size();
         int maximo = conteos.stream().mapToInt(Integer::intValue).max().orElse(0);
 
-        log.info("Estimación completada - Total: {}, Promedio: {:.0f}, Máximo: {}",
-                totalEstimado, promedio, maximo);
+        log.info("Estimación completada - Total: {}, Promedio: {}, Máximo: {}",
+                totalEstimado, String.format("%.0f", promedio), maximo);
 
         return new EstimacionDataset(totalEstimado, promedio, maximo);
     }
@@ -84,7 +86,10 @@ public class QueryExecutionService {
             String queryConteo = construirQueryConteo(nombreQuery);
 
             // Ejecutar COUNT(*) directamente
+            long inicioConteo = System.nanoTime();
             Integer conteoReal = repo.ejecutarQueryConteoDesdeSQL(queryConteo);
+            metricasConsulta.registrarConteo(nombreQuery, repo.getProvincia(),
+                    conteoReal != null ? conteoReal : 0, System.nanoTime() - inicioConteo);
 
             log.debug("Conteo REAL para {}: {} registros (estimación previa: {})",
                     repo.getProvincia(),
@@ -2,19 +2,37 @@ package org.transito_seguro.utils;
 
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.util.StreamUtils;
 import org.transito_seguro.dto.ParametrosFiltrosDTO;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.sql.Types;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class SqlUtils {
 
     // Cache para queries cargadas
     private static final Map<String, String> queryCache = new ConcurrentHashMap<>();
 
+    /** Construcciones que agregan o combinan filas (en cualquier nivel de la query) */
+    private static final Pattern AGREGACION = Pattern.compile(
+            "\\b(GROUP\\s+BY|DISTINCT|HAVING|UNION|INTERSECT|EXCEPT|OVER\\s*\\()", Pattern.CASE_INSENSITIVE);
+
+    /** Lado izquierdo de una comparación por día: DATE(columna) o expresion::DATE */
+    private static final String EXPRESION_DIA = "(?:\\bDATE\\s*\\([^()]*\\)|::\\s*DATE\\b)\\s*";
+
+    /** Cast del parámetro a día, ej: ":fechaInicio::DATE" */
+    private static final String PARAMETRO_DIA = "\\s*::\\s*DATE\\b";
+
     /**
      * Carga una query desde el sistema de archivos con cache
      */
@@ -91,4 +109,318 @@ public class SqlUtils {
         }
         return queries;
     }
+
+    /**
+     * Prepara una query para usarse como subconsulta: remueve el punto y coma final
+     * y las cláusulas ORDER BY / LIMIT / OFFSET del nivel más externo.
+     *
+     * @param query Query SQL original
+     * @return Query sin ordenamiento ni paginación externa
+     */
+    public static String limpiarParaSubconsulta(String query) {
+        String queryLimpia = query.trim();
+
+        if (queryLimpia.endsWith(";")) {
+            queryLimpia = queryLimpia.substring(0, queryLimpia.length() - 1).trim();
+        }
+
+        queryLimpia = removerClausulaExterna(queryLimpia, "ORDER BY");
+        queryLimpia = removerClausulaExterna(queryLimpia, "LIMIT");
+        queryLimpia = removerClausulaExterna(queryLimpia, "OFFSET");
+
+        return queryLimpia.trim();
+    }
+
+    /**
+     * @return true si la query tiene la cláusula (ej: "ORDER BY") en su nivel más externo
+     */
+    public static boolean tieneClausulaExterna(String query, String clausula) {
+        String limpia = query.trim();
+        return !removerClausulaExterna(limpia, clausula).equals(limpia);
+    }
+
+    /**
+     * Detecta queries cuyas filas no son filas de una tabla base: GROUP BY,
+     * DISTINCT, HAVING, UNION/INTERSECT/EXCEPT o funciones de ventana, en
+     * cualquier nivel. Un filtro sobre su resultado no puede usar índices.
+     * Es conservadora: una de esas palabras en un comentario también cuenta.
+     */
+    public static boolean agregaFilas(String query) {
+        return AGREGACION.matcher(query).find();
+    }
+
+    /**
+     * Indica si la query filtra {@code :inicio} y {@code :fin} como días
+     * inclusivos, de la forma del reporte general:
+     * <pre>
+     * DATE(x) &gt;= :inicio::DATE  ...  DATE(x) &lt;= :fin::DATE
+     * </pre>
+     * (también {@code x::DATE} a la izquierda y {@code :p::DATE IS NULL}).
+     * Cualquier otra aparición de los parámetros (timestamp sin truncar, fin
+     * exclusivo con &lt;, sin cast) la descarta: partir el rango en días solo
+     * es exacto si cada fila cae en un único día del filtro.
+     *
+     * @param query Query SQL
+     * @param inicio Nombre del parámetro de inicio (sin ":")
+     * @param fin Nombre del parámetro de fin (sin ":")
+     */
+    public static boolean filtraDiasInclusivos(String query, String inicio, String fin) {
+        return todasComparanDia(query, inicio, ">=") && todasComparanDia(query, fin, "<=");
+    }
+
+    private static boolean todasComparanDia(String query, String parametro, String operador) {
+        String nombre = ":" + Pattern.quote(parametro) + "\\b";
+        int total = contar(query, "(?<!:)" + nombre);
+        int comparaciones = contar(query, EXPRESION_DIA + Pattern.quote(operador) + "\\s*" + nombre + PARAMETRO_DIA);
+        int nulos = contar(query, nombre + PARAMETRO_DIA + "\\s+IS\\s+(?:NOT\\s+)?NULL\\b");
+        return comparaciones > 0 && comparaciones + nulos == total;
+    }
+
+    private static int contar(String texto, String regex) {
+        Matcher matcher = Pattern.compile(regex, Pattern.CASE_INSENSITIVE).matcher(texto);
+        int cantidad = 0;
+        while (matcher.find()) {
+            cantidad++;
+        }
+        return cantidad;
+    }
+
+    /**
+     * Remueve una cláusula (y todo lo que la sigue) solo si está en el nivel
+     * más externo de la query, es decir, fuera de paréntesis.
+     *
+     * @param query Query SQL
+     * @param clausula Cláusula a remover (ej: "ORDER BY", "LIMIT")
+     * @return Query truncada antes de la cláusula, o la misma query si no existe
+     */
+    public static String removerClausulaExterna(String query, String clausula) {
+        int nivelParentesis = 0;
+        int posClausula = -1;
+        String upper = query.toUpperCase();
+        String clausulaUpper = clausula.toUpperCase();
+
+        // Recorrer desde el final hacia el inicio
+        for (int i = query.length() - 1; i >= 0; i--) {
+            char c = query.charAt(i);
+
+            // Actualizar nivel de paréntesis (invertido porque vamos hacia atrás)
+            if (c == ')') {
+                nivelParentesis++;
+            } else if (c == '(') {
+                nivelParentesis--;
+            }
+
+            // Buscar la cláusula solo en nivel 0 (fuera de paréntesis)
+            if (nivelParentesis == 0 && i >= clausulaUpper.length()) {
+                boolean coincide = true;
+                for (int j = 0; j < clausulaUpper.length(); j++) {
+                    if (upper.charAt(i - clausulaUpper.length() + j) != clausulaUpper.charAt(j)) {
+                        coincide = false;
+                        break;
+                    }
+                }
+
+                if (coincide) {
+                    // Verificar que sea límite de palabra (no parte de otra palabra)
+                    int posInicio = i - clausulaUpper.length();
+                    boolean esLimitePalabra = true;
+
+                    if (posInicio > 0 && Character.isLetterOrDigit(query.charAt(posInicio - 1))) {
+                        esLimitePalabra = false;
+                    }
+
+                    if (i < query.length() && Character.isLetterOrDigit(query.charAt(i))) {
+                        esLimitePalabra = false;
+                    }
+
+                    if (esLimitePalabra) {
+                        posClausula = posInicio;
+                        break;
+                    }
+                }
+            }
+        }
+
+        if (posClausula >= 0) {
+            return query.substring(0, posClausula).trim();
+        }
+
+        return query;
+    }
+
+    /**
+     * Reemplaza los parámetros nombrados (:nombre) por literales SQL.
+     *
+     * Necesario para sentencias que PostgreSQL no permite parametrizar, como
+     * COPY (...) TO STDOUT. Respeta literales entre comillas, identificadores
+     * entre comillas dobles, comentarios y casts (::TIPO). Los valores se
+     * escapan con literal(); los casts explícitos de la query se conservan.
+     *
+     * @param sql SQL con parámetros nombrados
+     * @param parametros Valores de los parámetros
+     * @return SQL sin parámetros
+     * @throws IllegalArgumentException si falta un parámetro o su tipo no se puede convertir
+     */
+    public static String inlinearParametros(String sql, SqlParameterSource parametros) {
+        StringBuilder resultado = new StringBuilder(sql.length() + 256);
+        int i = 0;
+
+        while (i < sql.length()) {
+            char c = sql.charAt(i);
+
+            // Literales, identificadores citados y comentarios se copian tal cual
+            int fin = finDeBloqueIgnorado(sql, i);
+            if (fin > i) {
+                resultado.append(sql, i, fin);
+                i = fin;
+                continue;
+            }
+
+            // Cast ::TIPO
+            if (c == ':' && i + 1 < sql.length() && sql.charAt(i + 1) == ':') {
+                resultado.append("::");
+                i += 2;
+                continue;
+            }
+
+            if (c == ':' && i + 1 < sql.length() && esInicioNombre(sql.charAt(i + 1))
+                    && (i == 0 || !Character.isLetterOrDigit(sql.charAt(i - 1)) && sql.charAt(i - 1) != '_')) {
+                int finNombre = i + 1;
+                while (finNombre < sql.length()
+                        && (Character.isLetterOrDigit(sql.charAt(finNombre)) || sql.charAt(finNombre) == '_')) {
+                    finNombre++;
+                }
+
+                String nombre = sql.substring(i + 1, finNombre);
+                if (!parametros.hasValue(nombre)) {
+                    throw new IllegalArgumentException("Parámetro sin valor: " + nombre);
+                }
+
+                resultado.append(literal(parametros.getValue(nombre), parametros.getSqlType(nombre)));
+                i = finNombre;
+                continue;
+            }
+
+            resultado.append(c);
+            i++;
+        }
+
+        return resultado.toString();
+    }
+
+    /**
+     * Convierte un valor a literal SQL de PostgreSQL.
+     *
+     * Strings como E'...' (escapando comillas y barras, independiente de
+     * standard_conforming_strings), arreglos y colecciones como ARRAY[...]
+     * y fechas como 'yyyy-MM-dd' (o con hora si el tipo no es DATE).
+     *
+     * @param valor Valor del parámetro
+     * @param sqlType Tipo JDBC declarado (SqlParameterSource.TYPE_UNKNOWN si no hay)
+     * @return Literal SQL
+     */
+    public static String literal(Object valor, int sqlType) {
+        if (valor == null) {
+            return "NULL";
+        }
+
+        if (valor instanceof Boolean) {
+            return (Boolean) valor ? "TRUE" : "FALSE";
+        }
+
+        if (valor instanceof Number) {
+            String numero = valor.toString();
+            if (!numero.matches("-?[0-9]+(\\.[0-9]+)?([eE][-+]?[0-9]+)?")) {
+                throw new IllegalArgumentException("Número no válido para literal SQL: " + numero);
+            }
+            return numero;
+        }
+
+        if (valor instanceof Date) {
+            String patron = sqlType == Types.DATE || valor instanceof java.sql.Date
+                    ? "yyyy-MM-dd" : "yyyy-MM-dd HH:mm:ss.SSS";
+            return "'" + new SimpleDateFormat(patron).format((Date) valor) + "'";
+        }
+
+        if (valor instanceof CharSequence || valor instanceof Character || valor instanceof Enum) {
+            String texto = valor instanceof Enum ? ((Enum<?>) valor).name() : valor.toString();
+            return "E'" + texto.replace("\\", "\\\\").replace("'", "''") + "'";
+        }
+
+        if (valor instanceof Object[]) {
+            return literalArreglo(Arrays.asList((Object[]) valor));
+        }
+
+        if (valor instanceof Collection) {
+            return literalArreglo((Collection<?>) valor);
+        }
+
+        throw new IllegalArgumentException("Tipo no soportado para literal SQL: " + valor.getClass().getName());
+    }
+
+    /**
+     * Identificador entre comillas dobles (ej: nombre de columna de un resultado).
+     */
+    public static String citarIdentificador(String identificador) {
+        return "\"" + identificador.replace("\"", "\"\"") + "\"";
+    }
+
+    private static String literalArreglo(Collection<?> valores) {
+        if (valores.isEmpty()) {
+            // Sin elementos no se puede inferir el tipo: la query castea el NULL
+            return "NULL";
+        }
+
+        StringBuilder arreglo = new StringBuilder("ARRAY[");
+        boolean primero = true;
+        for (Object elemento : valores) {
+            if (!primero) {
+                arreglo.append(", ");
+            }
+            arreglo.append(literal(elemento, SqlParameterSource.TYPE_UNKNOWN));
+            primero = false;
+        }
+        return arreglo.append("]").toString();
+    }
+
+    private static boolean esInicioNombre(char c) {
+        return Character.isLetter(c) || c == '_';
+    }
+
+    /**
+     * Si en la posición empieza un literal '...', un identificador "...", un
+     * comentario -- o un comentario de bloque, devuelve la posición donde
+     * termina; si no, devuelve la misma posición.
+     */
+    private static int finDeBloqueIgnorado(String sql, int inicio) {
+        char c = sql.charAt(inicio);
+
+        if (c == '\'' || c == '"') {
+            int i = inicio + 1;
+            while (i < sql.length()) {
+                if (sql.charAt(i) == c) {
+                    // Comilla duplicada = comilla escapada
+                    if (i + 1 < sql.length() && sql.charAt(i + 1) == c) {
+                        i += 2;
+                        continue;
+                    }
+                    return i + 1;
+                }
+                i++;
+            }
+            return sql.length();
+        }
+
+        if (c == '-' && inicio + 1 < sql.length() && sql.charAt(inicio + 1) == '-') {
+            int fin = sql.indexOf('\n', inicio);
+            return fin >= 0 ? fin : sql.length();
+        }
+
+        if (c == '/' && inicio + 1 < sql.length() && sql.charAt(inicio + 1) == '*') {
+            int fin = sql.indexOf("*/", inicio + 2);
+            return fin >= 0 ? fin + 2 : sql.length();
+        }
+
+        return inicio;
+    }
 }
\ No newline at end of file